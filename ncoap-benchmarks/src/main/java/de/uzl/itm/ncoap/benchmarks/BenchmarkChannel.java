@@ -0,0 +1,107 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.benchmarks;
+
+import de.uzl.itm.ncoap.communication.AbstractCoapChannelHandler;
+import org.jboss.netty.channel.*;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Map;
+
+/**
+ * A {@link Channel} without any network I/O for the dispatching benchmarks. All downstream events reaching the
+ * {@link ChannelSink} are immediately completed successfully, i.e. written messages are simply discarded.
+ */
+class BenchmarkChannel extends AbstractChannel {
+
+    static final InetSocketAddress LOCAL_SOCKET = new InetSocketAddress("127.0.0.1", 5683);
+
+    private final ChannelConfig config;
+
+    private BenchmarkChannel(ChannelPipeline pipeline) {
+        super(null, null, pipeline, new DiscardingChannelSink());
+        this.config = new DefaultChannelConfig();
+    }
+
+    /**
+     * Creates a new {@link BenchmarkChannel} with a {@link ChannelPipeline} containing the given handlers (in the
+     * given order). The {@link ChannelHandlerContext} of all {@link AbstractCoapChannelHandler}s is set accordingly.
+     *
+     * @param handlers the {@link ChannelHandler}s to be added to the pipeline
+     *
+     * @return the new {@link BenchmarkChannel}
+     */
+    static BenchmarkChannel create(ChannelHandler... handlers) {
+        ChannelPipeline pipeline = Channels.pipeline();
+        for (int i = 0; i < handlers.length; i++) {
+            pipeline.addLast("handler-" + i, handlers[i]);
+        }
+
+        BenchmarkChannel channel = new BenchmarkChannel(pipeline);
+
+        for (Map.Entry<String, ChannelHandler> entry : pipeline.toMap().entrySet()) {
+            if (entry.getValue() instanceof AbstractCoapChannelHandler) {
+                ((AbstractCoapChannelHandler) entry.getValue()).setContext(pipeline.getContext(entry.getKey()));
+            }
+        }
+
+        return channel;
+    }
+
+    @Override
+    public ChannelConfig getConfig() {
+        return this.config;
+    }
+
+    @Override
+    public boolean isBound() {
+        return true;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return true;
+    }
+
+    @Override
+    public SocketAddress getLocalAddress() {
+        return LOCAL_SOCKET;
+    }
+
+    @Override
+    public SocketAddress getRemoteAddress() {
+        return null;
+    }
+
+
+    private static class DiscardingChannelSink extends AbstractChannelSink {
+
+        @Override
+        public void eventSunk(ChannelPipeline pipeline, ChannelEvent event) {
+            event.getFuture().setSuccess();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.benchmarks;
+
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.SettableFuture;
+import de.uzl.itm.ncoap.application.server.resource.NotObservableWebresource;
+import de.uzl.itm.ncoap.application.server.resource.WrappedResourceStatus;
+import de.uzl.itm.ncoap.message.CoapMessage;
+import de.uzl.itm.ncoap.message.CoapRequest;
+import de.uzl.itm.ncoap.message.CoapResponse;
+import de.uzl.itm.ncoap.message.MessageCode;
+import de.uzl.itm.ncoap.message.options.ContentFormat;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Minimal {@link NotObservableWebresource} answering every request with its (plain text) status.
+ */
+class BenchmarkWebresource extends NotObservableWebresource<String> {
+
+    private byte[] etag;
+
+    BenchmarkWebresource(String path, String initialStatus, ScheduledExecutorService executor) {
+        super(path, initialStatus, 3600, executor);
+    }
+
+    @Override
+    public byte[] getEtag(long contentFormat) {
+        return this.etag;
+    }
+
+    @Override
+    public void updateEtag(String resourceStatus) {
+        this.etag = Ints.toByteArray(resourceStatus.hashCode());
+    }
+
+    @Override
+    public void shutdown() {
+        // nothing to do...
+    }
+
+    @Override
+    public void processCoapRequest(SettableFuture<CoapResponse> responseFuture, CoapRequest coapRequest,
+                                   InetSocketAddress remoteSocket) {
+
+        WrappedResourceStatus status = getWrappedResourceStatus(ContentFormat.TEXT_PLAIN_UTF8);
+        CoapResponse coapResponse = new CoapResponse(coapRequest.getMessageType(), MessageCode.CONTENT_205);
+        coapResponse.setContent(status.getContent(), status.getContentFormat());
+        coapResponse.setEtag(status.getEtag());
+        coapResponse.setMaxAge(status.getMaxAge());
+        responseFuture.set(coapResponse);
+    }
+
+    @Override
+    public byte[] getSerializedResourceStatus(long contentFormat) {
+        if (contentFormat == ContentFormat.TEXT_PLAIN_UTF8) {
+            return getResourceStatus().getBytes(CoapMessage.CHARSET);
+        } else {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.benchmarks;
+
+import de.uzl.itm.ncoap.communication.codec.CoapMessageDecoder;
+import de.uzl.itm.ncoap.communication.codec.CoapMessageEncoder;
+import de.uzl.itm.ncoap.communication.codec.HeaderDecodingException;
+import de.uzl.itm.ncoap.communication.codec.OptionCodecException;
+import de.uzl.itm.ncoap.communication.dispatching.Token;
+import de.uzl.itm.ncoap.message.*;
+import de.uzl.itm.ncoap.message.options.ContentFormat;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the {@link CoapMessageEncoder} and the {@link CoapMessageDecoder} with several typical message
+ * shapes (see {@link Shape}).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    /**
+     * The message shapes to be encoded and decoded
+     */
+    public enum Shape {
+        EMPTY_ACK,
+        GET_URI_OPTIONS,
+        PAYLOAD_1K,
+        BLOCK2_RESPONSE
+    }
+
+    private static final InetSocketAddress REMOTE_SOCKET = new InetSocketAddress("127.0.0.1", 5683);
+
+    @Param
+    public Shape shape;
+
+    @Param({"false", "true"})
+    public boolean zeroCopy;
+
+    private CoapMessage coapMessage;
+    private byte[] encodedMessage;
+
+    private Encoder encoder;
+    private Decoder decoder;
+
+    @Setup
+    public void setup() throws Exception {
+        this.encoder = new Encoder();
+        this.decoder = new Decoder(this.zeroCopy);
+        this.coapMessage = createMessage(this.shape);
+
+        ChannelBuffer buffer = this.encoder.encode(this.coapMessage);
+        this.encodedMessage = new byte[buffer.readableBytes()];
+        buffer.readBytes(this.encodedMessage);
+    }
+
+    @Benchmark
+    public ChannelBuffer encode() throws Exception {
+        return this.encoder.encode(this.coapMessage);
+    }
+
+    /**
+     * Decodes a fresh copy of the encoded message (just like every received datagram comes in its own buffer). This
+     * is required as the decoder (if not in zero-copy mode) modifies the given buffer.
+     */
+    @Benchmark
+    public CoapMessage decode() throws Exception {
+        return this.decoder.decode(REMOTE_SOCKET, ChannelBuffers.copiedBuffer(this.encodedMessage));
+    }
+
+
+    static CoapMessage createMessage(Shape shape) throws Exception {
+        Token token = new Token(new byte[]{0x12, 0x34, 0x56, 0x78});
+
+        switch (shape) {
+            case EMPTY_ACK: {
+                return CoapMessage.createEmptyAcknowledgement(12345);
+            }
+
+            case GET_URI_OPTIONS: {
+                URI uri = new URI("coap://example.org:5683/sensors/building-4/floor-2/temperature?unit=celsius&id=17");
+                CoapRequest coapRequest = new CoapRequest(MessageType.CON, MessageCode.GET, uri);
+                coapRequest.setAccept(ContentFormat.APP_JSON);
+                coapRequest.setMessageID(12345);
+                coapRequest.setToken(token);
+                return coapRequest;
+            }
+
+            case PAYLOAD_1K: {
+                byte[] payload = new byte[1024];
+                Arrays.fill(payload, (byte) 'x');
+                CoapResponse coapResponse = new CoapResponse(MessageType.ACK, MessageCode.CONTENT_205);
+                coapResponse.setContent(payload, ContentFormat.TEXT_PLAIN_UTF8);
+                coapResponse.setMessageID(12345);
+                coapResponse.setToken(token);
+                return coapResponse;
+            }
+
+            case BLOCK2_RESPONSE: {
+                byte[] payload = new byte[64];
+                Arrays.fill(payload, (byte) 'x');
+                CoapResponse coapResponse = new CoapResponse(MessageType.ACK, MessageCode.CONTENT_205);
+                coapResponse.setEtag(new byte[]{1, 2, 3, 4});
+                coapResponse.setMaxAge(60);
+                coapResponse.setContent(payload, ContentFormat.TEXT_PLAIN_UTF8);
+                coapResponse.setBlock2(3, true, 2);
+                coapResponse.setSize2(1024);
+                coapResponse.setMessageID(12345);
+                coapResponse.setToken(token);
+                return coapResponse;
+            }
+
+            default: {
+                throw new IllegalArgumentException("Unknown message shape: " + shape);
+            }
+        }
+    }
+
+
+    private static class Encoder extends CoapMessageEncoder {
+
+        @Override
+        public ChannelBuffer encode(CoapMessage coapMessage) throws OptionCodecException {
+            return super.encode(coapMessage);
+        }
+    }
+
+
+    private static class Decoder extends CoapMessageDecoder {
+
+        private Decoder(boolean zeroCopy) {
+            super(zeroCopy);
+        }
+
+        @Override
+        public CoapMessage decode(InetSocketAddress remoteSocket, ChannelBuffer buffer)
+                throws HeaderDecodingException, OptionCodecException {
+            return super.decode(remoteSocket, buffer);
+        }
+    }
+}
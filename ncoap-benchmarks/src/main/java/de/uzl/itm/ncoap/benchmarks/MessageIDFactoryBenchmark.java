@@ -0,0 +1,88 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.benchmarks;
+
+import de.uzl.itm.ncoap.communication.dispatching.Token;
+import de.uzl.itm.ncoap.communication.reliability.outbound.MessageIDFactory;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for the allocation of message IDs by the {@link MessageIDFactory}. The requests are spread over
+ * {@link #peers} different remote sockets. As allocated message IDs are only released after
+ * {@link MessageIDFactory#EXCHANGE_LIFETIME} seconds, the factory is re-created for every iteration and the
+ * iterations are kept short.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageIDFactoryBenchmark {
+
+    @Param({"1", "1000", "10000"})
+    public int peers;
+
+    private InetSocketAddress[] remoteSockets;
+    private Token token;
+
+    private ScheduledThreadPoolExecutor executor;
+    private HashedWheelTimer timer;
+    private MessageIDFactory messageIDFactory;
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        this.remoteSockets = new InetSocketAddress[this.peers];
+        for (int i = 0; i < this.peers; i++) {
+            this.remoteSockets[i] = new InetSocketAddress("10.0." + (i >> 8 & 0xFF) + "." + (i & 0xFF), 5683);
+        }
+        this.token = new Token(new byte[]{1, 2, 3, 4});
+    }
+
+    @Setup(Level.Iteration)
+    public void setupIteration() {
+        this.executor = new ScheduledThreadPoolExecutor(1);
+        this.timer = new HashedWheelTimer();
+        this.messageIDFactory = new MessageIDFactory(this.executor, this.timer);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDownIteration() {
+        this.messageIDFactory.shutdown();
+        this.timer.stop();
+        this.executor.shutdownNow();
+    }
+
+    @Benchmark
+    public int getNextMessageID(Cursor cursor) {
+        InetSocketAddress remoteSocket = this.remoteSockets[cursor.next(this.peers)];
+        return this.messageIDFactory.getNextMessageID(remoteSocket, this.token);
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.benchmarks;
+
+import de.uzl.itm.ncoap.communication.dispatching.Token;
+import de.uzl.itm.ncoap.communication.dispatching.server.NotFoundHandler;
+import de.uzl.itm.ncoap.communication.dispatching.server.RequestDispatcher;
+import de.uzl.itm.ncoap.message.CoapRequest;
+import de.uzl.itm.ncoap.message.MessageCode;
+import de.uzl.itm.ncoap.message.MessageType;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for the routing of inbound {@link CoapRequest}s by the {@link RequestDispatcher}, i.e. the lookup of the
+ * addressed resource, the processing of the request and the writing of the response. The requests address
+ * {@link #resources} different registered resources in round robin order. Every tenth request addresses a
+ * non-existing resource (to be answered by the {@link NotFoundHandler}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestDispatcherBenchmark {
+
+    private static final InetSocketAddress REMOTE_SOCKET = new InetSocketAddress("127.0.0.1", 5684);
+
+    @Param({"10", "10000"})
+    public int resources;
+
+    private DirectScheduledExecutorService executor;
+    private RequestDispatcher requestDispatcher;
+    private CoapRequest[] coapRequests;
+
+    @Setup
+    public void setup() throws Exception {
+        this.executor = new DirectScheduledExecutorService();
+        NotFoundHandler notFoundHandler = NotFoundHandler.getDefault();
+        this.requestDispatcher = new RequestDispatcher(notFoundHandler, this.executor);
+        notFoundHandler.setRequestDispatcher(this.requestDispatcher);
+        BenchmarkChannel.create(this.requestDispatcher);
+
+        for (int i = 0; i < this.resources; i++) {
+            String path = "/resource/" + i;
+            this.requestDispatcher.registerWebresource(new BenchmarkWebresource(path, "Status " + i, this.executor));
+        }
+
+        this.coapRequests = new CoapRequest[this.resources + this.resources / 10];
+        for (int i = 0; i < this.coapRequests.length; i++) {
+            String path = i < this.resources ? "/resource/" + i : "/unknown/" + i;
+            URI uri = new URI("coap", null, "localhost", -1, path, null, null);
+            CoapRequest coapRequest = new CoapRequest(MessageType.NON, MessageCode.GET, uri);
+            coapRequest.setMessageID(i % 65536);
+            coapRequest.setToken(new Token(new byte[]{(byte) (i >> 8), (byte) i}));
+            this.coapRequests[i] = coapRequest;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.executor.shutdown();
+    }
+
+    @Benchmark
+    public boolean dispatchRequest(Cursor cursor) {
+        CoapRequest coapRequest = this.coapRequests[cursor.next(this.coapRequests.length)];
+        return this.requestDispatcher.handleInboundCoapMessage(coapRequest, REMOTE_SOCKET);
+    }
+}
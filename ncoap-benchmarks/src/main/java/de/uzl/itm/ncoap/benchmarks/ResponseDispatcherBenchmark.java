@@ -0,0 +1,108 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.benchmarks;
+
+import de.uzl.itm.ncoap.application.client.ClientCallback;
+import de.uzl.itm.ncoap.communication.dispatching.Token;
+import de.uzl.itm.ncoap.communication.dispatching.client.ResponseDispatcher;
+import de.uzl.itm.ncoap.communication.dispatching.client.TokenFactory;
+import de.uzl.itm.ncoap.communication.events.MessageIDAssignedEvent;
+import de.uzl.itm.ncoap.communication.events.ResetReceivedEvent;
+import de.uzl.itm.ncoap.message.CoapRequest;
+import de.uzl.itm.ncoap.message.CoapResponse;
+import de.uzl.itm.ncoap.message.MessageCode;
+import de.uzl.itm.ncoap.message.MessageType;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the {@link ClientCallback} registry of the {@link ResponseDispatcher}. The registry is populated
+ * with {@link #callbacks} callbacks of ongoing requests. {@link #lookupCallback(Cursor)} measures the lookup of a
+ * callback (as done for every inbound response or internal event) while {@link #registerAndRemoveCallback()}
+ * measures a complete life cycle, i.e. token allocation, registration, removal and token release.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseDispatcherBenchmark {
+
+    private static final InetSocketAddress REMOTE_SOCKET = new InetSocketAddress("127.0.0.1", 5684);
+
+    @Param({"100", "10000"})
+    public int callbacks;
+
+    private DirectScheduledExecutorService executor;
+    private ResponseDispatcher responseDispatcher;
+    private ClientCallback callback;
+    private URI uri;
+    private Token[] tokens;
+
+    @Setup
+    public void setup() throws Exception {
+        this.executor = new DirectScheduledExecutorService();
+        this.responseDispatcher = new ResponseDispatcher(this.executor, new TokenFactory());
+        BenchmarkChannel.create(this.responseDispatcher);
+
+        this.callback = new ClientCallback() {
+            @Override
+            public void processCoapResponse(CoapResponse coapResponse) {
+                // nothing to do...
+            }
+        };
+
+        this.uri = new URI("coap", null, "localhost", -1, "/resource", null, null);
+        this.tokens = new Token[this.callbacks];
+        for (int i = 0; i < this.callbacks; i++) {
+            // the request is sent synchronously, i.e. the token is set afterwards
+            CoapRequest coapRequest = new CoapRequest(MessageType.CON, MessageCode.GET, this.uri);
+            this.responseDispatcher.sendCoapRequest(coapRequest, REMOTE_SOCKET, this.callback);
+            this.tokens[i] = coapRequest.getToken();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.executor.shutdown();
+    }
+
+    @Benchmark
+    public void lookupCallback(Cursor cursor) {
+        Token token = this.tokens[cursor.next(this.callbacks)];
+        this.responseDispatcher.handleEvent(new MessageIDAssignedEvent(REMOTE_SOCKET, 1, token));
+    }
+
+    @Benchmark
+    public void registerAndRemoveCallback() {
+        CoapRequest coapRequest = new CoapRequest(MessageType.CON, MessageCode.GET, this.uri);
+        this.responseDispatcher.sendCoapRequest(coapRequest, REMOTE_SOCKET, this.callback);
+        this.responseDispatcher.handleEvent(new ResetReceivedEvent(REMOTE_SOCKET, 1, coapRequest.getToken()));
+    }
+}
@@ -27,18 +27,29 @@ package de.uzl.itm.ncoap.application;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import de.uzl.itm.ncoap.communication.AbstractCoapChannelHandler;
+import de.uzl.itm.ncoap.communication.codec.CoapMessageEncoder;
 import org.jboss.netty.bootstrap.ConnectionlessBootstrap;
-import org.jboss.netty.channel.ChannelFactory;
-import org.jboss.netty.channel.ChannelHandler;
-import org.jboss.netty.channel.ChannelHandlerContext;
-import org.jboss.netty.channel.FixedReceiveBufferSizePredictor;
+import org.jboss.netty.buffer.ChannelBufferFactory;
+import org.jboss.netty.channel.*;
 import org.jboss.netty.channel.socket.DatagramChannel;
+import org.jboss.netty.channel.socket.DatagramChannelFactory;
+import org.jboss.netty.channel.socket.nio.NioDatagramChannel;
 import org.jboss.netty.channel.socket.nio.NioDatagramChannelFactory;
 import org.jboss.netty.channel.socket.oio.OioDatagramChannelFactory;
+import org.jboss.netty.util.HashedWheelTimer;
 import org.jboss.netty.util.ThreadNameDeterminer;
 import org.jboss.netty.util.ThreadRenamingRunnable;
+import org.jboss.netty.util.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.lang.reflect.Method;
 import java.net.InetSocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.*;
 
 /**
@@ -49,8 +60,14 @@ import java.util.concurrent.*;
  */
 public abstract class AbstractCoapApplication {
 
+    private static Logger LOG = LoggerFactory.getLogger(AbstractCoapApplication.class.getName());
+
+    // StandardSocketOptions.SO_REUSEPORT is available since Java 9 (null if not available)
+    private static final SocketOption<Boolean> SO_REUSEPORT = getReusePortOption();
+
     /**
-     * {@value #RECEIVE_BUFFER_SIZE}
+     * The default maximum size of inbound datagrams ({@value #RECEIVE_BUFFER_SIZE}), i.e. the maximum size of a UDP
+     * payload
      */
     public static final int RECEIVE_BUFFER_SIZE = 65536;
 
@@ -59,19 +76,48 @@ public abstract class AbstractCoapApplication {
      */
     public static final int NOT_BOUND = -1;
 
+    /**
+     * The duration of a tick (in milliseconds) of the default {@link HashedWheelTimer} ({@value #TIMER_TICK_MILLIS})
+     */
+    public static final int TIMER_TICK_MILLIS = 10;
+
+    /**
+     * The number of ticks per wheel of the default {@link HashedWheelTimer} ({@value #TIMER_TICKS_PER_WHEEL})
+     */
+    public static final int TIMER_TICKS_PER_WHEEL = 512;
+
     private ScheduledThreadPoolExecutor executor;
-    private DatagramChannel channel;
+    private Timer timer;
+    private List<DatagramChannel> channels;
+    private int maxDatagramSize;
     private String applicationName;
 
 
     /**
-     * Creates a new instance of {@link AbstractCoapApplication}.
+     * Creates a new instance of {@link AbstractCoapApplication} using a {@link HashedWheelTimer} (with a tick
+     * duration of {@link #TIMER_TICK_MILLIS} milliseconds) to schedule retransmissions and other delayed tasks.
      *
      * @param applicationName the given name of this application (for logging only)
      */
     protected AbstractCoapApplication(String applicationName) {
+        this(applicationName, new HashedWheelTimer(
+                new ThreadFactoryBuilder().setNameFormat(applicationName + " Timer #%d").build(),
+                TIMER_TICK_MILLIS, TimeUnit.MILLISECONDS, TIMER_TICKS_PER_WHEEL
+        ));
+    }
+
+    /**
+     * Creates a new instance of {@link AbstractCoapApplication}.
+     *
+     * @param applicationName the given name of this application (for logging only)
+     * @param timer the {@link Timer} to schedule retransmissions and other delayed tasks. Expired tasks are
+     *              executed by the I/O threads of this application, not by the thread(s) of the {@link Timer}.
+     */
+    protected AbstractCoapApplication(String applicationName, Timer timer) {
 
         this.applicationName = applicationName;
+        this.timer = timer;
+        this.maxDatagramSize = RECEIVE_BUFFER_SIZE;
 
         ThreadFactory threadFactory =
                 new ThreadFactoryBuilder().setNameFormat(applicationName + " I/O Worker #%d").build();
@@ -90,35 +136,133 @@ public abstract class AbstractCoapApplication {
     }
 
     /**
-     * Starts this application
+     * Starts this application with a single socket
      *
      * @param pipelineFactory the {@link CoapChannelPipelineFactory} that creates the instances of
      * {@link AbstractCoapChannelHandler}s that deal with inbound and outbound messages
      * @param localSocket the socket address to be used for inbound and outbound messages
      */
     protected void startApplication(CoapChannelPipelineFactory pipelineFactory, InetSocketAddress localSocket) {
-        //ChannelFactory channelFactory = new NioDatagramChannelFactory(executor, executor.getCorePoolSize() / 2 );
-        ChannelFactory channelFactory = new NioDatagramChannelFactory(executor, 1 );
+        startApplication(pipelineFactory, localSocket, 1);
+    }
+
+    /**
+     * <p>Starts this application with the given number of sockets bound to the same socket address (using
+     * <code>SO_REUSEPORT</code>). Each socket is read by its own I/O thread, i.e. the receive path scales with the
+     * number of sockets. The kernel distributes inbound datagrams among the sockets based on a hash of the remote
+     * socket, i.e. all datagrams from the same remote socket are received by the same socket.</p>
+     *
+     * <p>All sockets share the same {@link AbstractCoapChannelHandler} instances, i.e. the state per remote endpoint
+     * (e.g. message IDs, duplicate detection, and observations) is the same for all sockets. Outbound messages are
+     * sent via the first socket (all sockets share the same local socket address).</p>
+     *
+     * <p><b>Note:</b> If <code>SO_REUSEPORT</code> is not supported by the platform (e.g. Java 7 or Windows), only a
+     * single socket is bound.</p>
+     *
+     * @param pipelineFactory the {@link CoapChannelPipelineFactory} that creates the instances of
+     * {@link AbstractCoapChannelHandler}s that deal with inbound and outbound messages
+     * @param localSocket the socket address to be used for inbound and outbound messages
+     * @param sockets the number of sockets to be bound to the given socket address
+     */
+    protected void startApplication(CoapChannelPipelineFactory pipelineFactory, InetSocketAddress localSocket,
+            int sockets) {
+
+        if (sockets < 1) {
+            throw new IllegalArgumentException("Number of sockets must be positive (was: " + sockets + ")");
+        } else if (sockets > 1 && SO_REUSEPORT == null) {
+            LOG.warn("SO_REUSEPORT not available. Bind a single socket instead of {}.", sockets);
+            sockets = 1;
+        }
+
+        // one I/O thread per socket (permanently occupied), i.e. add threads for additional sockets to keep the
+        // same number of threads for all other tasks as with a single socket
+        this.executor.setCorePoolSize(this.executor.getCorePoolSize() + sockets - 1);
+        DatagramChannelFactory channelFactory = new NioDatagramChannelFactory(executor, sockets);
 
-        //System.out.println("Threads: " + (executor.getCorePoolSize() - 1));
         //Create and configure bootstrap
         ConnectionlessBootstrap bootstrap = new ConnectionlessBootstrap(channelFactory);
         bootstrap.setPipelineFactory(pipelineFactory);
         bootstrap.setOption("receiveBufferSizePredictor",
-                new FixedReceiveBufferSizePredictor(RECEIVE_BUFFER_SIZE));
+                new FixedReceiveBufferSizePredictor(this.maxDatagramSize));
 
-        //Create datagram channel
-        this.channel = (DatagramChannel) bootstrap.bind(localSocket);
+        //Create datagram channel(s)
+        this.channels = new ArrayList<>(sockets);
+        if (sockets == 1) {
+            this.channels.add((DatagramChannel) bootstrap.bind(localSocket));
+        } else {
+            InetSocketAddress bindSocket = localSocket;
+            for (int i = 0; i < sockets; i++) {
+                DatagramChannel channel = bindReusePort(bootstrap, channelFactory, bindSocket);
+                this.channels.add(channel);
+                // bind all further sockets to the same port (relevant if the given port was 0)
+                bindSocket = new InetSocketAddress(localSocket.getAddress(), channel.getLocalAddress().getPort());
+            }
+            LOG.info("Bound {} sockets to {} (SO_REUSEPORT).", sockets, bindSocket);
+        }
 
-        // set the channel handler contexts
+        // set the channel handler contexts (all pipelines share the same handler instances)
         for (ChannelHandler handler : pipelineFactory.getChannelHandlers()) {
             if (handler instanceof AbstractCoapChannelHandler) {
-                ChannelHandlerContext context = this.channel.getPipeline().getContext(handler.getClass());
+                ChannelHandlerContext context = getChannel().getPipeline().getContext(handler.getClass());
                 ((AbstractCoapChannelHandler) handler).setContext(context);
             }
         }
     }
 
+
+    private DatagramChannel bindReusePort(ConnectionlessBootstrap bootstrap, DatagramChannelFactory channelFactory,
+            InetSocketAddress localSocket) {
+
+        DatagramChannel channel;
+        try {
+            channel = channelFactory.newChannel(bootstrap.getPipelineFactory().getPipeline());
+        } catch (Exception ex) {
+            throw new ChannelPipelineException("Failed to initialize a pipeline.", ex);
+        }
+
+        try {
+            channel.getConfig().setOptions(bootstrap.getOptions());
+            // NioDatagramChannel does not expose the underlying socket, so SO_REUSEPORT is set via reflection
+            Method method = NioDatagramChannel.class.getDeclaredMethod("getDatagramChannel");
+            method.setAccessible(true);
+            ((java.nio.channels.DatagramChannel) method.invoke(channel)).setOption(SO_REUSEPORT, true);
+        } catch (Exception ex) {
+            channel.close();
+            throw new ChannelException("Failed to enable SO_REUSEPORT.", ex);
+        }
+
+        ChannelFuture future = channel.bind(localSocket).awaitUninterruptibly();
+        if (!future.isSuccess()) {
+            future.getChannel().close();
+            throw new ChannelException("Failed to bind to: " + localSocket, future.getCause());
+        }
+        return channel;
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> getReusePortOption() {
+        try {
+            return (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+
+
+    /**
+     * Closes all {@link DatagramChannel}s of this application. The returned {@link ChannelFuture} is the close
+     * future of the {@link DatagramChannel} returned by {@link #getChannel()}, which is closed last.
+     *
+     * @return the close future of the {@link DatagramChannel} returned by {@link #getChannel()}
+     */
+    protected ChannelFuture closeChannels() {
+        for (DatagramChannel channel : this.channels.subList(1, this.channels.size())) {
+            channel.close().awaitUninterruptibly();
+        }
+        return getChannel().close();
+    }
+
     /**
      * Returns the local port number the {@link org.jboss.netty.channel.socket.DatagramChannel} of this
      * {@link de.uzl.itm.ncoap.application.client.CoapClient} is bound to or
@@ -130,7 +274,7 @@ public abstract class AbstractCoapApplication {
      */
     public int getPort() {
         try {
-            return this.channel.getLocalAddress().getPort();
+            return getChannel().getLocalAddress().getPort();
         } catch(Exception ex) {
             return NOT_BOUND;
         }
@@ -153,12 +297,105 @@ public abstract class AbstractCoapApplication {
 
 
     /**
-     * Returns the {@link DatagramChannel} instance this application uses to communicate with other endpoints
+     * Returns the {@link Timer} which is used by this {@link de.uzl.itm.ncoap.application.AbstractCoapApplication}
+     * to schedule retransmissions and other delayed tasks.
+     *
+     * @return the {@link Timer} which is used by this {@link de.uzl.itm.ncoap.application.AbstractCoapApplication}
+     * to schedule retransmissions and other delayed tasks.
+     */
+    public Timer getTimer() {
+        return this.timer;
+    }
+
+
+    /**
+     * <p>Sets the maximum size of inbound datagrams. Each I/O thread reads inbound datagrams into a single (re-used)
+     * direct buffer of (at least) this size. Only the actual datagram is then copied into a new buffer obtained from
+     * the {@link ChannelBufferFactory} (see {@link #setReceiveBufferFactory(ChannelBufferFactory)}), i.e. the given
+     * size does not affect the memory retained by inbound messages.</p>
+     *
+     * <p>Constrained devices may reduce the default ({@link #RECEIVE_BUFFER_SIZE}), e.g. to 1152 bytes, which is the
+     * recommended maximum size of CoAP messages (see RFC 7252, section 4.6).</p>
+     *
+     * <p><b>Note:</b> Datagrams larger than the given size are silently truncated by the operating system and thus
+     * most probably cause decoding errors.</p>
+     *
+     * @param maxDatagramSize the maximum size of inbound datagrams (in bytes)
+     */
+    public void setMaxDatagramSize(int maxDatagramSize) {
+        if (maxDatagramSize < 4 || maxDatagramSize > RECEIVE_BUFFER_SIZE) {
+            throw new IllegalArgumentException("Maximum datagram size must be between 4 and " +
+                    RECEIVE_BUFFER_SIZE + " (was: " + maxDatagramSize + ")");
+        }
+
+        this.maxDatagramSize = maxDatagramSize;
+        for (DatagramChannel channel : getChannels()) {
+            channel.getConfig().setReceiveBufferSizePredictor(new FixedReceiveBufferSizePredictor(maxDatagramSize));
+        }
+    }
+
+    /**
+     * Returns the maximum size of inbound datagrams (in bytes)
+     *
+     * @return the maximum size of inbound datagrams (in bytes)
+     */
+    public int getMaxDatagramSize() {
+        return this.maxDatagramSize;
+    }
+
+    /**
+     * <p>Sets the {@link ChannelBufferFactory} that provides the buffers for inbound datagrams. Each buffer is
+     * exactly of the size of the received datagram. The default is a
+     * {@link org.jboss.netty.buffer.HeapChannelBufferFactory}, i.e. a separate (heap) array per datagram.</p>
+     *
+     * <p>A {@link org.jboss.netty.buffer.DirectChannelBufferFactory} allocates the buffers as slices of pooled,
+     * pre-allocated direct memory chunks (the size of the chunks is the constructor parameter). This avoids heap
+     * allocations per datagram. However, as the payload of decoded messages is a slice of the received buffer,
+     * a chunk is not released before all messages (and payloads) sliced from it are.</p>
+     *
+     * @param bufferFactory the {@link ChannelBufferFactory} to provide the buffers for inbound datagrams
+     */
+    public void setReceiveBufferFactory(ChannelBufferFactory bufferFactory) {
+        for (DatagramChannel channel : getChannels()) {
+            channel.getConfig().setBufferFactory(bufferFactory);
+        }
+    }
+
+    /**
+     * <p>Sets the {@link ChannelBufferFactory} that provides the buffers for outbound (i.e. encoded) messages. Each
+     * buffer is exactly of the size of the encoded message. The default is a
+     * {@link org.jboss.netty.buffer.HeapChannelBufferFactory}.</p>
+     *
+     * <p>A {@link org.jboss.netty.buffer.DirectChannelBufferFactory} lets the encoder write into pre-allocated direct
+     * memory, i.e. the datagram is sent without copying it from the heap first.</p>
+     *
+     * @param bufferFactory the {@link ChannelBufferFactory} to provide the buffers for outbound messages
+     */
+    public void setEncoderBufferFactory(ChannelBufferFactory bufferFactory) {
+        for (DatagramChannel channel : getChannels()) {
+            channel.getPipeline().get(CoapMessageEncoder.class).setBufferFactory(bufferFactory);
+        }
+    }
+
+    /**
+     * Returns the {@link DatagramChannel} instance this application uses to communicate with other endpoints. If
+     * this application uses more than one socket, this is the one to send outbound messages.
      *
      * @return the {@link DatagramChannel} instance this application uses to communicate with other endpoints
      */
     public DatagramChannel getChannel() {
-        return this.channel;
+        return this.channels == null ? null : this.channels.get(0);
+    }
+
+    /**
+     * Returns all {@link DatagramChannel} instances this application uses to receive messages (i.e. more than one
+     * if this application was started with multiple sockets using <code>SO_REUSEPORT</code>)
+     *
+     * @return an unmodifiable {@link List} of all {@link DatagramChannel} instances of this application
+     */
+    public List<DatagramChannel> getChannels() {
+        return this.channels == null ? Collections.<DatagramChannel>emptyList() :
+                Collections.unmodifiableList(this.channels);
     }
 
     /**
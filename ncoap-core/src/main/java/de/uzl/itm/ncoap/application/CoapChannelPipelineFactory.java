@@ -24,13 +24,13 @@
  */
 package de.uzl.itm.ncoap.application;
 
+import de.uzl.itm.ncoap.communication.PeerOrderedExecutionHandler;
 import de.uzl.itm.ncoap.communication.codec.CoapMessageDecoder;
 import de.uzl.itm.ncoap.communication.codec.CoapMessageEncoder;
 import org.jboss.netty.channel.ChannelHandler;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelPipelineFactory;
 import org.jboss.netty.channel.Channels;
-import org.jboss.netty.handler.execution.ExecutionHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -52,9 +52,9 @@ public abstract class CoapChannelPipelineFactory implements ChannelPipelineFacto
     protected CoapChannelPipelineFactory(ScheduledExecutorService executor) {
         this.channelHandlers = new LinkedHashSet<>();
 
-        addChannelHandler(new ExecutionHandler(executor));
+        addChannelHandler(new PeerOrderedExecutionHandler(executor));
         addChannelHandler(new CoapMessageEncoder());
-        addChannelHandler(new CoapMessageDecoder());
+        addChannelHandler(new CoapMessageDecoder(true));
      }
 
 
@@ -62,6 +62,23 @@ public abstract class CoapChannelPipelineFactory implements ChannelPipelineFacto
         this.channelHandlers.add(channelHandler);
     }
 
+    /**
+     * Adds the given {@link ChannelHandler} directly before the codec, i.e. the handler deals with encoded messages
+     * ({@link org.jboss.netty.buffer.ChannelBuffer}s) instead of {@link de.uzl.itm.ncoap.message.CoapMessage}s.
+     *
+     * @param channelHandler the {@link ChannelHandler} to be added
+     */
+    protected void addEncodedMessageHandler(ChannelHandler channelHandler) {
+        Set<ChannelHandler> handlers = new LinkedHashSet<>();
+        for (ChannelHandler handler : this.channelHandlers) {
+            if (handler instanceof CoapMessageEncoder) {
+                handlers.add(channelHandler);
+            }
+            handlers.add(handler);
+        }
+        this.channelHandlers = handlers;
+    }
+
     public Set<ChannelHandler> getChannelHandlers () {
         return this.channelHandlers;
     }
@@ -25,8 +25,10 @@
 package de.uzl.itm.ncoap.application.client;
 
 import de.uzl.itm.ncoap.application.CoapChannelPipelineFactory;
+import de.uzl.itm.ncoap.communication.AbstractCoapChannelHandler;
 import de.uzl.itm.ncoap.communication.blockwise.client.ClientBlock1Handler;
 import de.uzl.itm.ncoap.communication.blockwise.client.ClientBlock2Handler;
+import de.uzl.itm.ncoap.communication.caching.ClientCachingHandler;
 import de.uzl.itm.ncoap.communication.dispatching.client.ResponseDispatcher;
 import de.uzl.itm.ncoap.communication.dispatching.client.TokenFactory;
 import de.uzl.itm.ncoap.communication.identification.ClientIdentificationHandler;
@@ -36,6 +38,7 @@ import de.uzl.itm.ncoap.communication.reliability.outbound.ClientOutboundReliabi
 import de.uzl.itm.ncoap.communication.reliability.outbound.MessageIDFactory;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.socket.DatagramChannel;
+import org.jboss.netty.util.Timer;
 
 import java.util.concurrent.ScheduledExecutorService;
 
@@ -50,20 +53,49 @@ public class ClientChannelPipelineFactory extends CoapChannelPipelineFactory {
 
 
     /**
-     * Creates a new instance of {@link ClientChannelPipelineFactory}.
+     * Creates a new instance of {@link ClientChannelPipelineFactory} using the shared default {@link Timer}
+     * (see {@link AbstractCoapChannelHandler#getDefaultTimer()}).
      *
      * @param executor The {@link ScheduledExecutorService} to provide the thread(s) for I/O operations
+     *
+     * @deprecated use {@link #ClientChannelPipelineFactory(ScheduledExecutorService, Timer)} instead
      */
+    @Deprecated
     public ClientChannelPipelineFactory(ScheduledExecutorService executor) {
+        this(executor, AbstractCoapChannelHandler.getDefaultTimer());
+    }
+
+    /**
+     * Creates a new instance of {@link ClientChannelPipelineFactory}.
+     *
+     * @param executor The {@link ScheduledExecutorService} to provide the thread(s) for I/O operations
+     * @param timer the {@link Timer} to schedule retransmissions and other delayed tasks
+     */
+    public ClientChannelPipelineFactory(ScheduledExecutorService executor, Timer timer) {
+        this(executor, timer, 0);
+    }
+
+    /**
+     * Creates a new instance of {@link ClientChannelPipelineFactory}.
+     *
+     * @param executor The {@link ScheduledExecutorService} to provide the thread(s) for I/O operations
+     * @param timer the {@link Timer} to schedule retransmissions and other delayed tasks
+     * @param responseCacheSize the maximum number of bytes to be used for the {@link ClientCachingHandler}
+     *                          (<code>0</code> for no response cache)
+     */
+    public ClientChannelPipelineFactory(ScheduledExecutorService executor, Timer timer, long responseCacheSize) {
 
         super(executor);
         addChannelHandler(new ClientIdentificationHandler(executor));
-        addChannelHandler(new ClientOutboundReliabilityHandler(executor, new MessageIDFactory(executor)));
+        addChannelHandler(new ClientOutboundReliabilityHandler(executor, timer, new MessageIDFactory(executor, timer)));
         addChannelHandler(new ClientInboundReliabilityHandler(executor));
         addChannelHandler(new ClientBlock2Handler(executor));
         addChannelHandler(new ClientBlock1Handler(executor));
         addChannelHandler(new ClientObservationHandler(executor));
-        addChannelHandler(new ResponseDispatcher(executor, new TokenFactory()));
+        if (responseCacheSize > 0) {
+            addChannelHandler(new ClientCachingHandler(executor, responseCacheSize));
+        }
+        addChannelHandler(new ResponseDispatcher(executor, timer, new TokenFactory()));
     }
 
 }
@@ -24,9 +24,12 @@
  */
 package de.uzl.itm.ncoap.application.client;
 
+import com.google.common.util.concurrent.ListenableFuture;
 import de.uzl.itm.ncoap.application.AbstractCoapApplication;
 import de.uzl.itm.ncoap.communication.blockwise.BlockSize;
+import de.uzl.itm.ncoap.communication.caching.ClientCachingHandler;
 import de.uzl.itm.ncoap.communication.dispatching.client.ResponseDispatcher;
+import de.uzl.itm.ncoap.communication.reliability.outbound.ClientOutboundReliabilityHandler;
 import de.uzl.itm.ncoap.message.CoapMessage;
 import de.uzl.itm.ncoap.message.CoapRequest;
 import de.uzl.itm.ncoap.message.CoapResponse;
@@ -36,13 +39,17 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * An instance of {@link CoapClient} is the entry point to send {@link CoapMessage}s to a (remote)
  * server or proxy.
  * 
  * With {@link #sendCoapRequest(CoapRequest, InetSocketAddress, ClientCallback)} it e.g. provides an
- * easy-to-use method to write CoAP requests to a server.
+ * easy-to-use method to write CoAP requests to a server. Alternatively,
+ * {@link #sendCoapRequest(CoapRequest, InetSocketAddress, long, TimeUnit)} and
+ * {@link #sendAll(List, List, long, TimeUnit)} return {@link ListenableFuture}s to be set with the responses.
  * 
  * Furthermore, with {@link #sendCoapPing(java.net.InetSocketAddress, ClientCallback)} it provides a method to test
  * if a remote CoAP endpoint (i.e. the CoAP application and not only the host(!)) is alive.
@@ -93,9 +100,23 @@ public class CoapClient extends AbstractCoapApplication {
      * @param clientSocket the socket to send {@link CoapMessage}s
      */
     public CoapClient(String name, InetSocketAddress clientSocket) {
+        this(name, clientSocket, 0);
+    }
+
+    /**
+     * Creates a new instance of {@link CoapClient} with a response cache, i.e. responses on GET requests are
+     * cached according to their Max-Age and revalidated using their ETag (see {@link ClientCachingHandler}).
+     *
+     * @param name the name of the application (used for logging purposes)
+     * @param clientSocket the socket to send {@link CoapMessage}s
+     * @param responseCacheSize the maximum number of bytes to be used for cached responses (<code>0</code> for no
+     *                          response cache)
+     */
+    public CoapClient(String name, InetSocketAddress clientSocket, long responseCacheSize) {
         super(name);
 
-        ClientChannelPipelineFactory factory = new ClientChannelPipelineFactory(this.getExecutor());
+        ClientChannelPipelineFactory factory = new ClientChannelPipelineFactory(this.getExecutor(), this.getTimer(),
+                responseCacheSize);
         startApplication(factory, clientSocket);
 
         this.responseDispatcher = getChannel().getPipeline().get(ResponseDispatcher.class);
@@ -123,6 +144,80 @@ public class CoapClient extends AbstractCoapApplication {
     }
 
 
+    /**
+     * Sends a {@link de.uzl.itm.ncoap.message.CoapRequest} to the given remote endpoint and returns a
+     * {@link ListenableFuture} to be set with the (first) {@link CoapResponse}.
+     *
+     * If there is no response within the given time, the future fails with a
+     * {@link java.util.concurrent.TimeoutException}. Other failures (e.g. a transmission timeout or an RST) cause a
+     * {@link CoapRequestFailedException}. Cancelling the future, or reaching the deadline, stops pending
+     * retransmissions and releases the token of the request.
+     *
+     * @param coapRequest the {@link de.uzl.itm.ncoap.message.CoapRequest} to be sent
+     * @param remoteSocket the desired recipient of the given {@link de.uzl.itm.ncoap.message.CoapRequest}
+     * @param timeout the maximum time to wait for the response (or 0 for no deadline)
+     * @param unit the {@link TimeUnit} of the given timeout
+     *
+     * @return a {@link ListenableFuture} to be set with the {@link CoapResponse}
+     */
+    public ListenableFuture<CoapResponse> sendCoapRequest(CoapRequest coapRequest, InetSocketAddress remoteSocket,
+                                                          long timeout, TimeUnit unit) {
+        return this.responseDispatcher.sendCoapRequest(coapRequest, remoteSocket, timeout, unit);
+    }
+
+
+    /**
+     * Sends the given {@link de.uzl.itm.ncoap.message.CoapRequest}s (each to the remote endpoint at the same
+     * position of the given list of sockets) within a single task, i.e. with less overhead than sending each
+     * request with {@link #sendCoapRequest(CoapRequest, InetSocketAddress, long, TimeUnit)}.
+     *
+     * @param coapRequests the {@link de.uzl.itm.ncoap.message.CoapRequest}s to be sent
+     * @param remoteSockets the recipients of the requests (same size as the list of requests)
+     * @param timeout the maximum time to wait for each response (or 0 for no deadline)
+     * @param unit the {@link TimeUnit} of the given timeout
+     *
+     * @return a list of {@link ListenableFuture}s in the order of the given requests
+     */
+    public List<ListenableFuture<CoapResponse>> sendAll(List<CoapRequest> coapRequests,
+            List<InetSocketAddress> remoteSockets, long timeout, TimeUnit unit) {
+        return this.responseDispatcher.sendAll(coapRequests, remoteSockets, timeout, unit);
+    }
+
+
+    /**
+     * Enables or disables the coalescing of identical requests, i.e. a GET request (without observe option) that is
+     * identical to an ongoing request to the same remote endpoint is not sent but receives a copy of the response on
+     * the ongoing request (default: disabled).
+     *
+     * @param requestCoalescing <code>true</code> to enable request coalescing and <code>false</code> to disable it
+     */
+    public void setRequestCoalescing(boolean requestCoalescing) {
+        this.responseDispatcher.setRequestCoalescing(requestCoalescing);
+    }
+
+
+    /**
+     * Returns the {@link ClientCachingHandler} of this {@link CoapClient}, e.g. to retrieve the number of cache hits,
+     * or <code>null</code> if this client was created without response cache.
+     *
+     * @return the {@link ClientCachingHandler} of this {@link CoapClient} or <code>null</code> if there is none
+     */
+    public ClientCachingHandler getCachingHandler() {
+        return getChannel().getPipeline().get(ClientCachingHandler.class);
+    }
+
+
+    /**
+     * Returns the {@link ClientOutboundReliabilityHandler} of this {@link CoapClient}, e.g. to set the maximum
+     * number of outstanding confirmable messages per remote endpoint (NSTART) or to retrieve the queue depths.
+     *
+     * @return the {@link ClientOutboundReliabilityHandler} of this {@link CoapClient}
+     */
+    public ClientOutboundReliabilityHandler getReliabilityHandler() {
+        return getChannel().getPipeline().get(ClientOutboundReliabilityHandler.class);
+    }
+
+
     /**
      * Sends a CoAP PING, i.e. a {@link de.uzl.itm.ncoap.message.CoapMessage} with
      * {@link de.uzl.itm.ncoap.message.MessageType#CON} and
@@ -148,6 +243,18 @@ public class CoapClient extends AbstractCoapApplication {
     }
 
 
+    /**
+     * Sets the maximum number of {@link ClientCallback}s waiting for responses, i.e. open requests and running
+     * observations (default: {@link ResponseDispatcher#DEFAULT_MAX_CALLBACKS}). Further requests are not sent but
+     * their {@link ClientCallback} is notified via {@link ClientCallback#processMiscellaneousError(String)}.
+     *
+     * @param maxCallbacks the maximum number of {@link ClientCallback}s waiting for responses at a time
+     */
+    public void setMaxCallbacks(int maxCallbacks) {
+        this.responseDispatcher.setMaxCallbacks(maxCallbacks);
+    }
+
+
     /**
      * Shuts this {@link CoapClient} down by closing its
      * {@link org.jboss.netty.channel.socket.DatagramChannel} which includes to unbind
@@ -157,11 +264,12 @@ public class CoapClient extends AbstractCoapApplication {
     public final void shutdown() {
         LOG.warn("Start to shutdown " + this.getApplicationName() + " (Port : " + this.getPort() + ")");
 
-        getChannel().close().awaitUninterruptibly().addListener(new ChannelFutureListener() {
+        closeChannels().awaitUninterruptibly().addListener(new ChannelFutureListener() {
             @Override
             public void operationComplete(ChannelFuture future) throws Exception {
                 LOG.warn("Channel closed ({}).", CoapClient.this.getApplicationName());
                 getChannel().getFactory().releaseExternalResources();
+                getTimer().stop();
                 LOG.warn("External resources released ({}).", CoapClient.this.getApplicationName());
                 LOG.warn("Shutdown of " + getApplicationName() + " completed.");
             }
@@ -0,0 +1,58 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.application.client;
+
+import java.net.InetSocketAddress;
+
+/**
+ * A {@link CoapRequestFailedException} is the cause of the failure of a {@link com.google.common.util.concurrent
+ * .ListenableFuture} returned by {@link CoapClient#sendCoapRequest(de.uzl.itm.ncoap.message.CoapRequest,
+ * InetSocketAddress, long, java.util.concurrent.TimeUnit)} if no response was received, e.g. because of a
+ * transmission timeout or an RST from the remote endpoint.
+ */
+public class CoapRequestFailedException extends Exception {
+
+    private InetSocketAddress remoteSocket;
+
+    /**
+     * Creates a new instance of {@link CoapRequestFailedException}
+     *
+     * @param remoteSocket the {@link InetSocketAddress} of the recipient of the failed request
+     * @param message the description of the failure
+     */
+    public CoapRequestFailedException(InetSocketAddress remoteSocket, String message) {
+        super(message);
+        this.remoteSocket = remoteSocket;
+    }
+
+    /**
+     * Returns the {@link InetSocketAddress} of the recipient of the failed request
+     *
+     * @return the {@link InetSocketAddress} of the recipient of the failed request
+     */
+    public InetSocketAddress getRemoteSocket() {
+        return this.remoteSocket;
+    }
+}
@@ -30,6 +30,7 @@ import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
 import de.uzl.itm.ncoap.application.AbstractCoapApplication;
+import de.uzl.itm.ncoap.application.CoapChannelPipelineFactory;
 import de.uzl.itm.ncoap.application.server.CoapServer;
 import de.uzl.itm.ncoap.application.server.resource.Webresource;
 import de.uzl.itm.ncoap.application.client.ClientCallback;
@@ -129,13 +130,32 @@ public class CoapEndpoint extends AbstractCoapApplication {
     public CoapEndpoint(String applicationName, NotFoundHandler notFoundHandler, InetSocketAddress localSocket,
                         BlockSize maxBlock1Size, BlockSize maxBlock2Size) {
 
+        this(applicationName, notFoundHandler, localSocket, maxBlock1Size, maxBlock2Size, 1);
+    }
+
+    /**
+     * Creates a new instance of {@link CoapEndpoint} that receives messages on multiple sockets bound to the same
+     * socket address (using <code>SO_REUSEPORT</code>), each read by its own I/O thread. See
+     * {@link AbstractCoapApplication#startApplication(CoapChannelPipelineFactory, InetSocketAddress, int)} for
+     * details.
+     *
+     * @param applicationName the name of this {@link CoapEndpoint} (for logging only)
+     * @param notFoundHandler the {@link NotFoundHandler} to handle inbound requests for unknown resources
+     * @param localSocket the socket address to send and receive messages
+     * @param maxBlock1Size the maximum BLOCK 1 size (<b>for inbound requests only</b>)
+     * @param maxBlock2Size the maximum BLOCK 2 size (<b>for outbound responses only</b>)
+     * @param sockets the number of sockets to receive messages
+     */
+    public CoapEndpoint(String applicationName, NotFoundHandler notFoundHandler, InetSocketAddress localSocket,
+                        BlockSize maxBlock1Size, BlockSize maxBlock2Size, int sockets) {
+
         super(applicationName);
 
         CoapEndpointChannelPipelineFactory pipelineFactory = new CoapEndpointChannelPipelineFactory(
-                this.getExecutor(), new TokenFactory(), notFoundHandler, maxBlock1Size, maxBlock2Size
+                this.getExecutor(), this.getTimer(), new TokenFactory(), notFoundHandler, maxBlock1Size, maxBlock2Size
         );
 
-        startApplication(pipelineFactory, localSocket);
+        startApplication(pipelineFactory, localSocket, sockets);
 
         // retrieve the request dispatcher (server component)
         this.requestDispatcher = getChannel().getPipeline().get(RequestDispatcher.class);
@@ -235,7 +255,7 @@ public class CoapEndpoint extends AbstractCoapApplication {
         Futures.addCallback(this.requestDispatcher.shutdown(), new FutureCallback<Void>() {
             @Override
             public void onSuccess(Void aVoid) {
-                ChannelFuture channelClosedFuture = getChannel().close();
+                ChannelFuture channelClosedFuture = closeChannels();
 
                 //Await the closure and let the factory release its external resource to finalize the shutdown
                 channelClosedFuture.addListener(new ChannelFutureListener() {
@@ -243,6 +263,7 @@ public class CoapEndpoint extends AbstractCoapApplication {
                     public void operationComplete(ChannelFuture future) throws Exception {
                         LOG.warn("Endpoint channel closed. Release external resources...");
                         getChannel().getFactory().releaseExternalResources();
+                        getTimer().stop();
                     }
                 });
 
@@ -26,6 +26,7 @@ package de.uzl.itm.ncoap.application.endpoint;
 
 import de.uzl.itm.ncoap.application.CoapChannelPipelineFactory;
 //import de.uzl.itm.ncoap.communication.blockwise.client.ClientBlock2Handler;
+import de.uzl.itm.ncoap.communication.AbstractCoapChannelHandler;
 import de.uzl.itm.ncoap.communication.blockwise.BlockSize;
 import de.uzl.itm.ncoap.communication.blockwise.client.ClientBlock1Handler;
 import de.uzl.itm.ncoap.communication.blockwise.client.ClientBlock2Handler;
@@ -42,9 +43,11 @@ import de.uzl.itm.ncoap.communication.observing.ClientObservationHandler;
 import de.uzl.itm.ncoap.communication.observing.ServerObservationHandler;
 import de.uzl.itm.ncoap.communication.reliability.inbound.ClientInboundReliabilityHandler;
 import de.uzl.itm.ncoap.communication.reliability.inbound.ServerInboundReliabilityHandler;
+import de.uzl.itm.ncoap.communication.reliability.inbound.ServerResponseReplayHandler;
 import de.uzl.itm.ncoap.communication.reliability.outbound.ClientOutboundReliabilityHandler;
 import de.uzl.itm.ncoap.communication.reliability.outbound.MessageIDFactory;
 import de.uzl.itm.ncoap.communication.reliability.outbound.ServerOutboundReliabilityHandler;
+import org.jboss.netty.util.Timer;
 
 import java.util.concurrent.ScheduledExecutorService;
 
@@ -57,7 +60,8 @@ import java.util.concurrent.ScheduledExecutorService;
 public class CoapEndpointChannelPipelineFactory extends CoapChannelPipelineFactory {
 
     /**
-     * Creates a new instance of {@link CoapEndpointChannelPipelineFactory}.
+     * Creates a new instance of {@link CoapEndpointChannelPipelineFactory} using the shared default {@link Timer}
+     * (see {@link AbstractCoapChannelHandler#getDefaultTimer()}).
      *
      * @param executor the {@link java.util.concurrent.ScheduledExecutorService} to be used to handle I/O
      *
@@ -66,31 +70,55 @@ public class CoapEndpointChannelPipelineFactory extends CoapChannelPipelineFacto
      *
      * @param notFoundHandler the {@link de.uzl.itm.ncoap.communication.dispatching.server.NotFoundHandler} to handle
      * incoming requests for unknown {@link de.uzl.itm.ncoap.application.server.resource.Webresource}s.
+     *
+     * @deprecated use {@link #CoapEndpointChannelPipelineFactory(ScheduledExecutorService, Timer, TokenFactory,
+     * NotFoundHandler, BlockSize, BlockSize)} instead
      */
+    @Deprecated
     public CoapEndpointChannelPipelineFactory(ScheduledExecutorService executor, TokenFactory tokenFactory,
                              NotFoundHandler notFoundHandler, BlockSize maxBlock1Size, BlockSize maxBlock2Size) {
+        this(executor, AbstractCoapChannelHandler.getDefaultTimer(), tokenFactory, notFoundHandler, maxBlock1Size,
+                maxBlock2Size);
+    }
+
+    /**
+     * Creates a new instance of {@link CoapEndpointChannelPipelineFactory}.
+     *
+     * @param executor the {@link java.util.concurrent.ScheduledExecutorService} to be used to handle I/O
+     *
+     * @param timer the {@link Timer} to schedule retransmissions and other delayed tasks
+     *
+     * @param tokenFactory the {@link de.uzl.itm.ncoap.communication.dispatching.client.TokenFactory} which is to be
+     * used to create {@link Token}s
+     *
+     * @param notFoundHandler the {@link de.uzl.itm.ncoap.communication.dispatching.server.NotFoundHandler} to handle
+     * incoming requests for unknown {@link de.uzl.itm.ncoap.application.server.resource.Webresource}s.
+     */
+    public CoapEndpointChannelPipelineFactory(ScheduledExecutorService executor, Timer timer, TokenFactory tokenFactory,
+                             NotFoundHandler notFoundHandler, BlockSize maxBlock1Size, BlockSize maxBlock2Size) {
 
         super(executor);
-        MessageIDFactory factory = new MessageIDFactory(executor);
+        addEncodedMessageHandler(new ServerResponseReplayHandler());
+        MessageIDFactory factory = new MessageIDFactory(executor, timer);
 
         // identification
         addChannelHandler(new ClientIdentificationHandler(executor));
         addChannelHandler(new ServerIdentificationHandler(executor));
 
         // client specific handlers
-        addChannelHandler(new ClientOutboundReliabilityHandler(executor, factory));
+        addChannelHandler(new ClientOutboundReliabilityHandler(executor, timer, factory));
         addChannelHandler(new ClientInboundReliabilityHandler(executor));
         addChannelHandler(new ClientBlock2Handler(executor));
         addChannelHandler(new ClientBlock1Handler(executor));
         addChannelHandler(new ClientObservationHandler(executor));
-        addChannelHandler(new ResponseDispatcher(executor, tokenFactory));
+        addChannelHandler(new ResponseDispatcher(executor, timer, tokenFactory));
 
         // server specific handlers
-        addChannelHandler(new ServerOutboundReliabilityHandler(executor, factory));
-        addChannelHandler(new ServerInboundReliabilityHandler(executor));
+        addChannelHandler(new ServerOutboundReliabilityHandler(executor, timer, factory));
+        addChannelHandler(new ServerInboundReliabilityHandler(executor, timer));
         addChannelHandler(new ServerBlock1Handler(executor, maxBlock1Size));
         addChannelHandler(new ServerBlock2Handler(executor, maxBlock2Size));
-        addChannelHandler(new ServerObservationHandler(executor));
+        addChannelHandler(new ServerObservationHandler(executor, timer));
         addChannelHandler(new RequestDispatcher(notFoundHandler, executor));
     }
 
@@ -29,10 +29,12 @@ import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
 import de.uzl.itm.ncoap.application.AbstractCoapApplication;
+import de.uzl.itm.ncoap.application.CoapChannelPipelineFactory;
 import de.uzl.itm.ncoap.application.server.resource.Webresource;
 import de.uzl.itm.ncoap.communication.blockwise.BlockSize;
 import de.uzl.itm.ncoap.communication.dispatching.server.NotFoundHandler;
 import de.uzl.itm.ncoap.communication.dispatching.server.RequestDispatcher;
+import de.uzl.itm.ncoap.communication.reliability.inbound.ServerInboundReliabilityHandler;
 import de.uzl.itm.ncoap.message.CoapRequest;
 import org.jboss.netty.channel.*;
 import org.slf4j.Logger;
@@ -174,12 +176,32 @@ public class CoapServer extends AbstractCoapApplication {
     public CoapServer(String name, NotFoundHandler notFoundHandler, InetSocketAddress serverSocket,
                       BlockSize maxBlock1Size, BlockSize maxBlock2Size) {
 
+        this(name, notFoundHandler, serverSocket, maxBlock1Size, maxBlock2Size, 1);
+    }
+
+    /**
+     * <p>Creates a new instance of {@link CoapServer} that receives requests on multiple sockets bound to the same
+     * socket address (using <code>SO_REUSEPORT</code>), each read by its own I/O thread. See
+     * {@link AbstractCoapApplication#startApplication(CoapChannelPipelineFactory, InetSocketAddress, int)} for
+     * details.</p>
+     *
+     * @param name the name of this {@link CoapServer} (for logging only)
+     * @param notFoundHandler the {@link NotFoundHandler} to handle inbound requests for unknown resources
+     * @param serverSocket the socket address for the server to listen at
+     * @param maxBlock1Size the maximum blocksize for inbound requests
+     * @param maxBlock2Size the maximum blocksize for outbound responses
+     * @param sockets the number of sockets to receive requests
+     */
+    public CoapServer(String name, NotFoundHandler notFoundHandler, InetSocketAddress serverSocket,
+                      BlockSize maxBlock1Size, BlockSize maxBlock2Size, int sockets) {
+
         super(name);
 
         CoapServerChannelPipelineFactory pipelineFactory =
-                new CoapServerChannelPipelineFactory(this.getExecutor(), notFoundHandler, maxBlock1Size, maxBlock2Size);
+                new CoapServerChannelPipelineFactory(this.getExecutor(), this.getTimer(), notFoundHandler,
+                        maxBlock1Size, maxBlock2Size);
 
-        startApplication(pipelineFactory, serverSocket);
+        startApplication(pipelineFactory, serverSocket, sockets);
         
         // set the request dispatcher and register .well-known/core
         this.requestDispatcher = getChannel().getPipeline().get(RequestDispatcher.class);
@@ -238,6 +260,16 @@ public class CoapServer extends AbstractCoapApplication {
         this.getRequestDispatcher().shutdownWebresource(uriPath);
     }
 
+    /**
+     * Returns the {@link ServerInboundReliabilityHandler} of this {@link CoapServer}, e.g. to override the delay of
+     * empty ACKs for a particular {@link Webresource} or to retrieve the ratio of piggy-backed responses.
+     *
+     * @return the {@link ServerInboundReliabilityHandler} of this {@link CoapServer}
+     */
+    public ServerInboundReliabilityHandler getInboundReliabilityHandler() {
+        return getChannel().getPipeline().get(ServerInboundReliabilityHandler.class);
+    }
+
     /**
      * Gracefully shuts down the server by sequentially shutting down all its components, i.e. the registered
      * {@link de.uzl.itm.ncoap.application.server.resource.Webresource}s and the
@@ -249,7 +281,7 @@ public class CoapServer extends AbstractCoapApplication {
         Futures.addCallback(this.requestDispatcher.shutdown(), new FutureCallback<Void>() {
             @Override
             public void onSuccess(Void aVoid) {
-                ChannelFuture channelClosedFuture = getChannel().close();
+                ChannelFuture channelClosedFuture = closeChannels();
 
                 //Await the closure and let the factory release its external resource to finalize the shutdown
                 channelClosedFuture.addListener(new ChannelFutureListener() {
@@ -258,6 +290,7 @@ public class CoapServer extends AbstractCoapApplication {
                         LOG.warn("Server channel closed. Release external resources...");
 
                         getChannel().getFactory().releaseExternalResources();
+                        getTimer().stop();
                     }
                 });
 
@@ -25,6 +25,7 @@
 package de.uzl.itm.ncoap.application.server;
 
 import de.uzl.itm.ncoap.application.CoapChannelPipelineFactory;
+import de.uzl.itm.ncoap.communication.AbstractCoapChannelHandler;
 import de.uzl.itm.ncoap.communication.blockwise.BlockSize;
 import de.uzl.itm.ncoap.communication.blockwise.server.ServerBlock1Handler;
 import de.uzl.itm.ncoap.communication.blockwise.server.ServerBlock2Handler;
@@ -33,10 +34,12 @@ import de.uzl.itm.ncoap.communication.dispatching.server.RequestDispatcher;
 import de.uzl.itm.ncoap.communication.identification.ServerIdentificationHandler;
 import de.uzl.itm.ncoap.communication.observing.ServerObservationHandler;
 import de.uzl.itm.ncoap.communication.reliability.inbound.ServerInboundReliabilityHandler;
+import de.uzl.itm.ncoap.communication.reliability.inbound.ServerResponseReplayHandler;
 import de.uzl.itm.ncoap.communication.reliability.outbound.MessageIDFactory;
 import de.uzl.itm.ncoap.communication.reliability.outbound.ServerOutboundReliabilityHandler;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.socket.DatagramChannel;
+import org.jboss.netty.util.Timer;
 
 import java.util.concurrent.ScheduledExecutorService;
 
@@ -48,23 +51,43 @@ import java.util.concurrent.ScheduledExecutorService;
 public class CoapServerChannelPipelineFactory extends CoapChannelPipelineFactory {
 
     /**
-     * Creates a new instance of {@link CoapServerChannelPipelineFactory}.
+     * Creates a new instance of {@link CoapServerChannelPipelineFactory} using the shared default {@link Timer}
+     * (see {@link AbstractCoapChannelHandler#getDefaultTimer()}).
      *
      * @param executor The {@link ScheduledExecutorService} to provide the thread(s) for I/O operations
      * @param notFoundHandler the {@link de.uzl.itm.ncoap.communication.dispatching.server.NotFoundHandler}
      *                        to handle inbound {@link de.uzl.itm.ncoap.message.CoapRequest}s targeting
      *                        unknown {@link de.uzl.itm.ncoap.application.server.resource.Webresource}s.
+     *
+     * @deprecated use {@link #CoapServerChannelPipelineFactory(ScheduledExecutorService, Timer, NotFoundHandler,
+     * BlockSize, BlockSize)} instead
      */
+    @Deprecated
     public CoapServerChannelPipelineFactory(ScheduledExecutorService executor, NotFoundHandler notFoundHandler,
-                                            BlockSize maxBlock1Size, BlockSize maxBlock2Size) {
+            BlockSize maxBlock1Size, BlockSize maxBlock2Size) {
+        this(executor, AbstractCoapChannelHandler.getDefaultTimer(), notFoundHandler, maxBlock1Size, maxBlock2Size);
+    }
+
+    /**
+     * Creates a new instance of {@link CoapServerChannelPipelineFactory}.
+     *
+     * @param executor The {@link ScheduledExecutorService} to provide the thread(s) for I/O operations
+     * @param timer the {@link Timer} to schedule retransmissions and other delayed tasks
+     * @param notFoundHandler the {@link de.uzl.itm.ncoap.communication.dispatching.server.NotFoundHandler}
+     *                        to handle inbound {@link de.uzl.itm.ncoap.message.CoapRequest}s targeting
+     *                        unknown {@link de.uzl.itm.ncoap.application.server.resource.Webresource}s.
+     */
+    public CoapServerChannelPipelineFactory(ScheduledExecutorService executor, Timer timer,
+            NotFoundHandler notFoundHandler, BlockSize maxBlock1Size, BlockSize maxBlock2Size) {
 
         super(executor);
+        addEncodedMessageHandler(new ServerResponseReplayHandler());
         addChannelHandler(new ServerIdentificationHandler(executor));
-        addChannelHandler(new ServerOutboundReliabilityHandler(executor, new MessageIDFactory(executor)));
-        addChannelHandler(new ServerInboundReliabilityHandler(executor));
+        addChannelHandler(new ServerOutboundReliabilityHandler(executor, timer, new MessageIDFactory(executor, timer)));
+        addChannelHandler(new ServerInboundReliabilityHandler(executor, timer));
         addChannelHandler(new ServerBlock1Handler(executor, maxBlock1Size));
         addChannelHandler(new ServerBlock2Handler(executor, maxBlock2Size));
-        addChannelHandler(new ServerObservationHandler(executor));
+        addChannelHandler(new ServerObservationHandler(executor, timer));
         addChannelHandler(new RequestDispatcher(notFoundHandler, executor));
     }
 }
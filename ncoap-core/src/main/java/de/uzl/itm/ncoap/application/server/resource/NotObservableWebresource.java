@@ -59,6 +59,7 @@ public abstract class NotObservableWebresource<T> implements Webresource<T> {
 
     private T resourceStatus;
     private long resourceStatusExpiryDate;
+    private RepresentationCache representations;
 
     private ScheduledExecutorService executor;
 
@@ -150,6 +151,8 @@ public abstract class NotObservableWebresource<T> implements Webresource<T> {
             this.resourceStatus = resourceStatus;
             this.resourceStatusExpiryDate = System.currentTimeMillis() + (lifetimeSeconds * 1000);
             updateEtag(resourceStatus);
+            // the representations of the new status are serialized (and cached) on demand
+            this.representations = new RepresentationCache();
 
             LOG.debug("New status of {} set (expires in {} seconds).", this.path, lifetimeSeconds);
         } finally {
@@ -171,6 +174,9 @@ public abstract class NotObservableWebresource<T> implements Webresource<T> {
      * However, concurrent invocations of this method are possible, as the resources read-lock can be locked multiple
      * times in parallel.
      *
+     * The representation of the actual status is serialized only once per content format and cached until the
+     * next invocation of {@link #setResourceStatus(Object, long)}.
+     *
      * @param contentFormat the number representing the desired content format of the serialized resource status
      *
      * @return a {@link WrappedResourceStatus} if the content format was supported or <code>null</code> if the
@@ -180,14 +186,24 @@ public abstract class NotObservableWebresource<T> implements Webresource<T> {
         try{
             this.readWriteLock.readLock().lock();
 
+            long maxAge = this.getMaxAge();
+            boolean cacheable = isRepresentationCacheable();
+            WrappedResourceStatus result = cacheable ? this.representations.get(contentFormat, maxAge) : null;
+            if (result != null) {
+                return result;
+            }
+
             byte[] serializedResourceStatus = getSerializedResourceStatus(contentFormat);
 
             if (serializedResourceStatus == null) {
                 return null;
             } else {
                 byte[] etag = this.getEtag(contentFormat);
-                long maxAge = this.getMaxAge();
-                return new WrappedResourceStatus(serializedResourceStatus, contentFormat, etag, maxAge);
+                result = new WrappedResourceStatus(serializedResourceStatus, contentFormat, etag, maxAge);
+                if (cacheable) {
+                    this.representations.put(result);
+                }
+                return result;
             }
         } finally {
             this.readWriteLock.readLock().unlock();
@@ -240,6 +256,23 @@ public abstract class NotObservableWebresource<T> implements Webresource<T> {
     }
 
 
+    /**
+     * <p>Returns <code>true</code> if the serialized representations of the actual status may be cached until the
+     * next status update (default). The framework then invokes {@link #getSerializedResourceStatus(long)} and
+     * {@link #getEtag(long)} only once per status and content format.</p>
+     *
+     * <p>Extending classes must override this method to return <code>false</code> if the result of
+     * {@link #getSerializedResourceStatus(long)} or {@link #getEtag(long)} depends on anything but the actual status,
+     * e.g. on data that may change without an invocation of {@link #setResourceStatus(Object, long)}. The returned
+     * value must not change over the lifetime of the resource.</p>
+     *
+     * @return <code>true</code> if the serialized representations may be cached or <code>false</code> otherwise
+     */
+    protected boolean isRepresentationCacheable() {
+        return true;
+    }
+
+
     @Override
     public final T getResourceStatus() {
         return this.resourceStatus;
@@ -35,6 +35,8 @@ import org.slf4j.LoggerFactory;
 import java.net.InetSocketAddress;
 import java.util.*;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static de.uzl.itm.ncoap.message.options.OptionValue.MAX_AGE_DEFAULT;
@@ -46,6 +48,10 @@ import static de.uzl.itm.ncoap.message.options.OptionValue.MAX_AGE_DEFAULT;
 * <p>Example: Assume, you want to realize a not observable service representing a temperature with limited accuracy
 * (integer values). Then, your service class should extend <code>ObservableWebresource&lt;Integer&gt;</code>.</p>
 *
+* <p>Status updates are coalesced, i.e. if {@link #setResourceStatus(Object, long)} is invoked faster than the
+* updates can be processed, intermediate states are skipped and only the latest one is set (and notified to the
+* observers).</p>
+*
 * @author Oliver Kleine, Stefan Hüske
 */
 public abstract class ObservableWebresource<T> extends Observable implements Webresource<T> {
@@ -59,10 +65,14 @@ public abstract class ObservableWebresource<T> extends Observable implements Web
     private String uriPath;
     private LinkedHashMap<String, LinkParam> linkParams;
 
-    private T status;
-    private long statusExpiryDate;
+    // the actual status, its expiry date and its cached representations (replaced as a whole on updates)
+    private volatile StatusSnapshot<T> snapshot;
     private ReentrantReadWriteLock statusLock;
 
+    private AtomicReference<PendingStatus<T>> pendingStatus;
+    private AtomicBoolean updateScheduled;
+    private volatile boolean shutdown;
+
     private ScheduledExecutorService executor;
 
 
@@ -94,7 +104,10 @@ public abstract class ObservableWebresource<T> extends Observable implements Web
     protected ObservableWebresource(String uriPath, T initialStatus, long lifetime, ScheduledExecutorService executor) {
         this.uriPath = uriPath;
         this.linkParams = new LinkedHashMap<>();
+        this.snapshot = new StatusSnapshot<>(null, 0, new RepresentationCache());
         this.statusLock = new ReentrantReadWriteLock();
+        this.pendingStatus = new AtomicReference<>();
+        this.updateScheduled = new AtomicBoolean();
         this.executor = executor;
         setResourceStatus(initialStatus, lifetime);
     }
@@ -167,36 +180,72 @@ public abstract class ObservableWebresource<T> extends Observable implements Web
      */
     @Override
     public final T getResourceStatus() {
-        return this.status;
+        return this.snapshot.status;
     }
 
 
+    /**
+     * <p>Sets the new status of this {@link ObservableWebresource} and notifies the observers (asynchronously).</p>
+     *
+     * <p>This method does not block. If a previous status was not yet set when this method is invoked, the previous
+     * one is skipped, i.e. only the latest status is set (with a single update of the ETAG) and notified.</p>
+     *
+     * @param status the new status of this {@link ObservableWebresource}
+     * @param lifetime the number of seconds the new status may be considered fresh
+     */
     @Override
-    public synchronized final void setResourceStatus(final T status, final long lifetime) {
-        this.executor.submit(new Runnable() {
+    public final void setResourceStatus(final T status, final long lifetime) {
+        if (this.pendingStatus.getAndSet(new PendingStatus<>(status, lifetime)) != null) {
+            log.debug("Skipped status update of {} (superseded by a more recent one).", this.getUriPath());
+        }
+        scheduleStatusUpdate();
+    }
 
-            @Override
-            public void run() {
-                try{
-                    statusLock.writeLock().lock();
-
-                    ObservableWebresource.this.status = status;
-                    ObservableWebresource.this.statusExpiryDate = System.currentTimeMillis() + (lifetime * 1000);
-                    ObservableWebresource.this.updateEtag(status);
-
-                    log.debug("New status of {} successfully set (expires in {} seconds).",
-                            ObservableWebresource.this.getUriPath(), lifetime);
-
-                    setChanged();
-                    notifyObservers(UPDATE);
-                } catch(Exception ex) {
-                    log.error("Exception while setting new resource status for \"{}\"!",
-                            ObservableWebresource.this.getUriPath(), ex);
-                } finally {
-                    statusLock.writeLock().unlock();
+
+    private void scheduleStatusUpdate() {
+        if (this.updateScheduled.compareAndSet(false, true)) {
+            this.executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    PendingStatus<T> pending = pendingStatus.getAndSet(null);
+                    if (pending != null) {
+                        updateResourceStatus(pending.status, pending.lifetime);
+                    }
+
+                    updateScheduled.set(false);
+                    // a new status might have been published in the meantime
+                    if (pendingStatus.get() != null) {
+                        scheduleStatusUpdate();
+                    }
                 }
+            });
+        }
+    }
+
+
+    private void updateResourceStatus(T status, long lifetime) {
+        if (this.shutdown) {
+            return;
+        }
+
+        try {
+            try {
+                this.statusLock.writeLock().lock();
+                // the representations of the new status are serialized (and cached) on demand
+                long expiryDate = System.currentTimeMillis() + (lifetime * 1000);
+                this.snapshot = new StatusSnapshot<>(status, expiryDate, new RepresentationCache());
+                this.updateEtag(status);
+            } finally {
+                this.statusLock.writeLock().unlock();
             }
-        });
+
+            log.debug("New status of {} successfully set (expires in {} seconds).", this.getUriPath(), lifetime);
+
+            setChanged();
+            notifyObservers(UPDATE);
+        } catch(Exception ex) {
+            log.error("Exception while setting new resource status for \"{}\"!", this.getUriPath(), ex);
+        }
     }
 
 
@@ -205,15 +254,13 @@ public abstract class ObservableWebresource<T> extends Observable implements Web
      * the actual resource status that is used for a {@link de.uzl.itm.ncoap.message.CoapResponse} to answer an inbound
      * {@link de.uzl.itm.ncoap.message.CoapRequest}.</p>
      *
-     * <p>Invocation of this method read-locks the resource status, i.e. concurrent invocations of
-     * {@link #setResourceStatus(Object, long)} wait for this method to finish, i.e. the read-lock to be released.
-     * This is to avoid inconsistencies between the content and {@link de.uzl.itm.ncoap.message.options.Option#ETAG}, resp.
-     * {@link de.uzl.itm.ncoap.message.options.Option#MAX_AGE} in a {@link de.uzl.itm.ncoap.message.CoapResponse}. Such inconsistencies could happen in case of a
-     * resource update between calls of e.g. {@link #getSerializedResourceStatus(long)} and {@link #getEtag(long)},
-     * resp. {@link #getMaxAge()}.</p>
-     *
-     * <p>However, concurrent invocations of this method are possible, as the resources read-lock can be locked multiple
-     * times in parallel and {@link #setResourceStatus(Object, long)} waits for all read-locks to be released.</p>
+     * <p>The representation of the actual status is serialized only once per content format and cached until the
+     * next status update. Cached representations are returned without locking. Otherwise, this method read-locks the
+     * resource status, i.e. status updates wait for this method to finish. This is to avoid inconsistencies between
+     * the content and {@link de.uzl.itm.ncoap.message.options.Option#ETAG}, resp.
+     * {@link de.uzl.itm.ncoap.message.options.Option#MAX_AGE} in a {@link de.uzl.itm.ncoap.message.CoapResponse}.
+     * Such inconsistencies could happen in case of a resource update between calls of e.g.
+     * {@link #getSerializedResourceStatus(long)} and {@link #getEtag(long)}, resp. {@link #getMaxAge()}.</p>
      *
      * @param contentFormat the number representing the desired content format of the serialized resource status
      *
@@ -221,20 +268,7 @@ public abstract class ObservableWebresource<T> extends Observable implements Web
      * resource status could not be serialized to the desired content format.
      */
     public final WrappedResourceStatus getWrappedResourceStatus(long contentFormat) {
-        try {
-            this.statusLock.readLock().lock();
-
-            byte[] serializedResourceStatus = getSerializedResourceStatus(contentFormat);
-
-            if (serializedResourceStatus == null) {
-                return null;
-            } else {
-                byte[] etag = this.getEtag(contentFormat);
-                return new WrappedResourceStatus(serializedResourceStatus, contentFormat, etag, this.getMaxAge());
-            }
-        } finally {
-            this.statusLock.readLock().unlock();
-        }
+        return getWrappedResourceStatus(Collections.singleton(contentFormat));
     }
 
 
@@ -243,15 +277,13 @@ public abstract class ObservableWebresource<T> extends Observable implements Web
      * the actual resource status that is used for a {@link de.uzl.itm.ncoap.message.CoapResponse} to answer an
      * inbound {@link de.uzl.itm.ncoap.message.CoapRequest}.</p>
      *
-     * <p>Invocation of this method read-locks the resource status, i.e. concurrent invocations of
-     * {@link #setResourceStatus(Object, long)} wait for this method to finish, i.e. the read-lock to be released.
-     * This is to avoid inconsistencies between the content and {@link de.uzl.itm.ncoap.message.options.Option#ETAG}, resp.
-     * {@link de.uzl.itm.ncoap.message.options.Option#MAX_AGE} in a {@link de.uzl.itm.ncoap.message.CoapResponse}. Such inconsistencies could happen in case of a
-     * resource update between calls of e.g. {@link #getSerializedResourceStatus(long)} and {@link #getEtag(long)},
-     * resp. {@link #getMaxAge()}.</p>
-     *
-     * <p>However, concurrent invocations of this method are possible, as the resources read-lock can be locked multiple
-     * times in parallel and {@link #setResourceStatus(Object, long)} waits for all read-locks to be released.</p>
+     * <p>The representation of the actual status is serialized only once per content format and cached until the
+     * next status update. Cached representations are returned without locking. Otherwise, this method read-locks the
+     * resource status, i.e. status updates wait for this method to finish. This is to avoid inconsistencies between
+     * the content and {@link de.uzl.itm.ncoap.message.options.Option#ETAG}, resp.
+     * {@link de.uzl.itm.ncoap.message.options.Option#MAX_AGE} in a {@link de.uzl.itm.ncoap.message.CoapResponse}.
+     * Such inconsistencies could happen in case of a resource update between calls of e.g.
+     * {@link #getSerializedResourceStatus(long)} and {@link #getEtag(long)}, resp. {@link #getMaxAge()}.</p>
      *
      * <p><b>Note:</b> This method iterates over the given {@link Set} and tries to serialize the status in the order
      * given by the {@link java.util.Set#iterator()}. The first supported content format, i.e. where
@@ -265,25 +297,65 @@ public abstract class ObservableWebresource<T> extends Observable implements Web
      */
     @Override
     public final WrappedResourceStatus getWrappedResourceStatus(Set<Long> contentFormats) {
+        boolean cacheable = isRepresentationCacheable();
+        Iterator<Long> iterator = contentFormats.iterator();
+        if (cacheable && iterator.hasNext()) {
+            // the representation of the preferred content format is immutable once cached
+            StatusSnapshot<T> snapshot = this.snapshot;
+            WrappedResourceStatus result = snapshot.representations.get(iterator.next(), snapshot.getMaxAge());
+            if (result != null) {
+                return result;
+            }
+        }
+
         try {
             this.statusLock.readLock().lock();
-
-            WrappedResourceStatus result = null;
+            StatusSnapshot<T> snapshot = this.snapshot;
+            long maxAge = snapshot.getMaxAge();
 
             for(long contentFormat : contentFormats) {
-                result = getWrappedResourceStatus(contentFormat);
+                if (cacheable) {
+                    WrappedResourceStatus result = snapshot.representations.get(contentFormat, maxAge);
+                    if (result != null) {
+                        return result;
+                    }
+                }
 
-                if (result != null)
-                    break;
+                byte[] serializedResourceStatus = getSerializedResourceStatus(contentFormat);
+                if (serializedResourceStatus != null) {
+                    byte[] etag = this.getEtag(contentFormat);
+                    WrappedResourceStatus result = new WrappedResourceStatus(serializedResourceStatus, contentFormat,
+                            etag, maxAge);
+                    if (cacheable) {
+                        snapshot.representations.put(result);
+                    }
+                    return result;
+                }
             }
-
-            return result;
+            return null;
         } finally {
             this.statusLock.readLock().unlock();
         }
     }
 
 
+    /**
+     * <p>Returns <code>true</code> if the serialized representations of the actual status may be cached until the
+     * next status update (default). The framework then invokes {@link #getSerializedResourceStatus(long)} and
+     * {@link #getEtag(long)} only once per status and content format.</p>
+     *
+     * <p>Extending classes must override this method to return <code>false</code> if the result of
+     * {@link #getSerializedResourceStatus(long)} or {@link #getEtag(long)} depends on anything but the actual status,
+     * e.g. on data that may change without an invocation of {@link #setResourceStatus(Object, long)}. The returned
+     * value must not change over the lifetime of the resource.</p>
+     *
+     * @return <code>true</code> if the serialized representations may be cached or <code>false</code> otherwise
+     */
+    protected boolean isRepresentationCacheable() {
+        return true;
+    }
+
+
     /**
      * <p>This method is invoked by the framework for every observer after every resource update. Classes that extend
      * {@link ObservableWebresource} may implement this method just by returning one of
@@ -316,7 +388,7 @@ public abstract class ObservableWebresource<T> extends Observable implements Web
      */
     @Override
     public final long getMaxAge() {
-        return Math.max(this.statusExpiryDate - System.currentTimeMillis(), 0) / 1000;
+        return this.snapshot.getMaxAge();
     }
 
 
@@ -332,10 +404,40 @@ public abstract class ObservableWebresource<T> extends Observable implements Web
             @Override
             public void run() {
                 log.warn("Shutdown service \"{}\"!", getUriPath());
-                statusLock.writeLock().lock();
+                ObservableWebresource.this.shutdown = true;
                 setChanged();
                 notifyObservers(SHUTDOWN);
             }
         });
     }
+
+
+    private static class StatusSnapshot<T> {
+
+        private final T status;
+        private final long expiryDate;
+        private final RepresentationCache representations;
+
+        private StatusSnapshot(T status, long expiryDate, RepresentationCache representations) {
+            this.status = status;
+            this.expiryDate = expiryDate;
+            this.representations = representations;
+        }
+
+        private long getMaxAge() {
+            return Math.max(this.expiryDate - System.currentTimeMillis(), 0) / 1000;
+        }
+    }
+
+
+    private static class PendingStatus<T> {
+
+        private final T status;
+        private final long lifetime;
+
+        private PendingStatus(T status, long lifetime) {
+            this.status = status;
+            this.lifetime = lifetime;
+        }
+    }
 }
@@ -0,0 +1,92 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.application.server.resource;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>A {@link RepresentationCache} contains the serialized representations (and ETAGs) of a single resource status
+ * per content format. It is used by {@link NotObservableWebresource} and {@link ObservableWebresource} to serialize
+ * a status only once per content format, i.e. a new (empty) cache is used for every new resource status.</p>
+ *
+ * <p>The number of cached representations is bounded. Representations of further content formats are created
+ * but not cached.</p>
+ */
+class RepresentationCache {
+
+    /**
+     * The maximum number of cached representations per resource status ({@value #MAX_SIZE})
+     */
+    static final int MAX_SIZE = 8;
+
+    private final ConcurrentMap<Long, WrappedResourceStatus> representations;
+
+    /**
+     * Creates a new (empty) instance of {@link RepresentationCache}
+     */
+    RepresentationCache() {
+        this.representations = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns the cached representation for the given content format (with the given max-age) or <code>null</code>
+     * if there is none.
+     *
+     * @param contentFormat the number representing the desired content format
+     * @param maxAge the actual max-age of the resource status
+     *
+     * @return the cached representation for the given content format or <code>null</code> if there is none
+     */
+    WrappedResourceStatus get(long contentFormat, long maxAge) {
+        WrappedResourceStatus representation = this.representations.get(contentFormat);
+        if (representation == null) {
+            return null;
+        } else {
+            return new WrappedResourceStatus(representation.getContent(), contentFormat, representation.getEtag(),
+                    maxAge);
+        }
+    }
+
+    /**
+     * Caches the given representation unless the maximum number of cached representations is reached
+     *
+     * @param representation the representation to be cached
+     */
+    void put(WrappedResourceStatus representation) {
+        if (this.representations.size() < MAX_SIZE) {
+            this.representations.putIfAbsent(representation.getContentFormat(), representation);
+        }
+    }
+
+    /**
+     * Returns the number of cached representations
+     *
+     * @return the number of cached representations
+     */
+    int size() {
+        return this.representations.size();
+    }
+}
@@ -201,6 +201,10 @@ public interface Webresource<T> extends RequestConsumer{
      * {@link de.uzl.itm.ncoap.message.CoapResponse} in the desired content format or <code>null</code> if the
      * given content format is not supported.
      *
+     * <b>Note:</b> {@link NotObservableWebresource} and {@link ObservableWebresource} cache the returned content per
+     * content format until the next status update, i.e. it must only depend on the actual resource status and must
+     * not be modified afterwards.
+     *
      * @param contentFormat the number indicating the desired format of the returned content, see
      *                      {@link de.uzl.itm.ncoap.message.options.ContentFormat} for some pre-defined
      *                      constants.
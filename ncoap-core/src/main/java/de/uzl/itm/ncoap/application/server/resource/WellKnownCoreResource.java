@@ -175,11 +175,25 @@ public final class WellKnownCoreResource extends ObservableWebresource<LinkValue
      */
     @Override
     public byte[] getSerializedResourceStatus(long contentFormat) {
-        return this.getResourceStatus().encode().getBytes(CoapMessage.CHARSET);
+        // the initial status is set asynchronously, i.e. it may not be available right after construction
+        LinkValueList linkValueList = this.getResourceStatus();
+        if (linkValueList == null) {
+            return new byte[0];
+        }
+        return linkValueList.encode().getBytes(CoapMessage.CHARSET);
     }
 
 
 
+    /**
+     * Returns <code>false</code> as the link params of the registered resources may change without status update
+     */
+    @Override
+    protected boolean isRepresentationCacheable() {
+        return false;
+    }
+
+
     @Override
     public boolean isUpdateNotificationConfirmable(InetSocketAddress remoteSocket) {
         return true;
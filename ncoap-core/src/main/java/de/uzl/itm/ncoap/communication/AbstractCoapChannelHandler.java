@@ -24,6 +24,8 @@
  */
 package de.uzl.itm.ncoap.communication;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import de.uzl.itm.ncoap.application.AbstractCoapApplication;
 import de.uzl.itm.ncoap.communication.events.*;
 //import de.uzl.itm.ncoap.communication.events.client.LazyObservationTerminationEvent;
 import de.uzl.itm.ncoap.communication.events.client.ContinueResponseReceivedEvent;
@@ -34,6 +36,9 @@ import de.uzl.itm.ncoap.communication.events.server.ObserverAcceptedEvent;
 import de.uzl.itm.ncoap.communication.events.server.RemoteClientSocketChangedEvent;
 import de.uzl.itm.ncoap.message.CoapMessage;
 import org.jboss.netty.channel.*;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -52,15 +57,29 @@ public abstract class AbstractCoapChannelHandler extends SimpleChannelHandler{
     private static Logger LOG = LoggerFactory.getLogger(AbstractCoapChannelHandler.class.getName());
 
     private ScheduledExecutorService executor;
+    private Timer timer;
     private ChannelHandlerContext context;
 
     /**
-     * Creates a new instance of {@link AbstractCoapChannelHandler}
+     * Creates a new instance of {@link AbstractCoapChannelHandler} that schedules delayed tasks using the shared
+     * default {@link Timer} (see {@link #getDefaultTimer()}).
      *
      * @param executor the {@link ScheduledExecutorService} used to execute I/O tasks
      */
     protected AbstractCoapChannelHandler(ScheduledExecutorService executor) {
+        this(executor, getDefaultTimer());
+    }
+
+    /**
+     * Creates a new instance of {@link AbstractCoapChannelHandler} that schedules delayed tasks using the given
+     * {@link Timer} (see {@link #scheduleTimeout(Runnable, long, TimeUnit)}).
+     *
+     * @param executor the {@link ScheduledExecutorService} used to execute I/O tasks
+     * @param timer the {@link Timer} used to schedule delayed tasks
+     */
+    protected AbstractCoapChannelHandler(ScheduledExecutorService executor, Timer timer) {
         this.executor = executor;
+        this.timer = timer;
     }
 
     @Override
@@ -265,7 +284,65 @@ public abstract class AbstractCoapChannelHandler extends SimpleChannelHandler{
         Channels.write(getContext(), future, coapMessage, remoteSocket);
     }
 
+    /**
+     * Returns the {@link Timer} that is used by handlers (and pipelines) created without a {@link Timer}. This is a
+     * {@link HashedWheelTimer} (with a tick duration of {@link AbstractCoapApplication#TIMER_TICK_MILLIS}
+     * milliseconds) that is shared by all such handlers. Its thread is a daemon thread and is never stopped.
+     *
+     * @return the {@link Timer} that is used by handlers (and pipelines) created without a {@link Timer}
+     */
+    public static Timer getDefaultTimer() {
+        return DefaultTimerHolder.TIMER;
+    }
+
+    /**
+     * Returns the {@link Timer} used to schedule delayed tasks
+     *
+     * @return the {@link Timer} used to schedule delayed tasks
+     */
+    protected Timer getTimer() {
+        return this.timer;
+    }
+
+    /**
+     * Schedules the given task to be executed by the {@link ScheduledExecutorService} (see {@link #getExecutor()})
+     * after the given delay. The delay is measured by the {@link Timer} given to the constructor.
+     *
+     * @param task the task to be executed
+     * @param delay the delay
+     * @param unit the {@link TimeUnit} of the delay
+     *
+     * @return the {@link Timeout} to cancel the scheduled task
+     */
+    protected Timeout scheduleTimeout(Runnable task, long delay, TimeUnit unit) {
+        return this.timer.newTimeout(new ExecutorTimerTask(this.executor, task), delay, unit);
+    }
+
+    /**
+     * Schedules the given task to be executed by the {@link ScheduledExecutorService} (see {@link #getExecutor()})
+     * after the given delay.
+     *
+     * @param task the task to be executed
+     * @param delay the delay
+     * @param unit the {@link TimeUnit} of the delay
+     *
+     * @return the {@link ScheduledFuture} to cancel the scheduled task
+     *
+     * @deprecated use {@link #scheduleTimeout(Runnable, long, TimeUnit)} instead
+     */
+    @Deprecated
     protected ScheduledFuture scheduleTask(Runnable task, long delay, TimeUnit unit) {
         return this.getExecutor().schedule(task, delay, unit);
     }
-}
\ No newline at end of file
+
+
+    // the default timer is created on first use
+    private static class DefaultTimerHolder {
+
+        private static final Timer TIMER = new HashedWheelTimer(
+                new ThreadFactoryBuilder().setNameFormat("nCoAP Default Timer #%d").setDaemon(true).build(),
+                AbstractCoapApplication.TIMER_TICK_MILLIS, TimeUnit.MILLISECONDS,
+                AbstractCoapApplication.TIMER_TICKS_PER_WHEEL
+        );
+    }
+}
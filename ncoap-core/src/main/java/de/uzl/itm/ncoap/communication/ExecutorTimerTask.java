@@ -0,0 +1,71 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication;
+
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A {@link TimerTask} that hands the actual task over to an {@link Executor} when its {@link Timeout} expires. This
+ * keeps the (single) worker thread of the {@link Timer} free from I/O, i.e. all expired tasks are executed
+ * by the same threads that execute all other I/O tasks.
+ */
+public class ExecutorTimerTask implements TimerTask {
+
+    private static Logger LOG = LoggerFactory.getLogger(ExecutorTimerTask.class.getName());
+
+    private final Executor executor;
+    private final Runnable task;
+
+    /**
+     * Creates a new instance of {@link ExecutorTimerTask}
+     *
+     * @param executor the {@link Executor} to execute the given task on expiry
+     * @param task the task to be executed on expiry
+     */
+    public ExecutorTimerTask(Executor executor, Runnable task) {
+        this.executor = executor;
+        this.task = task;
+    }
+
+    @Override
+    public void run(Timeout timeout) {
+        if (timeout.isCancelled()) {
+            return;
+        }
+
+        try {
+            this.executor.execute(this.task);
+        } catch (RejectedExecutionException ex) {
+            LOG.warn("Could not execute expired task (executor was shut down).");
+        }
+    }
+}
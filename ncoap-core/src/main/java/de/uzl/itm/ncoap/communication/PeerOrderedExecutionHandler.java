@@ -0,0 +1,283 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication;
+
+import de.uzl.itm.ncoap.message.MessageType;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.SocketAddress;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>The {@link PeerOrderedExecutionHandler} is the first handler of each pipeline. It hands inbound datagrams over
+ * to the given {@link Executor}, i.e. it replaces Netty's plain
+ * {@link org.jboss.netty.handler.execution.ExecutionHandler}.</p>
+ *
+ * <p>Datagrams from the same remote socket are processed one after another in the order of reception, while
+ * datagrams from different remote sockets are processed in parallel. Thus, the per-peer state of the subsequent
+ * handlers (e.g. reliability, blockwise transfers, and observations) is never updated concurrently by two inbound
+ * messages of the same peer.</p>
+ *
+ * <p>The number of bytes waiting for processing is limited per remote socket and in total. Datagrams that would
+ * exceed one of these limits are dropped. If such a datagram is a {@link MessageType#CON} message, an empty
+ * {@link MessageType#RST} is sent to the sender, so that it does not wait for the retransmission timeout.</p>
+ */
+@ChannelHandler.Sharable
+public class PeerOrderedExecutionHandler implements ChannelUpstreamHandler {
+
+    private static Logger LOG = LoggerFactory.getLogger(PeerOrderedExecutionHandler.class.getName());
+
+    /**
+     * The default maximum number of bytes waiting for processing per remote socket ({@value #DEFAULT_MAX_PEER_MEMORY})
+     */
+    public static final int DEFAULT_MAX_PEER_MEMORY = 256 * 1024;
+
+    /**
+     * The default maximum number of bytes waiting for processing in total ({@value #DEFAULT_MAX_TOTAL_MEMORY})
+     */
+    public static final int DEFAULT_MAX_TOTAL_MEMORY = 16 * 1024 * 1024;
+
+    /**
+     * The maximum number of datagrams from the same remote socket that are processed by a thread before the
+     * thread is released for datagrams from other remote sockets ({@value #MAX_EVENTS_PER_RUN})
+     */
+    static final int MAX_EVENTS_PER_RUN = 16;
+
+    private final Executor executor;
+    private final long maxPeerMemory;
+    private final long maxTotalMemory;
+
+    private final ConcurrentMap<SocketAddress, PeerQueue> peerQueues;
+    private final AtomicLong totalMemory;
+
+
+    /**
+     * Creates a new instance of {@link PeerOrderedExecutionHandler} with a limit of
+     * {@link #DEFAULT_MAX_PEER_MEMORY} bytes per remote socket and {@link #DEFAULT_MAX_TOTAL_MEMORY} in total.
+     *
+     * @param executor the {@link Executor} to process inbound datagrams
+     */
+    public PeerOrderedExecutionHandler(Executor executor) {
+        this(executor, DEFAULT_MAX_PEER_MEMORY, DEFAULT_MAX_TOTAL_MEMORY);
+    }
+
+    /**
+     * Creates a new instance of {@link PeerOrderedExecutionHandler}
+     *
+     * @param executor the {@link Executor} to process inbound datagrams
+     * @param maxPeerMemory the maximum number of bytes waiting for processing per remote socket
+     * @param maxTotalMemory the maximum number of bytes waiting for processing in total
+     */
+    public PeerOrderedExecutionHandler(Executor executor, long maxPeerMemory, long maxTotalMemory) {
+        if (maxPeerMemory <= 0 || maxTotalMemory < maxPeerMemory) {
+            throw new IllegalArgumentException("Memory limits must be positive (per peer: " + maxPeerMemory +
+                    ", total: " + maxTotalMemory + ")");
+        }
+        this.executor = executor;
+        this.maxPeerMemory = maxPeerMemory;
+        this.maxTotalMemory = maxTotalMemory;
+        this.peerQueues = new ConcurrentHashMap<>();
+        this.totalMemory = new AtomicLong();
+    }
+
+
+    @Override
+    public void handleUpstream(ChannelHandlerContext ctx, ChannelEvent e) throws Exception {
+        if (e instanceof MessageEvent && ((MessageEvent) e).getMessage() instanceof ChannelBuffer) {
+            enqueue(ctx, (MessageEvent) e);
+        } else {
+            // channel state changes and exceptions do not refer to a particular peer
+            ctx.sendUpstream(e);
+        }
+    }
+
+    /**
+     * Returns the number of bytes currently waiting for processing (in total)
+     *
+     * @return the number of bytes currently waiting for processing (in total)
+     */
+    public long getQueuedBytes() {
+        return this.totalMemory.get();
+    }
+
+
+    private void enqueue(ChannelHandlerContext ctx, MessageEvent event) {
+        SocketAddress remoteSocket = event.getRemoteAddress();
+        int size = ((ChannelBuffer) event.getMessage()).readableBytes();
+
+        while(true) {
+            PeerQueue peerQueue = this.peerQueues.get(remoteSocket);
+            if (peerQueue == null) {
+                PeerQueue newQueue = new PeerQueue(ctx, remoteSocket);
+                peerQueue = this.peerQueues.putIfAbsent(remoteSocket, newQueue);
+                if (peerQueue == null) {
+                    peerQueue = newQueue;
+                }
+            }
+
+            boolean schedule;
+            synchronized (peerQueue) {
+                if (peerQueue.removed) {
+                    // the queue was drained and removed concurrently, try again with a new one
+                    continue;
+                }
+
+                if (peerQueue.memory + size > this.maxPeerMemory || !reserveTotalMemory(size)) {
+                    shed(ctx, event);
+                    return;
+                }
+
+                peerQueue.events.add(event);
+                peerQueue.memory += size;
+                schedule = !peerQueue.running;
+                peerQueue.running = true;
+            }
+
+            if (schedule) {
+                execute(peerQueue);
+            }
+            return;
+        }
+    }
+
+
+    private boolean reserveTotalMemory(int size) {
+        while(true) {
+            long current = this.totalMemory.get();
+            if (current + size > this.maxTotalMemory) {
+                return false;
+            } else if (this.totalMemory.compareAndSet(current, current + size)) {
+                return true;
+            }
+        }
+    }
+
+
+    private void execute(PeerQueue peerQueue) {
+        try {
+            this.executor.execute(peerQueue);
+        } catch (RejectedExecutionException ex) {
+            LOG.warn("Could not process inbound messages from \"{}\" (executor was shut down).",
+                    peerQueue.remoteSocket);
+            peerQueue.clear();
+        }
+    }
+
+
+    private void shed(ChannelHandlerContext ctx, MessageEvent event) {
+        ChannelBuffer buffer = (ChannelBuffer) event.getMessage();
+        int index = buffer.readerIndex();
+
+        if (buffer.readableBytes() >= 4 && ((buffer.getUnsignedByte(index) >>> 4) & 0x03) == MessageType.CON) {
+            int messageID = buffer.getUnsignedShort(index + 2);
+            LOG.warn("Too many queued messages (total: {} bytes). Send RST for CON message from \"{}\" (ID: {}).",
+                    new Object[]{this.totalMemory.get(), event.getRemoteAddress(), messageID});
+
+            // this handler is the first in the pipeline, i.e. the RST must already be encoded
+            ChannelBuffer reset = ChannelBuffers.buffer(4);
+            reset.writeByte((1 << 6) | (MessageType.RST << 4));
+            reset.writeByte(0);
+            reset.writeShort(messageID);
+            Channels.write(ctx, Channels.future(ctx.getChannel()), reset, event.getRemoteAddress());
+        } else {
+            LOG.warn("Too many queued messages (total: {} bytes). Drop message from \"{}\".",
+                    this.totalMemory.get(), event.getRemoteAddress());
+        }
+    }
+
+
+    private class PeerQueue implements Runnable {
+
+        private final ChannelHandlerContext ctx;
+        private final SocketAddress remoteSocket;
+        private final Queue<MessageEvent> events;
+
+        // guarded by this
+        private long memory;
+        private boolean running;
+        private boolean removed;
+
+        private PeerQueue(ChannelHandlerContext ctx, SocketAddress remoteSocket) {
+            this.ctx = ctx;
+            this.remoteSocket = remoteSocket;
+            this.events = new ArrayDeque<>();
+        }
+
+        @Override
+        public void run() {
+            for(int i = 0; i < MAX_EVENTS_PER_RUN; i++) {
+                MessageEvent event;
+                synchronized (this) {
+                    event = this.events.poll();
+                    if (event == null) {
+                        this.running = false;
+                        this.removed = true;
+                        peerQueues.remove(this.remoteSocket, this);
+                        return;
+                    }
+                }
+
+                // the subsequent handlers may consume the buffer, i.e. determine the size before
+                int size = ((ChannelBuffer) event.getMessage()).readableBytes();
+                try {
+                    this.ctx.sendUpstream(event);
+                } finally {
+                    release(size);
+                }
+            }
+
+            // give other peers a chance before continuing with this one
+            execute(this);
+        }
+
+        private void release(int size) {
+            synchronized (this) {
+                this.memory -= size;
+            }
+            totalMemory.addAndGet(-size);
+        }
+
+        private void clear() {
+            synchronized (this) {
+                totalMemory.addAndGet(-this.memory);
+                this.memory = 0;
+                this.events.clear();
+                this.running = false;
+                this.removed = true;
+                peerQueues.remove(this.remoteSocket, this);
+            }
+        }
+    }
+}
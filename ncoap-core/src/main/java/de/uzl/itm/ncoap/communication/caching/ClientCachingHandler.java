@@ -0,0 +1,469 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.caching;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Table;
+import de.uzl.itm.ncoap.communication.AbstractCoapChannelHandler;
+import de.uzl.itm.ncoap.communication.dispatching.Token;
+import de.uzl.itm.ncoap.communication.events.client.RemoteServerSocketChangedEvent;
+import de.uzl.itm.ncoap.communication.events.client.TokenReleasedEvent;
+import de.uzl.itm.ncoap.message.*;
+import de.uzl.itm.ncoap.message.options.EmptyOptionValue;
+import de.uzl.itm.ncoap.message.options.OpaqueOptionValue;
+import de.uzl.itm.ncoap.message.options.Option;
+import de.uzl.itm.ncoap.message.options.OptionValue;
+import de.uzl.itm.ncoap.message.options.StringOptionValue;
+import de.uzl.itm.ncoap.message.options.UintOptionValue;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.Iterator;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * <p>The {@link ClientCachingHandler} is an (optional) response cache for clients. It is located directly below the
+ * {@link de.uzl.itm.ncoap.communication.dispatching.client.ResponseDispatcher}, i.e. it handles complete
+ * (reassembled) responses.</p>
+ *
+ * <p>Responses with {@link MessageCode#CONTENT_205} on GET requests (without observe option) are cached until
+ * their Max-Age is expired. The cache key consists of the remote socket and all cache-key options of the request.
+ * An outbound request with a fresh cache entry is not sent but answered locally. A stale entry with an ETag is
+ * revalidated, i.e. the ETag is added to the request and an inbound {@link MessageCode#VALID_203} is replaced by
+ * the cached {@link MessageCode#CONTENT_205}. Successful responses ({@link MessageCode#CREATED_201},
+ * {@link MessageCode#DELETED_202} or {@link MessageCode#CHANGED_204}) on requests with other methods invalidate the
+ * cache entries for the same remote socket and path (see RFC 7252, section 5.9).</p>
+ *
+ * <p>The memory used by the cache is limited, i.e. the least recently used entries are evicted if necessary.</p>
+ */
+public class ClientCachingHandler extends AbstractCoapChannelHandler implements TokenReleasedEvent.Handler,
+        RemoteServerSocketChangedEvent.Handler {
+
+    private static Logger LOG = LoggerFactory.getLogger(ClientCachingHandler.class.getName());
+
+    /**
+     * The estimated number of bytes per cache entry in addition to the content ({@value #ENTRY_OVERHEAD})
+     */
+    static final int ENTRY_OVERHEAD = 256;
+
+    private Cache<CacheKey, CacheEntry> cache;
+
+    private Table<InetSocketAddress, Token, PendingRequest> pendingRequests;
+    private ReentrantReadWriteLock lock;
+
+    private AtomicLong hits;
+    private AtomicLong misses;
+    private AtomicLong revalidations;
+
+
+    /**
+     * Creates a new instance of {@link ClientCachingHandler}
+     *
+     * @param executor the {@link ScheduledExecutorService} to process the tasks of this handler
+     * @param maxSize the maximum number of bytes (contents plus an estimated overhead per entry) to be cached
+     */
+    public ClientCachingHandler(ScheduledExecutorService executor, long maxSize) {
+        super(executor);
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxSize)
+                .weigher(new Weigher<CacheKey, CacheEntry>() {
+                    @Override
+                    public int weigh(CacheKey key, CacheEntry entry) {
+                        return key.length + entry.length + ENTRY_OVERHEAD;
+                    }
+                })
+                .recordStats()
+                .build();
+
+        this.pendingRequests = HashBasedTable.create();
+        this.lock = new ReentrantReadWriteLock();
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.revalidations = new AtomicLong();
+    }
+
+
+    @Override
+    public boolean handleOutboundCoapMessage(CoapMessage coapMessage, InetSocketAddress remoteSocket) {
+        if (!(coapMessage instanceof CoapRequest)) {
+            return true;
+        }
+
+        CoapRequest coapRequest = (CoapRequest) coapMessage;
+        if (coapRequest.getMessageCode() != MessageCode.GET) {
+            // the cache entries for this path are invalidated if the request succeeds
+            addPendingRequest(remoteSocket, coapRequest.getToken(), new PendingRequest(coapRequest.getUriPath()));
+            return true;
+        } else if (coapRequest.getObserve() != UintOptionValue.UNDEFINED || !coapRequest.getEtags().isEmpty()) {
+            // observations and requests with ETags set by the application are not served from the cache
+            return true;
+        }
+
+        CacheKey key = new CacheKey(remoteSocket, coapRequest);
+        CacheEntry entry = this.cache.getIfPresent(key);
+        long now = System.currentTimeMillis();
+
+        if (entry != null && entry.expiry > now) {
+            this.hits.incrementAndGet();
+            LOG.debug("Serve request from cache (remote socket: {}, token: {}).", remoteSocket,
+                    coapRequest.getToken());
+            continueMessageProcessing(entry.createResponse(coapRequest.getToken(), now), remoteSocket);
+            return false;
+        }
+
+        this.misses.incrementAndGet();
+        if (entry != null && entry.etag != null) {
+            LOG.debug("Revalidate cache entry (remote socket: {}, token: {}).", remoteSocket,
+                    coapRequest.getToken());
+            coapRequest.setEtags(entry.etag);
+        } else if (entry != null) {
+            this.cache.invalidate(key);
+            entry = null;
+        }
+
+        addPendingRequest(remoteSocket, coapRequest.getToken(), new PendingRequest(key, entry));
+        return true;
+    }
+
+
+    @Override
+    public boolean handleInboundCoapMessage(CoapMessage coapMessage, InetSocketAddress remoteSocket) {
+        if (!(coapMessage instanceof CoapResponse) || !coapMessage.isLastBlock2()) {
+            return true;
+        }
+
+        CoapResponse coapResponse = (CoapResponse) coapMessage;
+        PendingRequest pendingRequest = removePendingRequest(remoteSocket, coapResponse.getToken());
+        if (pendingRequest == null) {
+            return true;
+        }
+
+        long now = System.currentTimeMillis();
+        int messageCode = coapResponse.getMessageCode();
+        if (pendingRequest.key == null) {
+            if (messageCode == MessageCode.CREATED_201 || messageCode == MessageCode.DELETED_202 ||
+                    messageCode == MessageCode.CHANGED_204) {
+                invalidate(remoteSocket, pendingRequest.path);
+            }
+            return true;
+        } else if (messageCode == MessageCode.CONTENT_205) {
+            if (coapResponse.getMaxAge() > 0) {
+                this.cache.put(pendingRequest.key, new CacheEntry(coapResponse, now));
+            } else {
+                this.cache.invalidate(pendingRequest.key);
+            }
+            return true;
+        } else if (messageCode == MessageCode.VALID_203 && pendingRequest.staleEntry != null) {
+            this.revalidations.incrementAndGet();
+            CacheEntry entry = pendingRequest.staleEntry.revalidate(coapResponse, now);
+            this.cache.put(pendingRequest.key, entry);
+
+            LOG.debug("Cache entry was revalidated (remote socket: {}, token: {}).", remoteSocket,
+                    coapResponse.getToken());
+            continueMessageProcessing(entry.createResponse(coapResponse.getToken(), now), remoteSocket);
+            return false;
+        } else {
+            this.cache.invalidate(pendingRequest.key);
+            return true;
+        }
+    }
+
+
+    @Override
+    public void handleEvent(TokenReleasedEvent event) {
+        removePendingRequest(event.getRemoteSocket(), event.getToken());
+    }
+
+
+    @Override
+    public void handleEvent(RemoteServerSocketChangedEvent event) {
+        PendingRequest pendingRequest = removePendingRequest(event.getPreviousRemoteSocket(), event.getToken());
+        if (pendingRequest != null) {
+            addPendingRequest(event.getRemoteSocket(), event.getToken(), pendingRequest);
+        }
+    }
+
+
+    /**
+     * Returns the number of requests that were answered from the cache
+     *
+     * @return the number of requests that were answered from the cache
+     */
+    public long getHitCount() {
+        return this.hits.get();
+    }
+
+    /**
+     * Returns the number of GET requests that were sent to the server, i.e. could not be answered from the cache
+     * (including revalidations)
+     *
+     * @return the number of GET requests that were sent to the server
+     */
+    public long getMissCount() {
+        return this.misses.get();
+    }
+
+    /**
+     * Returns the number of stale cache entries that were successfully revalidated with an ETag
+     *
+     * @return the number of stale cache entries that were successfully revalidated with an ETag
+     */
+    public long getRevalidationCount() {
+        return this.revalidations.get();
+    }
+
+    /**
+     * Returns the number of cache entries that were evicted due to the memory limit
+     *
+     * @return the number of cache entries that were evicted due to the memory limit
+     */
+    public long getEvictionCount() {
+        return this.cache.stats().evictionCount();
+    }
+
+    /**
+     * Returns the number of (fresh or stale) cache entries
+     *
+     * @return the number of (fresh or stale) cache entries
+     */
+    public long getSize() {
+        return this.cache.size();
+    }
+
+
+    private void invalidate(InetSocketAddress remoteSocket, String path) {
+        Iterator<CacheKey> keys = this.cache.asMap().keySet().iterator();
+        while (keys.hasNext()) {
+            CacheKey key = keys.next();
+            if (key.remoteSocket.equals(remoteSocket) && key.path.equals(path)) {
+                keys.remove();
+            }
+        }
+    }
+
+
+    private void addPendingRequest(InetSocketAddress remoteSocket, Token token, PendingRequest pendingRequest) {
+        try {
+            this.lock.writeLock().lock();
+            this.pendingRequests.put(remoteSocket, token, pendingRequest);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+
+    private PendingRequest removePendingRequest(InetSocketAddress remoteSocket, Token token) {
+        try {
+            this.lock.readLock().lock();
+            if (!this.pendingRequests.contains(remoteSocket, token)) {
+                return null;
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+
+        try {
+            this.lock.writeLock().lock();
+            return this.pendingRequests.remove(remoteSocket, token);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Returns a copy of the given {@link OptionValue} that is backed by its own byte array, i.e. does not keep the
+     * buffer of a (zero-copy) decoded message from being released
+     */
+    private static OptionValue copyOf(int optionNumber, OptionValue optionValue) {
+        switch (OptionValue.getType(optionNumber)) {
+            case EMPTY:
+                return new EmptyOptionValue(optionNumber);
+            case OPAQUE:
+                return new OpaqueOptionValue(optionNumber, optionValue.getValue());
+            case STRING:
+                return new StringOptionValue(optionNumber, optionValue.getValue(), true);
+            case UINT:
+                return new UintOptionValue(optionNumber, optionValue.getValue(), true);
+            default:
+                throw new IllegalArgumentException("Unknown type of option " + optionNumber);
+        }
+    }
+
+
+    private static class PendingRequest {
+
+        private final CacheKey key;
+        private final CacheEntry staleEntry;
+        private final String path;
+
+        private PendingRequest(CacheKey key, CacheEntry staleEntry) {
+            this.key = key;
+            this.staleEntry = staleEntry;
+            this.path = key.path;
+        }
+
+        private PendingRequest(String path) {
+            this.key = null;
+            this.staleEntry = null;
+            this.path = path;
+        }
+    }
+
+
+    /**
+     * The cache key, i.e. the remote socket and the cache-key options of a request (without ETags)
+     */
+    private static final class CacheKey {
+
+        private final InetSocketAddress remoteSocket;
+        private final String path;
+        private final ImmutableList<Object> options;
+        private final int length;
+        private final int hashCode;
+
+        private CacheKey(InetSocketAddress remoteSocket, CoapRequest coapRequest) {
+            this.remoteSocket = remoteSocket;
+            this.path = coapRequest.getUriPath();
+
+            ImmutableList.Builder<Object> builder = ImmutableList.builder();
+            int length = 0;
+            OptionTable optionTable = coapRequest.getOptionTable();
+            for (int i = 0; i < optionTable.size(); i++) {
+                int optionNumber = optionTable.getNumber(i);
+                if (isCacheKey(optionNumber)) {
+                    OptionValue optionValue = copyOf(optionNumber, optionTable.getValue(i));
+                    builder.add(optionNumber, optionValue);
+                    length += optionValue.getLength();
+                }
+            }
+            this.options = builder.build();
+            this.length = length;
+            this.hashCode = 31 * remoteSocket.hashCode() + this.options.hashCode();
+        }
+
+        private static boolean isCacheKey(int optionNumber) {
+            return Option.isCacheKey(optionNumber) && optionNumber != Option.ETAG && optionNumber != Option.OBSERVE
+                    && optionNumber != Option.BLOCK_2 && optionNumber != Option.BLOCK_1;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey other = (CacheKey) object;
+            return this.hashCode == other.hashCode && this.remoteSocket.equals(other.remoteSocket) &&
+                    this.options.equals(other.options);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hashCode;
+        }
+    }
+
+
+    /**
+     * A cached {@link MessageCode#CONTENT_205} response, i.e. its options (except the ones to be set per response),
+     * content, ETag and expiry
+     */
+    private static final class CacheEntry {
+
+        private final ImmutableList<Object> options;
+        private final byte[] content;
+        private final byte[] etag;
+        private final long expiry;
+        private final int length;
+
+        private CacheEntry(CoapResponse coapResponse, long now) {
+            ImmutableList.Builder<Object> builder = ImmutableList.builder();
+            int length = 0;
+            OptionTable optionTable = coapResponse.getOptionTable();
+            for (int i = 0; i < optionTable.size(); i++) {
+                int optionNumber = optionTable.getNumber(i);
+                if (isCached(optionNumber)) {
+                    OptionValue optionValue = copyOf(optionNumber, optionTable.getValue(i));
+                    builder.add(optionNumber, optionValue);
+                    length += optionValue.getLength();
+                }
+            }
+            this.options = builder.build();
+            // copy without changing the reader index, i.e. the response is still readable for the application
+            ChannelBuffer buffer = coapResponse.getContent();
+            this.content = new byte[buffer.readableBytes()];
+            buffer.getBytes(buffer.readerIndex(), this.content);
+            this.etag = coapResponse.getEtag();
+            this.expiry = now + TimeUnit.SECONDS.toMillis(coapResponse.getMaxAge());
+            this.length = length + this.content.length;
+        }
+
+        private CacheEntry(CacheEntry staleEntry, byte[] etag, long expiry) {
+            this.options = staleEntry.options;
+            this.content = staleEntry.content;
+            this.etag = etag;
+            this.expiry = expiry;
+            this.length = staleEntry.length;
+        }
+
+        private static boolean isCached(int optionNumber) {
+            return optionNumber != Option.MAX_AGE && optionNumber != Option.ETAG && optionNumber != Option.OBSERVE
+                    && optionNumber != Option.BLOCK_2 && optionNumber != Option.SIZE_2
+                    && optionNumber != Option.ENDPOINT_ID_1 && optionNumber != Option.ENDPOINT_ID_2;
+        }
+
+        private CacheEntry revalidate(CoapResponse validResponse, long now) {
+            byte[] etag = validResponse.getEtag();
+            long expiry = now + TimeUnit.SECONDS.toMillis(validResponse.getMaxAge());
+            return new CacheEntry(this, etag == null ? this.etag : etag, expiry);
+        }
+
+        private CoapResponse createResponse(Token token, long now) {
+            CoapResponse coapResponse = new CoapResponse(MessageType.ACK, MessageCode.CONTENT_205);
+            coapResponse.setToken(token);
+            for (int i = 0; i < this.options.size(); i += 2) {
+                coapResponse.addOption((Integer) this.options.get(i), (OptionValue) this.options.get(i + 1));
+            }
+            if (this.etag != null) {
+                coapResponse.setEtag(this.etag);
+            }
+            long maxAge = Math.max(0, TimeUnit.MILLISECONDS.toSeconds(this.expiry - now));
+            if (maxAge != OptionValue.MAX_AGE_DEFAULT) {
+                coapResponse.setMaxAge(maxAge);
+            }
+            coapResponse.setContent(this.content);
+            return coapResponse;
+        }
+    }
+}
@@ -28,6 +28,7 @@ import de.uzl.itm.ncoap.communication.dispatching.Token;
 import de.uzl.itm.ncoap.message.*;
 import de.uzl.itm.ncoap.message.options.*;
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -64,12 +65,44 @@ import static de.uzl.itm.ncoap.message.MessageCode.*;
  *     </li>
  * </ul>
  *
+ * If the decoder runs in zero-copy mode (see {@link #CoapMessageDecoder(boolean)}) the decoded option values and the
+ * payload are read-only slices of the received {@link ChannelBuffer}, i.e. option values are only copied into byte
+ * arrays on demand (see {@link OptionValue#getValue()}) and the payload is never copied.
+ *
  * @author Oliver Kleine
  */
 public class CoapMessageDecoder extends SimpleChannelUpstreamHandler {
 
     private Logger log = LoggerFactory.getLogger(this.getClass().getName());
 
+    private final boolean zeroCopy;
+
+    /**
+     * Creates a new instance of {@link CoapMessageDecoder} that copies option values and payload of inbound messages.
+     */
+    public CoapMessageDecoder() {
+        this(false);
+    }
+
+    /**
+     * Creates a new instance of {@link CoapMessageDecoder}.
+     *
+     * @param zeroCopy <code>true</code> if option values and payload of inbound messages are to be kept as slices of
+     *                 the received {@link ChannelBuffer} or <code>false</code> if they are to be copied. Zero-copy
+     *                 decoding requires the received buffers not to be re-used by the transport.
+     */
+    public CoapMessageDecoder(boolean zeroCopy) {
+        this.zeroCopy = zeroCopy;
+    }
+
+    /**
+     * Returns <code>true</code> if this decoder keeps option values and payload as slices of the received buffer
+     *
+     * @return <code>true</code> if this decoder keeps option values and payload as slices of the received buffer
+     */
+    public boolean isZeroCopy() {
+        return this.zeroCopy;
+    }
 
     @Override
     public void handleUpstream(ChannelHandlerContext ctx, ChannelEvent evt) throws Exception {
@@ -185,10 +218,16 @@ public class CoapMessageDecoder extends SimpleChannelUpstreamHandler {
 
         //The remaining bytes (if any) are the messages payload. If there is no payload, reader and writer index are
         //at the same position (buf.readableBytes() == 0).
-        buffer.discardReadBytes();
+        ChannelBuffer content;
+        if (this.zeroCopy) {
+            content = buffer.readable() ? ChannelBuffers.unmodifiableBuffer(buffer.slice()) : ChannelBuffers.EMPTY_BUFFER;
+        } else {
+            buffer.discardReadBytes();
+            content = buffer;
+        }
 
         try {
-            coapMessage.setContent(buffer);
+            coapMessage.setContent(content);
         } catch (IllegalArgumentException e) {
             String warning = "Message code {} does not allow content. Ignore {} bytes.";
             log.warn(warning, coapMessage.getMessageCode(), buffer.readableBytes());
@@ -231,35 +270,10 @@ public class CoapMessageDecoder extends SimpleChannelUpstreamHandler {
             log.info("Decode option no. {} with length of {} bytes.", actualOptionNumber, optionLength);
 
             try {
-                byte[] optionValue = new byte[optionLength];
-                buffer.readBytes(optionValue);
-
-                switch(OptionValue.getType(actualOptionNumber)) {
-                    case EMPTY: {
-                        EmptyOptionValue value = new EmptyOptionValue(actualOptionNumber);
-                        coapMessage.addOption(actualOptionNumber, value);
-                        break;
-                    }
-                    case OPAQUE: {
-                        OpaqueOptionValue value = new OpaqueOptionValue(actualOptionNumber, optionValue);
-                        coapMessage.addOption(actualOptionNumber, value);
-                        break;
-                    }
-                    case STRING: {
-                        StringOptionValue value = new StringOptionValue(actualOptionNumber, optionValue, true);
-                        coapMessage.addOption(actualOptionNumber, value);
-                        break;
-                    }
-                    case UINT: {
-                        UintOptionValue value = new UintOptionValue(actualOptionNumber, optionValue, true);
-                        coapMessage.addOption(actualOptionNumber, value);
-                        break;
-                    }
-                    default: {
-                        log.error("This should never happen!");
-                        throw new RuntimeException("This should never happen!");
-                    }
-                }
+                // in zero-copy mode the option value refers to the received datagram (i.e. is not copied)
+                ChannelBuffer optionValue = this.zeroCopy ?
+                        buffer.readSlice(optionLength) : buffer.readBytes(optionLength);
+                addOption(coapMessage, actualOptionNumber, optionValue);
             } catch (IllegalArgumentException e) {
                 //failed option creation leads to an illegal argument exception
                 log.warn("Exception while decoding option!", e);
@@ -291,6 +305,34 @@ public class CoapMessageDecoder extends SimpleChannelUpstreamHandler {
 
 
 
+    private void addOption(CoapMessage coapMessage, int optionNumber, ChannelBuffer optionValue)
+            throws IllegalArgumentException {
+
+        switch(OptionValue.getType(optionNumber)) {
+            case EMPTY: {
+                coapMessage.addOption(optionNumber, new EmptyOptionValue(optionNumber));
+                break;
+            }
+            case OPAQUE: {
+                coapMessage.addOption(optionNumber, new OpaqueOptionValue(optionNumber, optionValue));
+                break;
+            }
+            case STRING: {
+                coapMessage.addOption(optionNumber, new StringOptionValue(optionNumber, optionValue, true));
+                break;
+            }
+            case UINT: {
+                coapMessage.addOption(optionNumber, new UintOptionValue(optionNumber, optionValue, true));
+                break;
+            }
+            default: {
+                log.error("This should never happen!");
+                throw new RuntimeException("This should never happen!");
+            }
+        }
+    }
+
+
 
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent exceptionEvent) {
@@ -71,14 +71,17 @@
 
 package de.uzl.itm.ncoap.communication.codec;
 
-import com.google.common.primitives.Ints;
 import de.uzl.itm.ncoap.communication.dispatching.Token;
 import de.uzl.itm.ncoap.communication.events.MiscellaneousErrorEvent;
 import de.uzl.itm.ncoap.message.CoapMessage;
+import de.uzl.itm.ncoap.message.CoapResponse;
 import de.uzl.itm.ncoap.message.MessageCode;
+import de.uzl.itm.ncoap.message.OptionTable;
 import de.uzl.itm.ncoap.message.options.OptionValue;
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferFactory;
 import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.buffer.HeapChannelBufferFactory;
 import org.jboss.netty.channel.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -91,6 +94,16 @@ import java.net.InetSocketAddress;
  * an exception thrown during the encoding process, an internal message is sent upstream, i.e. in the direction of
  * the application.
  *
+ * The encoding is done in two passes. The first pass computes the exact length of the encoded message (header, token,
+ * options and payload). The second pass writes the complete message into a single buffer of exactly that size, i.e.
+ * each outbound message causes exactly one buffer allocation from the {@link ChannelBufferFactory} given to the
+ * constructor or to {@link #setBufferFactory(ChannelBufferFactory)} (e.g. a {@link org.jboss.netty.buffer.DirectChannelBufferFactory} to write from pre-allocated direct
+ * memory).
+ *
+ * {@link CoapResponse}s referring to a {@link SharedEncoding} (e.g. the update notifications of a single notification
+ * round) are encoded by encoding the header, the token and the leading options and copying the (once) encoded
+ * trailing options and payload.
+ *
  * @author Oliver Kleine
  */
 public class CoapMessageEncoder extends SimpleChannelDownstreamHandler {
@@ -107,6 +120,42 @@ public class CoapMessageEncoder extends SimpleChannelDownstreamHandler {
      */
     public static final int MAX_OPTION_LENGTH = 65804;
 
+    private volatile ChannelBufferFactory bufferFactory;
+
+    /**
+     * Creates a new instance of {@link CoapMessageEncoder} that encodes messages into heap buffers.
+     */
+    public CoapMessageEncoder() {
+        this(HeapChannelBufferFactory.getInstance());
+    }
+
+    /**
+     * Creates a new instance of {@link CoapMessageEncoder}.
+     *
+     * @param bufferFactory the {@link ChannelBufferFactory} to get the buffers for the encoded messages from
+     */
+    public CoapMessageEncoder(ChannelBufferFactory bufferFactory) {
+        this.bufferFactory = bufferFactory;
+    }
+
+    /**
+     * Sets the {@link ChannelBufferFactory} to get the buffers for the encoded messages from
+     *
+     * @param bufferFactory the {@link ChannelBufferFactory} to get the buffers for the encoded messages from
+     */
+    public void setBufferFactory(ChannelBufferFactory bufferFactory) {
+        this.bufferFactory = bufferFactory;
+    }
+
+    /**
+     * Returns the {@link ChannelBufferFactory} to get the buffers for the encoded messages from
+     *
+     * @return the {@link ChannelBufferFactory} to get the buffers for the encoded messages from
+     */
+    public ChannelBufferFactory getBufferFactory() {
+        return this.bufferFactory;
+    }
+
 
     @Override
     public void handleDownstream(ChannelHandlerContext ctx, ChannelEvent event) throws Exception {
@@ -134,33 +183,41 @@ public class CoapMessageEncoder extends SimpleChannelDownstreamHandler {
     protected ChannelBuffer encode(CoapMessage coapMessage) throws OptionCodecException {
         LOG.info("CoapMessage to be encoded: {}", coapMessage);
 
-        // start encoding
-        ChannelBuffer encodedMessage = ChannelBuffers.dynamicBuffer(0);
-
-        // encode HEADER and TOKEN
-        encodeHeader(encodedMessage, coapMessage);
-        LOG.debug("Encoded length of message (after HEADER + TOKEN): {}", encodedMessage.readableBytes());
-
+        // encode HEADER only (no token, no options, no content) for empty messages
         if (coapMessage.getMessageCode() == MessageCode.EMPTY) {
-            encodedMessage = ChannelBuffers.wrappedBuffer(Ints.toByteArray(encodedMessage.getInt(0) & 0xF0FFFFFF));
+            ChannelBuffer encodedMessage = this.bufferFactory.getBuffer(4);
+            encodedMessage.writeInt(getEncodedHeader(coapMessage, 0));
             return encodedMessage;
         }
 
-        if (coapMessage.getAllOptions().size() == 0 && coapMessage.getContent().readableBytes() == 0) {
-            return encodedMessage;
+        // copy the shared part of the encoding (if applicable)
+        if (coapMessage instanceof CoapResponse && ((CoapResponse) coapMessage).getSharedEncoding() != null) {
+            ChannelBuffer encodedMessage = encode(coapMessage, ((CoapResponse) coapMessage).getSharedEncoding());
+            if (encodedMessage != null) {
+                return encodedMessage;
+            }
         }
 
+        // first pass: compute the exact length of the encoded message
+        int encodedLength = getEncodedLength(coapMessage);
+        ChannelBuffer encodedMessage = this.bufferFactory.getBuffer(encodedLength);
+
+        // second pass: encode HEADER and TOKEN
+        encodeHeader(encodedMessage, coapMessage);
+        LOG.debug("Encoded length of message (after HEADER + TOKEN): {}", encodedMessage.readableBytes());
+
         // encode OPTIONS (if any)
         encodeOptions(encodedMessage, coapMessage);
         LOG.debug("Encoded length of message (after OPTIONS): {}", encodedMessage.readableBytes());
 
         // encode payload (if any)
-        if (coapMessage.getContent().readableBytes() > 0) {
+        ChannelBuffer content = coapMessage.getContent();
+        if (content.readableBytes() > 0) {
             // add END-OF-OPTIONS marker only if there is payload
             encodedMessage.writeByte(255);
 
-            // add payload
-            encodedMessage = ChannelBuffers.wrappedBuffer(encodedMessage, coapMessage.getContent());
+            // add payload (without changing the contents reader index)
+            encodedMessage.writeBytes(content, content.readerIndex(), content.readableBytes());
             LOG.debug("Encoded length of message (after CONTENT): {}", encodedMessage.readableBytes());
         }
 
@@ -168,15 +225,143 @@ public class CoapMessageEncoder extends SimpleChannelDownstreamHandler {
     }
 
 
+    private ChannelBuffer encode(CoapMessage coapMessage, SharedEncoding sharedEncoding)
+            throws OptionCodecException {
+
+        // the leading options (e.g. ETAG and OBSERVE) are encoded per message
+        OptionTable options = coapMessage.getOptionTable();
+        int previousOptionNumber = 0;
+        int index = 0;
+        int length = 4 + coapMessage.getToken().getBytes().length;
+        while(index < options.size() && options.getNumber(index) <= sharedEncoding.getPreviousOptionNumber()) {
+            int optionNumber = options.getNumber(index);
+            length += getEncodedOptionLength(optionNumber, options.getValue(index), previousOptionNumber);
+            previousOptionNumber = optionNumber;
+            index++;
+        }
+
+        if (previousOptionNumber != sharedEncoding.getPreviousOptionNumber() ||
+                !sharedEncoding.isApplicable(coapMessage, index)) {
+            LOG.debug("Shared encoding is not applicable (message was modified).");
+            return null;
+        }
+
+        byte[] sharedBytes = sharedEncoding.getEncoded();
+        if (sharedBytes == null) {
+            sharedBytes = encodeSharedPart(coapMessage, index, previousOptionNumber);
+            sharedEncoding.setEncoded(sharedBytes);
+        }
+
+        ChannelBuffer encodedMessage = this.bufferFactory.getBuffer(length + sharedBytes.length);
+        encodeHeader(encodedMessage, coapMessage);
+        previousOptionNumber = 0;
+        for(int i = 0; i < index; i++) {
+            int optionNumber = options.getNumber(i);
+            encodeOption(encodedMessage, optionNumber, options.getValue(i), previousOptionNumber);
+            previousOptionNumber = optionNumber;
+        }
+        encodedMessage.writeBytes(sharedBytes);
+
+        return encodedMessage;
+    }
+
+
+    private byte[] encodeSharedPart(CoapMessage coapMessage, int index, int previousOptionNumber)
+            throws OptionCodecException {
+
+        OptionTable options = coapMessage.getOptionTable();
+        ChannelBuffer content = coapMessage.getContent();
+
+        int length = content.readableBytes() > 0 ? 1 + content.readableBytes() : 0;
+        int prevNumber = previousOptionNumber;
+        for(int i = index; i < options.size(); i++) {
+            length += getEncodedOptionLength(options.getNumber(i), options.getValue(i), prevNumber);
+            prevNumber = options.getNumber(i);
+        }
+
+        ChannelBuffer buffer = ChannelBuffers.buffer(length);
+        prevNumber = previousOptionNumber;
+        for(int i = index; i < options.size(); i++) {
+            encodeOption(buffer, options.getNumber(i), options.getValue(i), prevNumber);
+            prevNumber = options.getNumber(i);
+        }
+
+        if (content.readableBytes() > 0) {
+            buffer.writeByte(255);
+            buffer.writeBytes(content, content.readerIndex(), content.readableBytes());
+        }
+
+        return buffer.array();
+    }
+
+
+    /**
+     * Returns the exact number of bytes the given {@link CoapMessage} is encoded to, i.e. the length of the header,
+     * the token, the (delta-encoded) options, the end-of-options marker (if there is payload) and the payload.
+     *
+     * @param coapMessage the {@link CoapMessage} to compute the encoded length of
+     *
+     * @return the exact number of bytes the given {@link CoapMessage} is encoded to
+     *
+     * @throws OptionCodecException if at least one of the options can not be encoded
+     */
+    protected int getEncodedLength(CoapMessage coapMessage) throws OptionCodecException {
+        if (coapMessage.getMessageCode() == MessageCode.EMPTY) {
+            return 4;
+        }
+
+        int length = 4 + coapMessage.getToken().getBytes().length;
+
+        OptionTable options = coapMessage.getOptionTable();
+        int previousOptionNumber = 0;
+        for(int i = 0; i < options.size(); i++) {
+            int optionNumber = options.getNumber(i);
+            length += getEncodedOptionLength(optionNumber, options.getValue(i), previousOptionNumber);
+            previousOptionNumber = optionNumber;
+        }
+
+        int contentLength = coapMessage.getContent().readableBytes();
+        if (contentLength > 0) {
+            length += 1 + contentLength;
+        }
+
+        return length;
+    }
+
+
+    private static int getEncodedOptionLength(int optionNumber, OptionValue optionValue, int prevNumber)
+            throws OptionCodecException {
+
+        int optionDelta = optionNumber - prevNumber;
+        int optionLength = optionValue.getLength();
+
+        if (optionDelta < 0 || optionDelta > MAX_OPTION_DELTA || optionLength > MAX_OPTION_LENGTH) {
+            throw new OptionCodecException(optionNumber);
+        }
+
+        return 1 + getExtendedFieldLength(optionDelta) + getExtendedFieldLength(optionLength) + optionLength;
+    }
+
+
+    private static int getExtendedFieldLength(int value) {
+        return value < 13 ? 0 : (value < 269 ? 1 : 2);
+    }
+
+
+    private static int getEncodedHeader(CoapMessage coapMessage, int tokenLength) {
+        return ((coapMessage.getProtocolVersion()  & 0x03)     << 30)
+             | ((coapMessage.getMessageType()      & 0x03)     << 28)
+             | ((tokenLength                       & 0x0F)     << 24)
+             | ((coapMessage.getMessageCode()      & 0xFF)     << 16)
+             | ((coapMessage.getMessageID()        & 0xFFFF));
+    }
+
+
     protected void encodeHeader(ChannelBuffer buffer, CoapMessage coapMessage) {
 
         byte[] token = coapMessage.getToken().getBytes();
 
-        int encodedHeader = ((coapMessage.getProtocolVersion()  & 0x03)     << 30)
-                          | ((coapMessage.getMessageType()      & 0x03)     << 28)
-                          | ((token.length                      & 0x0F)     << 24)
-                          | ((coapMessage.getMessageCode()      & 0xFF)     << 16)
-                          | ((coapMessage.getMessageID()        & 0xFFFF));
+        int encodedHeader = getEncodedHeader(coapMessage, token.length);
 
         buffer.writeInt(encodedHeader);
 
@@ -198,13 +383,13 @@ public class CoapMessageEncoder extends SimpleChannelDownstreamHandler {
     protected void encodeOptions(ChannelBuffer buffer, CoapMessage coapMessage) throws OptionCodecException {
 
         //Encode options one after the other and append buf option to the buf
+        OptionTable options = coapMessage.getOptionTable();
         int previousOptionNumber = 0;
 
-        for(int optionNumber : coapMessage.getAllOptions().keySet()) {
-            for(OptionValue optionValue : coapMessage.getOptions(optionNumber)) {
-                encodeOption(buffer, optionNumber, optionValue, previousOptionNumber);
-                previousOptionNumber = optionNumber;
-            }
+        for(int i = 0; i < options.size(); i++) {
+            int optionNumber = options.getNumber(i);
+            encodeOption(buffer, optionNumber, options.getValue(i), previousOptionNumber);
+            previousOptionNumber = optionNumber;
         }
     }
 
@@ -221,7 +406,7 @@ public class CoapMessageEncoder extends SimpleChannelDownstreamHandler {
 
 
         int optionDelta = optionNumber - prevNumber;
-        int optionLength = optionValue.getValue().length;
+        int optionLength = optionValue.getLength();
 
         if (optionLength > MAX_OPTION_LENGTH) {
             LOG.error("Option no. {} exceeds maximum option length (actual: {}, max: {}).",
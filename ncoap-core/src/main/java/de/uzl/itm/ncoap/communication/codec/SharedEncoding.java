@@ -0,0 +1,119 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.codec;
+
+import de.uzl.itm.ncoap.message.CoapMessage;
+import de.uzl.itm.ncoap.message.OptionTable;
+import de.uzl.itm.ncoap.message.options.OptionValue;
+import org.jboss.netty.buffer.ChannelBuffer;
+
+/**
+ * <p>A {@link SharedEncoding} is the encoded trailing part of several {@link CoapMessage}s that only differ in their
+ * header, their token and their leading options, e.g. the update notifications of a single notification round. The
+ * trailing part consists of all options with a number greater than {@link #getPreviousOptionNumber()}, the
+ * end-of-options marker (if there is payload) and the payload.</p>
+ *
+ * <p>The {@link CoapMessageEncoder} encodes the trailing part once (upon the first message referring to this
+ * {@link SharedEncoding}) and copies the encoded bytes for all subsequent messages. A message is only encoded that
+ * way, if its trailing options and its content are still the very same instances as in the template given to the
+ * constructor, i.e. if none of the downstream handlers replaced any of them (e.g. to send the content blockwise).
+ * Otherwise the message is encoded completely.</p>
+ */
+public class SharedEncoding {
+
+    private final int previousOptionNumber;
+    private final int[] numbers;
+    private final OptionValue[] values;
+    private final ChannelBuffer content;
+    private final int contentLength;
+
+    private volatile byte[] encoded;
+
+    /**
+     * Creates a new instance of {@link SharedEncoding}
+     *
+     * @param template the {@link CoapMessage} providing the trailing options and the content to be shared
+     * @param previousOptionNumber the number of the last option that is encoded per message (all options with a
+     *                             greater number are shared)
+     */
+    public SharedEncoding(CoapMessage template, int previousOptionNumber) {
+        OptionTable options = template.getOptionTable();
+        int start = 0;
+        while(start < options.size() && options.getNumber(start) <= previousOptionNumber) {
+            start++;
+        }
+
+        this.previousOptionNumber = previousOptionNumber;
+        this.numbers = new int[options.size() - start];
+        this.values = new OptionValue[options.size() - start];
+        for(int i = start; i < options.size(); i++) {
+            this.numbers[i - start] = options.getNumber(i);
+            this.values[i - start] = options.getValue(i);
+        }
+        this.content = template.getContent();
+        this.contentLength = this.content.readableBytes();
+    }
+
+    /**
+     * Returns the number of the last option that is encoded per message, i.e. all options with a greater number are
+     * contained in this {@link SharedEncoding}
+     *
+     * @return the number of the last option that is encoded per message
+     */
+    public int getPreviousOptionNumber() {
+        return this.previousOptionNumber;
+    }
+
+
+    /**
+     * Returns <code>true</code> if the options of the given {@link CoapMessage} starting at the given index as well
+     * as the content are the same instances as the ones this {@link SharedEncoding} was created from.
+     */
+    boolean isApplicable(CoapMessage coapMessage, int index) {
+        if (coapMessage.getContent() != this.content || this.content.readableBytes() != this.contentLength) {
+            return false;
+        }
+
+        OptionTable options = coapMessage.getOptionTable();
+        if (options.size() - index != this.numbers.length) {
+            return false;
+        }
+
+        for(int i = 0; i < this.numbers.length; i++) {
+            if (options.getNumber(index + i) != this.numbers[i] || options.getValue(index + i) != this.values[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    byte[] getEncoded() {
+        return this.encoded;
+    }
+
+    void setEncoded(byte[] encoded) {
+        this.encoded = encoded;
+    }
+}
@@ -24,7 +24,6 @@
  */
 package de.uzl.itm.ncoap.communication.dispatching;
 
-import com.google.common.primitives.Bytes;
 import com.google.common.primitives.Longs;
 import com.google.common.primitives.UnsignedLongs;
 
@@ -38,6 +37,9 @@ import java.util.Arrays;
  * array containing a single zero byte (all bits set to 0) is different from a byte array backed by a byte array
  * containing two zero bytes.
  *
+ * Internally, the bytes are additionally kept as a primitive <code>long</code> (big-endian) plus the length, so
+ * that {@link #equals(Object)}, {@link #hashCode()} and {@link #compareTo(Token)} do not need to touch the array.
+ *
  * @author Oliver Kleine
  */
 public class Token implements Comparable<Token>{
@@ -46,7 +48,8 @@ public class Token implements Comparable<Token>{
 
     private final static char[] hexArray = "0123456789ABCDEF".toCharArray();
 
-    private byte[] token;
+    private final byte[] token;
+    private final long value;
 
     /**
      * Creates a new {@link Token} instance.
@@ -60,6 +63,34 @@ public class Token implements Comparable<Token>{
             throw new IllegalArgumentException("Maximum token length is 8 (but given length was " + token.length + ")");
 
         this.token = token;
+
+        long tmp = 0;
+        for (byte b : token) {
+            tmp = (tmp << 8) | (b & 0xFF);
+        }
+        this.value = tmp;
+    }
+
+    /**
+     * Creates a new {@link Token} instance consisting of the given number of lower-order bytes of the given value.
+     *
+     * @param value the value (big-endian) whose lower-order bytes this {@link Token} is supposed to consist of
+     * @param length the number of bytes (between 0 and 8)
+     *
+     * @throws java.lang.IllegalArgumentException if the given length is not between 0 and 8 or if the given value
+     * does not fit into the given number of bytes
+     */
+    public Token(long value, int length) {
+        if (length < 0 || length > 8)
+            throw new IllegalArgumentException("Token length must be between 0 and 8 (but given length was " +
+                    length + ")");
+
+        if (length < 8 && (value >>> (length * 8)) != 0)
+            throw new IllegalArgumentException("Value " + value + " does not fit into " + length + " bytes");
+
+        byte[] bytes = Longs.toByteArray(value);
+        this.token = length == 8 ? bytes : Arrays.copyOfRange(bytes, 8 - length, 8);
+        this.value = value;
     }
 
     /**
@@ -70,6 +101,22 @@ public class Token implements Comparable<Token>{
         return this.token;
     }
 
+    /**
+     * Returns the value of the bytes of this {@link Token} interpreted as an unsigned big-endian number
+     * @return the value of the bytes of this {@link Token} interpreted as an unsigned big-endian number
+     */
+    public long getValue() {
+        return this.value;
+    }
+
+    /**
+     * Returns the number of bytes of this {@link Token} (between 0 and 8)
+     * @return the number of bytes of this {@link Token} (between 0 and 8)
+     */
+    public int getLength() {
+        return this.token.length;
+    }
+
 
     /**
      * Returns a representation of the token in form of a HEX string or "<EMPTY>" for tokens of length 0
@@ -102,29 +149,25 @@ public class Token implements Comparable<Token>{
             return false;
 
         Token other = (Token) object;
-        return Arrays.equals(this.getBytes(), other.getBytes());
+        return this.value == other.value && this.getLength() == other.getLength();
     }
 
 
     @Override
     public int hashCode() {
-        return Arrays.hashCode(token);
+        return Longs.hashCode(this.value) * 31 + this.getLength();
     }
 
 
     @Override
     public int compareTo(Token other) {
 
-        if (other.equals(this))
-            return 0;
-
-        if (this.getBytes().length < other.getBytes().length)
+        if (this.getLength() < other.getLength())
             return -1;
 
-        if (this.getBytes().length > other.getBytes().length)
+        if (this.getLength() > other.getLength())
             return 1;
 
-        return UnsignedLongs.compare(Longs.fromByteArray(Bytes.concat(this.getBytes(), new byte[8])),
-                                     Longs.fromByteArray(Bytes.concat(other.getBytes(), new byte[8])));
+        return UnsignedLongs.compare(this.value, other.value);
     }
 }
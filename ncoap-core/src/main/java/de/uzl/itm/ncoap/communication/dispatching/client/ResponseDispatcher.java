@@ -24,8 +24,13 @@
  */
 package de.uzl.itm.ncoap.communication.dispatching.client;
 
-import com.google.common.collect.HashBasedTable;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import de.uzl.itm.ncoap.application.client.ClientCallback;
+import de.uzl.itm.ncoap.application.client.CoapRequestFailedException;
+import de.uzl.itm.ncoap.communication.blockwise.BlockSize;
 import de.uzl.itm.ncoap.communication.AbstractCoapChannelHandler;
 import de.uzl.itm.ncoap.communication.dispatching.Token;
 import de.uzl.itm.ncoap.communication.events.client.*;
@@ -34,13 +39,20 @@ import de.uzl.itm.ncoap.message.CoapMessage;
 import de.uzl.itm.ncoap.message.CoapRequest;
 import de.uzl.itm.ncoap.message.CoapResponse;
 import de.uzl.itm.ncoap.message.MessageCode;
+import de.uzl.itm.ncoap.message.OptionTable;
+import de.uzl.itm.ncoap.message.options.UintOptionValue;
 import org.jboss.netty.channel.*;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * <p>The {@link ResponseDispatcher} is responsible for
@@ -59,32 +71,155 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 public class ResponseDispatcher extends AbstractCoapChannelHandler implements RemoteServerSocketChangedEvent.Handler,
         EmptyAckReceivedEvent.Handler, ResetReceivedEvent.Handler, MessageIDAssignedEvent.Handler,
         MessageRetransmittedEvent.Handler, TransmissionTimeoutEvent.Handler, NoMessageIDAvailableEvent.Handler,
-        MiscellaneousErrorEvent.Handler, TokenReleasedEvent.Handler, ResponseBlockReceivedEvent.Handler,
+        MiscellaneousErrorEvent.Handler, ResponseBlockReceivedEvent.Handler,
         BlockwiseResponseTransferFailedEvent.Handler, ContinueResponseReceivedEvent.Handler,
         MessageIDReleasedEvent.Handler {
 
+    /**
+     * The default maximum number of {@link ClientCallback}s waiting for responses, i.e. open requests and
+     * running observations ({@value #DEFAULT_MAX_CALLBACKS})
+     */
+    public static final int DEFAULT_MAX_CALLBACKS = 10000;
+
     private Logger log = LoggerFactory.getLogger(this.getClass().getName());
 
     private TokenFactory tokenFactory;
 
-    private HashBasedTable<InetSocketAddress, Token, ClientCallback> clientCallbacks;
-    private ReentrantReadWriteLock lock;
+    private ConcurrentMap<CallbackKey, ClientCallback> clientCallbacks;
+    private AtomicInteger callbackCount;
+    private volatile int maxCallbacks;
+
+    private volatile boolean requestCoalescing;
+    private ConcurrentMap<RequestKey, CoalescedCallback> ongoingRequests;
+    private AtomicLong coalescedRequests;
 
 
     /**
-     * Creates a new instance of {@link ResponseDispatcher}
+     * Creates a new instance of {@link ResponseDispatcher} accepting up to {@link #DEFAULT_MAX_CALLBACKS}
+     * {@link ClientCallback}s at a time and using the shared default {@link Timer} (see {@link #getDefaultTimer()})
      *
      * @param executor     the {@link java.util.concurrent.ScheduledExecutorService} to execute the tasks, e.g. send,
      *                     receive and process {@link de.uzl.itm.ncoap.message.CoapMessage}s.
      * @param tokenFactory the {@link TokenFactory} to
      *                     provide {@link Token}
      *                     instances for outbound {@link de.uzl.itm.ncoap.message.CoapRequest}s
+     *
+     * @deprecated use {@link #ResponseDispatcher(ScheduledExecutorService, Timer, TokenFactory)} instead
      */
+    @Deprecated
     public ResponseDispatcher(ScheduledExecutorService executor, TokenFactory tokenFactory) {
-        super(executor);
-        this.clientCallbacks = HashBasedTable.create();
-        this.lock = new ReentrantReadWriteLock();
+        this(executor, getDefaultTimer(), tokenFactory, DEFAULT_MAX_CALLBACKS);
+    }
+
+    /**
+     * Creates a new instance of {@link ResponseDispatcher} using the shared default {@link Timer} (see
+     * {@link #getDefaultTimer()})
+     *
+     * @param executor     the {@link java.util.concurrent.ScheduledExecutorService} to execute the tasks, e.g. send,
+     *                     receive and process {@link de.uzl.itm.ncoap.message.CoapMessage}s.
+     * @param tokenFactory the {@link TokenFactory} to
+     *                     provide {@link Token}
+     *                     instances for outbound {@link de.uzl.itm.ncoap.message.CoapRequest}s
+     * @param maxCallbacks the maximum number of {@link ClientCallback}s waiting for responses at a time
+     *
+     * @deprecated use {@link #ResponseDispatcher(ScheduledExecutorService, Timer, TokenFactory, int)} instead
+     */
+    @Deprecated
+    public ResponseDispatcher(ScheduledExecutorService executor, TokenFactory tokenFactory, int maxCallbacks) {
+        this(executor, getDefaultTimer(), tokenFactory, maxCallbacks);
+    }
+
+    /**
+     * Creates a new instance of {@link ResponseDispatcher} accepting up to {@link #DEFAULT_MAX_CALLBACKS}
+     * {@link ClientCallback}s at a time
+     *
+     * @param executor     the {@link java.util.concurrent.ScheduledExecutorService} to execute the tasks, e.g. send,
+     *                     receive and process {@link de.uzl.itm.ncoap.message.CoapMessage}s.
+     * @param timer        the {@link Timer} to schedule the deadlines of {@link ListenableFuture}-based requests
+     * @param tokenFactory the {@link TokenFactory} to
+     *                     provide {@link Token}
+     *                     instances for outbound {@link de.uzl.itm.ncoap.message.CoapRequest}s
+     */
+    public ResponseDispatcher(ScheduledExecutorService executor, Timer timer, TokenFactory tokenFactory) {
+        this(executor, timer, tokenFactory, DEFAULT_MAX_CALLBACKS);
+    }
+
+    /**
+     * Creates a new instance of {@link ResponseDispatcher}
+     *
+     * @param executor     the {@link java.util.concurrent.ScheduledExecutorService} to execute the tasks, e.g. send,
+     *                     receive and process {@link de.uzl.itm.ncoap.message.CoapMessage}s.
+     * @param timer        the {@link Timer} to schedule the deadlines of {@link ListenableFuture}-based requests
+     * @param tokenFactory the {@link TokenFactory} to
+     *                     provide {@link Token}
+     *                     instances for outbound {@link de.uzl.itm.ncoap.message.CoapRequest}s
+     * @param maxCallbacks the maximum number of {@link ClientCallback}s waiting for responses at a time
+     */
+    public ResponseDispatcher(ScheduledExecutorService executor, Timer timer, TokenFactory tokenFactory,
+                              int maxCallbacks) {
+        super(executor, timer);
+        this.clientCallbacks = new ConcurrentHashMap<>();
+        this.callbackCount = new AtomicInteger();
+        this.ongoingRequests = new ConcurrentHashMap<>();
+        this.coalescedRequests = new AtomicLong();
         this.tokenFactory = tokenFactory;
+        setMaxCallbacks(maxCallbacks);
+    }
+
+
+    /**
+     * Sets the maximum number of {@link ClientCallback}s waiting for responses (i.e. open requests and running
+     * observations). Further requests are not sent but their {@link ClientCallback} is notified via
+     * {@link ClientCallback#processMiscellaneousError(String)}.
+     *
+     * @param maxCallbacks the maximum number of {@link ClientCallback}s waiting for responses at a time
+     */
+    public void setMaxCallbacks(int maxCallbacks) {
+        if (maxCallbacks < 1) {
+            throw new IllegalArgumentException("Maximum number of callbacks must be positive (was: " +
+                    maxCallbacks + ")");
+        }
+        this.maxCallbacks = maxCallbacks;
+    }
+
+    /**
+     * Returns the maximum number of {@link ClientCallback}s waiting for responses at a time
+     *
+     * @return the maximum number of {@link ClientCallback}s waiting for responses at a time
+     */
+    public int getMaxCallbacks() {
+        return this.maxCallbacks;
+    }
+
+    /**
+     * Returns the number of {@link ClientCallback}s currently waiting for responses
+     *
+     * @return the number of {@link ClientCallback}s currently waiting for responses
+     */
+    public int getCallbackCount() {
+        return this.callbackCount.get();
+    }
+
+    /**
+     * Enables or disables the coalescing of requests. If enabled, a GET request (without observe option) that is
+     * identical to an ongoing request (i.e. same remote socket and options) is not sent but waits for the response
+     * on the ongoing request. The response is then delivered to the {@link ClientCallback}s of all identical
+     * requests. Note, that cancelling a request (see {@link #sendCoapRequest(CoapRequest, InetSocketAddress, long,
+     * TimeUnit)}) does not stop the shared exchange.
+     *
+     * @param requestCoalescing <code>true</code> to enable request coalescing and <code>false</code> to disable it
+     */
+    public void setRequestCoalescing(boolean requestCoalescing) {
+        this.requestCoalescing = requestCoalescing;
+    }
+
+    /**
+     * Returns the number of requests that were not sent but joined an identical ongoing request
+     *
+     * @return the number of requests that were not sent but joined an identical ongoing request
+     */
+    public long getCoalescedRequestCount() {
+        return this.coalescedRequests.get();
     }
 
 
@@ -130,13 +265,6 @@ public class ResponseDispatcher extends AbstractCoapChannelHandler implements Re
         }
     }
 
-    @Override
-    public void handleEvent(TokenReleasedEvent event) {
-        Token token = event.getToken();
-        this.tokenFactory.releaseToken(token);
-    }
-
-
     @Override
     public void handleEvent(ResetReceivedEvent event) {
         InetSocketAddress remoteSocket = event.getRemoteSocket();
@@ -278,6 +406,71 @@ public class ResponseDispatcher extends AbstractCoapChannelHandler implements Re
         getExecutor().submit(new WriteCoapMessageTask(coapRequest, remoteSocket, callback));
     }
 
+    /**
+     * This method is called by the {@link de.uzl.itm.ncoap.application.client.CoapClient} to send a request to a
+     * remote endpoint (server) and returns a {@link ListenableFuture} that is set with the first
+     * {@link CoapResponse}. If there is no response until the given deadline the future fails with a
+     * {@link TimeoutException}. Other failures (e.g. transmission timeout or RST) are reported as
+     * {@link CoapRequestFailedException}. Cancelling the future or reaching the deadline releases the token, i.e.
+     * stops pending retransmissions and causes a later response to be rejected.
+     *
+     * @param coapRequest the {@link de.uzl.itm.ncoap.message.CoapRequest} to be sent
+     * @param remoteSocket the {@link java.net.InetSocketAddress} of the recipient
+     * @param timeout the maximum time to wait for a response (or 0 for no deadline)
+     * @param unit the {@link TimeUnit} of the given timeout
+     *
+     * @return a {@link ListenableFuture} to be set with the {@link CoapResponse}
+     */
+    public ListenableFuture<CoapResponse> sendCoapRequest(CoapRequest coapRequest, InetSocketAddress remoteSocket,
+                                                          long timeout, TimeUnit unit) {
+        ResponseFuture future = new ResponseFuture(remoteSocket);
+        getExecutor().submit(new WriteCoapMessageTask(coapRequest, remoteSocket, future));
+        future.scheduleDeadline(timeout, unit);
+        return future;
+    }
+
+    /**
+     * Sends the given {@link CoapRequest}s to the remote endpoints at the same positions of the given list of
+     * {@link InetSocketAddress}es. Other than calling
+     * {@link #sendCoapRequest(CoapRequest, InetSocketAddress, long, TimeUnit)} for each request, the whole batch is
+     * written by a single task of the {@link ScheduledExecutorService}.
+     *
+     * @param coapRequests the {@link CoapRequest}s to be sent
+     * @param remoteSockets the {@link InetSocketAddress}es of the recipients (same size as the list of requests)
+     * @param timeout the maximum time to wait for each response (or 0 for no deadline)
+     * @param unit the {@link TimeUnit} of the given timeout
+     *
+     * @return a list of {@link ListenableFuture}s in the order of the given requests
+     */
+    public List<ListenableFuture<CoapResponse>> sendAll(List<CoapRequest> coapRequests,
+            List<InetSocketAddress> remoteSockets, long timeout, TimeUnit unit) {
+
+        Preconditions.checkArgument(coapRequests.size() == remoteSockets.size(),
+                "Number of requests (%s) and remote sockets (%s) differ.", coapRequests.size(), remoteSockets.size());
+
+        List<ListenableFuture<CoapResponse>> futures = new ArrayList<>(coapRequests.size());
+        final List<WriteCoapMessageTask> tasks = new ArrayList<>(coapRequests.size());
+        for (int i = 0; i < coapRequests.size(); i++) {
+            ResponseFuture future = new ResponseFuture(remoteSockets.get(i));
+            tasks.add(new WriteCoapMessageTask(coapRequests.get(i), remoteSockets.get(i), future));
+            futures.add(future);
+        }
+
+        getExecutor().submit(new Runnable() {
+            @Override
+            public void run() {
+                for (WriteCoapMessageTask task : tasks) {
+                    task.run();
+                }
+            }
+        });
+
+        for (ListenableFuture<CoapResponse> future : futures) {
+            ((ResponseFuture) future).scheduleDeadline(timeout, unit);
+        }
+        return futures;
+    }
+
 //    /**
 //     * This method is called by the {@link de.uzl.itm.ncoap.application.client.CoapClient} or by the
 //     * {@link de.uzl.itm.ncoap.application.endpoint.CoapEndpoint} to send a request to a remote endpoint (server).
@@ -303,92 +496,97 @@ public class ResponseDispatcher extends AbstractCoapChannelHandler implements Re
     }
 
 
-    private ClientCallback updateCallback(InetSocketAddress remoteSocket, InetSocketAddress previous, Token token) {
-        try {
-            this.lock.readLock().lock();
-            if (getCallback(previous, token) == null) {
+    private static boolean isCoalescable(CoapMessage coapMessage) {
+        return coapMessage instanceof CoapRequest && coapMessage.getMessageCode() == MessageCode.GET &&
+                coapMessage.getObserve() == UintOptionValue.UNDEFINED;
+    }
+
+
+    private CoalescedCallback coalesce(InetSocketAddress remoteSocket, CoapMessage coapRequest,
+                                       ClientCallback callback) {
+        RequestKey key = new RequestKey(remoteSocket, coapRequest);
+        while (true) {
+            CoalescedCallback ongoing = this.ongoingRequests.get(key);
+            if (ongoing != null && ongoing.join(callback)) {
+                this.coalescedRequests.incrementAndGet();
+                log.debug("Request joined ongoing identical request (remote endpoint: {}).", remoteSocket);
                 return null;
+            } else if (ongoing != null) {
+                // the ongoing request was just completed
+                this.ongoingRequests.remove(key, ongoing);
+            } else {
+                CoalescedCallback coalescedCallback = new CoalescedCallback(key, callback);
+                if (this.ongoingRequests.putIfAbsent(key, coalescedCallback) == null) {
+                    return coalescedCallback;
+                }
             }
-        } finally {
-            this.lock.readLock().unlock();
         }
+    }
 
-        try {
-            this.lock.writeLock().lock();
-            ClientCallback callback = this.clientCallbacks.remove(previous, token);
-            if (callback != null) {
-                this.clientCallbacks.put(remoteSocket, token, callback);
-                log.info("Updated remote socket (old: \"{}\", new: \"{}\")", previous, remoteSocket);
-            }
-            return callback;
-        } finally {
-            this.lock.writeLock().unlock();
-        }
+
+    private static CoapResponse copyOf(CoapResponse coapResponse) {
+        CoapResponse copy = new CoapResponse(coapResponse.getMessageType(), coapResponse.getMessageCode());
+        copy.setAllOptions(coapResponse.getAllOptions());
+        copy.setMessageID(coapResponse.getMessageID());
+        copy.setToken(coapResponse.getToken());
+        copy.setContent(coapResponse.getContent().duplicate());
+        return copy;
     }
 
 
-    private void addCallback(InetSocketAddress remoteSocket, Token token, ClientCallback clientCallback) {
-        try {
-            this.lock.readLock().lock();
-            if (this.clientCallbacks.contains(remoteSocket, token)) {
-                log.error("Tried to use token twice (remote endpoint: {}, token: {})", remoteSocket, token);
-                return;
-            }
-        } finally {
-            this.lock.readLock().unlock();
+    private ClientCallback updateCallback(InetSocketAddress remoteSocket, InetSocketAddress previous, Token token) {
+        ClientCallback callback = this.clientCallbacks.remove(new CallbackKey(previous, token));
+        if (callback == null) {
+            return null;
         }
 
-        try {
-            this.lock.writeLock().lock();
-            if (this.clientCallbacks.contains(remoteSocket, token)) {
-                log.error("Tried to use token twice (remote endpoint: {}, token: {})", remoteSocket, token);
-            } else {
-                clientCallbacks.put(remoteSocket, token, clientCallback);
-                log.info("Added callback (remote endpoint: {}, token: {})", remoteSocket, token);
-                if (this.clientCallbacks.size() > 1000) {
-                    log.error("More than 1000 callbacks!");
-                }
-            }
-        } finally {
-            this.lock.writeLock().unlock();
+        if (this.clientCallbacks.putIfAbsent(new CallbackKey(remoteSocket, token), callback) == null) {
+            log.info("Updated remote socket (old: \"{}\", new: \"{}\")", previous, remoteSocket);
+        } else {
+            // the token is already in use for the new remote socket, i.e. the callback can no longer be used
+            this.callbackCount.decrementAndGet();
+            log.error("Could not update remote socket (old: \"{}\", new: \"{}\"), token {} is already in use!",
+                    new Object[]{previous, remoteSocket, token});
         }
+        return callback;
     }
 
 
-    private ClientCallback removeCallback(InetSocketAddress remoteSocket, Token token) {
-        try {
-            this.lock.readLock().lock();
-            if (!this.clientCallbacks.contains(remoteSocket, token)) {
-                log.info("No callback found to be removed (remote endpoint: {}, token: {})", remoteSocket, token);
-                return null;
-            }
-        } finally {
-            this.lock.readLock().unlock();
+    private Registration addCallback(InetSocketAddress remoteSocket, Token token, ClientCallback clientCallback) {
+        // reserve capacity first, i.e. the number of callbacks never exceeds the maximum
+        if (this.callbackCount.incrementAndGet() > this.maxCallbacks) {
+            this.callbackCount.decrementAndGet();
+            log.error("Maximum number of callbacks ({}) reached (remote endpoint: {}, token: {})",
+                    new Object[]{this.maxCallbacks, remoteSocket, token});
+            return Registration.LIMIT_REACHED;
         }
 
-        try {
-            this.lock.writeLock().lock();
-            ClientCallback callback = clientCallbacks.remove(remoteSocket, token);
-            if (callback == null) {
-                log.info("No callback found to be removed (remote endpoint: {}, token: {})", remoteSocket, token);
-            } else {
-                log.info("Removed callback (remote endpoint: {}, token: {}). Remaining: {}",
-                        new Object[]{remoteSocket, token, this.clientCallbacks.size()});
-                triggerEvent(new TokenReleasedEvent(remoteSocket, token), true);
-            }
-            return callback;
-        } finally {
-            this.lock.writeLock().unlock();
+        if (this.clientCallbacks.putIfAbsent(new CallbackKey(remoteSocket, token), clientCallback) != null) {
+            this.callbackCount.decrementAndGet();
+            log.error("Tried to use token twice (remote endpoint: {}, token: {})", remoteSocket, token);
+            return Registration.TOKEN_IN_USE;
         }
+
+        log.info("Added callback (remote endpoint: {}, token: {})", remoteSocket, token);
+        return Registration.ADDED;
     }
 
-    private ClientCallback getCallback(InetSocketAddress remoteAddress, Token token) {
-        try {
-            this.lock.readLock().lock();
-            return this.clientCallbacks.get(remoteAddress, token);
-        } finally {
-            this.lock.readLock().unlock();
+
+    private ClientCallback removeCallback(InetSocketAddress remoteSocket, Token token) {
+        ClientCallback callback = this.clientCallbacks.remove(new CallbackKey(remoteSocket, token));
+        if (callback == null) {
+            log.info("No callback found to be removed (remote endpoint: {}, token: {})", remoteSocket, token);
+        } else {
+            int remaining = this.callbackCount.decrementAndGet();
+            log.info("Removed callback (remote endpoint: {}, token: {}). Remaining: {}",
+                    new Object[]{remoteSocket, token, remaining});
+            triggerEvent(new TokenReleasedEvent(remoteSocket, token), true);
         }
+        return callback;
+    }
+
+    private ClientCallback getCallback(InetSocketAddress remoteAddress, Token token) {
+        return this.clientCallbacks.get(new CallbackKey(remoteAddress, token));
     }
 
     private void handleInboundCoapResponse(CoapResponse coapResponse, InetSocketAddress remoteSocket) {
@@ -431,42 +629,64 @@ public class ResponseDispatcher extends AbstractCoapChannelHandler implements Re
         private final CoapMessage coapMessage;
         private final InetSocketAddress remoteSocket;
         private final ClientCallback callback;
+        private final ResponseFuture future;
 
         public WriteCoapMessageTask(CoapMessage coapMessage, InetSocketAddress remoteSocket, ClientCallback callback) {
 
             this.coapMessage = coapMessage;
             this.remoteSocket = remoteSocket;
             this.callback = callback;
+            this.future = null;
+        }
+
+        public WriteCoapMessageTask(CoapMessage coapMessage, InetSocketAddress remoteSocket, ResponseFuture future) {
+            this.coapMessage = coapMessage;
+            this.remoteSocket = remoteSocket;
+            this.callback = future.callback;
+            this.future = future;
         }
 
         @Override
         public void run() {
+            if (this.future != null && this.future.isDone()) {
+                log.info("Request to \"{}\" was cancelled before it was sent.", this.remoteSocket);
+                return;
+            }
+
+            ClientCallback callback = this.callback;
+            ResponseFuture future = this.future;
+
             if (this.coapMessage.isPing()) {
                 //CoAP ping
-                Token emptyToken = new Token(new byte[0]);
-                if (getCallback(remoteSocket, emptyToken) != null) {
-                    String description = "There is another ongoing PING for \"" + remoteSocket + "\".";
-                    callback.processMiscellaneousError(description);
-                    return;
-                } else {
-                    // no other PING for the same remote socket...
-                    this.coapMessage.setToken(emptyToken);
-                }
+                this.coapMessage.setToken(new Token(new byte[0]));
             } else if (this.coapMessage.getMessageCode() == MessageCode.GET && this.coapMessage.getObserve() == 1) {
-                // request to stop an ongoing observation
+                // request to stop an ongoing observation (the response is dispatched to the existing callback)
                 Token token = this.coapMessage.getToken();
                 if (getCallback(this.remoteSocket, token) == null) {
                     String description = "No ongoing observation on remote endpoint " + remoteSocket
                             + " and token " + token + "!";
                     this.callback.processMiscellaneousError(description);
-                    return;
+                } else {
+                    sendRequest();
                 }
+                return;
             } else {
+                if (requestCoalescing && isCoalescable(this.coapMessage)) {
+                    CoalescedCallback coalescedCallback = coalesce(this.remoteSocket, this.coapMessage, callback);
+                    if (coalescedCallback == null) {
+                        // there is an identical ongoing request, i.e. wait for its response
+                        return;
+                    }
+                    // the exchange is shared, i.e. must not be stopped if the future of the first request is cancelled
+                    callback = coalescedCallback;
+                    future = null;
+                }
+
                 //Prepare CoAP request, the response reception and then send the CoAP request
-                Token token = tokenFactory.getNextToken();
+                Token token = tokenFactory.getNextToken(this.remoteSocket);
                 if (token == null) {
                     String description = "No token available for remote endpoint " + remoteSocket + ".";
-                    this.callback.processMiscellaneousError(description);
+                    callback.processMiscellaneousError(description);
                     return;
                 } else {
                     this.coapMessage.setToken(token);
@@ -474,8 +694,25 @@ public class ResponseDispatcher extends AbstractCoapChannelHandler implements Re
             }
 
             //Add the response callback to wait for the inbound response
-            addCallback(this.remoteSocket, this.coapMessage.getToken(), this.callback);
-            sendRequest();
+            Registration registration = addCallback(this.remoteSocket, this.coapMessage.getToken(), callback);
+            if (registration == Registration.ADDED) {
+                if (future != null && !future.setToken(this.coapMessage.getToken())) {
+                    // cancelled concurrently
+                    removeCallback(this.remoteSocket, this.coapMessage.getToken());
+                    return;
+                }
+                sendRequest();
+            } else if (registration == Registration.TOKEN_IN_USE && this.coapMessage.isPing()) {
+                String description = "There is another ongoing PING for \"" + remoteSocket + "\".";
+                callback.processMiscellaneousError(description);
+            } else if (registration == Registration.TOKEN_IN_USE) {
+                String description = "Token " + this.coapMessage.getToken() + " is already in use for remote " +
+                        "endpoint " + remoteSocket + ".";
+                callback.processMiscellaneousError(description);
+            } else {
+                String description = "Too many open requests (maximum: " + maxCallbacks + ").";
+                callback.processMiscellaneousError(description);
+            }
         }
 
         private void sendRequest() {
@@ -496,4 +733,315 @@ public class ResponseDispatcher extends AbstractCoapChannelHandler implements Re
             });
         }
     }
+
+
+    /**
+     * A {@link ListenableFuture} to be set with the (first) {@link CoapResponse} on a request. The future is
+     * completed by its internal {@link ClientCallback}, by cancellation, or when the deadline is reached.
+     */
+    private class ResponseFuture extends AbstractFuture<CoapResponse> {
+
+        private final InetSocketAddress remoteSocket;
+        private final ClientCallback callback;
+
+        // guarded by this
+        private Token token;
+
+        private ResponseFuture(InetSocketAddress remoteSocket) {
+            this.remoteSocket = remoteSocket;
+            this.callback = new ClientCallback() {
+                @Override
+                public void processCoapResponse(CoapResponse coapResponse) {
+                    set(coapResponse);
+                }
+
+                @Override
+                public void processTransmissionTimeout() {
+                    fail("Transmission timed out.");
+                }
+
+                @Override
+                public void processReset() {
+                    fail("Received RST.");
+                }
+
+                @Override
+                public void processBlockwiseResponseTransferFailed() {
+                    fail("Blockwise response transfer failed.");
+                }
+
+                @Override
+                public void processMiscellaneousError(String description) {
+                    fail(description);
+                }
+
+                @Override
+                public void processNoMessageIDAvailable() {
+                    fail("No message ID available.");
+                }
+            };
+        }
+
+        private void fail(String description) {
+            setException(new CoapRequestFailedException(this.remoteSocket, description));
+        }
+
+        private synchronized boolean setToken(Token token) {
+            if (isDone()) {
+                return false;
+            }
+            this.token = token;
+            return true;
+        }
+
+        private void scheduleDeadline(long timeout, TimeUnit unit) {
+            if (timeout <= 0 || isDone()) {
+                return;
+            }
+
+            final Timeout deadline = scheduleTimeout(new Runnable() {
+                @Override
+                public void run() {
+                    if (setException(new TimeoutException("No response from \"" + remoteSocket + "\"."))) {
+                        releaseToken();
+                    }
+                }
+            }, timeout, unit);
+
+            addListener(new Runnable() {
+                @Override
+                public void run() {
+                    deadline.cancel();
+                }
+            }, MoreExecutors.sameThreadExecutor());
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (super.cancel(mayInterruptIfRunning)) {
+                releaseToken();
+                return true;
+            }
+            return false;
+        }
+
+        private void releaseToken() {
+            Token token;
+            synchronized (this) {
+                token = this.token;
+                this.token = null;
+            }
+            if (token != null) {
+                // the callback is no longer of interest, i.e. stop retransmissions and reject late responses
+                removeCallback(this.remoteSocket, token);
+            }
+        }
+    }
+
+
+    /**
+     * The {@link ClientCallback} for a request that is shared by identical requests (see
+     * {@link #setRequestCoalescing(boolean)}). All invocations are forwarded to the callbacks of all requests.
+     */
+    private class CoalescedCallback extends ClientCallback {
+
+        private final RequestKey key;
+        private final List<ClientCallback> callbacks;
+
+        // guarded by this
+        private boolean completed;
+
+        private CoalescedCallback(RequestKey key, ClientCallback callback) {
+            this.key = key;
+            this.callbacks = new ArrayList<>();
+            this.callbacks.add(callback);
+        }
+
+        private synchronized boolean join(ClientCallback callback) {
+            if (this.completed) {
+                return false;
+            }
+            this.callbacks.add(callback);
+            return true;
+        }
+
+        private synchronized List<ClientCallback> getCallbacks() {
+            return new ArrayList<>(this.callbacks);
+        }
+
+        private List<ClientCallback> complete() {
+            ongoingRequests.remove(this.key, this);
+            synchronized (this) {
+                this.completed = true;
+                return new ArrayList<>(this.callbacks);
+            }
+        }
+
+        @Override
+        public void processCoapResponse(CoapResponse coapResponse) {
+            if (!coapResponse.isLastBlock2()) {
+                for (ClientCallback callback : getCallbacks()) {
+                    callback.processCoapResponse(copyOf(coapResponse));
+                }
+                return;
+            }
+
+            List<ClientCallback> callbacks = complete();
+            for (int i = 0; i < callbacks.size(); i++) {
+                // each callback gets its own copy, i.e. may read the content independently
+                callbacks.get(i).processCoapResponse(i == 0 ? coapResponse : copyOf(coapResponse));
+            }
+        }
+
+        @Override
+        public void processRemoteSocketChanged(InetSocketAddress remoteSocket, InetSocketAddress previous) {
+            for (ClientCallback callback : getCallbacks()) {
+                callback.processRemoteSocketChanged(remoteSocket, previous);
+            }
+        }
+
+        @Override
+        public void processTransmissionTimeout() {
+            for (ClientCallback callback : complete()) {
+                callback.processTransmissionTimeout();
+            }
+        }
+
+        @Override
+        public void processReset() {
+            for (ClientCallback callback : complete()) {
+                callback.processReset();
+            }
+        }
+
+        @Override
+        public void processRetransmission() {
+            for (ClientCallback callback : getCallbacks()) {
+                callback.processRetransmission();
+            }
+        }
+
+        @Override
+        public void processResponseBlockReceived(long receivedLength, long expectedLength) {
+            for (ClientCallback callback : getCallbacks()) {
+                callback.processResponseBlockReceived(receivedLength, expectedLength);
+            }
+        }
+
+        @Override
+        public void processContinueResponseReceived(BlockSize block1Size) {
+            for (ClientCallback callback : getCallbacks()) {
+                callback.processContinueResponseReceived(block1Size);
+            }
+        }
+
+        @Override
+        public void processBlockwiseResponseTransferFailed() {
+            for (ClientCallback callback : complete()) {
+                callback.processBlockwiseResponseTransferFailed();
+            }
+        }
+
+        @Override
+        public void processEmptyAcknowledgement() {
+            for (ClientCallback callback : getCallbacks()) {
+                callback.processEmptyAcknowledgement();
+            }
+        }
+
+        @Override
+        public void processMiscellaneousError(String description) {
+            for (ClientCallback callback : complete()) {
+                callback.processMiscellaneousError(description);
+            }
+        }
+
+        @Override
+        public void processMessageIDAssignment(int messageID) {
+            for (ClientCallback callback : getCallbacks()) {
+                callback.processMessageIDAssignment(messageID);
+            }
+        }
+
+        @Override
+        public void processNoMessageIDAvailable() {
+            for (ClientCallback callback : complete()) {
+                callback.processNoMessageIDAvailable();
+            }
+        }
+    }
+
+
+    /**
+     * The key of identical requests, i.e. the remote socket and all options (including the target URI)
+     */
+    private static final class RequestKey {
+
+        private final InetSocketAddress remoteSocket;
+        private final List<Object> options;
+        private final int hashCode;
+
+        private RequestKey(InetSocketAddress remoteSocket, CoapMessage coapRequest) {
+            this.remoteSocket = remoteSocket;
+            OptionTable optionTable = coapRequest.getOptionTable();
+            this.options = new ArrayList<>(optionTable.size() * 2);
+            for (int i = 0; i < optionTable.size(); i++) {
+                this.options.add(optionTable.getNumber(i));
+                this.options.add(optionTable.getValue(i));
+            }
+            this.hashCode = 31 * remoteSocket.hashCode() + this.options.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof RequestKey)) {
+                return false;
+            }
+            RequestKey other = (RequestKey) object;
+            return this.hashCode == other.hashCode && this.remoteSocket.equals(other.remoteSocket) &&
+                    this.options.equals(other.options);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hashCode;
+        }
+    }
+
+
+    private enum Registration {
+        ADDED, TOKEN_IN_USE, LIMIT_REACHED
+    }
+
+
+    /**
+     * The composite key (remote socket and {@link Token}) of the registered {@link ClientCallback}s
+     */
+    private static final class CallbackKey {
+
+        private final InetSocketAddress remoteSocket;
+        private final Token token;
+        private final int hashCode;
+
+        private CallbackKey(InetSocketAddress remoteSocket, Token token) {
+            this.remoteSocket = remoteSocket;
+            this.token = token;
+            this.hashCode = 31 * remoteSocket.hashCode() + token.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof CallbackKey)) {
+                return false;
+            }
+            CallbackKey other = (CallbackKey) object;
+            return this.hashCode == other.hashCode && this.token.equals(other.token) &&
+                    this.remoteSocket.equals(other.remoteSocket);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hashCode;
+        }
+    }
 }
@@ -24,15 +24,11 @@
  */
 package de.uzl.itm.ncoap.communication.dispatching.client;
 
-import com.google.common.primitives.Longs;
 import de.uzl.itm.ncoap.communication.dispatching.Token;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
-import java.util.Random;
-import java.util.SortedSet;
-import java.util.TreeSet;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.net.InetSocketAddress;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * The TokenFactory generates tokens to match inbound responses with open requests and enable the
@@ -47,96 +43,84 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  * This leads to 257 (<code>(2^8) + 1</code>) different tokens for a maximum token length of 1 or 65793 different
  * tokens (<code>(2^16) + (2^8) + 1</code>) for a maximum token length of 2 and so on and so forth...
  *
+ * The generated {@link Token}s have the maximum length of 8 bytes. Each remote socket is (by its hash code)
+ * assigned to one of {@link #STRIPES} counters. A {@link Token} consists of the next value of that counter and the
+ * number of the counter, XORed with a random salt per {@link TokenFactory} instance. Thus, {@link Token}s are unique
+ * (not only per remote endpoint as required by RFC 7252) until a counter wraps around after
+ * <code>2^58</code> {@link Token}s. This requires neither locks nor a set of active {@link Token}s, i.e.
+ * {@link Token}s need not be released.
+ *
  * @author Oliver Kleine
  */
 public class TokenFactory {
 
-    private Logger log = LoggerFactory.getLogger(this.getClass().getName());
+    private static final int STRIPE_BITS = 6;
+
+    /**
+     * The number of counters the remote sockets are distributed among ({@value #STRIPES})
+     */
+    public static final int STRIPES = 1 << STRIPE_BITS;
+
+    // the counters are spread over the array to avoid false sharing of cache lines among threads
+    private static final int PADDING = 8;
 
-    private SortedSet<Token> activeTokens;
-    private ReentrantReadWriteLock lock;
-    private Random random;
+    private final AtomicLongArray counters;
+    private final long salt;
 
     /**
      * Creates a new instance of {@link de.uzl.itm.ncoap.communication.dispatching.client.TokenFactory}
-     * producing {@link Token}s where the length of
-     * {@link Token#getBytes()} is not longer than the given
-     * maximum length.
+     * producing {@link Token}s with a length of 8 bytes.
      */
     public TokenFactory() {
-        this.lock = new ReentrantReadWriteLock();
-        this.activeTokens = new TreeSet<>();
-        this.random = new Random(System.currentTimeMillis());
+        this(new SecureRandom().nextLong());
     }
 
-    public Token getNextToken() {
-        try{
-            this.lock.writeLock().lock();
-            Token token;
-            do {
-                token = new Token(Longs.toByteArray(this.random.nextLong()));
-            } while (!this.activeTokens.add(token));
-
-            return token;
-        }
-        finally {
-            this.lock.writeLock().unlock();
-        }
+    TokenFactory(long salt) {
+        this.counters = new AtomicLongArray(STRIPES * PADDING);
+        this.salt = salt;
     }
 
+    /**
+     * Returns a new {@link Token} that is not in use for the given remote socket.
+     *
+     * @param remoteSocket the socket address of the remote endpoint the {@link Token} is to be used for
+     *
+     * @return a new {@link Token} that is not in use for the given remote socket.
+     */
+    public Token getNextToken(InetSocketAddress remoteSocket) {
+        int stripe = remoteSocket == null ? 0 : getStripe(remoteSocket.hashCode());
+        long count = this.counters.getAndIncrement(stripe * PADDING);
+        return new Token(((count << STRIPE_BITS) | stripe) ^ this.salt, Token.MAX_LENGTH);
+    }
 
-    public synchronized boolean releaseToken(Token token) {
-        try {
-            this.lock.readLock().lock();
-            if (!this.activeTokens.contains(token)) {
-                log.error("Could not release (unknown) Token ({})", token);
-                return false;
-            }
-        } finally {
-            this.lock.readLock().unlock();
-        }
+    /**
+     * Returns a new {@link Token} (equivalent to {@link #getNextToken(InetSocketAddress)} with <code>null</code>)
+     *
+     * @return a new {@link Token}
+     */
+    public Token getNextToken() {
+        return getNextToken(null);
+    }
 
-        try{
-            this.lock.writeLock().lock();
-            if (this.activeTokens.remove(token)) {
-                log.info("Released Token ({})", token);
-                return true;
-            } else {
-                log.error("Could not release Token ({})", token);
-                return false;
-            }
-        } finally {
-            this.lock.writeLock().unlock();
-        }
+    /**
+     * Does nothing, as {@link Token}s produced by this {@link TokenFactory} are unique without being tracked, i.e.
+     * they need not be released anymore.
+     *
+     * @param token the {@link Token} that is no longer in use
+     *
+     * @return <code>true</code> (always)
+     *
+     * @deprecated {@link Token}s need not be released anymore
+     */
+    @Deprecated
+    public boolean releaseToken(Token token) {
+        return true;
     }
 
 
-//    private static Token getSuccessor(Token token) {
-//
-//        boolean allBitsSet = true;
-//
-//        //Check if all bits in the given byte array are set to 1
-//        for(byte b : token.getBytes()) {
-//            if (b != -1) {
-//                allBitsSet = false;
-//                break;
-//            }
-//        }
-//
-//        if (allBitsSet) {
-//            //make e.g. ([00000000], [00000000]) the successor of ([11111111])
-//            if (token.getBytes().length < Token.MAX_LENGTH) {
-//                return new Token(new byte[token.getBytes().length + 1]);
-//            }
-//
-//            //make [00000000] the successor of the byte array with 8 [11111111] bytes
-//            else{
-//                return new Token(new byte[1]);
-//            }
-//        }
-//
-//        long tmp = Longs.fromByteArray(Bytes.concat(new byte[8-token.getBytes().length], token.getBytes())) + 1;
-//        byte[] result = Longs.toByteArray(tmp);
-//        return new Token(Arrays.copyOfRange(result, 8 - token.getBytes().length, 8));
-//    }
+    private static int getStripe(int hashCode) {
+        // spread the bits of the hash code (as HashMap does)
+        int hash = hashCode ^ (hashCode >>> 16);
+        return hash & (STRIPES - 1);
+    }
 }
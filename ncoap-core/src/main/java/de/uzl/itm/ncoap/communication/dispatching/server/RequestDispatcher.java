@@ -37,6 +37,7 @@ import de.uzl.itm.ncoap.communication.AbstractCoapChannelHandler;
 import de.uzl.itm.ncoap.communication.blockwise.BlockSize;
 import de.uzl.itm.ncoap.communication.dispatching.Token;
 import de.uzl.itm.ncoap.communication.events.server.ObserverAcceptedEvent;
+import de.uzl.itm.ncoap.communication.observing.NotificationConditions;
 import de.uzl.itm.ncoap.communication.observing.ServerObservationHandler;
 import de.uzl.itm.ncoap.message.CoapMessage;
 import de.uzl.itm.ncoap.message.CoapRequest;
@@ -49,9 +50,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 import java.util.concurrent.ScheduledExecutorService;
 
 import static de.uzl.itm.ncoap.message.MessageCode.INTERNAL_SERVER_ERROR_500;
@@ -82,14 +81,21 @@ import static de.uzl.itm.ncoap.message.MessageCode.PRECONDITION_FAILED_412;
 * and sends a {@link de.uzl.itm.ncoap.message.CoapResponse} with {@link de.uzl.itm.ncoap.message.MessageCode#PRECONDITION_FAILED_412} if the option was set but the
 * addressed {@link de.uzl.itm.ncoap.application.server.resource.Webresource} already exists.
 *
+* The paths of the registered {@link de.uzl.itm.ncoap.application.server.resource.Webresource}s may contain
+* template segments and a wildcard (e.g. <code>/devices/{id}/temp</code> or <code>/files/*</code>), i.e. a single
+* {@link de.uzl.itm.ncoap.application.server.resource.Webresource} can serve a whole family of paths. The values of
+* these segments are available via {@link de.uzl.itm.ncoap.message.CoapRequest#getPathVariables()} (see
+* {@link UriPathRouter} for details). Such {@link de.uzl.itm.ncoap.application.server.resource.Webresource}s are not
+* listed in <code>/.well-known/core</code>.
+*
 * @author Oliver Kleine
 */
 public class RequestDispatcher extends AbstractCoapChannelHandler {
 
     private static Logger LOG = LoggerFactory.getLogger(RequestDispatcher.class.getName());
 
-    //This map holds all registered webresources (key: URI path, value: Webservice instance)
-    private Map<String, Webresource> registeredServices;
+    //This router holds all registered webresources (key: URI path or template, value: Webservice instance)
+    private UriPathRouter registeredServices;
 
     private NotFoundHandler notFoundHandler;
     //private Channel channel;
@@ -104,7 +110,7 @@ public class RequestDispatcher extends AbstractCoapChannelHandler {
      */
     public RequestDispatcher(NotFoundHandler notFoundHandler, ScheduledExecutorService executor) {
         super(executor);
-        this.registeredServices = Collections.synchronizedMap(new HashMap<String, Webresource>());
+        this.registeredServices = new UriPathRouter();
         this.notFoundHandler = notFoundHandler;
         this.shutdown = false;
     }
@@ -132,7 +138,8 @@ public class RequestDispatcher extends AbstractCoapChannelHandler {
         final SettableFuture<CoapResponse> responseFuture = SettableFuture.create();
 
         //Look up web service instance to handle the request
-        final Webresource webresource = this.registeredServices.get(coapRequest.getUriPath());
+        UriPathRouter.Match match = this.registeredServices.match(coapRequest.getUriPathSegments());
+        final Webresource webresource = match == null ? null : match.getWebresource();
         if (webresource == null) {
             // the requested Webservice DOES NOT exist
             try {
@@ -144,6 +151,7 @@ public class RequestDispatcher extends AbstractCoapChannelHandler {
                 createPreconditionFailed(coapRequest.getMessageType(), coapRequest.getUriPath(), responseFuture);
         } else {
             // the requested Webservice DOES exist
+            coapRequest.setPathVariables(match.getVariables());
             try {
                 webresource.processCoapRequest(responseFuture, coapRequest, remoteSocket);
             } catch (Exception ex) {
@@ -220,8 +228,7 @@ public class RequestDispatcher extends AbstractCoapChannelHandler {
      */
     public ListenableFuture<Void> shutdown() {
         this.shutdown = true;
-        String[] uriPaths = registeredServices.keySet().toArray(new String[registeredServices.size()]);
-        for(String path : uriPaths) {
+        for(String path : registeredServices.getPaths()) {
             shutdownWebresource(path);
         }
 
@@ -239,6 +246,33 @@ public class RequestDispatcher extends AbstractCoapChannelHandler {
     }
 
 
+    /**
+     * Returns the {@link Webresource} that serves the given path, i.e. that was registered with this path or with a
+     * matching template (see {@link UriPathRouter}), or <code>null</code> if there is none
+     *
+     * @param uriPath the requested path
+     *
+     * @return the {@link Webresource} that serves the given path or <code>null</code> if there is none
+     */
+    public Webresource getWebresource(String uriPath) {
+        return getWebresource(UriPathRouter.split(uriPath));
+    }
+
+    /**
+     * Returns the {@link Webresource} that serves the given path segments, i.e. that was registered with this path
+     * or with a matching template (see {@link UriPathRouter}), or <code>null</code> if there is none
+     *
+     * @param uriPathSegments the segments of the requested path (see
+     * {@link de.uzl.itm.ncoap.message.CoapRequest#getUriPathSegments()})
+     *
+     * @return the {@link Webresource} that serves the given path segments or <code>null</code> if there is none
+     */
+    public Webresource getWebresource(List<String> uriPathSegments) {
+        UriPathRouter.Match match = this.registeredServices.match(uriPathSegments);
+        return match == null ? null : match.getWebresource();
+    }
+
+
     /**
      * Shut down the {@link de.uzl.itm.ncoap.application.server.resource.Webresource} instance registered at the
      * given path from the server
@@ -254,7 +288,7 @@ public class RequestDispatcher extends AbstractCoapChannelHandler {
             webresource.shutdown();
             WellKnownCoreResource wkcResource =
                     ((WellKnownCoreResource) this.registeredServices.get(WellKnownCoreResource.URI_PATH));
-            if (wkcResource != null) {
+            if (wkcResource != null && !UriPathRouter.isTemplate(uriPath)) {
                 byte[] oldStatus = wkcResource.getWrappedResourceStatus(ContentFormat.APP_LINK_FORMAT).getContent();
                 LinkValueList linkValueList = LinkValueList.decode(new String(oldStatus, CoapMessage.CHARSET));
                 linkValueList.removeLinkValue(uriPath);
@@ -279,12 +313,10 @@ public class RequestDispatcher extends AbstractCoapChannelHandler {
      * {@link de.uzl.itm.ncoap.application.server.resource.Webresource} registered with the same path
      */
     public final void registerWebresource(final Webresource webresource) throws IllegalArgumentException{
-        if (registeredServices.containsKey(webresource.getUriPath())) {
+        webresource.setRequestDispatcher(this);
+        if (!registeredServices.add(webresource.getUriPath(), webresource)) {
             throw new IllegalArgumentException("Resource " + webresource.getUriPath() + " is already registered");
         }
-
-        webresource.setRequestDispatcher(this);
-        registeredServices.put(webresource.getUriPath(), webresource);
         LOG.info("Registered new service at " + webresource.getUriPath());
 
         if (webresource instanceof ObservableWebresource) {
@@ -297,7 +329,7 @@ public class RequestDispatcher extends AbstractCoapChannelHandler {
         WellKnownCoreResource wkcResource =
                 (WellKnownCoreResource) this.registeredServices.get(WellKnownCoreResource.URI_PATH);
 
-        if (wkcResource != null) {
+        if (wkcResource != null && !UriPathRouter.isTemplate(webresource.getUriPath())) {
             byte[] oldStatus = wkcResource.getWrappedResourceStatus(ContentFormat.APP_LINK_FORMAT).getContent();
             LinkValueList linkValueList;
             if (oldStatus.length == 0) {
@@ -342,9 +374,9 @@ public class RequestDispatcher extends AbstractCoapChannelHandler {
                     Token token = coapResponse.getToken();
                     long contentFormat = coapResponse.getContentFormat();
                     BlockSize block2Size = BlockSize.getBlockSize(coapRequest.getBlock2Szx());
-                    triggerEvent(new ObserverAcceptedEvent(
-                            remoteSocket, token, (ObservableWebresource) webresource, contentFormat, block2Size
-                    ), true);
+                    NotificationConditions conditions = NotificationConditions.create(coapRequest);
+                    triggerEvent(new ObserverAcceptedEvent(remoteSocket, token, (ObservableWebresource) webresource,
+                            contentFormat, block2Size, conditions), true);
                 } else {
                     // the observe option is useless here (remove it)...
                     coapResponse.removeOptions(Option.OBSERVE);
@@ -0,0 +1,307 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.dispatching.server;
+
+import de.uzl.itm.ncoap.application.server.resource.Webresource;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>A {@link UriPathRouter} finds the {@link Webresource} for the path of an inbound request. The registered paths
+ * are kept in a trie with one node per path segment. Besides plain segments, the registered paths may contain</p>
+ *
+ * <ul>
+ *     <li>template segments (e.g. <code>/devices/{id}/temp</code>) that match any single segment and</li>
+ *     <li>a wildcard as last segment (e.g. <code>/files/*</code>) that matches the remaining segments (if any).</li>
+ * </ul>
+ *
+ * <p>The values of the matching segments are provided as path variables (key: the name in braces or
+ * {@link #WILDCARD} for the remaining segments). If multiple registered paths match, plain segments take precedence
+ * over template segments and template segments over wildcards.</p>
+ *
+ * <p>Lookups do not acquire any lock, i.e. they are processed concurrently with each other and with
+ * (synchronized) registrations and removals.</p>
+ */
+class UriPathRouter {
+
+    /**
+     * The wildcard segment (<code>*</code>) and the name of the path variable containing the remaining segments
+     */
+    public static final String WILDCARD = "*";
+
+    private final Node root;
+    private final ConcurrentMap<String, Webresource> webresources;
+
+
+    UriPathRouter() {
+        this.root = new Node();
+        this.webresources = new ConcurrentHashMap<>();
+    }
+
+
+    /**
+     * Returns <code>true</code> if the given path contains template segments or a wildcard
+     *
+     * @param path the path to be checked
+     *
+     * @return <code>true</code> if the given path contains template segments or a wildcard
+     */
+    static boolean isTemplate(String path) {
+        for (String segment : split(path)) {
+            if (isVariable(segment) || WILDCARD.equals(segment)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Registers the given {@link Webresource} with the given path (possibly containing template segments or a
+     * wildcard).
+     *
+     * @param path the path to register the given {@link Webresource} with
+     * @param webresource the {@link Webresource} to be registered
+     *
+     * @return <code>true</code> if the {@link Webresource} was registered and <code>false</code> if there was
+     * already a {@link Webresource} registered with the given path
+     *
+     * @throws IllegalArgumentException if the wildcard is not the last segment of the given path
+     */
+    synchronized boolean add(String path, Webresource webresource) throws IllegalArgumentException {
+        if (this.webresources.containsKey(path)) {
+            return false;
+        }
+
+        List<String> segments = split(path);
+        List<String> variables = new ArrayList<>();
+        Node node = this.root;
+        for (int i = 0; i < segments.size(); i++) {
+            String segment = segments.get(i);
+            if (WILDCARD.equals(segment)) {
+                if (i < segments.size() - 1) {
+                    throw new IllegalArgumentException("Wildcard must be the last segment (path: " + path + ")");
+                }
+                variables.add(WILDCARD);
+                if (node.wildcard != null) {
+                    return false;
+                }
+                node.wildcard = new Registration(webresource, variables);
+                this.webresources.put(path, webresource);
+                return true;
+            } else if (isVariable(segment)) {
+                variables.add(segment.substring(1, segment.length() - 1));
+                if (node.variableChild == null) {
+                    node.variableChild = new Node();
+                }
+                node = node.variableChild;
+            } else {
+                Node child = node.children.get(segment);
+                if (child == null) {
+                    child = new Node();
+                    node.children.put(segment, child);
+                }
+                node = child;
+            }
+        }
+
+        if (node.registration != null) {
+            // e.g. "/a/{x}" was registered and now "/a/{y}"
+            return false;
+        }
+        node.registration = new Registration(webresource, variables);
+        this.webresources.put(path, webresource);
+        return true;
+    }
+
+    /**
+     * Removes the {@link Webresource} that was registered with the given path
+     *
+     * @param path the path the {@link Webresource} to be removed was registered with
+     *
+     * @return the removed {@link Webresource} or <code>null</code> if there was none
+     */
+    synchronized Webresource remove(String path) {
+        Webresource webresource = this.webresources.remove(path);
+        if (webresource == null) {
+            return null;
+        }
+
+        Node node = this.root;
+        for (String segment : split(path)) {
+            if (WILDCARD.equals(segment)) {
+                node.wildcard = null;
+                return webresource;
+            }
+            node = isVariable(segment) ? node.variableChild : node.children.get(segment);
+        }
+        node.registration = null;
+        return webresource;
+    }
+
+    /**
+     * Returns the {@link Webresource} that was registered with the given path (i.e. no matching of template
+     * segments) or <code>null</code> if there is none
+     *
+     * @param path the path the {@link Webresource} was registered with
+     *
+     * @return the {@link Webresource} that was registered with the given path or <code>null</code>
+     */
+    Webresource get(String path) {
+        return this.webresources.get(path);
+    }
+
+    /**
+     * Returns the paths of all registered {@link Webresource}s
+     *
+     * @return the paths of all registered {@link Webresource}s
+     */
+    Set<String> getPaths() {
+        return new HashSet<>(this.webresources.keySet());
+    }
+
+    /**
+     * Returns the {@link Match} for the given request path segments or <code>null</code> if there is no
+     * {@link Webresource} registered with a matching path.
+     *
+     * @param segments the request path segments (see
+     * {@link de.uzl.itm.ncoap.message.CoapRequest#getUriPathSegments()})
+     *
+     * @return the {@link Match} for the given request path segments or <code>null</code>
+     */
+    Match match(List<String> segments) {
+        String[] values = new String[segments.size() + 1];
+        return match(this.root, segments, 0, values, 0);
+    }
+
+
+    private static Match match(Node node, List<String> segments, int index, String[] values, int valueCount) {
+        if (index == segments.size()) {
+            Registration registration = node.registration;
+            if (registration != null) {
+                return new Match(registration, values);
+            }
+        } else {
+            String segment = segments.get(index);
+            Node child = node.children.get(segment);
+            if (child != null) {
+                Match match = match(child, segments, index + 1, values, valueCount);
+                if (match != null) {
+                    return match;
+                }
+            }
+
+            child = node.variableChild;
+            if (child != null) {
+                values[valueCount] = segment;
+                Match match = match(child, segments, index + 1, values, valueCount + 1);
+                if (match != null) {
+                    return match;
+                }
+            }
+        }
+
+        Registration wildcard = node.wildcard;
+        if (wildcard != null) {
+            StringBuilder remainder = new StringBuilder();
+            for (int i = index; i < segments.size(); i++) {
+                remainder.append(i == index ? "" : "/").append(segments.get(i));
+            }
+            values[valueCount] = remainder.toString();
+            return new Match(wildcard, values);
+        }
+        return null;
+    }
+
+
+    private static boolean isVariable(String segment) {
+        return segment.length() > 2 && segment.startsWith("{") && segment.endsWith("}");
+    }
+
+    static List<String> split(String path) {
+        List<String> segments = new ArrayList<>();
+        if (path.length() > 1) {
+            String[] parts = (path.startsWith("/") ? path.substring(1) : path).split("/", -1);
+            Collections.addAll(segments, parts);
+        }
+        return segments;
+    }
+
+
+    /**
+     * The result of a successful lookup, i.e. the matching {@link Webresource} and the path variables
+     */
+    static final class Match {
+
+        private final Webresource webresource;
+        private final Map<String, String> variables;
+
+        private Match(Registration registration, String[] values) {
+            this.webresource = registration.webresource;
+            if (registration.variables.length == 0) {
+                this.variables = Collections.emptyMap();
+            } else {
+                Map<String, String> variables = new HashMap<>();
+                for (int i = 0; i < registration.variables.length; i++) {
+                    variables.put(registration.variables[i], values[i]);
+                }
+                this.variables = Collections.unmodifiableMap(variables);
+            }
+        }
+
+        Webresource getWebresource() {
+            return this.webresource;
+        }
+
+        Map<String, String> getVariables() {
+            return this.variables;
+        }
+    }
+
+
+    private static final class Registration {
+
+        private final Webresource webresource;
+        private final String[] variables;
+
+        private Registration(Webresource webresource, List<String> variables) {
+            this.webresource = webresource;
+            this.variables = variables.toArray(new String[variables.size()]);
+        }
+    }
+
+
+    private static final class Node {
+
+        private final ConcurrentMap<String, Node> children = new ConcurrentHashMap<>();
+
+        // written while holding the router's monitor, read without lock
+        private volatile Node variableChild;
+        private volatile Registration registration;
+        private volatile Registration wildcard;
+    }
+}
@@ -28,6 +28,7 @@ import de.uzl.itm.ncoap.application.server.resource.ObservableWebresource;
 import de.uzl.itm.ncoap.communication.blockwise.BlockSize;
 import de.uzl.itm.ncoap.communication.dispatching.Token;
 import de.uzl.itm.ncoap.communication.events.AbstractMessageExchangeEvent;
+import de.uzl.itm.ncoap.communication.observing.NotificationConditions;
 import de.uzl.itm.ncoap.message.options.ContentFormat;
 
 import java.net.InetSocketAddress;
@@ -40,6 +41,7 @@ public class ObserverAcceptedEvent extends AbstractMessageExchangeEvent {
     private final ObservableWebresource webresource;
     private final long contentFormat;
     private final BlockSize block2Size;
+    private final NotificationConditions conditions;
 
     /**
      * Creates a new instance of {@link de.uzl.itm.ncoap.communication.events.server.ObserverAcceptedEvent}
@@ -50,10 +52,24 @@ public class ObserverAcceptedEvent extends AbstractMessageExchangeEvent {
     public ObserverAcceptedEvent(InetSocketAddress remoteSocket, Token token,
             ObservableWebresource webresource, long contentFormat, BlockSize block2Size) {
 
+        this(remoteSocket, token, webresource, contentFormat, block2Size, NotificationConditions.NONE);
+    }
+
+    /**
+     * Creates a new instance of {@link de.uzl.itm.ncoap.communication.events.server.ObserverAcceptedEvent}
+     *
+     * @param remoteSocket the socket of the newly accepted observer
+     * @param token the {@link Token} to be used for this observation
+     * @param conditions the {@link NotificationConditions} given by the observer
+     */
+    public ObserverAcceptedEvent(InetSocketAddress remoteSocket, Token token, ObservableWebresource webresource,
+            long contentFormat, BlockSize block2Size, NotificationConditions conditions) {
+
         super(remoteSocket, token);
         this.webresource = webresource;
         this.contentFormat = contentFormat;
         this.block2Size = block2Size;
+        this.conditions = conditions;
     }
 
     /**
@@ -79,6 +95,14 @@ public class ObserverAcceptedEvent extends AbstractMessageExchangeEvent {
         return block2Size;
     }
 
+    /**
+     * Returns the {@link NotificationConditions} given by the observer
+     * @return the {@link NotificationConditions} given by the observer
+     */
+    public NotificationConditions getConditions() {
+        return conditions;
+    }
+
     public interface Handler {
         public void handleEvent(ObserverAcceptedEvent event);
     }
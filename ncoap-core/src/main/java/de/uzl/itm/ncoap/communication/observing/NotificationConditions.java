@@ -0,0 +1,206 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.observing;
+
+import de.uzl.itm.ncoap.message.CoapRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>{@link NotificationConditions} restrict the update notifications sent to a single observer. They are given by
+ * the observer as URI query parameters of the request to start the observation:</p>
+ *
+ * <ul>
+ *     <li><code>pmin</code>: the minimum number of seconds between two update notifications (status changes within
+ *     this period are coalesced, i.e. only the latest status is sent after the period has passed),</li>
+ *     <li><code>pmax</code>: the maximum number of seconds between two update notifications (the actual status is
+ *     sent after this period even if it did not change),</li>
+ *     <li><code>gt</code>: an update notification is sent if the (numeric) status crosses this threshold from
+ *     above or below,</li>
+ *     <li><code>lt</code>: an update notification is sent if the (numeric) status crosses this threshold from
+ *     above or below, and</li>
+ *     <li><code>st</code>: an update notification is sent if the (numeric) status differs from the status sent with
+ *     the latest update notification by at least this step.</li>
+ * </ul>
+ *
+ * <p>If at least one of <code>gt</code>, <code>lt</code> and <code>st</code> is given, a status change is only
+ * notified if at least one of them is fulfilled. These conditions only apply for
+ * {@link de.uzl.itm.ncoap.application.server.resource.ObservableWebresource}s with a {@link Number} as status.
+ * Invalid parameters are ignored.</p>
+ */
+public class NotificationConditions {
+
+    private static Logger LOG = LoggerFactory.getLogger(NotificationConditions.class.getName());
+
+    public static final String MIN_PERIOD = "pmin";
+    public static final String MAX_PERIOD = "pmax";
+    public static final String GREATER_THAN = "gt";
+    public static final String LESS_THAN = "lt";
+    public static final String STEP = "st";
+
+    /**
+     * {@link NotificationConditions} to notify every status change
+     */
+    public static final NotificationConditions NONE = new NotificationConditions(0, 0, Double.NaN, Double.NaN,
+            Double.NaN);
+
+    private final long minPeriod;
+    private final long maxPeriod;
+    private final double greaterThan;
+    private final double lessThan;
+    private final double step;
+
+    /**
+     * Creates a new instance of {@link NotificationConditions}
+     *
+     * @param minPeriod the minimum period between two update notifications in milliseconds (0 for none)
+     * @param maxPeriod the maximum period between two update notifications in milliseconds (0 for none)
+     * @param greaterThan the upper threshold ({@link Double#NaN} for none)
+     * @param lessThan the lower threshold ({@link Double#NaN} for none)
+     * @param step the minimum change of the status ({@link Double#NaN} for none)
+     */
+    public NotificationConditions(long minPeriod, long maxPeriod, double greaterThan, double lessThan, double step) {
+        this.minPeriod = minPeriod;
+        this.maxPeriod = maxPeriod;
+        this.greaterThan = greaterThan;
+        this.lessThan = lessThan;
+        this.step = step;
+    }
+
+    /**
+     * Returns the {@link NotificationConditions} given as URI query parameters of the given {@link CoapRequest} or
+     * {@link #NONE} if there are no such parameters.
+     *
+     * @param coapRequest the {@link CoapRequest} to start an observation
+     *
+     * @return the {@link NotificationConditions} given as URI query parameters of the given {@link CoapRequest}
+     */
+    public static NotificationConditions create(CoapRequest coapRequest) {
+        double minPeriod = getValue(coapRequest, MIN_PERIOD);
+        double maxPeriod = getValue(coapRequest, MAX_PERIOD);
+        double greaterThan = getValue(coapRequest, GREATER_THAN);
+        double lessThan = getValue(coapRequest, LESS_THAN);
+        double step = getValue(coapRequest, STEP);
+
+        if (minPeriod < 0) {
+            minPeriod = Double.NaN;
+        }
+        if (maxPeriod <= 0 || maxPeriod < minPeriod) {
+            maxPeriod = Double.NaN;
+        }
+        if (step <= 0) {
+            step = Double.NaN;
+        }
+
+        if (Double.isNaN(minPeriod) && Double.isNaN(maxPeriod) && Double.isNaN(greaterThan) &&
+                Double.isNaN(lessThan) && Double.isNaN(step)) {
+            return NONE;
+        }
+
+        return new NotificationConditions(
+                Double.isNaN(minPeriod) ? 0 : (long) (minPeriod * 1000),
+                Double.isNaN(maxPeriod) ? 0 : (long) (maxPeriod * 1000),
+                greaterThan, lessThan, step
+        );
+    }
+
+
+    private static double getValue(CoapRequest coapRequest, String parameter) {
+        String value = coapRequest.getUriQueryParameterValue(parameter);
+        if (value == null) {
+            return Double.NaN;
+        }
+
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException ex) {
+            LOG.warn("Ignore invalid value of query parameter \"{}\": {}", parameter, value);
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Returns the minimum period between two update notifications in milliseconds (0 for none)
+     *
+     * @return the minimum period between two update notifications in milliseconds (0 for none)
+     */
+    public long getMinPeriod() {
+        return this.minPeriod;
+    }
+
+    /**
+     * Returns the maximum period between two update notifications in milliseconds (0 for none)
+     *
+     * @return the maximum period between two update notifications in milliseconds (0 for none)
+     */
+    public long getMaxPeriod() {
+        return this.maxPeriod;
+    }
+
+    /**
+     * Returns <code>true</code> if every status change is to be notified immediately, i.e. if there are no conditions
+     * at all, and <code>false</code> otherwise.
+     *
+     * @return <code>true</code> if every status change is to be notified immediately
+     */
+    public boolean isUnconditional() {
+        return this.minPeriod == 0 && this.maxPeriod == 0 && !hasValueConditions();
+    }
+
+
+    private boolean hasValueConditions() {
+        return !Double.isNaN(this.greaterThan) || !Double.isNaN(this.lessThan) || !Double.isNaN(this.step);
+    }
+
+    /**
+     * Returns <code>true</code> if the change from the given previous status (i.e. the status sent with the latest
+     * update notification) to the given actual status is to be notified (regardless of the periods).
+     *
+     * @param previous the status sent with the latest update notification (<code>null</code> if not numeric)
+     * @param actual the actual status (<code>null</code> if not numeric)
+     *
+     * @return <code>true</code> if the change from the given previous status to the given actual status is to be
+     * notified and <code>false</code> otherwise
+     */
+    public boolean isSignificant(Double previous, Double actual) {
+        if (!hasValueConditions() || previous == null || actual == null) {
+            return true;
+        }
+
+        if (!Double.isNaN(this.greaterThan) && (previous > this.greaterThan) != (actual > this.greaterThan)) {
+            return true;
+        } else if (!Double.isNaN(this.lessThan) && (previous < this.lessThan) != (actual < this.lessThan)) {
+            return true;
+        } else {
+            return !Double.isNaN(this.step) && Math.abs(actual - previous) >= this.step;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "[pmin: " + this.minPeriod + " ms, pmax: " + this.maxPeriod + " ms, gt: " + this.greaterThan +
+                ", lt: " + this.lessThan + ", st: " + this.step + "]";
+    }
+}
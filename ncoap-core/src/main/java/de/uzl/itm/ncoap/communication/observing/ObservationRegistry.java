@@ -0,0 +1,385 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.observing;
+
+import de.uzl.itm.ncoap.application.server.resource.ObservableWebresource;
+import de.uzl.itm.ncoap.communication.blockwise.BlockSize;
+import de.uzl.itm.ncoap.communication.dispatching.Token;
+import org.jboss.netty.util.Timeout;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>The {@link ObservationRegistry} contains the running observations of the {@link ObservableWebresource}s of a
+ * server. There are two (concurrent) indices, one per observer (remote socket and token) and one per
+ * {@link ObservableWebresource}. Adding and removing observations takes constant time and does not block readers,
+ * i.e. sending the update notifications for one {@link ObservableWebresource} does not stall the processing of
+ * inbound messages concerning other {@link ObservableWebresource}s.</p>
+ *
+ * <p>There is at most one observation per {@link ObservableWebresource} and remote socket. Adding another
+ * observation of the same {@link ObservableWebresource} for the same remote socket (e.g. with another token)
+ * replaces the previous one.</p>
+ */
+class ObservationRegistry {
+
+    private final ConcurrentMap<ObservationKey, Observation> observations;
+    private final ConcurrentMap<ObservableWebresource, ConcurrentMap<InetSocketAddress, Observation>> observers;
+    private final AtomicLong droppedNotifications;
+
+
+    ObservationRegistry() {
+        this.observations = new ConcurrentHashMap<>();
+        this.observers = new ConcurrentHashMap<>();
+        this.droppedNotifications = new AtomicLong();
+    }
+
+    /**
+     * Adds a new observation and returns the observation it replaced (if any)
+     *
+     * @return the replaced {@link Observation} of the same {@link ObservableWebresource} by the same remote socket
+     * or <code>null</code> if there was none
+     */
+    Observation add(ObservableWebresource webresource, InetSocketAddress remoteSocket, Token token,
+                    long contentFormat, BlockSize block2Size) {
+
+        return add(webresource, remoteSocket, token, contentFormat, block2Size, NotificationConditions.NONE);
+    }
+
+    /**
+     * Adds a new observation with the given {@link NotificationConditions} and returns the observation it replaced
+     * (if any)
+     *
+     * @return the replaced {@link Observation} of the same {@link ObservableWebresource} by the same remote socket
+     * or <code>null</code> if there was none
+     */
+    Observation add(ObservableWebresource webresource, InetSocketAddress remoteSocket, Token token,
+                    long contentFormat, BlockSize block2Size, NotificationConditions conditions) {
+
+        Observation observation =
+                new Observation(webresource, remoteSocket, token, contentFormat, block2Size, conditions);
+
+        Observation previous = this.observations.put(observation.key, observation);
+        if (previous != null) {
+            close(previous);
+            if (previous.webresource != webresource) {
+                // the token was used to observe another resource
+                getObservers(previous.webresource).remove(remoteSocket, previous);
+            }
+        }
+
+        previous = getObservers(webresource).put(remoteSocket, observation);
+        if (previous != null && !previous.key.equals(observation.key)) {
+            // the remote socket was already observing this resource (with another token)
+            this.observations.remove(previous.key, previous);
+            close(previous);
+            return previous;
+        }
+
+        return null;
+    }
+
+    /**
+     * Removes the observation with the given remote socket and token (if any)
+     *
+     * @return the removed {@link Observation} or <code>null</code> if there was no such observation
+     */
+    Observation remove(InetSocketAddress remoteSocket, Token token) {
+        // (lock-free) lookup first as most inbound messages do not refer to an observation
+        if (this.observations.isEmpty()) {
+            return null;
+        }
+
+        ObservationKey key = new ObservationKey(remoteSocket, token);
+        Observation observation = this.observations.get(key);
+        if (observation == null || !this.observations.remove(key, observation)) {
+            return null;
+        }
+
+        ConcurrentMap<InetSocketAddress, Observation> observers = this.observers.get(observation.webresource);
+        if (observers != null) {
+            observers.remove(remoteSocket, observation);
+        }
+        close(observation);
+        return observation;
+    }
+
+    /**
+     * Returns the observation with the given remote socket and token or <code>null</code> if there is none
+     */
+    Observation get(InetSocketAddress remoteSocket, Token token) {
+        return this.observations.isEmpty() ? null : this.observations.get(new ObservationKey(remoteSocket, token));
+    }
+
+    /**
+     * Returns <code>true</code> if the given {@link Observation} is (still) contained in this registry
+     */
+    boolean contains(Observation observation) {
+        return this.observations.get(observation.key) == observation;
+    }
+
+    /**
+     * Returns a (weakly consistent) view on the observations of the given {@link ObservableWebresource}
+     */
+    Collection<Observation> get(ObservableWebresource webresource) {
+        ConcurrentMap<InetSocketAddress, Observation> observers = this.observers.get(webresource);
+        return observers == null ? Collections.<Observation>emptySet() : observers.values();
+    }
+
+    /**
+     * Removes all observations of the given {@link ObservableWebresource}
+     *
+     * @return the removed {@link Observation}s
+     */
+    List<Observation> removeAll(ObservableWebresource webresource) {
+        List<Observation> result = new ArrayList<>();
+        ConcurrentMap<InetSocketAddress, Observation> observers = this.observers.remove(webresource);
+        if (observers != null) {
+            for (Observation observation : observers.values()) {
+                close(observation);
+                if (this.observations.remove(observation.key, observation)) {
+                    result.add(observation);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the total number of observations
+     */
+    int size() {
+        return this.observations.size();
+    }
+
+
+    /**
+     * Returns the number of update notifications dropped from the mailboxes of removed observations
+     */
+    long getDroppedNotificationCount() {
+        return this.droppedNotifications.get();
+    }
+
+
+    private void close(Observation observation) {
+        if (observation.close()) {
+            this.droppedNotifications.incrementAndGet();
+        }
+    }
+
+
+    private ConcurrentMap<InetSocketAddress, Observation> getObservers(ObservableWebresource webresource) {
+        ConcurrentMap<InetSocketAddress, Observation> observers = this.observers.get(webresource);
+        if (observers == null) {
+            ConcurrentMap<InetSocketAddress, Observation> newObservers = new ConcurrentHashMap<>();
+            observers = this.observers.putIfAbsent(webresource, newObservers);
+            if (observers == null) {
+                observers = newObservers;
+            }
+        }
+        return observers;
+    }
+
+
+    static class Observation {
+
+        private final ObservationKey key;
+        private final ObservableWebresource webresource;
+        private final long contentFormat;
+        private final BlockSize block2Size;
+        private final NotificationConditions conditions;
+
+        /**
+         * The result of {@link #offerNotification(Runnable)} if the update notification is to be sent immediately
+         */
+        static final int SEND = 0;
+
+        /**
+         * The result of {@link #offerNotification(Runnable)} if the update notification was put into the mailbox
+         */
+        static final int QUEUED = 1;
+
+        /**
+         * The result of {@link #offerNotification(Runnable)} if the update notification replaced another one in the
+         * mailbox
+         */
+        static final int SUPERSEDED = 2;
+
+        // guarded by this (mailbox)
+        private boolean transferring;
+        private Runnable pendingNotification;
+
+        // guarded by this (only used with conditions)
+        private long lastNotificationTime;
+        private Double lastNotifiedStatus;
+        private Timeout deferredNotification;
+        private Timeout maxPeriodNotification;
+
+        private Observation(ObservableWebresource webresource, InetSocketAddress remoteSocket, Token token,
+                            long contentFormat, BlockSize block2Size, NotificationConditions conditions) {
+
+            this.key = new ObservationKey(remoteSocket, token);
+            this.webresource = webresource;
+            this.contentFormat = contentFormat;
+            this.block2Size = block2Size;
+            this.conditions = conditions;
+        }
+
+        public NotificationConditions getConditions() {
+            return conditions;
+        }
+
+        synchronized long getLastNotificationTime() {
+            return lastNotificationTime;
+        }
+
+        synchronized Double getLastNotifiedStatus() {
+            return lastNotifiedStatus;
+        }
+
+        /**
+         * Remembers the time and the (numeric) status of the latest update notification
+         */
+        synchronized void setNotified(long time, Double status) {
+            this.lastNotificationTime = time;
+            this.lastNotifiedStatus = status;
+        }
+
+        synchronized Timeout getDeferredNotification() {
+            return deferredNotification;
+        }
+
+        synchronized void setDeferredNotification(Timeout deferredNotification) {
+            this.deferredNotification = deferredNotification;
+        }
+
+        synchronized void setMaxPeriodNotification(Timeout maxPeriodNotification) {
+            if (this.maxPeriodNotification != null) {
+                this.maxPeriodNotification.cancel();
+            }
+            this.maxPeriodNotification = maxPeriodNotification;
+        }
+
+        /**
+         * Offers the given update notification to the mailbox. If there is no other update notification in
+         * transfer, the given one is to be sent immediately. Otherwise it replaces the update notification waiting
+         * in the mailbox (if any).
+         *
+         * @return one of {@link #SEND}, {@link #QUEUED} and {@link #SUPERSEDED}
+         */
+        synchronized int offerNotification(Runnable notification) {
+            if (!this.transferring) {
+                this.transferring = true;
+                return SEND;
+            }
+
+            int result = this.pendingNotification == null ? QUEUED : SUPERSEDED;
+            this.pendingNotification = notification;
+            return result;
+        }
+
+        /**
+         * Finishes the actual transfer and returns the update notification waiting in the mailbox (if any). The
+         * returned update notification is considered in transfer.
+         *
+         * @return the update notification waiting in the mailbox or <code>null</code> if there is none
+         */
+        synchronized Runnable finishTransfer() {
+            Runnable next = this.pendingNotification;
+            this.pendingNotification = null;
+            this.transferring = next != null;
+            return next;
+        }
+
+        /**
+         * Cancels the scheduled (deferred or periodic) update notifications and clears the mailbox
+         *
+         * @return <code>true</code> if there was an update notification waiting in the mailbox
+         */
+        synchronized boolean close() {
+            if (this.deferredNotification != null) {
+                this.deferredNotification.cancel();
+                this.deferredNotification = null;
+            }
+            setMaxPeriodNotification(null);
+
+            boolean dropped = this.pendingNotification != null;
+            this.pendingNotification = null;
+            return dropped;
+        }
+
+        public InetSocketAddress getRemoteSocket() {
+            return this.key.remoteSocket;
+        }
+
+        public Token getToken() {
+            return this.key.token;
+        }
+
+        public long getContentFormat() {
+            return contentFormat;
+        }
+
+        public BlockSize getBlock2Size() {
+            return block2Size;
+        }
+
+        public ObservableWebresource getWebresource() {
+            return webresource;
+        }
+    }
+
+
+    private static class ObservationKey {
+
+        private final InetSocketAddress remoteSocket;
+        private final Token token;
+
+        private ObservationKey(InetSocketAddress remoteSocket, Token token) {
+            this.remoteSocket = remoteSocket;
+            this.token = token;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof ObservationKey)) {
+                return false;
+            }
+            ObservationKey other = (ObservationKey) object;
+            return this.remoteSocket.equals(other.remoteSocket) && this.token.equals(other.token);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * this.remoteSocket.hashCode() + this.token.hashCode();
+        }
+    }
+}
@@ -24,34 +24,51 @@
  */
 package de.uzl.itm.ncoap.communication.observing;
 
-import com.google.common.collect.HashBasedTable;
 import de.uzl.itm.ncoap.application.server.CoapServer;
 import de.uzl.itm.ncoap.application.server.resource.ObservableWebresource;
 import de.uzl.itm.ncoap.application.server.resource.WrappedResourceStatus;
 import de.uzl.itm.ncoap.communication.AbstractCoapChannelHandler;
 import de.uzl.itm.ncoap.communication.blockwise.BlockSize;
+import de.uzl.itm.ncoap.communication.codec.SharedEncoding;
 import de.uzl.itm.ncoap.communication.dispatching.Token;
 import de.uzl.itm.ncoap.communication.events.TransmissionTimeoutEvent;
 import de.uzl.itm.ncoap.communication.events.server.RemoteClientSocketChangedEvent;
 import de.uzl.itm.ncoap.communication.events.server.ObserverAcceptedEvent;
 import de.uzl.itm.ncoap.communication.events.ResetReceivedEvent;
+import de.uzl.itm.ncoap.communication.observing.ObservationRegistry.Observation;
 import de.uzl.itm.ncoap.message.*;
 import de.uzl.itm.ncoap.message.options.ContentFormat;
+import de.uzl.itm.ncoap.message.options.Option;
 import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.Channels;
+import org.jboss.netty.util.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
 import java.util.*;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The {@link ServerObservationHandler} is responsible to maintain the list of registered clients observing any
  * of the {@link ObservableWebresource}s available on this {@link CoapServer} instance.
  *
+ * The observations are kept in concurrent maps (see {@link ObservationRegistry}), i.e. checking inbound requests
+ * for running observations and sending update notifications do not block each other.
+ *
+ * Observers may restrict the update notifications they receive by means of {@link NotificationConditions} (e.g. a
+ * minimum period between two notifications). Status changes that do not meet these conditions are not notified or,
+ * in case of a minimum period, coalesced, i.e. only the latest status is sent after the period has passed.
+ *
+ * There is at most one update notification per observation on its way through the pipeline. More recent update
+ * notifications wait in the mailbox of the observation, which keeps only the latest one (see RFC 7641, section
+ * 4.5.2). Thus, slow observers cause no backlog of outdated notifications. Confirmable update notifications that were
+ * not yet acknowledged are replaced by the reliability handler, i.e. the next retransmission contains the latest
+ * status.
+ *
  * @author Oliver Kleine
  */
 public class ServerObservationHandler extends AbstractCoapChannelHandler implements Observer,
@@ -60,23 +77,34 @@ public class ServerObservationHandler extends AbstractCoapChannelHandler impleme
 
     private static Logger LOG = LoggerFactory.getLogger(ServerObservationHandler.class.getName());
 
-    private HashBasedTable<InetSocketAddress, Token, ObservationParams> observations1;
-    private HashBasedTable<ObservableWebresource, InetSocketAddress, Token> observations2;
-
-    private ReentrantReadWriteLock lock;
+    private ObservationRegistry observations;
+    private AtomicLong supersededNotifications;
 
     /**
-     * Creates a new instance of {@link ServerObservationHandler}
+     * Creates a new instance of {@link ServerObservationHandler} using the shared default {@link Timer} (see
+     * {@link #getDefaultTimer()})
      *
      * @param executor the {@link ScheduledExecutorService} to handle internal tasks such as sending update
      *                 notifications
+     *
+     * @deprecated use {@link #ServerObservationHandler(ScheduledExecutorService, Timer)} instead
      */
+    @Deprecated
     public ServerObservationHandler(ScheduledExecutorService executor) {
-        super(executor);
-        this.observations1 = HashBasedTable.create();
-        this.observations2 = HashBasedTable.create();
+        this(executor, getDefaultTimer());
+    }
 
-        this.lock = new ReentrantReadWriteLock();
+    /**
+     * Creates a new instance of {@link ServerObservationHandler}
+     *
+     * @param executor the {@link ScheduledExecutorService} to handle internal tasks such as sending update
+     *                 notifications
+     * @param timer the {@link Timer} to schedule update notifications due to {@link NotificationConditions}
+     */
+    public ServerObservationHandler(ScheduledExecutorService executor, Timer timer) {
+        super(executor, timer);
+        this.observations = new ObservationRegistry();
+        this.supersededNotifications = new AtomicLong();
     }
 
 
@@ -116,7 +144,7 @@ public class ServerObservationHandler extends AbstractCoapChannelHandler impleme
     @Override
     public void handleEvent(ObserverAcceptedEvent event) {
         startObservation(event.getRemoteSocket(), event.getToken(), event.getWebresource(), event.getContentFormat(),
-                event.getBlock2Size());
+                event.getBlock2Size(), event.getConditions());
     }
 
     @Override
@@ -142,71 +170,94 @@ public class ServerObservationHandler extends AbstractCoapChannelHandler impleme
     }
 
 
-    private void startObservation(InetSocketAddress remoteSocket, Token token, ObservableWebresource webresource,
-            long contentFormat, BlockSize block2Size) {
-
-        try {
-            this.lock.writeLock().lock();
-            ObservationParams params =
-                    new ObservationParams(webresource, remoteSocket, token, contentFormat, block2Size);
-            this.observations1.put(remoteSocket, token, params);
-            this.observations2.put(webresource, remoteSocket, token);
-            LOG.info("Client \"{}\" is now observing \"{}\".", remoteSocket, webresource.getUriPath());
-        } finally {
-            this.lock.writeLock().unlock();
+    /**
+     * Returns the number of running observations (of all {@link ObservableWebresource}s)
+     *
+     * @return the number of running observations
+     */
+    public int getObservationCount() {
+        return this.observations.size();
+    }
+
+
+    /**
+     * Returns the number of update notifications that were replaced by a more recent update notification while
+     * waiting for the previous transfer to the same observer to be finished
+     *
+     * @return the number of superseded update notifications
+     */
+    public long getSupersededNotificationCount() {
+        return this.supersededNotifications.get();
+    }
+
+    /**
+     * Returns the number of update notifications that were dropped (without being sent) because the observation
+     * was stopped while they were waiting for the previous transfer to the same observer to be finished
+     *
+     * @return the number of dropped update notifications
+     */
+    public long getDroppedNotificationCount() {
+        return this.observations.getDroppedNotificationCount();
+    }
+
+
+    private void finishTransfer(Observation observation) {
+        final Runnable next = observation.finishTransfer();
+        if (next != null) {
+            getExecutor().submit(next);
         }
     }
 
 
-    private ObservationParams stopObservation(InetSocketAddress remoteSocket, Token token) {
-        try {
-            this.lock.readLock().lock();
-            if (!this.observations1.contains(remoteSocket, token)) {
-                return null;
-            }
-        } finally {
-            this.lock.readLock().unlock();
+    private void startObservation(InetSocketAddress remoteSocket, Token token, ObservableWebresource webresource,
+            long contentFormat, BlockSize block2Size, NotificationConditions conditions) {
+
+        Observation previous =
+                this.observations.add(webresource, remoteSocket, token, contentFormat, block2Size, conditions);
+        if (previous != null) {
+            LOG.info("Observation of \"{}\" by \"{}\" replaced (previous token was: {}).",
+                    new Object[]{webresource.getUriPath(), remoteSocket, previous.getToken()});
         }
 
-        try {
-            this.lock.writeLock().lock();
-            ObservationParams params = this.observations1.remove(remoteSocket, token);
-            if (params == null) {
-                return null;
+        if (!conditions.isUnconditional()) {
+            // the response to start the observation is the first notification
+            Observation observation = this.observations.get(remoteSocket, token);
+            if (observation != null) {
+                setNotified(observation, getNumericStatus(webresource));
             }
-            this.observations2.remove(params.getWebresource(), remoteSocket);
+            LOG.info("Client \"{}\" is now observing \"{}\" with conditions {}.",
+                    new Object[]{remoteSocket, webresource.getUriPath(), conditions});
+        } else {
+            LOG.info("Client \"{}\" is now observing \"{}\".", remoteSocket, webresource.getUriPath());
+        }
+    }
 
-            params.getWebresource().removeObserver(remoteSocket);
 
-            LOG.info("Client \"{}\" is no longer observing \"{}\" (token was: \"{}\").",
-                    new Object[]{remoteSocket, params.getWebresource().getUriPath(), token});
+    private Observation stopObservation(InetSocketAddress remoteSocket, Token token) {
+        Observation observation = this.observations.remove(remoteSocket, token);
+        if (observation == null) {
+            return null;
+        }
 
-            return params;
+        observation.getWebresource().removeObserver(remoteSocket);
+        LOG.info("Client \"{}\" is no longer observing \"{}\" (token was: \"{}\").",
+                new Object[]{remoteSocket, observation.getWebresource().getUriPath(), token});
 
-        } finally {
-            this.lock.writeLock().unlock();
-        }
+        return observation;
     }
 
 
     private boolean updateObserverSocket(InetSocketAddress previousRemoteSocket, InetSocketAddress newRemoteSocket,
                                       Token token) {
 
-        try {
-            this.lock.writeLock().lock();
-            ObservationParams params = this.observations1.remove(previousRemoteSocket, token);
-            if (params == null) {
-                return false;
-            } else {
-                this.observations2.remove(params.getWebresource(), previousRemoteSocket);
-                this.startObservation(newRemoteSocket, token, params.getWebresource(), params.getContentFormat(),
-                        params.getBlock2Size());
-                return true;
-            }
-        } finally {
-            this.lock.writeLock().unlock();
+        Observation observation = this.observations.remove(previousRemoteSocket, token);
+        if (observation == null) {
+            return false;
+        } else {
+            this.startObservation(newRemoteSocket, token, observation.getWebresource(),
+                    observation.getContentFormat(), observation.getBlock2Size(), observation.getConditions());
+            return true;
         }
-
     }
 
     @Override
@@ -220,106 +271,51 @@ public class ServerObservationHandler extends AbstractCoapChannelHandler impleme
     }
 
     private void sendShutdownNotifications(ObservableWebresource webresource) {
-        try {
-            this.lock.writeLock().lock();
-            Map<InetSocketAddress, Token> observations = new HashMap<>(this.observations2.row(webresource));
-            for (Map.Entry<InetSocketAddress, Token> observation : observations.entrySet()) {
-                InetSocketAddress remoteSocket = observation.getKey();
-                Token token = observation.getValue();
-                ObservationParams params = stopObservation(remoteSocket, token);
-                if(params != null) {
-                    BlockSize block2Size = params.getBlock2Size();
-                    String uriPath = webresource.getUriPath();
-                    getExecutor().submit(new ShutdownNotificationTask(remoteSocket, token, uriPath, block2Size));
-                } else {
-                    LOG.error("This should never happen!");
-                }
-            }
-        } finally {
-            this.lock.writeLock().unlock();
+        for (Observation observation : this.observations.removeAll(webresource)) {
+            InetSocketAddress remoteSocket = observation.getRemoteSocket();
+            webresource.removeObserver(remoteSocket);
+            getExecutor().submit(new ShutdownNotificationTask(remoteSocket, observation.getToken(),
+                    webresource.getUriPath(), observation.getBlock2Size()));
         }
-
     }
 
 
     private void sendUpdateNotifications(ObservableWebresource webresource) {
-        try {
-            this.lock.readLock().lock();
-            Map<Long, WrappedResourceStatus> representations = new HashMap<>();
-            Set<Map.Entry<InetSocketAddress, Token>> observations = this.observations2.row(webresource).entrySet();
-            LOG.info("Webresource \"{}\" was updated. Starting to send update notifications to {} observers.",
-                    webresource.getUriPath(), observations.size());
-            for(Map.Entry<InetSocketAddress, Token> observation : observations) {
-                // determine observation specific data
-                InetSocketAddress remoteSocket = observation.getKey();
-                Token token = observation.getValue();
-                ObservationParams params = this.observations1.get(remoteSocket, token);
-                long contentFormat = params.getContentFormat();
-                BlockSize block2Size = params.getBlock2Size();
-
-                // get the actual resource status
-                WrappedResourceStatus status = representations.get(contentFormat);
-                if (status == null) {
-                    status = webresource.getWrappedResourceStatus(contentFormat);
-                    representations.put(contentFormat, status);
-                }
-
-                // schedule update notification (immediately)
-                boolean confirmable = webresource.isUpdateNotificationConfirmable(remoteSocket);
-                int messageType =  confirmable ? MessageType.CON : MessageType.NON;
-                getExecutor().submit(new UpdateNotificationTask(remoteSocket, status, messageType, token, block2Size));
+        Collection<Observation> observations = this.observations.get(webresource);
+        LOG.info("Webresource \"{}\" was updated. Starting to send update notifications to {} observers.",
+                webresource.getUriPath(), observations.size());
+
+        Map<Long, UpdateNotificationTemplate> templates = new HashMap<>();
+        List<UpdateNotificationRecipient> recipients = new ArrayList<>(observations.size());
+        for(Observation observation : observations) {
+            // skip (or defer) notifications that do not meet the conditions given by the observer
+            if (!observation.getConditions().isUnconditional() && !isNotificationDue(observation)) {
+                continue;
             }
-        } finally {
-            this.lock.readLock().unlock();
-        }
-    }
-
-    private class ObservationParams {
-
-        private ObservableWebresource webresource;
-        private InetSocketAddress remoteSocket;
-        private Token token;
-        private long contentFormat;
-        private BlockSize block2Size;
-
-        public ObservationParams(ObservableWebresource webresource, InetSocketAddress remoteSocket, Token token,
-                                 long contentFormat, BlockSize block2Size) {
-
-            this.webresource = webresource;
-            this.remoteSocket = remoteSocket;
-            this.token = token;
-            this.contentFormat = contentFormat;
-            this.block2Size = block2Size;
-        }
-
 
-        public InetSocketAddress getRemoteSocket() {
-            return remoteSocket;
-        }
+            // determine observation specific data
+            InetSocketAddress remoteSocket = observation.getRemoteSocket();
+            long contentFormat = observation.getContentFormat();
 
-        public void setRemoteSocket(InetSocketAddress remoteSocket) {
-            this.remoteSocket = remoteSocket;
-        }
-
-        public Token getToken() {
-            return token;
-        }
-
-        public long getContentFormat() {
-            return contentFormat;
-        }
+            // get the actual resource status (encoded only once per content format)
+            UpdateNotificationTemplate template = templates.get(contentFormat);
+            if (template == null) {
+                template = new UpdateNotificationTemplate(webresource.getWrappedResourceStatus(contentFormat));
+                templates.put(contentFormat, template);
+            }
 
-        public BlockSize getBlock2Size() {
-            return block2Size;
+            boolean confirmable = webresource.isUpdateNotificationConfirmable(remoteSocket);
+            int messageType =  confirmable ? MessageType.CON : MessageType.NON;
+            recipients.add(new UpdateNotificationRecipient(observation, messageType, template));
         }
 
-        public ObservableWebresource getWebresource() {
-            return webresource;
+        // schedule update notifications (immediately)
+        if (!recipients.isEmpty()) {
+            getExecutor().submit(new UpdateNotificationTask(recipients));
         }
     }
 
 
-
     private class ShutdownNotificationTask implements Runnable{
 
         private InetSocketAddress remoteSocket;
@@ -361,50 +357,206 @@ public class ServerObservationHandler extends AbstractCoapChannelHandler impleme
         }
     }
 
-    private class UpdateNotificationTask implements Runnable{
+    private boolean isNotificationDue(Observation observation) {
+        NotificationConditions conditions = observation.getConditions();
+        Double status = getNumericStatus(observation.getWebresource());
 
-        private InetSocketAddress remoteSocket;
+        synchronized (observation) {
+            if (!conditions.isSignificant(observation.getLastNotifiedStatus(), status)) {
+                return false;
+            }
+
+            long delay = observation.getLastNotificationTime() + conditions.getMinPeriod() - System.currentTimeMillis();
+            if (delay > 0) {
+                // coalesce status changes within the minimum period (i.e. send the latest status afterwards)
+                if (observation.getDeferredNotification() == null) {
+                    observation.setDeferredNotification(scheduleTimeout(
+                            new ConditionalNotificationTask(observation, false), delay, TimeUnit.MILLISECONDS
+                    ));
+                }
+                return false;
+            }
+
+            setNotified(observation, status);
+            return true;
+        }
+    }
+
+
+    private void setNotified(Observation observation, Double status) {
+        observation.setNotified(System.currentTimeMillis(), status);
+        long maxPeriod = observation.getConditions().getMaxPeriod();
+        if (maxPeriod > 0) {
+            observation.setMaxPeriodNotification(scheduleTimeout(
+                    new ConditionalNotificationTask(observation, true), maxPeriod, TimeUnit.MILLISECONDS
+            ));
+        }
+    }
+
+
+    private static Double getNumericStatus(ObservableWebresource webresource) {
+        Object status = webresource.getResourceStatus();
+        return status instanceof Number ? ((Number) status).doubleValue() : null;
+    }
+
+
+    /**
+     * Sends an update notification to a single observer with {@link NotificationConditions}, i.e. either a
+     * notification that was deferred due to the minimum period or a notification due to the maximum period.
+     */
+    private class ConditionalNotificationTask implements Runnable {
+
+        private Observation observation;
+        private boolean periodic;
+
+        private ConditionalNotificationTask(Observation observation, boolean periodic) {
+            this.observation = observation;
+            this.periodic = periodic;
+        }
+
+        @Override
+        public void run() {
+            if (!observations.contains(this.observation)) {
+                return;
+            }
+
+            ObservableWebresource webresource = this.observation.getWebresource();
+            Double status = getNumericStatus(webresource);
+            synchronized (this.observation) {
+                if (!this.periodic) {
+                    this.observation.setDeferredNotification(null);
+                    // the latest status might not be significant anymore
+                    if (!this.observation.getConditions().isSignificant(
+                            this.observation.getLastNotifiedStatus(), status)) {
+                        return;
+                    }
+                }
+                setNotified(this.observation, status);
+            }
+
+            InetSocketAddress remoteSocket = this.observation.getRemoteSocket();
+            long contentFormat = this.observation.getContentFormat();
+            UpdateNotificationTemplate template =
+                    new UpdateNotificationTemplate(webresource.getWrappedResourceStatus(contentFormat));
+            int messageType = webresource.isUpdateNotificationConfirmable(remoteSocket) ?
+                    MessageType.CON : MessageType.NON;
+
+            new UpdateNotificationTask(Collections.singletonList(
+                    new UpdateNotificationRecipient(this.observation, messageType, template))).run();
+        }
+    }
+
+
+    /**
+     * The parts of an update notification that are equal for all observers with the same content format, i.e. the
+     * options ETAG, CONTENT FORMAT and MAX AGE as well as the payload. The options following the OBSERVE option and the
+     * payload are encoded once for all observers (see {@link SharedEncoding}).
+     */
+    private static class UpdateNotificationTemplate {
+
+        private CoapResponse coapResponse;
+        private SharedEncoding sharedEncoding;
+
+        private UpdateNotificationTemplate(WrappedResourceStatus representation) {
+            this.coapResponse = new CoapResponse(MessageType.NON, MessageCode.CONTENT_205);
+            this.coapResponse.setEtag(representation.getEtag());
+            this.coapResponse.setContent(representation.getContent(), representation.getContentFormat());
+            this.coapResponse.setMaxAge(representation.getMaxAge());
+            this.sharedEncoding = new SharedEncoding(this.coapResponse, Option.OBSERVE);
+        }
+
+        private CoapResponse createUpdateNotification(int messageType, Token token, BlockSize block2Size) {
+            CoapResponse updateNotification = new CoapResponse(messageType, MessageCode.CONTENT_205);
+            updateNotification.setToken(token);
+
+            // share the option values and the content with the template
+            OptionTable options = this.coapResponse.getOptionTable();
+            for(int i = 0; i < options.size(); i++) {
+                updateNotification.addOption(options.getNumber(i), options.getValue(i));
+            }
+            updateNotification.setContent(this.coapResponse.getContent());
+            updateNotification.setObserve();
+            updateNotification.setPreferredBlock2Size(block2Size);
+            updateNotification.setSharedEncoding(this.sharedEncoding);
+
+            return updateNotification;
+        }
+    }
+
+
+    /**
+     * An update notification for a single observer. It is sent via the mailbox of the {@link Observation}, i.e. if
+     * there is another update notification in transfer to the same observer, it waits until that transfer is
+     * finished (or is superseded by a more recent update notification).
+     */
+    private class UpdateNotificationRecipient implements Runnable, ChannelFutureListener {
+
+        private Observation observation;
         private int messageType;
-        private Token token;
-        private BlockSize block2Size;
-        private WrappedResourceStatus representation;
+        private UpdateNotificationTemplate template;
 
-        public UpdateNotificationTask(InetSocketAddress remoteSocket, WrappedResourceStatus representation,
-                    int messageType, Token token, BlockSize block2Size) {
+        private UpdateNotificationRecipient(Observation observation, int messageType,
+                UpdateNotificationTemplate template) {
 
-            this.remoteSocket = remoteSocket;
-            this.representation = representation;
+            this.observation = observation;
             this.messageType = messageType;
-            this.token = token;
-            this.block2Size = block2Size;
+            this.template = template;
         }
 
+        @Override
         public void run() {
             try {
-                CoapResponse updateNotification = new CoapResponse(messageType, MessageCode.CONTENT_205);
-                updateNotification.setToken(token);
-                updateNotification.setEtag(representation.getEtag());
-                updateNotification.setContent(representation.getContent(), representation.getContentFormat());
-                updateNotification.setMaxAge(representation.getMaxAge());
-                updateNotification.setObserve();
-                updateNotification.setPreferredBlock2Size(block2Size);
-
-                ChannelFuture future = Channels.future(getContext().getChannel());
-                sendCoapMessage(updateNotification, remoteSocket, future);
-
-                future.addListener(new ChannelFutureListener() {
-                    @Override
-                    public void operationComplete(ChannelFuture future) throws Exception {
-                        if (!future.isSuccess()) {
-                            LOG.error("Update Notification Failure!", future.getCause());
-                        } else {
-                            LOG.info("Update Notification sent to \"{}\" (Token: {}).", remoteSocket, token);
-                        }
-                    }
-                });
+                CoapResponse updateNotification = this.template.createUpdateNotification(this.messageType,
+                        this.observation.getToken(), this.observation.getBlock2Size());
+
+                // the future must be cancellable to be notified if a handler stops the transfer
+                ChannelFuture future = Channels.future(getContext().getChannel(), true);
+                sendCoapMessage(updateNotification, this.observation.getRemoteSocket(), future);
+                future.addListener(this);
             } catch (Exception ex) {
                 LOG.error("Exception!", ex);
+                finishTransfer(this.observation);
             }
         }
+
+        @Override
+        public void operationComplete(ChannelFuture future) throws Exception {
+            if (!future.isSuccess() && !future.isCancelled()) {
+                LOG.error("Update Notification Failure!", future.getCause());
+            }
+
+            // the update notification was written (or replaced a pending retransmission)
+            finishTransfer(this.observation);
+        }
+    }
+
+
+    /**
+     * Sends the update notifications of a single notification round to all observers one after another, i.e. with
+     * one task (instead of one task per observer).
+     */
+    private class UpdateNotificationTask implements Runnable{
+
+        private List<UpdateNotificationRecipient> recipients;
+
+        public UpdateNotificationTask(List<UpdateNotificationRecipient> recipients) {
+            this.recipients = recipients;
+        }
+
+        public void run() {
+            int sent = 0;
+            for (UpdateNotificationRecipient recipient : this.recipients) {
+                // send now or put into the mailbox (if there is another update notification in transfer)
+                int result = recipient.observation.offerNotification(recipient);
+                if (result == Observation.SEND) {
+                    recipient.run();
+                    sent++;
+                } else if (result == Observation.SUPERSEDED) {
+                    supersededNotifications.incrementAndGet();
+                }
+            }
+
+            LOG.info("Update Notifications sent to {} observers ({} queued).", sent, this.recipients.size() - sent);
+        }
     }
 }
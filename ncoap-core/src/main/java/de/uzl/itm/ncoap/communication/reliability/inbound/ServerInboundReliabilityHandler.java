@@ -24,21 +24,27 @@
  */
 package de.uzl.itm.ncoap.communication.reliability.inbound;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.Table;
+import de.uzl.itm.ncoap.application.server.resource.Webresource;
 import de.uzl.itm.ncoap.communication.AbstractCoapChannelHandler;
 import de.uzl.itm.ncoap.communication.dispatching.Token;
+import de.uzl.itm.ncoap.communication.dispatching.server.RequestDispatcher;
 import de.uzl.itm.ncoap.message.CoapMessage;
 import de.uzl.itm.ncoap.message.CoapRequest;
 import de.uzl.itm.ncoap.message.CoapResponse;
 import de.uzl.itm.ncoap.message.MessageType;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
+import java.util.Arrays;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 
@@ -47,37 +53,188 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  * {@link de.uzl.itm.ncoap.message.CoapMessage}s at
  * {@link de.uzl.itm.ncoap.application.server.CoapServer}s. If the inbound message is a confirmable
  * {@link de.uzl.itm.ncoap.message.CoapRequest} it schedules the sending of an empty acknowledgement to the
- * sender if there wasn't a response from the addressed webresource within a period of 1.5 seconds.
+ * sender if there wasn't a response from the addressed webresource within a period of (at most) 1.5 seconds.
+ *
+ * The delay of the empty acknowledgement is chosen per request from the latencies of the previous requests for the
+ * same {@link Webresource}: If most of the responses took longer than {@link #EMPTY_ACK_DELAY}, i.e. a piggy-backed response is
+ * unlikely, the empty ACK is sent immediately. Otherwise it is sent if the response takes longer than usual (1.5 times
+ * the 95th percentile of the recent latencies, but between {@link #MIN_EMPTY_ACK_DELAY} and
+ * {@link #EMPTY_ACK_DELAY}). The delay can be
+ * overridden per path (see {@link #setEmptyAckDelay(String, long, TimeUnit)}).
+ *
+ * Duplicates of requests that were already acknowledged do not reach this handler but are answered by the
+ * {@link ServerResponseReplayHandler}.
  *
  * @author Oliver Kleine
  */
 public class ServerInboundReliabilityHandler extends AbstractCoapChannelHandler {
 
     /**
-     * Minimum delay in milliseconds (1500) between the reception of a confirmable request and an empty ACK
+     * Maximum delay in milliseconds (1500) between the reception of a confirmable request and an empty ACK (and the
+     * delay for paths without latency measurements)
      */
     public static final int EMPTY_ACK_DELAY = 1500;
 
+    /**
+     * Minimum delay in milliseconds (200) between the reception of a confirmable request and an empty ACK if a
+     * piggy-backed response is likely, i.e. this covers for the tick duration of the timer and short-time jitter
+     */
+    public static final int MIN_EMPTY_ACK_DELAY = 200;
+
+    /**
+     * The number of latency measurements per {@link Webresource} (64) to choose the delay of empty ACKs from
+     */
+    public static final int LATENCY_SAMPLES = 64;
+
+    /**
+     * The minimum number of latency measurements (8) for a {@link Webresource} before the delay of empty ACKs is
+     * adapted. The delay is re-calculated after the same number of further measurements.
+     */
+    public static final int MIN_LATENCY_SAMPLES = 8;
+
     private static Logger LOG = LoggerFactory.getLogger(ServerInboundReliabilityHandler.class.getName());
 
-    private Table<InetSocketAddress, Integer, Token> unprocessedRequests;
-    private Table<InetSocketAddress, Integer, ScheduledFuture> scheduledEmptyAcknowledgements;
+    private Table<InetSocketAddress, Integer, UnprocessedRequest> unprocessedRequests;
+    private Table<InetSocketAddress, Integer, Timeout> scheduledEmptyAcknowledgements;
     private ReentrantReadWriteLock lock;
 
+    private volatile RequestDispatcher requestDispatcher;
+    private Cache<Webresource, Latencies> latencies;
+    private ConcurrentMap<String, Long> emptyAckDelays;
+    private AtomicLong piggyBackedResponses;
+    private AtomicLong separateResponses;
+
 
     /**
      * Creates a new instance of
-     * {@link de.uzl.itm.ncoap.communication.reliability.inbound.ServerInboundReliabilityHandler}
+     * {@link de.uzl.itm.ncoap.communication.reliability.inbound.ServerInboundReliabilityHandler} using the shared
+     * default {@link Timer} (see {@link #getDefaultTimer()})
      *
      * @param executor the {@link java.util.concurrent.ScheduledExecutorService} to provide the threads to execute the
      *                 tasks for reliability.
+     *
+     * @deprecated use {@link #ServerInboundReliabilityHandler(ScheduledExecutorService, Timer)} instead
      */
+    @Deprecated
     public ServerInboundReliabilityHandler(ScheduledExecutorService executor) {
-        super(executor);
+        this(executor, getDefaultTimer());
+    }
+
+    /**
+     * Creates a new instance of
+     * {@link de.uzl.itm.ncoap.communication.reliability.inbound.ServerInboundReliabilityHandler}
+     *
+     * @param executor the {@link java.util.concurrent.ScheduledExecutorService} to provide the threads to execute the
+     *                 tasks for reliability.
+     * @param timer the {@link Timer} to schedule the empty acknowledgements
+     */
+    public ServerInboundReliabilityHandler(ScheduledExecutorService executor, Timer timer) {
+        super(executor, timer);
         this.unprocessedRequests = HashBasedTable.create();
         this.scheduledEmptyAcknowledgements = HashBasedTable.create();
 
         this.lock = new ReentrantReadWriteLock();
+
+        // the latencies of webresources that were shut down are garbage collected
+        this.latencies = CacheBuilder.newBuilder().weakKeys().build();
+        this.emptyAckDelays = new ConcurrentHashMap<>();
+        this.piggyBackedResponses = new AtomicLong();
+        this.separateResponses = new AtomicLong();
+    }
+
+
+    /**
+     * Sets a fixed delay for empty ACKs to confirmable requests for the given path, i.e. disables the adaptation
+     * of the delay for this path.
+     *
+     * @param uriPath the path the {@link de.uzl.itm.ncoap.application.server.resource.Webresource} is registered
+     *                with (i.e. including templates like <code>/devices/{id}/temp</code>)
+     * @param delay the delay between the reception of a confirmable request and the empty ACK
+     * @param unit the {@link TimeUnit} of the given delay
+     */
+    public void setEmptyAckDelay(String uriPath, long delay, TimeUnit unit) {
+        this.emptyAckDelays.put(uriPath, unit.toMillis(delay));
+    }
+
+    /**
+     * Removes the fixed delay for empty ACKs to confirmable requests for the given path (if any), i.e. enables the
+     * adaptation of the delay for this path.
+     *
+     * @param uriPath the path of the {@link de.uzl.itm.ncoap.application.server.resource.Webresource}
+     */
+    public void removeEmptyAckDelay(String uriPath) {
+        this.emptyAckDelays.remove(uriPath);
+    }
+
+    /**
+     * Returns the delay in milliseconds between the reception of a confirmable request for the given path and the
+     * empty ACK (if there was no response until then).
+     *
+     * @param uriPath the (request) path of the {@link de.uzl.itm.ncoap.application.server.resource.Webresource}
+     *
+     * @return the delay in milliseconds between the reception of a confirmable request and the empty ACK
+     */
+    public long getEmptyAckDelay(String uriPath) {
+        RequestDispatcher requestDispatcher = getRequestDispatcher();
+        Webresource webresource = requestDispatcher == null ? null : requestDispatcher.getWebresource(uriPath);
+        if (webresource == null) {
+            Long delay = this.emptyAckDelays.get(uriPath);
+            return delay == null ? EMPTY_ACK_DELAY : delay;
+        }
+        return getEmptyAckDelay(webresource);
+    }
+
+
+    private long getEmptyAckDelay(Webresource webresource) {
+        if (webresource == null) {
+            return EMPTY_ACK_DELAY;
+        }
+        if (!this.emptyAckDelays.isEmpty()) {
+            Long delay = this.emptyAckDelays.get(webresource.getUriPath());
+            if (delay != null) {
+                return delay;
+            }
+        }
+        Latencies latencies = this.latencies.getIfPresent(webresource);
+        return latencies == null ? EMPTY_ACK_DELAY : latencies.getEmptyAckDelay();
+    }
+
+
+    private RequestDispatcher getRequestDispatcher() {
+        if (this.requestDispatcher == null && getContext() != null) {
+            this.requestDispatcher = getContext().getPipeline().get(RequestDispatcher.class);
+        }
+        return this.requestDispatcher;
+    }
+
+    /**
+     * Returns the number of responses to confirmable requests that were piggy-backed on the ACK
+     *
+     * @return the number of responses to confirmable requests that were piggy-backed on the ACK
+     */
+    public long getPiggyBackedResponseCount() {
+        return this.piggyBackedResponses.get();
+    }
+
+    /**
+     * Returns the number of responses to confirmable requests that were sent separately (after an empty ACK)
+     *
+     * @return the number of responses to confirmable requests that were sent separately
+     */
+    public long getSeparateResponseCount() {
+        return this.separateResponses.get();
+    }
+
+    /**
+     * Returns the ratio of piggy-backed responses among all responses to confirmable requests (or 1 if there was
+     * no such response yet)
+     *
+     * @return the ratio of piggy-backed responses among all responses to confirmable requests
+     */
+    public double getPiggyBackedResponseRatio() {
+        long piggyBacked = this.piggyBackedResponses.get();
+        long total = piggyBacked + this.separateResponses.get();
+        return total == 0 ? 1 : (double) piggyBacked / total;
     }
 
 
@@ -105,11 +262,18 @@ public class ServerInboundReliabilityHandler extends AbstractCoapChannelHandler
         if (coapMessage instanceof CoapResponse) {
             Token token = coapMessage.getToken();
             int messageID = coapMessage.getMessageID();
-            removeUnprocessedRequest(remoteSocket, messageID, token);
+            UnprocessedRequest request = removeUnprocessedRequest(remoteSocket, messageID, token);
+            if (request != null) {
+                updateLatencies(request);
+            }
             if (!cancelEmptyAcknowledgement(remoteSocket, coapMessage.getMessageID())) {
+                if (request != null && request.messageType == MessageType.CON) {
+                    this.separateResponses.incrementAndGet();
+                }
                 // will be set by the next handler
                 coapMessage.setMessageID(CoapMessage.UNDEFINED_MESSAGE_ID);
             } else {
+                this.piggyBackedResponses.incrementAndGet();
                 coapMessage.setMessageType(MessageType.ACK);
                 LOG.info("Changed message type to ACK!");
             }
@@ -123,11 +287,15 @@ public class ServerInboundReliabilityHandler extends AbstractCoapChannelHandler
         int messageType = coapRequest.getMessageType();
         int messageID = coapRequest.getMessageID();
 
-        if (!addUnprocessedRequest(remoteSocket, messageID, coapRequest.getToken())) {
+        RequestDispatcher requestDispatcher = getRequestDispatcher();
+        Webresource webresource = requestDispatcher == null ? null :
+                requestDispatcher.getWebresource(coapRequest.getUriPathSegments());
+
+        if (!addUnprocessedRequest(remoteSocket, messageID, new UnprocessedRequest(coapRequest, webresource))) {
             LOG.info("Duplicate Request received from \"{}\" (message ID: {})", remoteSocket, messageID);
             if (messageType == MessageType.CON) {
-                ScheduledFuture future = getFromScheduledEmptyAcknowledgements(remoteSocket, messageID);
-                if (future == null || future.isDone()) {
+                Timeout timeout = getFromScheduledEmptyAcknowledgements(remoteSocket, messageID);
+                if (timeout == null || isDone(timeout)) {
                     LOG.debug("Duplicate was CON. Send immediate empty ACK...");
                     sendEmptyACK(messageID, remoteSocket);
                 } else {
@@ -139,14 +307,33 @@ public class ServerInboundReliabilityHandler extends AbstractCoapChannelHandler
             return false;
         } else {
             if (messageType == MessageType.CON) {
-                scheduleEmptyAcknowledgement(remoteSocket, messageID);
+                scheduleEmptyAcknowledgement(remoteSocket, messageID, getEmptyAckDelay(webresource));
             }
             return true;
         }
     }
 
 
-    private boolean addUnprocessedRequest(InetSocketAddress remoteSocket, int messageID, Token token) {
+    private void updateLatencies(UnprocessedRequest request) {
+        if (request.webresource == null) {
+            // no latencies for unknown webresources
+            return;
+        }
+        try {
+            Latencies latencies = this.latencies.get(request.webresource, new Callable<Latencies>() {
+                @Override
+                public Latencies call() throws Exception {
+                    return new Latencies();
+                }
+            });
+            latencies.update(System.currentTimeMillis() - request.receptionTime);
+        } catch (ExecutionException ex) {
+            LOG.error("This should never happen.", ex);
+        }
+    }
+
+
+    private boolean addUnprocessedRequest(InetSocketAddress remoteSocket, int messageID, UnprocessedRequest request) {
         try {
             this.lock.readLock().lock();
             if (this.unprocessedRequests.contains(remoteSocket, messageID)) {
@@ -161,7 +348,7 @@ public class ServerInboundReliabilityHandler extends AbstractCoapChannelHandler
             if (this.unprocessedRequests.contains(remoteSocket, messageID)) {
                 return false;
             } else {
-                this.unprocessedRequests.put(remoteSocket, messageID, token);
+                this.unprocessedRequests.put(remoteSocket, messageID, request);
                 return true;
             }
         } finally {
@@ -169,11 +356,12 @@ public class ServerInboundReliabilityHandler extends AbstractCoapChannelHandler
         }
     }
 
-    private void removeUnprocessedRequest(InetSocketAddress remoteSocket, int messageID, Token token) {
+    private UnprocessedRequest removeUnprocessedRequest(InetSocketAddress remoteSocket, int messageID, Token token) {
         try {
             this.lock.readLock().lock();
-            if (!token.equals(this.unprocessedRequests.get(remoteSocket, messageID))) {
-                return;
+            UnprocessedRequest request = this.unprocessedRequests.get(remoteSocket, messageID);
+            if (request == null || !token.equals(request.token)) {
+                return null;
             }
         } finally {
             this.lock.readLock().unlock();
@@ -181,17 +369,21 @@ public class ServerInboundReliabilityHandler extends AbstractCoapChannelHandler
 
         try {
             this.lock.writeLock().lock();
-            if (token.equals(this.unprocessedRequests.get(remoteSocket, messageID))) {
+            UnprocessedRequest request = this.unprocessedRequests.get(remoteSocket, messageID);
+            if (request != null && token.equals(request.token)) {
                 this.unprocessedRequests.remove(remoteSocket, messageID);
                 LOG.debug("Removed request from \"{}\" from \"unprocessed\" (Message ID: {}, Token: {}).",
                         new Object[]{remoteSocket, messageID, token});
+                return request;
             }
+            return null;
         } finally {
             this.lock.writeLock().unlock();
         }
     }
 
-    private void scheduleEmptyAcknowledgement(final InetSocketAddress remoteSocket, final int messageID) {
+    private void scheduleEmptyAcknowledgement(final InetSocketAddress remoteSocket, final int messageID,
+            long delay) {
 
         try {
             this.lock.readLock().lock();
@@ -210,15 +402,16 @@ public class ServerInboundReliabilityHandler extends AbstractCoapChannelHandler
                 return;
             }
             //RequestConfirmationTask confirmationTask = new RequestConfirmationTask(ctx, remoteSocket, messageID);
-            ScheduledFuture future = getExecutor().schedule(new Runnable() {
+            Timeout timeout = scheduleTimeout(new Runnable() {
                 @Override
                 public void run() {
                     removeFromScheduledEmptyAcknowledgements(remoteSocket, messageID);
                     sendEmptyACK(messageID, remoteSocket);
                 }
-            }, EMPTY_ACK_DELAY, TimeUnit.MILLISECONDS);
-            this.scheduledEmptyAcknowledgements.put(remoteSocket, messageID, future);
-            LOG.debug("Scheduled empty ACK (RCPT: \"{}\", message ID: {}", remoteSocket, messageID);
+            }, delay, TimeUnit.MILLISECONDS);
+            this.scheduledEmptyAcknowledgements.put(remoteSocket, messageID, timeout);
+            LOG.debug("Scheduled empty ACK with delay {} ms (RCPT: \"{}\", message ID: {}",
+                    new Object[]{delay, remoteSocket, messageID});
         } finally {
             this.lock.writeLock().unlock();
         }
@@ -227,17 +420,18 @@ public class ServerInboundReliabilityHandler extends AbstractCoapChannelHandler
     private boolean cancelEmptyAcknowledgement(InetSocketAddress remoteSocket, int messageID) {
         try {
             this.lock.readLock().lock();
-            ScheduledFuture future = this.scheduledEmptyAcknowledgements.get(remoteSocket, messageID);
-            if (future == null || future.isDone()) {
+            Timeout timeout = this.scheduledEmptyAcknowledgements.get(remoteSocket, messageID);
+            if (timeout == null || isDone(timeout)) {
                 return false;
             }
         } finally {
             this.lock.readLock().unlock();
         }
 
-        ScheduledFuture future = removeFromScheduledEmptyAcknowledgements(remoteSocket, messageID);
-        if (future != null && !future.isDone()) {
-            if (future.cancel(false)) {
+        Timeout timeout = removeFromScheduledEmptyAcknowledgements(remoteSocket, messageID);
+        if (timeout != null && !isDone(timeout)) {
+            timeout.cancel();
+            if (timeout.isCancelled()) {
                 LOG.info("Canceled empty ACK to \"{}\" (message ID: {})", remoteSocket, messageID);
                 return true;
             } else {
@@ -250,20 +444,20 @@ public class ServerInboundReliabilityHandler extends AbstractCoapChannelHandler
     }
 
 
-    private ScheduledFuture removeFromScheduledEmptyAcknowledgements(InetSocketAddress remoteSocket, int messageID) {
+    private Timeout removeFromScheduledEmptyAcknowledgements(InetSocketAddress remoteSocket, int messageID) {
         try {
             this.lock.writeLock().lock();
-            ScheduledFuture future = this.scheduledEmptyAcknowledgements.remove(remoteSocket, messageID);
-            if (LOG.isDebugEnabled() && future != null) {
+            Timeout timeout = this.scheduledEmptyAcknowledgements.remove(remoteSocket, messageID);
+            if (LOG.isDebugEnabled() && timeout != null) {
                 LOG.debug("Removed scheduled empty ACK (Remaining: {})", this.scheduledEmptyAcknowledgements.size());
             }
-            return future;
+            return timeout;
         } finally {
             this.lock.writeLock().unlock();
         }
     }
 
-    private ScheduledFuture getFromScheduledEmptyAcknowledgements(InetSocketAddress remoteSocket, int messageID) {
+    private Timeout getFromScheduledEmptyAcknowledgements(InetSocketAddress remoteSocket, int messageID) {
         try {
             this.lock.readLock().lock();
             return this.scheduledEmptyAcknowledgements.get(remoteSocket, messageID);
@@ -271,5 +465,71 @@ public class ServerInboundReliabilityHandler extends AbstractCoapChannelHandler
             this.lock.readLock().unlock();
         }
     }
-}
 
+    private static boolean isDone(Timeout timeout) {
+        return timeout.isExpired() || timeout.isCancelled();
+    }
+
+
+    private static class UnprocessedRequest {
+
+        private final Token token;
+        private final int messageType;
+        private final Webresource webresource;
+        private final long receptionTime;
+
+        private UnprocessedRequest(CoapRequest coapRequest, Webresource webresource) {
+            this.token = coapRequest.getToken();
+            this.messageType = coapRequest.getMessageType();
+            this.webresource = webresource;
+            this.receptionTime = System.currentTimeMillis();
+        }
+    }
+
+
+    /**
+     * The most recent latencies (in milliseconds) of the responses of a single {@link Webresource} and the delay for
+     * empty ACKs derived from them
+     */
+    private static class Latencies {
+
+        // guarded by this
+        private final long[] samples = new long[LATENCY_SAMPLES];
+        private int index;
+        private int count;
+        private int updates;
+
+        private volatile long emptyAckDelay = EMPTY_ACK_DELAY;
+
+        private void update(long latency) {
+            long[] sorted;
+            synchronized (this) {
+                this.samples[this.index] = latency;
+                this.index = (this.index + 1) % LATENCY_SAMPLES;
+                if (this.count < LATENCY_SAMPLES) {
+                    this.count++;
+                }
+                if (++this.updates < MIN_LATENCY_SAMPLES) {
+                    return;
+                }
+                this.updates = 0;
+                sorted = Arrays.copyOf(this.samples, this.count);
+            }
+
+            // sort the copy without holding the monitor
+            Arrays.sort(sorted);
+            long median = sorted[sorted.length / 2];
+            long p95 = sorted[(sorted.length * 95 - 1) / 100];
+            if (median > EMPTY_ACK_DELAY) {
+                // a piggy-backed response is unlikely, i.e. do not let the client wait
+                this.emptyAckDelay = 0;
+            } else {
+                this.emptyAckDelay = Math.max(MIN_EMPTY_ACK_DELAY, Math.min(EMPTY_ACK_DELAY, p95 * 3 / 2));
+            }
+        }
+
+        private long getEmptyAckDelay() {
+            return this.emptyAckDelay;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.reliability.inbound;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import de.uzl.itm.ncoap.message.MessageCode;
+import de.uzl.itm.ncoap.message.MessageType;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.SocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static de.uzl.itm.ncoap.communication.reliability.outbound.MessageIDFactory.EXCHANGE_LIFETIME;
+
+/**
+ * <p>The {@link ServerResponseReplayHandler} is located between the
+ * {@link de.uzl.itm.ncoap.communication.PeerOrderedExecutionHandler} and the codec, i.e. it deals with encoded
+ * messages. It keeps the encoded acknowledgements (i.e. piggy-backed responses and empty ACKs) sent to remote
+ * endpoints for {@link de.uzl.itm.ncoap.communication.reliability.outbound.MessageIDFactory#EXCHANGE_LIFETIME}
+ * seconds.</p>
+ *
+ * <p>If a duplicate of an acknowledged confirmable request is received (e.g. because the acknowledgement was lost),
+ * the very same acknowledgement is sent again without decoding the duplicate, i.e. without invoking the
+ * addressed {@link de.uzl.itm.ncoap.application.server.resource.Webresource} again. This is important for
+ * requests that are not idempotent (e.g. POST). Duplicates of requests that were not yet acknowledged are handled
+ * by the {@link ServerInboundReliabilityHandler}.</p>
+ */
+@ChannelHandler.Sharable
+public class ServerResponseReplayHandler extends SimpleChannelHandler {
+
+    private static Logger LOG = LoggerFactory.getLogger(ServerResponseReplayHandler.class.getName());
+
+    /**
+     * The default maximum number of acknowledgements kept for replay ({@value #DEFAULT_MAX_ENTRIES})
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    private final Cache<ReplayKey, byte[]> acknowledgements;
+    private final AtomicLong replayCount;
+
+
+    /**
+     * Creates a new instance of {@link ServerResponseReplayHandler} keeping up to {@link #DEFAULT_MAX_ENTRIES}
+     * acknowledgements.
+     */
+    public ServerResponseReplayHandler() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Creates a new instance of {@link ServerResponseReplayHandler}
+     *
+     * @param maxEntries the maximum number of acknowledgements kept for replay
+     */
+    public ServerResponseReplayHandler(int maxEntries) {
+        this.acknowledgements = CacheBuilder.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(EXCHANGE_LIFETIME, TimeUnit.SECONDS)
+                .build();
+        this.replayCount = new AtomicLong();
+    }
+
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent me) throws Exception {
+        if (me.getMessage() instanceof ChannelBuffer) {
+            ChannelBuffer buffer = (ChannelBuffer) me.getMessage();
+            if (getMessageType(buffer) == MessageType.CON && MessageCode.isRequest(getMessageCode(buffer))) {
+                ReplayKey key = new ReplayKey(me.getRemoteAddress(), getMessageID(buffer));
+                byte[] acknowledgement = this.acknowledgements.getIfPresent(key);
+                if (acknowledgement != null) {
+                    LOG.info("Duplicate request received from \"{}\" (message ID: {}). Replay acknowledgement.",
+                            me.getRemoteAddress(), key.messageID);
+                    this.replayCount.incrementAndGet();
+                    Channels.write(ctx, Channels.future(ctx.getChannel()),
+                            ChannelBuffers.wrappedBuffer(acknowledgement), me.getRemoteAddress());
+                    return;
+                }
+            }
+        }
+        ctx.sendUpstream(me);
+    }
+
+
+    @Override
+    public void writeRequested(ChannelHandlerContext ctx, MessageEvent me) throws Exception {
+        if (me.getMessage() instanceof ChannelBuffer) {
+            ChannelBuffer buffer = (ChannelBuffer) me.getMessage();
+            if (getMessageType(buffer) == MessageType.ACK) {
+                int messageCode = getMessageCode(buffer);
+                if (messageCode == MessageCode.EMPTY || MessageCode.isResponse(messageCode)) {
+                    byte[] acknowledgement = new byte[buffer.readableBytes()];
+                    buffer.getBytes(buffer.readerIndex(), acknowledgement);
+                    this.acknowledgements.put(new ReplayKey(me.getRemoteAddress(), getMessageID(buffer)),
+                            acknowledgement);
+                }
+            }
+        }
+        ctx.sendDownstream(me);
+    }
+
+
+    /**
+     * Returns the number of duplicate requests that were answered with a replayed acknowledgement
+     *
+     * @return the number of duplicate requests that were answered with a replayed acknowledgement
+     */
+    public long getReplayCount() {
+        return this.replayCount.get();
+    }
+
+    /**
+     * Returns the number of acknowledgements currently kept for replay
+     *
+     * @return the number of acknowledgements currently kept for replay
+     */
+    public long getSize() {
+        return this.acknowledgements.size();
+    }
+
+
+    private static int getMessageType(ChannelBuffer buffer) {
+        if (buffer.readableBytes() < 4 || (buffer.getUnsignedByte(buffer.readerIndex()) >>> 6) != 1) {
+            // no (valid) CoAP message, i.e. leave it to the decoder
+            return -1;
+        }
+        return (buffer.getUnsignedByte(buffer.readerIndex()) >>> 4) & 0x03;
+    }
+
+    // to be called only if getMessageType returned a valid message type, i.e. there are at least 4 bytes
+    private static int getMessageCode(ChannelBuffer buffer) {
+        return buffer.getUnsignedByte(buffer.readerIndex() + 1);
+    }
+
+    private static int getMessageID(ChannelBuffer buffer) {
+        return buffer.getUnsignedShort(buffer.readerIndex() + 2);
+    }
+
+
+    private static final class ReplayKey {
+
+        private final SocketAddress remoteSocket;
+        private final int messageID;
+
+        private ReplayKey(SocketAddress remoteSocket, int messageID) {
+            this.remoteSocket = remoteSocket;
+            this.messageID = messageID;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof ReplayKey)) {
+                return false;
+            }
+            ReplayKey other = (ReplayKey) object;
+            return this.messageID == other.messageID && this.remoteSocket.equals(other.remoteSocket);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * this.remoteSocket.hashCode() + this.messageID;
+        }
+    }
+}
@@ -26,6 +26,7 @@ package de.uzl.itm.ncoap.communication.reliability.outbound;
 
 import de.uzl.itm.ncoap.communication.AbstractCoapChannelHandler;
 import de.uzl.itm.ncoap.message.CoapMessage;
+import org.jboss.netty.util.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -83,16 +84,45 @@ public abstract class AbstractOutboundReliabilityHandler extends AbstractCoapCha
     }
 
     private MessageIDFactory messageIDFactory;
+    private RtoEstimator rtoEstimator;
 
     /**
      * Creates a new instance of {@link de.uzl.itm.ncoap.communication.reliability.outbound.AbstractOutboundReliabilityHandler}
+     * using the shared default {@link Timer} (see {@link #getDefaultTimer()})
      * @param executor the {@link java.util.concurrent.ScheduledExecutorService} to process the tasks to ensure
      *                 reliable message transfer
+     * @param factory the {@link MessageIDFactory} to provide the message IDs
+     *
+     * @deprecated use {@link #AbstractOutboundReliabilityHandler(ScheduledExecutorService, Timer, MessageIDFactory)} instead
      */
+    @Deprecated
     public AbstractOutboundReliabilityHandler(ScheduledExecutorService executor, MessageIDFactory factory) {
-        super(executor);
+        this(executor, getDefaultTimer(), factory);
+    }
+
+    /**
+     * Creates a new instance of {@link de.uzl.itm.ncoap.communication.reliability.outbound.AbstractOutboundReliabilityHandler}
+     * @param executor the {@link java.util.concurrent.ScheduledExecutorService} to process the tasks to ensure
+     *                 reliable message transfer
+     * @param timer the {@link Timer} to schedule retransmissions
+     * @param factory the {@link MessageIDFactory} to provide the message IDs
+     */
+    public AbstractOutboundReliabilityHandler(ScheduledExecutorService executor, Timer timer,
+                                              MessageIDFactory factory) {
+        super(executor, timer);
         this.messageIDFactory = factory;
         this.messageIDFactory.addObserver(this);
+        this.rtoEstimator = new RtoEstimator();
+    }
+
+
+    /**
+     * Returns the {@link RtoEstimator} that provides the (learned) retransmission timeouts per remote endpoint
+     *
+     * @return the {@link RtoEstimator} that provides the (learned) retransmission timeouts per remote endpoint
+     */
+    public RtoEstimator getRtoEstimator() {
+        return this.rtoEstimator;
     }
 
 
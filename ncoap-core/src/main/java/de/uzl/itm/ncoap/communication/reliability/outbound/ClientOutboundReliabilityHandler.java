@@ -27,48 +27,189 @@ package de.uzl.itm.ncoap.communication.reliability.outbound;
 import com.google.common.collect.*;
 import de.uzl.itm.ncoap.communication.dispatching.Token;
 import de.uzl.itm.ncoap.communication.events.*;
+import de.uzl.itm.ncoap.communication.events.client.TokenReleasedEvent;
 import de.uzl.itm.ncoap.message.*;
 import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
-import java.util.Observable;
+import java.util.*;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 
 /**
- * This is the handler to deal with message transmissions (e.g. transmissions of confirmable messages)
- * for CoAP Clients.
+ * <p>This is the handler to deal with message transmissions (e.g. transmissions of confirmable messages)
+ * for CoAP Clients.</p>
+ *
+ * <p>The number of outstanding confirmable messages, i.e. messages that were neither acknowledged nor reset nor
+ * timed out yet, can be limited per remote endpoint (NSTART, see RFC 7252, section 4.7 and
+ * {@link #setNstart(int)}). By default, there is no such limit. With a limit, further confirmable messages are
+ * queued (in FIFO order with PINGs first) and sent as soon as an outstanding message was acknowledged or the timeout
+ * of its last retransmission expired (MAX_TRANSMIT_WAIT). Messages that are queued for longer than the maximum queue
+ * time are dropped and considered timed out (see {@link TransmissionTimeoutEvent}).</p>
  *
  * @author Oliver Kleine
  */
-public class ClientOutboundReliabilityHandler extends AbstractOutboundReliabilityHandler {
+public class ClientOutboundReliabilityHandler extends AbstractOutboundReliabilityHandler
+        implements TokenReleasedEvent.Handler {
 
     private static Logger LOG = LoggerFactory.getLogger(ClientOutboundReliabilityHandler.class.getName());
 
-    private Table<InetSocketAddress, Integer, TransmissionTask[]> transmissions;
+    /**
+     * The default number of outstanding confirmable messages per remote endpoint ({@value #DEFAULT_NSTART}), i.e.
+     * unlimited
+     */
+    public static final int DEFAULT_NSTART = Integer.MAX_VALUE;
+
+    /**
+     * The default maximum time (in milliseconds) a confirmable message waits in the queue of a remote endpoint
+     * ({@value #DEFAULT_MAX_QUEUE_TIME_MILLIS})
+     */
+    public static final long DEFAULT_MAX_QUEUE_TIME_MILLIS = 60000;
+
+    private Table<InetSocketAddress, Integer, Transmission> transmissions;
+    private Table<InetSocketAddress, Token, Integer> messageIDs;
+    private Map<InetSocketAddress, OutboundQueue> queues;
     private ReentrantReadWriteLock lock;
 
+    private volatile int nstart;
+    private volatile long maxQueueTime;
+
     /**
      * Creates a new instance of {@link de.uzl.itm.ncoap.communication.reliability.outbound.ClientOutboundReliabilityHandler}
+     * using the shared default {@link Timer} (see {@link #getDefaultTimer()})
      * @param executor the {@link java.util.concurrent.ScheduledExecutorService} to process the tasks to ensure
      *                 reliable message transfer
+     * @param factory the {@link MessageIDFactory} to provide the message IDs
+     *
+     * @deprecated use {@link #ClientOutboundReliabilityHandler(ScheduledExecutorService, Timer, MessageIDFactory)} instead
      */
+    @Deprecated
     public ClientOutboundReliabilityHandler(ScheduledExecutorService executor, MessageIDFactory factory) {
-        super(executor, factory);
+        this(executor, getDefaultTimer(), factory);
+    }
+
+    /**
+     * Creates a new instance of {@link de.uzl.itm.ncoap.communication.reliability.outbound.ClientOutboundReliabilityHandler}
+     * @param executor the {@link java.util.concurrent.ScheduledExecutorService} to process the tasks to ensure
+     *                 reliable message transfer
+     * @param timer the {@link Timer} to schedule retransmissions
+     * @param factory the {@link MessageIDFactory} to provide the message IDs
+     */
+    public ClientOutboundReliabilityHandler(ScheduledExecutorService executor, Timer timer,
+                                            MessageIDFactory factory) {
+        super(executor, timer, factory);
         this.transmissions = HashBasedTable.create();
+        this.messageIDs = HashBasedTable.create();
+        this.queues = new HashMap<>();
         this.lock = new ReentrantReadWriteLock();
+        this.nstart = DEFAULT_NSTART;
+        this.maxQueueTime = DEFAULT_MAX_QUEUE_TIME_MILLIS;
+    }
+
+
+    /**
+     * Sets the maximum number of outstanding confirmable messages per remote endpoint (default:
+     * {@link #DEFAULT_NSTART}, i.e. unlimited). The new limit applies to messages sent or dequeued afterwards.
+     * RFC 7252 recommends 1. A message is outstanding until it was acknowledged or reset, or until the timeout of its
+     * last retransmission expired.
+     *
+     * @param nstart the maximum number of outstanding confirmable messages per remote endpoint
+     */
+    public void setNstart(int nstart) {
+        if (nstart < 1) {
+            throw new IllegalArgumentException("NSTART must be at least 1 (was: " + nstart + ")");
+        }
+        this.nstart = nstart;
+    }
+
+    /**
+     * Returns the maximum number of outstanding confirmable messages per remote endpoint
+     *
+     * @return the maximum number of outstanding confirmable messages per remote endpoint
+     */
+    public int getNstart() {
+        return this.nstart;
+    }
+
+    /**
+     * Sets the maximum time a confirmable message waits in the queue of a remote endpoint before it is dropped
+     * (default: {@link #DEFAULT_MAX_QUEUE_TIME_MILLIS} milliseconds).
+     *
+     * @param maxQueueTime the maximum queue time
+     * @param unit the {@link TimeUnit} of the given maximum queue time
+     */
+    public void setMaxQueueTime(long maxQueueTime, TimeUnit unit) {
+        this.maxQueueTime = unit.toMillis(maxQueueTime);
+    }
+
+    /**
+     * Returns the number of outstanding confirmable messages for the given remote endpoint
+     *
+     * @param remoteSocket the {@link InetSocketAddress} of the remote endpoint
+     *
+     * @return the number of outstanding confirmable messages for the given remote endpoint
+     */
+    public int getOutstandingCount(InetSocketAddress remoteSocket) {
+        try {
+            this.lock.readLock().lock();
+            OutboundQueue queue = this.queues.get(remoteSocket);
+            return queue == null ? 0 : queue.outstanding;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of confirmable messages waiting in the queue for the given remote endpoint
+     *
+     * @param remoteSocket the {@link InetSocketAddress} of the remote endpoint
+     *
+     * @return the number of confirmable messages waiting in the queue for the given remote endpoint
+     */
+    public int getQueueDepth(InetSocketAddress remoteSocket) {
+        try {
+            this.lock.readLock().lock();
+            OutboundQueue queue = this.queues.get(remoteSocket);
+            return queue == null ? 0 : queue.messages.size();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of confirmable messages waiting in the queues for all remote endpoints
+     *
+     * @return the number of confirmable messages waiting in the queues for all remote endpoints
+     */
+    public int getQueueDepth() {
+        try {
+            this.lock.readLock().lock();
+            int result = 0;
+            for (OutboundQueue queue : this.queues.values()) {
+                result += queue.messages.size();
+            }
+            return result;
+        } finally {
+            this.lock.readLock().unlock();
+        }
     }
 
 
     @Override
     public boolean handleOutboundCoapMessage(CoapMessage coapMessage, InetSocketAddress remoteSocket) {
         if (coapMessage instanceof CoapRequest || coapMessage.isPing()) {
+            if (coapMessage.getMessageType() == MessageType.CON && !reserveTransmission(coapMessage, remoteSocket)) {
+                // NSTART reached, i.e. the message is sent later (or dropped after the maximum queue time)
+                return false;
+            }
             handleOutboundCoapMessage2(coapMessage, remoteSocket);
             return true;
         } else {
@@ -89,19 +230,110 @@ public class ClientOutboundReliabilityHandler extends AbstractOutboundReliabilit
     }
 
 
-    private void handleOutboundCoapMessage2(CoapMessage coapRequest, InetSocketAddress remoteSocket) {
+    private boolean handleOutboundCoapMessage2(CoapMessage coapRequest, InetSocketAddress remoteSocket) {
         LOG.debug("HANDLE OUTBOUND MESSAGE: {}", coapRequest);
 
         int messageID = assignMessageID(coapRequest, remoteSocket);
         Token token = coapRequest.getToken();
         if (messageID == CoapMessage.UNDEFINED_MESSAGE_ID) {
             LOG.info("No message ID available for \"{}\" (ID pool exhausted).", remoteSocket);
+            if (coapRequest.getMessageType() == MessageType.CON) {
+                releaseTransmission(remoteSocket);
+            }
             triggerEvent(new NoMessageIDAvailableEvent(remoteSocket, token), false);
+            return false;
         } else {
             LOG.info("Set message ID to {}", messageID);
             triggerEvent(new MessageIDAssignedEvent(remoteSocket, messageID, token), false);
 
             scheduleTransmissions(coapRequest, remoteSocket);
+            return true;
+        }
+    }
+
+
+    private boolean reserveTransmission(CoapMessage coapMessage, InetSocketAddress remoteSocket) {
+        try {
+            this.lock.writeLock().lock();
+            OutboundQueue queue = this.queues.get(remoteSocket);
+            if (queue == null) {
+                queue = new OutboundQueue();
+                this.queues.put(remoteSocket, queue);
+            }
+
+            if (queue.outstanding < this.nstart && queue.messages.isEmpty()) {
+                queue.outstanding++;
+                return true;
+            }
+
+            QueuedMessage queuedMessage = new QueuedMessage(coapMessage, remoteSocket);
+            if (coapMessage.isPing()) {
+                queue.messages.addFirst(queuedMessage);
+            } else {
+                queue.messages.addLast(queuedMessage);
+            }
+            queuedMessage.timeout = scheduleTimeout(queuedMessage, this.maxQueueTime, TimeUnit.MILLISECONDS);
+            LOG.debug("NSTART reached for \"{}\" (queue depth: {}).", remoteSocket, queue.messages.size());
+            return false;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+
+    private void releaseTransmission(InetSocketAddress remoteSocket) {
+        List<CoapMessage> messages = new ArrayList<>();
+        try {
+            this.lock.writeLock().lock();
+            OutboundQueue queue = this.queues.get(remoteSocket);
+            if (queue == null) {
+                return;
+            }
+
+            queue.outstanding--;
+            while (queue.outstanding < this.nstart && !queue.messages.isEmpty()) {
+                QueuedMessage queuedMessage = queue.messages.removeFirst();
+                queuedMessage.timeout.cancel();
+                queue.outstanding++;
+                messages.add(queuedMessage.coapMessage);
+            }
+
+            if (queue.outstanding <= 0 && queue.messages.isEmpty()) {
+                this.queues.remove(remoteSocket);
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+
+        // send the dequeued messages (without holding the lock)
+        for (CoapMessage coapMessage : messages) {
+            if (handleOutboundCoapMessage2(coapMessage, remoteSocket)) {
+                sendCoapMessage(coapMessage, remoteSocket);
+            }
+        }
+    }
+
+
+    private QueuedMessage removeQueuedMessage(InetSocketAddress remoteSocket, Token token) {
+        try {
+            this.lock.writeLock().lock();
+            OutboundQueue queue = this.queues.get(remoteSocket);
+            if (queue == null) {
+                return null;
+            }
+
+            Iterator<QueuedMessage> iterator = queue.messages.iterator();
+            while (iterator.hasNext()) {
+                QueuedMessage queuedMessage = iterator.next();
+                if (token.equals(queuedMessage.coapMessage.getToken())) {
+                    iterator.remove();
+                    queuedMessage.timeout.cancel();
+                    return queuedMessage;
+                }
+            }
+            return null;
+        } finally {
+            this.lock.writeLock().unlock();
         }
     }
 
@@ -114,10 +346,14 @@ public class ClientOutboundReliabilityHandler extends AbstractOutboundReliabilit
             // incoming PINGs are handled by the inbound reliability handler
             return true;
         } else {
-            Token token = stopRetransmissions(remoteSocket, messageID);
-            if (token == null) {
+            Transmission transmission = stopRetransmissions(remoteSocket, messageID);
+            if (transmission == null) {
                 return true;
-            } else if (messageType == MessageType.ACK) {
+            }
+
+            Token token = transmission.getToken();
+            if (messageType == MessageType.ACK) {
+                processAcknowledgement(remoteSocket, transmission);
                 LOG.info("Received empty ACK from \"{}\" for token {} (Message ID: {}).",
                     new Object[]{remoteSocket, messageID, token});
                 triggerEvent(new EmptyAckReceivedEvent(remoteSocket, messageID, token), false);
@@ -141,7 +377,9 @@ public class ClientOutboundReliabilityHandler extends AbstractOutboundReliabilit
 
         if (messageType == MessageType.ACK) {
             int messageID = coapResponse.getMessageID();
-            if (stopRetransmissions(remoteSocket, messageID) != null) {
+            Transmission transmission = stopRetransmissions(remoteSocket, messageID);
+            if (transmission != null) {
+                processAcknowledgement(remoteSocket, transmission);
                 return true;
             } else {
                 LOG.warn("Received ACK from \"{}\" for unknown message ID {}", remoteSocket, messageID);
@@ -153,13 +391,80 @@ public class ClientOutboundReliabilityHandler extends AbstractOutboundReliabilit
     }
 
 
-    private Token stopRetransmissions(InetSocketAddress remoteSocket, int messageID) {
+    /**
+     * Stops all pending (re-)transmissions of the request with the {@link Token} that was released, e.g. because
+     * the request was cancelled by the application before a response was received.
+     *
+     * @param event the {@link TokenReleasedEvent} containing the remote socket and the released {@link Token}
+     */
+    @Override
+    public void handleEvent(TokenReleasedEvent event) {
+        InetSocketAddress remoteSocket = event.getRemoteSocket();
+        Token token = event.getToken();
+        if (removeQueuedMessage(remoteSocket, token) != null) {
+            LOG.debug("Removed queued message after token release (Remote Socket: {}, Token: {})",
+                    remoteSocket, token);
+            return;
+        }
+
+        Integer messageID;
+        try {
+            this.lock.readLock().lock();
+            messageID = this.messageIDs.get(remoteSocket, token);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+
+        if (messageID != null && stopRetransmissions(remoteSocket, messageID) != null) {
+            LOG.debug("Stopped transmissions after token release (Remote Socket: {}, Message ID: {})",
+                    remoteSocket, messageID);
+        }
+    }
+
+
+    private void processAcknowledgement(InetSocketAddress remoteSocket, Transmission transmission) {
+        if (transmission.confirmable) {
+            // count the transmissions and measure the RTT since the first transmission
+            TransmissionTask[] tasks = transmission.tasks;
+            int transmissions = 0;
+            while (transmissions < tasks.length && tasks[transmissions].getTransmissionTime() > 0) {
+                transmissions++;
+            }
+            long rtt = System.currentTimeMillis() - tasks[0].getTransmissionTime();
+            getRtoEstimator().processAcknowledgement(remoteSocket, rtt, transmissions);
+        }
+    }
+
+
+    private Transmission stopRetransmissions(InetSocketAddress remoteSocket, int messageID) {
+        Transmission transmission = removeTransmission(remoteSocket, messageID);
+        if (transmission != null) {
+            releaseOutstanding(remoteSocket, transmission);
+        }
+        return transmission;
+    }
+
+
+    private void releaseOutstanding(InetSocketAddress remoteSocket, Transmission transmission) {
+        if (transmission.outstanding.compareAndSet(true, false)) {
+            // a confirmable message is no longer outstanding
+            releaseTransmission(remoteSocket);
+        }
+    }
+
+
+    private Transmission removeTransmission(InetSocketAddress remoteSocket, int messageID) {
         try {
             this.lock.writeLock().lock();
-            TransmissionTask[] tasks = this.transmissions.remove(remoteSocket, messageID);
-            if (tasks == null) {
+            Transmission transmission = this.transmissions.remove(remoteSocket, messageID);
+            if (transmission == null) {
                 return null;
             } else {
+                Token token = transmission.getToken();
+                if (Integer.valueOf(messageID).equals(this.messageIDs.get(remoteSocket, token))) {
+                    this.messageIDs.remove(remoteSocket, token);
+                }
+                TransmissionTask[] tasks = transmission.tasks;
                 for (int i = 0; i < tasks.length; i++) {
                     if (tasks[i].cancel()) {
                         LOG.debug("Cancelled transmission #{} (Remote Socket: {}, Message ID: {})",
@@ -169,7 +474,10 @@ public class ClientOutboundReliabilityHandler extends AbstractOutboundReliabilit
                                 new Object[]{i + 1, remoteSocket, messageID});
                     }
                 }
-                return tasks[0].getToken();
+                if (transmission.transmitWait != null) {
+                    transmission.transmitWait.cancel();
+                }
+                return transmission;
             }
         } finally {
             this.lock.writeLock().unlock();
@@ -177,30 +485,49 @@ public class ClientOutboundReliabilityHandler extends AbstractOutboundReliabilit
     }
 
 
-    private void scheduleTransmissions(CoapMessage coapMessage, InetSocketAddress remoteSocket) {
+    private void scheduleTransmissions(final CoapMessage coapMessage, final InetSocketAddress remoteSocket) {
         int messageType = coapMessage.getMessageType();
+        final Transmission transmission;
         TransmissionTask[] tasks;
         if(messageType == MessageType.CON) {
             tasks = new TransmissionTask[5];
-            long[] delays = provideTransmissionDelays();
+            long[] delays = getRtoEstimator().provideTransmissionDelays(remoteSocket);
             for (int i = 0; i < 5; i++) {
                 tasks[i] = new TransmissionTask(coapMessage, remoteSocket, i);
-                if(i > 0) {
-                    tasks[i].setFuture(this.scheduleTask(tasks[i], delays[i], TimeUnit.MILLISECONDS));
+                if (i == 0) {
+                    // the first transmission is the message that is currently written
+                    tasks[i].setTransmissionTime(System.currentTimeMillis());
+                } else {
+                    tasks[i].setTimeout(this.scheduleTimeout(tasks[i], delays[i], TimeUnit.MILLISECONDS));
                     LOG.debug("Scheduled transmission #{} with delay {} ms (Remote Socket: {}, message ID: {}).",
                             new Object[]{i + 1, delays[i], remoteSocket, coapMessage.getMessageID()}
                     );
                 }
             }
+            transmission = new Transmission(tasks, true);
+
+            // release the NSTART slot if there is no ACK for the last retransmission (MAX_TRANSMIT_WAIT)
+            long transmitWait = delays[MAX_RETRANSMISSIONS] +
+                    getRtoEstimator().provideRetransmissionDelay(remoteSocket, MAX_RETRANSMISSIONS + 1);
+            transmission.transmitWait = this.scheduleTimeout(new Runnable() {
+                @Override
+                public void run() {
+                    LOG.debug("No ACK within MAX_TRANSMIT_WAIT (Remote Socket: {}, message ID: {}).",
+                            remoteSocket, coapMessage.getMessageID());
+                    releaseOutstanding(remoteSocket, transmission);
+                }
+            }, transmitWait, TimeUnit.MILLISECONDS);
         } else {
             tasks = new TransmissionTask[1];
             tasks[0] = new TransmissionTask(coapMessage, remoteSocket, 0);
-            //tasks[0].setFuture(this.scheduleTask(tasks[0], 0, TimeUnit.MILLISECONDS));
+            //tasks[0].setTimeout(this.scheduleTimeout(tasks[0], 0, TimeUnit.MILLISECONDS));
+            transmission = new Transmission(tasks, false);
         }
 
         try {
             this.lock.writeLock().lock();
-            this.transmissions.put(remoteSocket, coapMessage.getMessageID(), tasks);
+            this.transmissions.put(remoteSocket, coapMessage.getMessageID(), transmission);
+            this.messageIDs.put(remoteSocket, coapMessage.getToken(), coapMessage.getMessageID());
         } finally {
             this.lock.writeLock().unlock();
         }
@@ -233,12 +560,65 @@ public class ClientOutboundReliabilityHandler extends AbstractOutboundReliabilit
         }
     }
 
+    private static class OutboundQueue {
+
+        // guarded by lock
+        private int outstanding;
+        private final Deque<QueuedMessage> messages = new ArrayDeque<>();
+    }
+
+
+    private class QueuedMessage implements Runnable {
+
+        private final CoapMessage coapMessage;
+        private final InetSocketAddress remoteSocket;
+        private Timeout timeout;
+
+        private QueuedMessage(CoapMessage coapMessage, InetSocketAddress remoteSocket) {
+            this.coapMessage = coapMessage;
+            this.remoteSocket = remoteSocket;
+        }
+
+        @Override
+        public void run() {
+            // maximum queue time exceeded
+            if (removeQueuedMessage(this.remoteSocket, this.coapMessage.getToken()) == this) {
+                LOG.warn("Message was queued too long (remote socket: \"{}\", token: {})",
+                        this.remoteSocket, this.coapMessage.getToken());
+                triggerEvent(new TransmissionTimeoutEvent(this.remoteSocket, CoapMessage.UNDEFINED_MESSAGE_ID,
+                        this.coapMessage.getToken()), false);
+            }
+        }
+    }
+
+
+    private static class Transmission {
+
+        private final TransmissionTask[] tasks;
+        private final boolean confirmable;
+        // whether this transmission still counts towards NSTART
+        private final AtomicBoolean outstanding;
+        private volatile Timeout transmitWait;
+
+        private Transmission(TransmissionTask[] tasks, boolean confirmable) {
+            this.tasks = tasks;
+            this.confirmable = confirmable;
+            this.outstanding = new AtomicBoolean(confirmable);
+        }
+
+        private Token getToken() {
+            return this.tasks[0].getToken();
+        }
+    }
+
+
     private class TransmissionTask implements Runnable {
 
         private CoapMessage coapMessage;
         private InetSocketAddress remoteSocket;
         private int transmissionNumber;
-        private ScheduledFuture future;
+        private Timeout timeout;
+        private volatile long transmissionTime;
 
         public TransmissionTask(CoapMessage coapMessage, InetSocketAddress remoteSocket, int transmissionNumber) {
             this.coapMessage = coapMessage;
@@ -249,6 +629,7 @@ public class ClientOutboundReliabilityHandler extends AbstractOutboundReliabilit
         @Override
         public void run() {
 
+            this.transmissionTime = System.currentTimeMillis();
             ChannelFuture channelFuture = sendCoapMessage(coapMessage, remoteSocket);
             channelFuture.addListener(new ChannelFutureListener() {
                 @Override
@@ -266,16 +647,28 @@ public class ClientOutboundReliabilityHandler extends AbstractOutboundReliabilit
             });
         }
 
-        public void setFuture(ScheduledFuture future) {
-            this.future = future;
+        public void setTimeout(Timeout timeout) {
+            this.timeout = timeout;
         }
 
         public Token getToken() {
             return this.coapMessage.getToken();
         }
 
+        public long getTransmissionTime() {
+            return this.transmissionTime;
+        }
+
+        public void setTransmissionTime(long transmissionTime) {
+            this.transmissionTime = transmissionTime;
+        }
+
         public boolean cancel() {
-            return this.future != null && this.future.cancel(true);
+            if (this.timeout == null) {
+                return false;
+            }
+            this.timeout.cancel();
+            return this.timeout.isCancelled();
         }
 
     }
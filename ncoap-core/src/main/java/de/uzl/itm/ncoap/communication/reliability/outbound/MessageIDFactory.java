@@ -24,26 +24,36 @@
  */
 package de.uzl.itm.ncoap.communication.reliability.outbound;
 
-import com.google.common.collect.Ordering;
-import com.google.common.collect.TreeMultimap;
+import com.google.common.base.Ticker;
+import de.uzl.itm.ncoap.communication.AbstractCoapChannelHandler;
+import de.uzl.itm.ncoap.communication.ExecutorTimerTask;
 import de.uzl.itm.ncoap.communication.dispatching.Token;
 import de.uzl.itm.ncoap.message.CoapMessage;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
 import java.util.Observable;
+import java.util.Queue;
 import java.util.Random;
-import java.util.SortedSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * An instances of {@link MessageIDFactory} creates and manages message IDs for outgoing messages. On creation of
  * new message IDs the factory ensures that the same message ID is not used twice for different messages to the
  * same remote CoAP endpoints within {@link #EXCHANGE_LIFETIME} seconds.
  *
+ * The allocated message IDs of each remote endpoint are kept in a bitmap (with {@link #MODULUS} bits, split into
+ * lazily created pages) and new message IDs are searched from a rolling cursor. Allocated message IDs are not
+ * released one by one but collected in time buckets of one second. A single periodic task releases all message IDs
+ * of a bucket at once when the bucket is older than {@link #EXCHANGE_LIFETIME} (plus the bucket duration), i.e.
+ * message IDs are released up to one second later than {@link #EXCHANGE_LIFETIME} but never earlier.
+ *
  * @author Oliver Kleine
 */
 public class MessageIDFactory extends Observable {
@@ -60,24 +70,79 @@ public class MessageIDFactory extends Observable {
      */
     public static final int MODULUS = 65536;
 
+    private static final long BUCKET_DURATION = TimeUnit.SECONDS.toNanos(1);
+
+    private static final long EXPIRY_DELAY = TimeUnit.SECONDS.toNanos(EXCHANGE_LIFETIME) + BUCKET_DURATION;
+
     private Logger log = LoggerFactory.getLogger(this.getClass().getName());
 
-    private Random random;
+    private final Random random;
+    private final Ticker ticker;
 
-    private TreeMultimap<InetSocketAddress, Integer> allocations;
-    private ReentrantReadWriteLock lock;
-    private ScheduledExecutorService executor;
+    private final ConcurrentHashMap<InetSocketAddress, Allocations> allocations;
+    private final Queue<ExpiryBucket> buckets;
+    private volatile ExpiryBucket currentBucket;
+    private final Object expiryLock;
+
+    private final ScheduledExecutorService executor;
+    private final Timer timer;
+    private volatile Timeout expiryTimeout;
+    private volatile boolean shutdown;
 
 
     /**
      * @param executor the {@link ScheduledExecutorService} to provide the thread for operations to
      *                        provide available message IDs
+     *
+     * @deprecated use {@link #MessageIDFactory(ScheduledExecutorService, Timer)} instead (this constructor uses the
+     * shared default {@link Timer}, see {@link AbstractCoapChannelHandler#getDefaultTimer()})
      */
+    @Deprecated
     public MessageIDFactory(ScheduledExecutorService executor) {
+        this(executor, AbstractCoapChannelHandler.getDefaultTimer());
+    }
+
+    /**
+     * @param executor the {@link ScheduledExecutorService} to provide the thread for operations to
+     *                        provide available message IDs
+     * @param timer the {@link Timer} to periodically trigger the release of expired message IDs
+     */
+    public MessageIDFactory(ScheduledExecutorService executor, Timer timer) {
+        this(executor, timer, Ticker.systemTicker());
+    }
+
+
+    MessageIDFactory(ScheduledExecutorService executor, Timer timer, Ticker ticker) {
         this.executor = executor;
-        this.allocations = TreeMultimap.create(Ordering.arbitrary(), Ordering.natural());
-        this.lock = new ReentrantReadWriteLock();
+        this.timer = timer;
+        this.ticker = ticker;
         this.random = new Random(System.currentTimeMillis());
+        this.allocations = new ConcurrentHashMap<>();
+        this.buckets = new ConcurrentLinkedQueue<>();
+        this.expiryLock = new Object();
+        this.currentBucket = new ExpiryBucket(ticker.read());
+        this.buckets.add(this.currentBucket);
+        this.shutdown = false;
+
+        scheduleExpiry();
+    }
+
+
+    private void scheduleExpiry() {
+        this.expiryTimeout = this.timer.newTimeout(new ExecutorTimerTask(this.executor, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    releaseExpiredMessageIDs();
+                } catch (Exception ex) {
+                    log.error("Exception while releasing expired message IDs!", ex);
+                } finally {
+                    if (!shutdown) {
+                        scheduleExpiry();
+                    }
+                }
+            }
+        }), BUCKET_DURATION, TimeUnit.NANOSECONDS);
     }
 
 
@@ -95,72 +160,104 @@ public class MessageIDFactory extends Observable {
      * {@link de.uzl.itm.ncoap.message.CoapMessage#UNDEFINED_MESSAGE_ID} if all IDs are in use.
      */
     public int getNextMessageID(final InetSocketAddress remoteSocket, final Token token) {
+        while (true) {
+            Allocations allocations = this.allocations.get(remoteSocket);
+            if (allocations == null) {
+                Allocations newAllocations = new Allocations(this.random.nextInt(MODULUS));
+                allocations = this.allocations.putIfAbsent(remoteSocket, newAllocations);
+                if (allocations == null) {
+                    allocations = newAllocations;
+                }
+            }
 
-        try{
-            lock.readLock().lock();
+            final int messageID;
+            synchronized (allocations) {
+                if (allocations.isDiscarded()) {
+                    // all message IDs of this endpoint were released concurrently (try again)
+                    continue;
+                }
+                messageID = allocations.allocate();
+            }
 
-            if (this.allocations.get(remoteSocket).size() == MODULUS) {
+            if (messageID == CoapMessage.UNDEFINED_MESSAGE_ID) {
                 log.warn("No more message IDs available for remote endpoint {}.", remoteSocket);
-                return CoapMessage.UNDEFINED_MESSAGE_ID;
+            } else {
+                getCurrentBucket().add(new MessageIDRelease(remoteSocket, messageID, token));
             }
+            return messageID;
         }
-        finally{
-            lock.readLock().unlock();
-        }
+    }
 
-        try{
-            lock.writeLock().lock();
 
-            final SortedSet<Integer> allocations = this.allocations.get(remoteSocket);
-            if (allocations.size() == MODULUS) {
-                log.warn("No more message IDs available for remote endpoint {}.", remoteSocket);
-                return CoapMessage.UNDEFINED_MESSAGE_ID;
+    /**
+     * Releases the message IDs of all buckets that are older than {@link #EXCHANGE_LIFETIME} (plus the bucket
+     * duration) and notifies the observers for every released message ID. This method is periodically invoked
+     * (once per bucket duration) using the {@link Timer} given to the constructor.
+     */
+    void releaseExpiredMessageIDs() {
+        synchronized (this.expiryLock) {
+            long now = this.ticker.read();
+            ExpiryBucket bucket;
+            while ((bucket = this.buckets.peek()) != null && now - bucket.getStart() >= EXPIRY_DELAY) {
+                this.buckets.poll();
+                MessageIDRelease release;
+                while ((release = bucket.poll()) != null) {
+                    releaseMessageID(release);
+                }
             }
+        }
+    }
 
-            final int messageID;
-            if (allocations.size() == 0) {
-                messageID = this.random.nextInt(MODULUS);
-            } else {
-                messageID = (allocations.last() + 1);
-            }
-            this.allocations.put(remoteSocket, messageID);
 
-            this.executor.schedule(new Runnable() {
-                @Override
-                public void run() {
-                    releaseMessageID(remoteSocket, messageID, token);
-                }
-            }, EXCHANGE_LIFETIME, TimeUnit.SECONDS);
+    private ExpiryBucket getCurrentBucket() {
+        long now = this.ticker.read();
+        ExpiryBucket bucket = this.currentBucket;
+        if (now - bucket.getStart() < BUCKET_DURATION) {
+            return bucket;
+        }
 
-            return messageID % MODULUS;
-        } finally {
-            lock.writeLock().unlock();
+        synchronized (this.buckets) {
+            bucket = this.currentBucket;
+            if (now - bucket.getStart() >= BUCKET_DURATION) {
+                bucket = new ExpiryBucket(now);
+                this.buckets.add(bucket);
+                this.currentBucket = bucket;
+            }
+            return bucket;
         }
     }
 
-    private void releaseMessageID(InetSocketAddress remoteSocket, int messageID, Token token) {
-        try{
-            lock.writeLock().lock();
-            if (this.allocations.remove(remoteSocket, messageID)) {
-                log.info("Released message ID \"{}\" (Remote Socket: \"{}\", Token: {}",
-                        new Object[]{(messageID % MODULUS), remoteSocket, token});
+
+    private void releaseMessageID(MessageIDRelease release) {
+        InetSocketAddress remoteSocket = release.getRemoteSocket();
+        Allocations allocations = this.allocations.get(remoteSocket);
+        if (allocations != null) {
+            synchronized (allocations) {
+                if (allocations.release(release.getMessageID())) {
+                    log.info("Released message ID \"{}\" (Remote Socket: \"{}\", Token: {}",
+                            new Object[]{release.getMessageID(), remoteSocket, release.getToken()});
+                }
+                if (allocations.isEmpty()) {
+                    allocations.discard();
+                    this.allocations.remove(remoteSocket, allocations);
+                }
             }
-            setChanged();
-            notifyObservers(new MessageIDRelease(remoteSocket, messageID % MODULUS, token));
-        } finally {
-            lock.writeLock().unlock();
         }
+        setChanged();
+        notifyObservers(release);
     }
 
+
     public void shutdown() {
-        try{
-            lock.writeLock().lock();
+        this.shutdown = true;
+        this.expiryTimeout.cancel();
+        synchronized (this.buckets) {
+            this.buckets.clear();
             this.allocations.clear();
-        } finally {
-            lock.writeLock().lock();
         }
     }
 
+
     class MessageIDRelease {
 
         private InetSocketAddress remoteSocket;
@@ -185,4 +282,118 @@ public class MessageIDFactory extends Observable {
             return token;
         }
     }
+
+
+    /**
+     * The message IDs allocated within one second (to be released together)
+     */
+    private static class ExpiryBucket extends ConcurrentLinkedQueue<MessageIDRelease> {
+
+        private final long start;
+
+        private ExpiryBucket(long start) {
+            this.start = start;
+        }
+
+        private long getStart() {
+            return this.start;
+        }
+    }
+
+
+    /**
+     * The bitmap of the allocated message IDs of a single remote endpoint. The bitmap is split into pages of 4096
+     * bits which are created on demand and discarded when empty. Instances are not thread-safe.
+     */
+    private static class Allocations {
+
+        private static final int PAGE_SHIFT = 12;
+        private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+
+        private final long[][] pages;
+        private final int[] pageCounts;
+
+        private int count;
+        private int cursor;
+        private boolean discarded;
+
+        private Allocations(int cursor) {
+            this.pages = new long[MODULUS >>> PAGE_SHIFT][];
+            this.pageCounts = new int[MODULUS >>> PAGE_SHIFT];
+            this.count = 0;
+            this.cursor = cursor;
+            this.discarded = false;
+        }
+
+        private int allocate() {
+            if (this.count == MODULUS) {
+                return CoapMessage.UNDEFINED_MESSAGE_ID;
+            }
+
+            int messageID = findClearBit(this.cursor);
+            int pageIndex = messageID >>> PAGE_SHIFT;
+            long[] page = this.pages[pageIndex];
+            if (page == null) {
+                page = new long[PAGE_SIZE >>> 6];
+                this.pages[pageIndex] = page;
+            }
+
+            page[(messageID >>> 6) & (page.length - 1)] |= 1L << messageID;
+            this.pageCounts[pageIndex]++;
+            this.count++;
+            this.cursor = (messageID + 1) & (MODULUS - 1);
+            return messageID;
+        }
+
+        private boolean release(int messageID) {
+            int pageIndex = messageID >>> PAGE_SHIFT;
+            long[] page = this.pages[pageIndex];
+            int wordIndex = (messageID >>> 6) & (PAGE_SIZE / 64 - 1);
+            if (page == null || (page[wordIndex] & (1L << messageID)) == 0) {
+                return false;
+            }
+
+            page[wordIndex] &= ~(1L << messageID);
+            this.count--;
+            if (--this.pageCounts[pageIndex] == 0) {
+                this.pages[pageIndex] = null;
+            }
+            return true;
+        }
+
+        private int findClearBit(int from) {
+            int messageID = from;
+            while (true) {
+                int pageIndex = messageID >>> PAGE_SHIFT;
+                long[] page = this.pages[pageIndex];
+                if (page == null) {
+                    return messageID;
+                }
+
+                if (this.pageCounts[pageIndex] == PAGE_SIZE) {
+                    // skip full page
+                    messageID = ((pageIndex + 1) << PAGE_SHIFT) & (MODULUS - 1);
+                    continue;
+                }
+
+                long clearBits = ~page[(messageID >>> 6) & (page.length - 1)] & (-1L << messageID);
+                if (clearBits != 0) {
+                    return (messageID & ~63) + Long.numberOfTrailingZeros(clearBits);
+                }
+                messageID = ((messageID | 63) + 1) & (MODULUS - 1);
+            }
+        }
+
+        private boolean isEmpty() {
+            return this.count == 0;
+        }
+
+        private void discard() {
+            this.discarded = true;
+        }
+
+        private boolean isDiscarded() {
+            return this.discarded;
+        }
+    }
 }
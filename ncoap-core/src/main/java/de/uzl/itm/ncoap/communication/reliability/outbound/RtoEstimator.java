@@ -0,0 +1,300 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.reliability.outbound;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static de.uzl.itm.ncoap.communication.reliability.outbound.AbstractOutboundReliabilityHandler.*;
+
+/**
+ * <p>The {@link RtoEstimator} provides the retransmission timeouts (RTO) per remote endpoint according to the
+ * CoAP Simple Congestion Control/Advanced (CoCoA), i.e. the RTO is learned from the round trip times (RTT) of
+ * confirmable messages.</p>
+ *
+ * <p>There are two estimators per remote endpoint (both as in RFC 6298). The strong estimator (K = 4) is updated
+ * with the RTTs of messages that were acknowledged without retransmission. The weak estimator (K = 1) is updated
+ * with the RTTs (measured from the first transmission) of messages that were acknowledged after one or two
+ * retransmissions. The overall RTO is the weighted average of the latest estimate and the previous overall RTO
+ * (weight 0.5 for strong and 0.25 for weak estimates).</p>
+ *
+ * <p>The backoff for retransmissions depends on the initial RTO (variable backoff factor), i.e. 3 for RTOs below
+ * 1 second, 1.5 for RTOs above 3 seconds and 2 otherwise. RTOs that were not updated for a while age towards the
+ * default of {@link AbstractOutboundReliabilityHandler#ACK_TIMEOUT_MILLIS}. The RTO is limited to the range from
+ * {@link #MIN_RTO_MILLIS} to {@link #MAX_RTO_MILLIS}, i.e. all retransmissions happen within the exchange
+ * lifetime.</p>
+ */
+public class RtoEstimator {
+
+    private static Logger LOG = LoggerFactory.getLogger(RtoEstimator.class.getName());
+
+    /**
+     * The lower bound for learned RTOs in milliseconds ({@value #MIN_RTO_MILLIS})
+     */
+    public static final long MIN_RTO_MILLIS = 100;
+
+    /**
+     * The upper bound for learned RTOs in milliseconds ({@value #MAX_RTO_MILLIS})
+     */
+    public static final long MAX_RTO_MILLIS = 16000;
+
+    /**
+     * The maximum number of remote endpoints to keep the estimator state for ({@value #MAX_PEERS})
+     */
+    public static final int MAX_PEERS = 10000;
+
+    private static final Random RANDOM = new Random(System.currentTimeMillis());
+
+    private final Cache<InetSocketAddress, Estimate> estimates;
+
+
+    /**
+     * Creates a new instance of {@link RtoEstimator}
+     */
+    public RtoEstimator() {
+        this.estimates = CacheBuilder.newBuilder()
+                .maximumSize(MAX_PEERS)
+                .expireAfterAccess(1, TimeUnit.HOURS)
+                .build();
+    }
+
+
+    /**
+     * Returns the current (overall) RTO for the given remote endpoint in milliseconds (without random factor)
+     *
+     * @param remoteSocket the {@link InetSocketAddress} of the remote endpoint
+     *
+     * @return the current (overall) RTO for the given remote endpoint in milliseconds
+     */
+    public long getRetransmissionTimeout(InetSocketAddress remoteSocket) {
+        Estimate estimate = this.estimates.getIfPresent(remoteSocket);
+        return estimate == null ? ACK_TIMEOUT_MILLIS : estimate.getRetransmissionTimeout();
+    }
+
+    /**
+     * Returns the {@link Estimate} for the given remote endpoint (or <code>null</code> if there was no RTT
+     * measurement yet), e.g. for monitoring purposes.
+     *
+     * @param remoteSocket the {@link InetSocketAddress} of the remote endpoint
+     *
+     * @return the {@link Estimate} for the given remote endpoint (or <code>null</code> if there is none)
+     */
+    public Estimate getEstimate(InetSocketAddress remoteSocket) {
+        return this.estimates.getIfPresent(remoteSocket);
+    }
+
+    /**
+     * Returns the number of remote endpoints with RTT measurements
+     *
+     * @return the number of remote endpoints with RTT measurements
+     */
+    public long getPeerCount() {
+        return this.estimates.size();
+    }
+
+    /**
+     * Returns the (cumulative) delays for the transmissions of a confirmable message to the given remote endpoint,
+     * i.e. the first value is 0 (immediate transmission) and the others are the delays of the
+     * {@link AbstractOutboundReliabilityHandler#MAX_RETRANSMISSIONS} retransmissions.
+     *
+     * @param remoteSocket the {@link InetSocketAddress} of the remote endpoint
+     *
+     * @return the (cumulative) delays for the transmissions of a confirmable message
+     */
+    public long[] provideTransmissionDelays(InetSocketAddress remoteSocket) {
+        long rto = getRetransmissionTimeout(remoteSocket);
+        double timeout = rto * (1 + RANDOM.nextDouble() * (ACK_RANDOM_FACTOR - 1));
+        double backoff = getBackoffFactor(rto);
+
+        long[] delays = new long[MAX_RETRANSMISSIONS + 1];
+        for (int i = 1; i < delays.length; i++) {
+            delays[i] = delays[i - 1] + (long) timeout;
+            timeout *= backoff;
+        }
+        return delays;
+    }
+
+    /**
+     * Returns the delay between the previous transmission and the given retransmission of a confirmable message to
+     * the given remote endpoint.
+     *
+     * @param remoteSocket the {@link InetSocketAddress} of the remote endpoint
+     * @param retransmission the retransmission number (e.g. 2 for the 2nd retransmission)
+     *
+     * @return the delay between the previous transmission and the given retransmission in milliseconds
+     */
+    public long provideRetransmissionDelay(InetSocketAddress remoteSocket, int retransmission) {
+        long rto = getRetransmissionTimeout(remoteSocket);
+        return (long) (Math.pow(getBackoffFactor(rto), retransmission - 1) * rto *
+                (1 + RANDOM.nextDouble() * (ACK_RANDOM_FACTOR - 1)));
+    }
+
+    /**
+     * Updates the estimators for the given remote endpoint with the RTT of an acknowledged confirmable message.
+     *
+     * @param remoteSocket the {@link InetSocketAddress} of the remote endpoint
+     * @param rtt the time between the first transmission and the reception of the acknowledgement (in milliseconds)
+     * @param transmissions the number of transmissions (including the first) before the acknowledgement
+     */
+    public void processAcknowledgement(InetSocketAddress remoteSocket, long rtt, int transmissions) {
+        if (transmissions > 3) {
+            // the RTT cannot be assigned to a particular transmission reliably
+            return;
+        }
+
+        try {
+            Estimate estimate = this.estimates.get(remoteSocket, new Callable<Estimate>() {
+                @Override
+                public Estimate call() throws Exception {
+                    return new Estimate();
+                }
+            });
+
+            estimate.update(Math.max(1, rtt), transmissions == 1);
+            LOG.debug("Updated RTO estimation for \"{}\": {}", remoteSocket, estimate);
+        } catch (ExecutionException ex) {
+            LOG.error("This should never happen.", ex);
+        }
+    }
+
+
+    private static double getBackoffFactor(long rto) {
+        if (rto < 1000) {
+            return 3;
+        } else if (rto > 3000) {
+            return 1.5;
+        } else {
+            return 2;
+        }
+    }
+
+
+    /**
+     * The estimator state for a single remote endpoint
+     */
+    public static class Estimate {
+
+        // guarded by this
+        private double strongSrtt;
+        private double strongRttvar;
+        private double weakSrtt;
+        private double weakRttvar;
+        private double rto;
+        private long lastUpdate;
+
+        private Estimate() {
+            this.rto = ACK_TIMEOUT_MILLIS;
+            this.lastUpdate = System.currentTimeMillis();
+        }
+
+        private synchronized void update(long rtt, boolean strong) {
+            double estimate;
+            if (strong) {
+                estimate = updateStrong(rtt);
+                this.rto = 0.5 * estimate + 0.5 * this.rto;
+            } else {
+                estimate = updateWeak(rtt);
+                this.rto = 0.25 * estimate + 0.75 * this.rto;
+            }
+            this.rto = Math.min(MAX_RTO_MILLIS, Math.max(MIN_RTO_MILLIS, this.rto));
+            this.lastUpdate = System.currentTimeMillis();
+        }
+
+        private double updateStrong(long rtt) {
+            if (this.strongSrtt == 0) {
+                this.strongSrtt = rtt;
+                this.strongRttvar = rtt / 2.0;
+            } else {
+                this.strongRttvar = 0.75 * this.strongRttvar + 0.25 * Math.abs(this.strongSrtt - rtt);
+                this.strongSrtt = 0.875 * this.strongSrtt + 0.125 * rtt;
+            }
+            return this.strongSrtt + 4 * this.strongRttvar;
+        }
+
+        private double updateWeak(long rtt) {
+            if (this.weakSrtt == 0) {
+                this.weakSrtt = rtt;
+                this.weakRttvar = rtt / 2.0;
+            } else {
+                this.weakRttvar = 0.75 * this.weakRttvar + 0.25 * Math.abs(this.weakSrtt - rtt);
+                this.weakSrtt = 0.875 * this.weakSrtt + 0.125 * rtt;
+            }
+            return this.weakSrtt + this.weakRttvar;
+        }
+
+        /**
+         * Returns the current (overall) RTO in milliseconds, i.e. after aging small or large RTOs that were not
+         * updated for a while
+         *
+         * @return the current (overall) RTO in milliseconds
+         */
+        public synchronized long getRetransmissionTimeout() {
+            long now = System.currentTimeMillis();
+            while (true) {
+                if (this.rto < 1000 && now - this.lastUpdate > 16 * this.rto) {
+                    this.lastUpdate += (long) (16 * this.rto);
+                    this.rto = 2 * this.rto;
+                } else if (this.rto > 3000 && now - this.lastUpdate > 4 * this.rto) {
+                    this.lastUpdate += (long) (4 * this.rto);
+                    this.rto = (this.rto + ACK_TIMEOUT_MILLIS) / 2;
+                } else {
+                    return (long) this.rto;
+                }
+            }
+        }
+
+        /**
+         * Returns the smoothed RTT of the strong estimator in milliseconds (or 0 if there was no measurement yet)
+         *
+         * @return the smoothed RTT of the strong estimator in milliseconds
+         */
+        public synchronized long getStrongRtt() {
+            return (long) this.strongSrtt;
+        }
+
+        /**
+         * Returns the smoothed RTT of the weak estimator in milliseconds (or 0 if there was no measurement yet)
+         *
+         * @return the smoothed RTT of the weak estimator in milliseconds
+         */
+        public synchronized long getWeakRtt() {
+            return (long) this.weakSrtt;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "[RTO: " + (long) this.rto + " ms, strong RTT: " + (long) this.strongSrtt + " ms, weak RTT: " +
+                    (long) this.weakSrtt + " ms]";
+        }
+    }
+}
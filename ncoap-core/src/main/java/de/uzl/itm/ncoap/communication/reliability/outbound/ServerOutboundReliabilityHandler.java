@@ -35,6 +35,7 @@ import de.uzl.itm.ncoap.message.MessageType;
 import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.Channels;
+import org.jboss.netty.util.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -58,23 +59,39 @@ public class ServerOutboundReliabilityHandler extends AbstractOutboundReliabilit
 
     private HashBasedTable<InetSocketAddress, Integer, Token> transfers1;
     private HashBasedTable<InetSocketAddress, Token, CoapResponse> transfers2;
+    private HashBasedTable<InetSocketAddress, Integer, long[]> transmissions;
 
     private ReentrantReadWriteLock lock;
-    private final MessageIDFactory messageIDFactory;
 
 
     /**
      * Creates a new instance of {@link de.uzl.itm.ncoap.communication.reliability.outbound.ServerOutboundReliabilityHandler}
+     * using the shared default {@link Timer} (see {@link #getDefaultTimer()})
      * @param executor the {@link java.util.concurrent.ScheduledExecutorService} to process the tasks to ensure
      *                 reliable message transfer
+     * @param factory the {@link MessageIDFactory} to provide the message IDs
+     *
+     * @deprecated use {@link #ServerOutboundReliabilityHandler(ScheduledExecutorService, Timer, MessageIDFactory)} instead
      */
+    @Deprecated
     public ServerOutboundReliabilityHandler(ScheduledExecutorService executor, MessageIDFactory factory) {
-        super(executor, factory);
+        this(executor, getDefaultTimer(), factory);
+    }
+
+    /**
+     * Creates a new instance of {@link de.uzl.itm.ncoap.communication.reliability.outbound.ServerOutboundReliabilityHandler}
+     * @param executor the {@link java.util.concurrent.ScheduledExecutorService} to process the tasks to ensure
+     *                 reliable message transfer
+     * @param timer the {@link Timer} to schedule retransmissions
+     * @param factory the {@link MessageIDFactory} to provide the message IDs
+     */
+    public ServerOutboundReliabilityHandler(ScheduledExecutorService executor, Timer timer,
+                                            MessageIDFactory factory) {
+        super(executor, timer, factory);
         this.transfers1 = HashBasedTable.create();
         this.transfers2 = HashBasedTable.create();
+        this.transmissions = HashBasedTable.create();
 
-        this.messageIDFactory = new MessageIDFactory(executor);
-        this.messageIDFactory.addObserver(this);
         this.lock = new ReentrantReadWriteLock();
     }
 
@@ -125,8 +142,12 @@ public class ServerOutboundReliabilityHandler extends AbstractOutboundReliabilit
             return true;
         } else {
             int messageID = coapMessage.getMessageID();
+            long[] transmissions = getTransmissions(remoteSocket, messageID);
             Token token = removeTransfer(remoteSocket, messageID);
-            if (token != null && messageType == MessageType.RST) {
+            if (token != null && messageType == MessageType.ACK && transmissions != null) {
+                long rtt = System.currentTimeMillis() - transmissions[0];
+                getRtoEstimator().processAcknowledgement(remoteSocket, rtt, (int) transmissions[1]);
+            } else if (token != null && messageType == MessageType.RST) {
                 LOG.info("Received RST from \"{}\" for token {} (Message ID: {}).",
                         new Object[]{remoteSocket, messageID, token});
                 triggerEvent(new ResetReceivedEvent(remoteSocket, messageID, token), false);
@@ -176,13 +197,18 @@ public class ServerOutboundReliabilityHandler extends AbstractOutboundReliabilit
             this.lock.writeLock().lock();
             this.transfers1.put(remoteSocket, coapResponse.getMessageID(), coapResponse.getToken());
             this.transfers2.put(remoteSocket, coapResponse.getToken(), coapResponse);
+            if (coapResponse.getMessageType() == MessageType.CON) {
+                // time of the first transmission and number of transmissions (for RTT measurement)
+                long[] transmissions = new long[]{System.currentTimeMillis(), 1};
+                this.transmissions.put(remoteSocket, coapResponse.getMessageID(), transmissions);
+            }
         } finally {
             this.lock.writeLock().unlock();
         }
     }
 
     private void scheduleTransferRemoval(final InetSocketAddress remoteSocket, final int messageID) {
-        getExecutor().schedule(new Runnable() {
+        scheduleTimeout(new Runnable() {
 
             @Override
             public void run() {
@@ -196,9 +222,9 @@ public class ServerOutboundReliabilityHandler extends AbstractOutboundReliabilit
     }
 
     private void scheduleRetransmission(InetSocketAddress remoteSocket, Token token, int retransmissionNo) {
-        long delay = provideRetransmissionDelay(retransmissionNo);
+        long delay = getRtoEstimator().provideRetransmissionDelay(remoteSocket, retransmissionNo);
         ResponseRetransmissionTask task = new ResponseRetransmissionTask(remoteSocket, token, retransmissionNo);
-        getExecutor().schedule(task, delay, TimeUnit.MILLISECONDS);
+        scheduleTimeout(task, delay, TimeUnit.MILLISECONDS);
     }
 
 
@@ -218,6 +244,7 @@ public class ServerOutboundReliabilityHandler extends AbstractOutboundReliabilit
             if (token != null) {
                 this.transfers2.remove(remoteSocket, token);
             }
+            this.transmissions.remove(remoteSocket, messageID);
             return token;
         } finally {
             this.lock.writeLock().unlock();
@@ -240,6 +267,7 @@ public class ServerOutboundReliabilityHandler extends AbstractOutboundReliabilit
             CoapResponse coapResponse = this.transfers2.remove(remoteSocket, token);
             if (coapResponse != null) {
                 this.transfers1.remove(remoteSocket, coapResponse.getMessageID());
+                this.transmissions.remove(remoteSocket, coapResponse.getMessageID());
             }
             return coapResponse;
         } finally {
@@ -277,6 +305,16 @@ public class ServerOutboundReliabilityHandler extends AbstractOutboundReliabilit
     }
 
 
+    private long[] getTransmissions(InetSocketAddress remoteSocket, int messageID) {
+        try {
+            this.lock.readLock().lock();
+            return this.transmissions.get(remoteSocket, messageID);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+
     private CoapResponse getCoapResponse(InetSocketAddress remoteSocket, Token token) {
         try {
             this.lock.readLock().lock();
@@ -309,6 +347,12 @@ public class ServerOutboundReliabilityHandler extends AbstractOutboundReliabilit
                 }
 
                 // retransmit message
+                long[] transmissions = getTransmissions(remoteSocket, coapResponse.getMessageID());
+                if (transmissions != null) {
+                    synchronized (transmissions) {
+                        transmissions[1]++;
+                    }
+                }
                 ChannelFuture future = Channels.future(getContext().getChannel());
                 Channels.write(getContext(), future, coapResponse, remoteSocket);
                 future.addListener(new ChannelFutureListener() {
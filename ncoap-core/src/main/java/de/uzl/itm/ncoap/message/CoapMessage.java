@@ -24,8 +24,10 @@
  */
 package de.uzl.itm.ncoap.message;
 
-import com.google.common.base.Supplier;
-import com.google.common.collect.*;
+import com.google.common.collect.ForwardingSetMultimap;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Multimaps;
+import com.google.common.collect.SetMultimap;
 import com.google.common.primitives.Longs;
 import de.uzl.itm.ncoap.communication.blockwise.BlockSize;
 import de.uzl.itm.ncoap.communication.dispatching.Token;
@@ -87,9 +89,15 @@ public abstract class CoapMessage {
     private int messageID;
     private Token token;
 
-    protected SetMultimap<Integer, OptionValue> options;
+    private OptionTable optionTable;
     private ChannelBuffer content;
 
+    /**
+     * A live, read-only {@link SetMultimap} view on the options of this {@link CoapMessage}. Use
+     * {@link #addOption(int, OptionValue)} or {@link #removeOptions(int)} to change the options.
+     */
+    protected final SetMultimap<Integer, OptionValue> options = new OptionsView();
+
 
     /**
      * Creates a new instance of {@link CoapMessage}.
@@ -118,8 +126,7 @@ public abstract class CoapMessage {
         this.setMessageID(messageID);
         this.setToken(token);
 
-        this.options = Multimaps.newSetMultimap(new TreeMap<Integer, Collection<OptionValue>>(),
-                LinkedHashSetSupplier.getInstance());
+        this.optionTable = new OptionTable();
 
         this.content = ChannelBuffers.EMPTY_BUFFER;
 
@@ -234,12 +241,13 @@ public abstract class CoapMessage {
     public void addOption(int optionNumber, OptionValue optionValue) throws IllegalArgumentException {
         this.checkOptionPermission(optionNumber);
 
-        for(int containedOption : options.keySet()) {
+        for(int i = 0; i < optionTable.size(); i++) {
+            int containedOption = optionTable.getNumber(i);
             if (Option.mutuallyExcludes(containedOption, optionNumber))
                 throw new IllegalArgumentException(String.format(EXCLUDES, containedOption, optionNumber));
         }
 
-        options.put(optionNumber, optionValue);
+        optionTable.put(optionNumber, optionValue);
 
         log.debug("Added option (number: {}, value: {})", optionNumber, optionValue.toString());
 
@@ -333,7 +341,7 @@ public abstract class CoapMessage {
             throw new IllegalArgumentException(String.format(WRONG_OPTION_TYPE, optionNumber, OptionValue.Type.EMPTY));
 
         //Add new option to option list
-        options.put(optionNumber, new EmptyOptionValue(optionNumber));
+        optionTable.put(optionNumber, new EmptyOptionValue(optionNumber));
 
         log.debug("Added empty option (number: {})", optionNumber);
     }
@@ -347,7 +355,7 @@ public abstract class CoapMessage {
      * @return the number of options that were removed, i.e. the count.
      */
     public int removeOptions(int optionNumber) {
-        int result = options.removeAll(optionNumber).size();
+        int result = optionTable.removeAll(optionNumber);
         log.debug("Removed {} options with number {}.", result, optionNumber);
         return result;
     }
@@ -358,7 +366,7 @@ public abstract class CoapMessage {
         if (permittedOccurence == Option.Occurence.NONE) {
             throw new IllegalArgumentException(String.format(OPTION_NOT_ALLOWED_WITH_MESSAGE_TYPE,
                     optionNumber, Option.asString(optionNumber), this.getMessageCodeName()));
-        } else if (options.containsKey(optionNumber) && permittedOccurence == Option.Occurence.ONCE) {
+        } else if (optionTable.containsKey(optionNumber) && permittedOccurence == Option.Occurence.ONCE) {
                 throw new IllegalArgumentException(String.format(OPTION_ALREADY_SET, optionNumber));
         }
     }
@@ -475,11 +483,8 @@ public abstract class CoapMessage {
      * is present in this {@link CoapMessage}.
      */
     public long getContentFormat() {
-        if (options.containsKey(CONTENT_FORMAT)) {
-            return ((UintOptionValue) options.get(CONTENT_FORMAT).iterator().next()).getDecodedValue();
-        } else {
-            return ContentFormat.UNDEFINED;
-        }
+        long contentFormat = optionTable.getUintValue(CONTENT_FORMAT);
+        return contentFormat == UintOptionValue.UNDEFINED ? ContentFormat.UNDEFINED : contentFormat;
     }
 
 
@@ -517,11 +522,7 @@ public abstract class CoapMessage {
      * this {@link CoapRequest}.
      */
     public long getObserve() {
-        if (!options.containsKey(OBSERVE)) {
-            return UintOptionValue.UNDEFINED;
-        } else {
-            return (long) options.get(OBSERVE).iterator().next().getDecodedValue();
-        }
+        return optionTable.getUintValue(OBSERVE);
     }
 
 
@@ -535,11 +536,8 @@ public abstract class CoapMessage {
      * this {@link CoapRequest}.
      */
     public long getBlock2Number() {
-        if (!options.containsKey(BLOCK_2)) {
-            return UintOptionValue.UNDEFINED;
-        } else {
-            return (long) options.get(BLOCK_2).iterator().next().getDecodedValue() >> 4;
-        }
+        long value = optionTable.getUintValue(BLOCK_2);
+        return value == UintOptionValue.UNDEFINED ? UintOptionValue.UNDEFINED : value >> 4;
     }
 
 
@@ -555,12 +553,8 @@ public abstract class CoapMessage {
      * @return <code>true</code> if there are no more blocks expected.
      */
     public boolean isLastBlock2() {
-        if (!options.containsKey(BLOCK_2)) {
-            return true;
-        } else {
-            long m = (long) options.get(BLOCK_2).iterator().next().getDecodedValue();
-            return (extractBits(m, 1, 3) == 0);
-        }
+        long m = optionTable.getUintValue(BLOCK_2);
+        return m == UintOptionValue.UNDEFINED || extractBits(m, 1, 3) == 0;
     }
 
 
@@ -576,12 +570,8 @@ public abstract class CoapMessage {
      * this {@link CoapRequest}.
      */
     public long getBlock2Szx() {
-        if (!options.containsKey(BLOCK_2)) {
-            return UintOptionValue.UNDEFINED;
-        } else {
-            long value = (long) options.get(BLOCK_2).iterator().next().getDecodedValue();
-            return extractBits(value, 3, 0);
-        }
+        long value = optionTable.getUintValue(BLOCK_2);
+        return value == UintOptionValue.UNDEFINED ? UintOptionValue.UNDEFINED : extractBits(value, 3, 0);
     }
 
 
@@ -603,11 +593,8 @@ public abstract class CoapMessage {
      * this {@link CoapRequest}.
      */
     public long getBlock1Number() {
-        if (!options.containsKey(BLOCK_1)) {
-            return UintOptionValue.UNDEFINED;
-        } else {
-            return (long) options.get(BLOCK_1).iterator().next().getDecodedValue() >> 4;
-        }
+        long value = optionTable.getUintValue(BLOCK_1);
+        return value == UintOptionValue.UNDEFINED ? UintOptionValue.UNDEFINED : value >> 4;
     }
 
 
@@ -621,12 +608,8 @@ public abstract class CoapMessage {
      * @return <code>true</code> if there are no more blocks expected and <code>false</code> otherwise.
      */
     public boolean isLastBlock1() {
-        if (!options.containsKey(BLOCK_1)) {
-            return true;
-        } else {
-            long m = (long) options.get(BLOCK_1).iterator().next().getDecodedValue();
-            return (extractBits(m, 1, 3) == 0);
-        }
+        long m = optionTable.getUintValue(BLOCK_1);
+        return m == UintOptionValue.UNDEFINED || extractBits(m, 1, 3) == 0;
     }
 
 
@@ -640,12 +623,8 @@ public abstract class CoapMessage {
      * {@link UintOptionValue#UNDEFINED} if there is no BLOCK1 option contained in this {@link CoapMessage}.
      */
     public long getBlock1Szx() {
-        if (!options.containsKey(BLOCK_1)) {
-            return UintOptionValue.UNDEFINED;
-        } else {
-            long value = (long) options.get(BLOCK_1).iterator().next().getDecodedValue();
-            return extractBits(value, 3, 0);
-        }
+        long value = optionTable.getUintValue(BLOCK_1);
+        return value == UintOptionValue.UNDEFINED ? UintOptionValue.UNDEFINED : extractBits(value, 3, 0);
     }
 
     /**
@@ -666,32 +645,24 @@ public abstract class CoapMessage {
 
 
     public void setSize2(long size2) throws IllegalArgumentException{
-        this.options.removeAll(SIZE_2);
+        this.optionTable.removeAll(SIZE_2);
         this.addUintOption(SIZE_2, size2);
     }
 
 
     public long getSize2() {
-        if (options.containsKey(SIZE_2)) {
-            return ((UintOptionValue) options.get(SIZE_2).iterator().next()).getDecodedValue();
-        } else {
-            return UintOptionValue.UNDEFINED;
-        }
+        return optionTable.getUintValue(SIZE_2);
     }
 
 
     public void setSize1(long size1) throws IllegalArgumentException{
-        this.options.removeAll(SIZE_1);
+        this.optionTable.removeAll(SIZE_1);
         this.addUintOption(SIZE_1, size1);
     }
 
 
     public long getSize1() {
-        if (options.containsKey(SIZE_1)) {
-            return ((UintOptionValue) options.get(SIZE_1).iterator().next()).getDecodedValue();
-        } else {
-            return UintOptionValue.UNDEFINED;
-        }
+        return optionTable.getUintValue(SIZE_1);
     }
 
 
@@ -872,14 +843,38 @@ public abstract class CoapMessage {
      * {@link de.uzl.itm.ncoap.message.options.OptionValue}s as values.
      * The returned multimap does not contain options with default values.
      *
+     * <b>Note:</b> The returned multimap is a read-only view on the options of this {@link CoapMessage}, i.e. later
+     * changes of this {@link CoapMessage} are reflected in the returned multimap. Use {@link #setAllOptions(SetMultimap)},
+     * {@link #addOption(int, OptionValue)} or {@link #removeOptions(int)} to change the options.
+     *
      * @return a {@link Multimap} with the option numbers as keys and {@link de.uzl.itm.ncoap.message.options.OptionValue}s as values.
      */
     public SetMultimap<Integer, OptionValue> getAllOptions() {
         return this.options;
     }
 
+    /**
+     * Replaces all options of this {@link CoapMessage} with the options contained in the given {@link SetMultimap}.
+     *
+     * @param options a {@link SetMultimap} with the option numbers as keys and
+     * {@link de.uzl.itm.ncoap.message.options.OptionValue}s as values
+     */
     public void setAllOptions (SetMultimap<Integer, OptionValue> options) {
-        this.options = options;
+        OptionTable optionTable = new OptionTable();
+        for(Map.Entry<Integer, OptionValue> option : options.entries()) {
+            optionTable.put(option.getKey(), option.getValue());
+        }
+        this.optionTable = optionTable;
+    }
+
+    /**
+     * Returns the {@link OptionTable} that backs the options of this {@link CoapMessage}. Outside of this package the
+     * table is read-only, i.e. it allows to iterate over all options (e.g. for the encoder) without copying them.
+     *
+     * @return the {@link OptionTable} that backs the options of this {@link CoapMessage}
+     */
+    public OptionTable getOptionTable() {
+        return this.optionTable;
     }
 
     /**
@@ -892,7 +887,7 @@ public abstract class CoapMessage {
      * @return a {@link Set} containing the {@link OptionValue}s that are explicitly set in this {@link CoapMessage}.
      */
     public Set<OptionValue> getOptions(int optionNumber) {
-        return this.options.get(optionNumber);
+        return this.optionTable.get(optionNumber);
     }
 
     /**
@@ -905,7 +900,7 @@ public abstract class CoapMessage {
      * {@link de.uzl.itm.ncoap.message.CoapMessage} and <code>false</code> otherwise.
      */
     public boolean containsOption(int optionNumber) {
-        return !getOptions(optionNumber).isEmpty();
+        return this.optionTable.containsKey(optionNumber);
     }
 
     @Override
@@ -949,31 +944,18 @@ public abstract class CoapMessage {
             return false;
 
 
-        //Iterators iterate over the contained options
-        Iterator<Map.Entry<Integer, OptionValue>> iterator1 = this.getAllOptions().entries().iterator();
-        Iterator<Map.Entry<Integer, OptionValue>> iterator2 = other.getAllOptions().entries().iterator();
-
         //Check if both CoAP Messages contain the same options in the same order
-        while(iterator1.hasNext()) {
-
-            //Check if iterator2 has no more options while iterator1 has at least one more
-            if (!iterator2.hasNext())
-                return false;
-
-            Map.Entry<Integer, OptionValue> entry1 = iterator1.next();
-            Map.Entry<Integer, OptionValue> entry2 = iterator2.next();
+        if (this.optionTable.size() != other.optionTable.size())
+            return false;
 
-            if (!entry1.getKey().equals(entry2.getKey()))
+        for(int i = 0; i < this.optionTable.size(); i++) {
+            if (this.optionTable.getNumber(i) != other.optionTable.getNumber(i))
                 return false;
 
-            if (!entry1.getValue().equals(entry2.getValue()))
+            if (!this.optionTable.getValue(i).equals(other.optionTable.getValue(i)))
                 return false;
         }
 
-        //Check if iterator2 has at least one more option while iterator1 has no more
-        if (iterator2.hasNext())
-            return false;
-
         //Check content
         return this.getContent().equals(other.getContent());
     }
@@ -991,13 +973,13 @@ public abstract class CoapMessage {
 
         //Options
         result.append("Options:");
-        for(int optionNumber : getAllOptions().keySet()) {
-            result.append(" (No. " + optionNumber + ") ");
-            Iterator<OptionValue> iterator = this.getOptions(optionNumber).iterator();
-            OptionValue optionValue = iterator.next();
-            result.append(optionValue.toString());
-            while(iterator.hasNext())
-                result.append(" / " + iterator.next().toString());
+        for(int i = 0; i < optionTable.size(); i++) {
+            int optionNumber = optionTable.getNumber(i);
+            if (i > 0 && optionTable.getNumber(i - 1) == optionNumber) {
+                result.append(" / " + optionTable.getValue(i).toString());
+            } else {
+                result.append(" (No. " + optionNumber + ") " + optionTable.getValue(i).toString());
+            }
         }
         result.append(" | ");
 
@@ -1021,25 +1003,11 @@ public abstract class CoapMessage {
         this.messageCode = messageCode;
     }
 
-
-    /**
-     * This is the supplier to provide the {@link LinkedHashSet} to contain the {@link de.uzl.itm.ncoap.message.options.OptionValue} instances. There
-     * is one {@link LinkedHashSet} provided per option number. The order prevention of the values contained
-     * in such a set is necessary to keep the order of multiple values for one option (e.g. URI path).
-     */
-    private final static class LinkedHashSetSupplier implements Supplier<LinkedHashSet<OptionValue>> {
-
-        public static LinkedHashSetSupplier instance = new LinkedHashSetSupplier();
-
-        private LinkedHashSetSupplier() {}
-
-        public static LinkedHashSetSupplier getInstance() {
-            return instance;
-        }
+    private class OptionsView extends ForwardingSetMultimap<Integer, OptionValue> {
 
         @Override
-        public LinkedHashSet<OptionValue> get() {
-            return new LinkedHashSet<>();
+        protected SetMultimap<Integer, OptionValue> delegate() {
+            return Multimaps.unmodifiableSetMultimap(optionTable.toMultimap());
         }
     }
 }
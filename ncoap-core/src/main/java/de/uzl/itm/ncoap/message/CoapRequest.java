@@ -50,6 +50,9 @@ public class CoapRequest extends CoapMessage {
     private static final String URI_SCHEME = "URI scheme must be set to \"coap\" (but given URI is: %s)!";
     private static final String URI_FRAGMENT = "URI must not have a fragment (but given URI is: %s)!";
 
+    // set by the server (not part of the encoded message)
+    private Map<String, String> pathVariables = Collections.emptyMap();
+
 
     /**
      * Creates a new {@link CoapRequest} instance and uses the given parameters to create an appropriate header
@@ -224,7 +227,7 @@ public class CoapRequest extends CoapMessage {
      */
     public Set<byte[]> getIfMatch() {
 
-        Set<OptionValue> ifMatchOptionValues = options.get(IF_MATCH);
+        Set<OptionValue> ifMatchOptionValues = getOptionTable().get(IF_MATCH);
         Set<byte[]> result = new HashSet<>(ifMatchOptionValues.size());
 
         for (OptionValue ifMatchOptionValue : ifMatchOptionValues)
@@ -242,8 +245,8 @@ public class CoapRequest extends CoapMessage {
      */
     public String getUriHost() {
 
-        if (options.containsKey(URI_HOST))
-            return ((StringOptionValue) options.get(URI_HOST).iterator().next()).getDecodedValue();
+        if (getOptionTable().containsKey(URI_HOST))
+            return ((StringOptionValue) getOptionTable().get(URI_HOST).iterator().next()).getDecodedValue();
 
         return null;
     }
@@ -285,7 +288,7 @@ public class CoapRequest extends CoapMessage {
     public Set<byte[]> getEtags() {
         Set<byte[]> result = new HashSet<>();
 
-        for (OptionValue optionValue : options.get(ETAG))
+        for (OptionValue optionValue : getOptionTable().get(ETAG))
             result.add(((OpaqueOptionValue) optionValue).getDecodedValue());
 
         return result;
@@ -300,7 +303,7 @@ public class CoapRequest extends CoapMessage {
      * @return <code>true</code> if the option is set after method returned or <code>false</code> otherwise.
      */
     public boolean setIfNonMatch() {
-        if (options.containsKey(IF_NONE_MATCH))
+        if (getOptionTable().containsKey(IF_NONE_MATCH))
             return true;
 
         try{
@@ -320,7 +323,7 @@ public class CoapRequest extends CoapMessage {
      * no such option present in this {@link CoapRequest}.
      */
     public boolean isIfNonMatchSet() {
-        return options.containsKey(IF_NONE_MATCH);
+        return getOptionTable().containsKey(IF_NONE_MATCH);
     }
 
 
@@ -332,8 +335,8 @@ public class CoapRequest extends CoapMessage {
      * present in this {@link CoapRequest}.
      */
     public long getUriPort() {
-        if (options.containsKey(URI_PORT))
-            return ((UintOptionValue) options.get(URI_PORT).iterator().next()).getDecodedValue();
+        if (getOptionTable().containsKey(URI_PORT))
+            return ((UintOptionValue) getOptionTable().get(URI_PORT).iterator().next()).getDecodedValue();
 
         return OptionValue.URI_PORT_DEFAULT;
     }
@@ -349,7 +352,7 @@ public class CoapRequest extends CoapMessage {
     public String getUriPath() {
         String result = "/";
 
-        Iterator<OptionValue> iterator = options.get(URI_PATH).iterator();
+        Iterator<OptionValue> iterator = getOptionTable().get(URI_PATH).iterator();
         if (iterator.hasNext())
             result += ((StringOptionValue) iterator.next()).getDecodedValue();
 
@@ -359,6 +362,56 @@ public class CoapRequest extends CoapMessage {
         return result;
     }
 
+    /**
+     * Returns the segments of the request URI path, i.e. the values of the URI path options present in this
+     * {@link CoapRequest} (in the order of their occurrence). If no such option is set, the returned list is empty.
+     *
+     * @return the segments of the request URI path
+     */
+    public List<String> getUriPathSegments() {
+        Set<OptionValue> optionValues = getOptionTable().get(URI_PATH);
+        List<String> result = new ArrayList<>(optionValues.size());
+        for (OptionValue optionValue : optionValues) {
+            result.add(((StringOptionValue) optionValue).getDecodedValue());
+        }
+        return result;
+    }
+
+    /**
+     * Sets the values of the path variables, i.e. of the template segments of the path the addressed
+     * {@link de.uzl.itm.ncoap.application.server.resource.Webresource} was registered with (e.g. the value of
+     * <code>id</code> for <code>/devices/{id}/temp</code>). This method is called by the server upon reception.
+     *
+     * @param pathVariables the values of the path variables (key: variable name)
+     */
+    public void setPathVariables(Map<String, String> pathVariables) {
+        this.pathVariables = pathVariables;
+    }
+
+    /**
+     * Returns the values of the path variables (key: variable name) that were extracted from the request URI path
+     * by the server or an empty map if the addressed
+     * {@link de.uzl.itm.ncoap.application.server.resource.Webresource} was registered with a path without template
+     * segments.
+     *
+     * @return the values of the path variables (key: variable name)
+     */
+    public Map<String, String> getPathVariables() {
+        return this.pathVariables;
+    }
+
+    /**
+     * Returns the value of the given path variable (see {@link #getPathVariables()}) or <code>null</code> if there
+     * is no such variable.
+     *
+     * @param name the name of the path variable
+     *
+     * @return the value of the given path variable or <code>null</code> if there is no such variable.
+     */
+    public String getPathVariable(String name) {
+        return this.pathVariables.get(name);
+    }
+
     /**
      * Returns the full query of the request URI reconstructed from the URI query options present in this
      * {@link CoapRequest} or the empty string ("") if no such option is present.
@@ -369,9 +422,9 @@ public class CoapRequest extends CoapMessage {
     public String getUriQuery() {
         String result = "";
 
-        if (options.containsKey(URI_QUERY)) {
+        if (getOptionTable().containsKey(URI_QUERY)) {
 
-            Iterator<OptionValue> iterator = options.get(URI_QUERY).iterator();
+            Iterator<OptionValue> iterator = getOptionTable().get(URI_QUERY).iterator();
             result += (((StringOptionValue) iterator.next()).getDecodedValue());
 
             while(iterator.hasNext())
@@ -398,7 +451,7 @@ public class CoapRequest extends CoapMessage {
         if (!parameter.endsWith("="))
             parameter += "=";
 
-        for(OptionValue optionValue : options.get(URI_QUERY)) {
+        for(OptionValue optionValue : getOptionTable().get(URI_QUERY)) {
             String value = ((StringOptionValue) optionValue).getDecodedValue();
 
             if (value.startsWith(parameter))
@@ -421,13 +474,13 @@ public class CoapRequest extends CoapMessage {
      * format
      */
     public void setAccept(long... contentFormatNumbers) throws IllegalArgumentException {
-        options.removeAll(ACCEPT);
+        getOptionTable().removeAll(ACCEPT);
         try{
             for(long contentFormatNumber : contentFormatNumbers)
                 this.addUintOption(ACCEPT, contentFormatNumber);
         }
         catch (IllegalArgumentException e) {
-            options.removeAll(ACCEPT);
+            getOptionTable().removeAll(ACCEPT);
             throw e;
         }
     }
@@ -443,7 +496,7 @@ public class CoapRequest extends CoapMessage {
     public Set<Long> getAcceptedContentFormats() {
         Set<Long> result = new HashSet<>();
 
-        for(OptionValue optionValue : options.get(ACCEPT))
+        for(OptionValue optionValue : getOptionTable().get(ACCEPT))
             result.add(((UintOptionValue) optionValue).getDecodedValue());
 
         return result;
@@ -466,16 +519,16 @@ public class CoapRequest extends CoapMessage {
      * URI host, URI port, URI path, and URI query options is invalid.
      */
     public URI getProxyURI() throws URISyntaxException {
-        if (options.containsKey(PROXY_URI)) {
-            OptionValue proxyUriOptionValue = options.get(PROXY_URI).iterator().next();
+        if (getOptionTable().containsKey(PROXY_URI)) {
+            OptionValue proxyUriOptionValue = getOptionTable().get(PROXY_URI).iterator().next();
             return new URI(((StringOptionValue) proxyUriOptionValue).getDecodedValue());
         }
 
-        if (options.get(PROXY_SCHEME).size() == 1) {
-            OptionValue proxySchemeOptionValue = options.get(PROXY_SCHEME).iterator().next();
+        if (getOptionTable().get(PROXY_SCHEME).size() == 1) {
+            OptionValue proxySchemeOptionValue = getOptionTable().get(PROXY_SCHEME).iterator().next();
             String scheme = ((StringOptionValue) proxySchemeOptionValue).getDecodedValue();
             String uriHost = getUriHost();
-            OptionValue uriPortOptionValue = options.get(URI_PORT).iterator().next();
+            OptionValue uriPortOptionValue = getOptionTable().get(URI_PORT).iterator().next();
             int uriPort = ((UintOptionValue) uriPortOptionValue).getDecodedValue().intValue();
             String uriPath = getUriPath();
             String uriQuery = getUriQuery();
@@ -569,6 +622,6 @@ public class CoapRequest extends CoapMessage {
      * {@link CoapRequest} or <code>false</code> otherwise.
      */
     public boolean isObservationRequest() {
-        return(!options.get(OBSERVE).isEmpty());
+        return(!getOptionTable().get(OBSERVE).isEmpty());
     }
 }
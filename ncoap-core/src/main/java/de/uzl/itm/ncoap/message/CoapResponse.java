@@ -25,6 +25,7 @@
 package de.uzl.itm.ncoap.message;
 
 import de.uzl.itm.ncoap.communication.blockwise.BlockSize;
+import de.uzl.itm.ncoap.communication.codec.SharedEncoding;
 import de.uzl.itm.ncoap.communication.observing.ResourceStatusAge;
 import de.uzl.itm.ncoap.message.options.*;
 import org.slf4j.Logger;
@@ -63,6 +64,7 @@ public class CoapResponse extends CoapMessage {
 
     private static final String NO_ERRROR_CODE = "Code no. %s is no error code!";
 
+    private SharedEncoding sharedEncoding;
 
     /**
      * Creates a new instance of {@link CoapResponse}.
@@ -162,8 +164,8 @@ public class CoapResponse extends CoapMessage {
      * @return the byte array representing the ETAG of the content returned by {@link #getContent()}
      */
     public byte[] getEtag() {
-        if (options.containsKey(ETAG)) {
-            return ((OpaqueOptionValue) options.get(ETAG).iterator().next()).getDecodedValue();
+        if (getOptionTable().containsKey(ETAG)) {
+            return ((OpaqueOptionValue) getOptionTable().get(ETAG).iterator().next()).getDecodedValue();
         } else {
             return null;
         }
@@ -227,6 +229,26 @@ public class CoapResponse extends CoapMessage {
         }
     }
 
+    /**
+     * Sets the {@link SharedEncoding} this {@link CoapResponse} is to be encoded with. This method is intended for
+     * framework internal use, e.g. to encode the content of an update notification once for all observers.
+     *
+     * @param sharedEncoding the {@link SharedEncoding} this {@link CoapResponse} is to be encoded with
+     */
+    public void setSharedEncoding(SharedEncoding sharedEncoding) {
+        this.sharedEncoding = sharedEncoding;
+    }
+
+    /**
+     * Returns the {@link SharedEncoding} this {@link CoapResponse} is to be encoded with or <code>null</code> if
+     * there is none.
+     *
+     * @return the {@link SharedEncoding} this {@link CoapResponse} is to be encoded with or <code>null</code>
+     */
+    public SharedEncoding getSharedEncoding() {
+        return this.sharedEncoding;
+    }
+
     /**
      * Returns <code>true</code> if this {@link CoapResponse} is an update
      * notification and <code>false</code> otherwise. A {@link CoapResponse} is
@@ -256,8 +278,8 @@ public class CoapResponse extends CoapMessage {
      */
     public void setLocationURI(URI locationURI) throws IllegalArgumentException {
 
-        options.removeAll(LOCATION_PATH);
-        options.removeAll(LOCATION_QUERY);
+        getOptionTable().removeAll(LOCATION_PATH);
+        getOptionTable().removeAll(LOCATION_QUERY);
 
         String locationPath = locationURI.getRawPath();
         String locationQuery = locationURI.getRawQuery();
@@ -277,8 +299,8 @@ public class CoapResponse extends CoapMessage {
                     this.addStringOption(LOCATION_QUERY, queryComponent);
             }
         } catch(IllegalArgumentException ex) {
-            options.removeAll(LOCATION_PATH);
-            options.removeAll(LOCATION_QUERY);
+            getOptionTable().removeAll(LOCATION_PATH);
+            getOptionTable().removeAll(LOCATION_QUERY);
             throw ex;
         }
     }
@@ -296,16 +318,16 @@ public class CoapResponse extends CoapMessage {
         //Reconstruct path
         StringBuilder locationPath = new StringBuilder();
 
-        if (options.containsKey(LOCATION_PATH)) {
-            for (OptionValue optionValue : options.get(LOCATION_PATH))
+        if (getOptionTable().containsKey(LOCATION_PATH)) {
+            for (OptionValue optionValue : getOptionTable().get(LOCATION_PATH))
                 locationPath.append("/").append(((StringOptionValue) optionValue).getDecodedValue());
         }
 
         //Reconstruct query
         StringBuilder locationQuery = new StringBuilder();
 
-        if (options.containsKey(LOCATION_QUERY)) {
-            Iterator<OptionValue> queryComponentIterator = options.get(LOCATION_QUERY).iterator();
+        if (getOptionTable().containsKey(LOCATION_QUERY)) {
+            Iterator<OptionValue> queryComponentIterator = getOptionTable().get(LOCATION_QUERY).iterator();
             locationQuery.append(((StringOptionValue) queryComponentIterator.next()).getDecodedValue());
             while(queryComponentIterator.hasNext())
                 locationQuery.append("&")
@@ -327,7 +349,7 @@ public class CoapResponse extends CoapMessage {
      */
     public void setMaxAge(long maxAge) {
         try {
-            this.options.removeAll(MAX_AGE);
+            getOptionTable().removeAll(MAX_AGE);
             this.addUintOption(MAX_AGE, maxAge);
         } catch (IllegalArgumentException e) {
             log.error("This should never happen.", e);
@@ -343,8 +365,8 @@ public class CoapResponse extends CoapMessage {
      * exists, this method returns {@link de.uzl.itm.ncoap.message.options.OptionValue#MAX_AGE_DEFAULT}.
      */
     public long getMaxAge() {
-        if (options.containsKey(MAX_AGE)) {
-            return ((UintOptionValue) options.get(MAX_AGE).iterator().next()).getDecodedValue();
+        if (getOptionTable().containsKey(MAX_AGE)) {
+            return ((UintOptionValue) getOptionTable().get(MAX_AGE).iterator().next()).getDecodedValue();
         } else {
             return OptionValue.MAX_AGE_DEFAULT;
         }
@@ -0,0 +1,309 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.message;
+
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.SetMultimap;
+import de.uzl.itm.ncoap.message.options.OptionValue;
+import de.uzl.itm.ncoap.message.options.UintOptionValue;
+
+import java.util.*;
+
+import static de.uzl.itm.ncoap.message.options.Option.*;
+
+/**
+ * An {@link OptionTable} is the compact, array-backed storage for the options of a {@link CoapMessage}. The options
+ * are kept in two parallel arrays (option numbers and {@link OptionValue}s) sorted by option number. Multiple values
+ * for the same option number (e.g. URI path segments) keep their insertion order. Equal values for the same option
+ * number are contained only once, i.e. the semantics are the same as with a sorted
+ * {@link com.google.common.collect.SetMultimap}.
+ *
+ * Additionally, the decoded values of the frequently used uint options (i.e. OBSERVE, CONTENT_FORMAT, BLOCK2, BLOCK1,
+ * SIZE2 and SIZE1) are cached, so that {@link #getUintValue(int)} is a simple array access for these options.
+ *
+ * Outside of this package an {@link OptionTable} is read-only. Options are added and removed via the methods of
+ * {@link CoapMessage} to ensure their consistency checks apply.
+ */
+public final class OptionTable {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private static final int CACHED_UINT_OPTIONS = 6;
+
+    private int[] numbers;
+    private OptionValue[] values;
+    private int size;
+
+    private final long[] cachedUintValues;
+
+    /**
+     * Creates a new (empty) instance of {@link OptionTable}
+     */
+    OptionTable() {
+        this.numbers = new int[INITIAL_CAPACITY];
+        this.values = new OptionValue[INITIAL_CAPACITY];
+        this.size = 0;
+        this.cachedUintValues = new long[CACHED_UINT_OPTIONS];
+        Arrays.fill(this.cachedUintValues, UintOptionValue.UNDEFINED);
+    }
+
+    /**
+     * Adds the given {@link OptionValue} with the given option number to this {@link OptionTable} (behind all
+     * values that are already contained with the same option number).
+     *
+     * @param optionNumber the option number
+     * @param optionValue the {@link OptionValue} to be added
+     *
+     * @return <code>true</code> if the value was added or <code>false</code> if an equal value was already contained
+     * for the given option number
+     */
+    boolean put(int optionNumber, OptionValue optionValue) {
+        int end = upperBound(optionNumber);
+        for(int i = lowerBound(optionNumber); i < end; i++) {
+            if (this.values[i].equals(optionValue)) {
+                return false;
+            }
+        }
+
+        if (this.size == this.numbers.length) {
+            this.numbers = Arrays.copyOf(this.numbers, this.size * 2);
+            this.values = Arrays.copyOf(this.values, this.size * 2);
+        }
+
+        System.arraycopy(this.numbers, end, this.numbers, end + 1, this.size - end);
+        System.arraycopy(this.values, end, this.values, end + 1, this.size - end);
+        this.numbers[end] = optionNumber;
+        this.values[end] = optionValue;
+        this.size++;
+
+        updateCachedUintValue(optionNumber);
+        return true;
+    }
+
+    /**
+     * Removes all values with the given option number from this {@link OptionTable}.
+     *
+     * @param optionNumber the option number
+     *
+     * @return the number of removed values
+     */
+    int removeAll(int optionNumber) {
+        int start = lowerBound(optionNumber);
+        int end = upperBound(optionNumber);
+        int count = end - start;
+
+        if (count > 0) {
+            System.arraycopy(this.numbers, end, this.numbers, start, this.size - end);
+            System.arraycopy(this.values, end, this.values, start, this.size - end);
+            Arrays.fill(this.values, this.size - count, this.size, null);
+            this.size -= count;
+            updateCachedUintValue(optionNumber);
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns <code>true</code> if at least one value with the given option number is contained in this
+     * {@link OptionTable} and <code>false</code> otherwise.
+     *
+     * @param optionNumber the option number
+     *
+     * @return <code>true</code> if at least one value with the given option number is contained
+     */
+    public boolean containsKey(int optionNumber) {
+        int index = lowerBound(optionNumber);
+        return index < this.size && this.numbers[index] == optionNumber;
+    }
+
+    /**
+     * Returns an unmodifiable {@link Set} containing the values with the given option number (in insertion order).
+     * The returned set is a snapshot, i.e. not affected by later changes of this {@link OptionTable}.
+     *
+     * @param optionNumber the option number
+     *
+     * @return an unmodifiable {@link Set} containing the values with the given option number (may be empty)
+     */
+    public Set<OptionValue> get(int optionNumber) {
+        int start = lowerBound(optionNumber);
+        int end = upperBound(optionNumber);
+
+        if (start == end) {
+            return Collections.emptySet();
+        } else if (end - start == 1) {
+            return Collections.singleton(this.values[start]);
+        } else {
+            return new ValueSet(Arrays.copyOfRange(this.values, start, end));
+        }
+    }
+
+    /**
+     * Returns the first value with the given option number or <code>null</code> if there is no such value.
+     *
+     * @param optionNumber the option number
+     *
+     * @return the first value with the given option number or <code>null</code> if there is no such value
+     */
+    public OptionValue getFirst(int optionNumber) {
+        int index = lowerBound(optionNumber);
+        return index < this.size && this.numbers[index] == optionNumber ? this.values[index] : null;
+    }
+
+    /**
+     * Returns the decoded value of the (first) uint option with the given option number or
+     * {@link UintOptionValue#UNDEFINED} if there is no such option contained in this {@link OptionTable}.
+     *
+     * @param optionNumber the option number of an uint option
+     *
+     * @return the decoded value of the (first) uint option with the given number or {@link UintOptionValue#UNDEFINED}
+     */
+    public long getUintValue(int optionNumber) {
+        int slot = getCacheSlot(optionNumber);
+        if (slot >= 0) {
+            return this.cachedUintValues[slot];
+        }
+
+        OptionValue optionValue = getFirst(optionNumber);
+        return optionValue == null ? UintOptionValue.UNDEFINED : ((UintOptionValue) optionValue).getDecodedValue();
+    }
+
+    /**
+     * Returns the total number of values (of all option numbers) contained in this {@link OptionTable}.
+     *
+     * @return the total number of values contained in this {@link OptionTable}
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns the option number at the given position (options are sorted by number)
+     *
+     * @param index the position (must be smaller than {@link #size()})
+     *
+     * @return the option number at the given position
+     */
+    public int getNumber(int index) {
+        return this.numbers[index];
+    }
+
+    /**
+     * Returns the {@link OptionValue} at the given position (options are sorted by number)
+     *
+     * @param index the position (must be smaller than {@link #size()})
+     *
+     * @return the {@link OptionValue} at the given position
+     */
+    public OptionValue getValue(int index) {
+        return this.values[index];
+    }
+
+    /**
+     * Returns a new {@link SetMultimap} containing all options of this {@link OptionTable} (keys are in ascending
+     * order, values per key in insertion order).
+     *
+     * @return a new {@link SetMultimap} containing all options of this {@link OptionTable}
+     */
+    public SetMultimap<Integer, OptionValue> toMultimap() {
+        SetMultimap<Integer, OptionValue> result = LinkedHashMultimap.create();
+        for(int i = 0; i < this.size; i++) {
+            result.put(this.numbers[i], this.values[i]);
+        }
+        return result;
+    }
+
+
+    private int lowerBound(int optionNumber) {
+        int low = 0;
+        int high = this.size;
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if (this.numbers[middle] < optionNumber) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+
+    private int upperBound(int optionNumber) {
+        int low = 0;
+        int high = this.size;
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if (this.numbers[middle] <= optionNumber) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+
+    private void updateCachedUintValue(int optionNumber) {
+        int slot = getCacheSlot(optionNumber);
+        if (slot >= 0) {
+            OptionValue optionValue = getFirst(optionNumber);
+            this.cachedUintValues[slot] = optionValue instanceof UintOptionValue ?
+                    ((UintOptionValue) optionValue).getDecodedValue() : UintOptionValue.UNDEFINED;
+        }
+    }
+
+
+    private static int getCacheSlot(int optionNumber) {
+        switch (optionNumber) {
+            case OBSERVE:           return 0;
+            case CONTENT_FORMAT:    return 1;
+            case BLOCK_2:           return 2;
+            case BLOCK_1:           return 3;
+            case SIZE_2:            return 4;
+            case SIZE_1:            return 5;
+            default:                return -1;
+        }
+    }
+
+
+    private static final class ValueSet extends AbstractSet<OptionValue> {
+
+        private final OptionValue[] values;
+
+        private ValueSet(OptionValue[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public Iterator<OptionValue> iterator() {
+            return Collections.unmodifiableList(Arrays.asList(this.values)).iterator();
+        }
+
+        @Override
+        public int size() {
+            return this.values.length;
+        }
+    }
+}
@@ -24,6 +24,8 @@
  */
 package de.uzl.itm.ncoap.message.options;
 
+import org.jboss.netty.buffer.ChannelBuffer;
+
 import java.util.Arrays;
 
 /**
@@ -39,6 +41,18 @@ public class OpaqueOptionValue extends OptionValue<byte[]> {
         super(optionNumber, value, false);
     }
 
+    /**
+     * @param optionNumber the option number of the {@link OpaqueOptionValue} to be created
+     * @param value a {@link ChannelBuffer} whose readable bytes are the value of the {@link OpaqueOptionValue} to be
+     *              created (the buffer is not copied)
+     *
+     * @throws java.lang.IllegalArgumentException if the given option number is unknown, or if the given value
+     * exceeds the defined length limits for options with the given option number
+     */
+    public OpaqueOptionValue(int optionNumber, ChannelBuffer value) throws IllegalArgumentException {
+        super(optionNumber, value, false);
+    }
+
     /**
      * For {@link OpaqueOptionValue}s the returned value is the same as {@link #getValue()}.
      *
@@ -46,7 +60,7 @@ public class OpaqueOptionValue extends OptionValue<byte[]> {
      */
     @Override
     public byte[] getDecodedValue() {
-        return this.value;
+        return this.getValue();
     }
 
 
@@ -74,7 +88,7 @@ public class OpaqueOptionValue extends OptionValue<byte[]> {
      */
     @Override
     public String toString() {
-        return toHexString(this.value);
+        return toHexString(this.getValue());
     }
 
     /**
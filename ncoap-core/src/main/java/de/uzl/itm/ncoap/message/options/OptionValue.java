@@ -27,6 +27,8 @@ package de.uzl.itm.ncoap.message.options;
 import com.google.common.net.InetAddresses;
 import com.google.common.primitives.Longs;
 import de.uzl.itm.ncoap.message.CoapMessage;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
 
 import java.math.BigInteger;
 import java.util.Arrays;
@@ -206,21 +208,47 @@ public abstract class OptionValue<T>{
         } else if (optionNumber == MAX_AGE && Arrays.equals(value, ENCODED_MAX_AGE_DEFAULT)) {
             return true;
         } else  if (optionNumber == URI_HOST) {
-            String hostName = new String(value, CoapMessage.CHARSET);
-            if (hostName.startsWith("[") && hostName.endsWith("]")) {
-                hostName = hostName.substring(1, hostName.length() - 1);
-            }
+            return isInetAddress(new String(value, CoapMessage.CHARSET));
+        }
 
-            if (InetAddresses.isInetAddress(hostName)) {
-                return true;
-            }
+        return false;
+    }
+
+
+    /**
+     * Returns <code>true</code> if the readable bytes of the given {@link ChannelBuffer} are the default value for the
+     * given option number. Only the values of options that have a default value are read from the buffer.
+     *
+     * @param optionNumber the option number
+     * @param value a {@link ChannelBuffer} whose readable bytes are the encoded value to check
+     *
+     * @return <code>true</code> if the given value is the default value for the given option number
+     */
+    private static boolean isDefaultValue(int optionNumber, ChannelBuffer value) {
+        if (optionNumber == URI_PORT) {
+            return value.equals(ChannelBuffers.wrappedBuffer(ENCODED_URI_PORT_DEFAULT));
+        } else if (optionNumber == MAX_AGE) {
+            return value.equals(ChannelBuffers.wrappedBuffer(ENCODED_MAX_AGE_DEFAULT));
+        } else if (optionNumber == URI_HOST) {
+            return isInetAddress(value.toString(CoapMessage.CHARSET));
         }
 
         return false;
     }
 
 
-    protected byte[] value;
+    private static boolean isInetAddress(String hostName) {
+        if (hostName.startsWith("[") && hostName.endsWith("]")) {
+            hostName = hostName.substring(1, hostName.length() - 1);
+        }
+        return InetAddresses.isInetAddress(hostName);
+    }
+
+
+    protected volatile byte[] value;
+
+    // the (not yet materialized) value of options created from a ChannelBuffer, guarded by this
+    private ChannelBuffer encodedValue;
 
     /**
      * @param optionNumber the number of the {@link OptionValue} to be created.
@@ -244,6 +272,33 @@ public abstract class OptionValue<T>{
         this.value = value;
     }
 
+    /**
+     * Creates a new {@link OptionValue} backed by the readable bytes of the given {@link ChannelBuffer}, i.e. without
+     * copying. The byte array returned by {@link #getValue()} is created from that buffer on first invocation (and
+     * the buffer is released afterwards). Thus, the content of the given buffer must not be modified before.
+     *
+     * @param optionNumber the number of the {@link OptionValue} to be created.
+     * @param value a {@link ChannelBuffer} whose readable bytes are the encoded value of the option to be created.
+     *
+     * @throws java.lang.IllegalArgumentException if the {@link OptionValue} instance could not be created because
+     * either the given value is the default value or the length of the given value exceeds the defined limits.
+     */
+    protected OptionValue(int optionNumber, ChannelBuffer value, boolean allowDefault)
+            throws IllegalArgumentException {
+
+        int length = value.readableBytes();
+        if (getMinLength(optionNumber) > length || getMaxLength(optionNumber) < length) {
+            throw new IllegalArgumentException(String.format(OUT_OF_ALLOWED_RANGE, length, optionNumber,
+                    getMinLength(optionNumber), getMaxLength(optionNumber)));
+        }
+
+        if (!allowDefault && OptionValue.isDefaultValue(optionNumber, value)) {
+            throw new IllegalArgumentException(String.format(VALUE_IS_DEFAULT_VALUE, optionNumber));
+        }
+
+        this.encodedValue = value;
+    }
+
     /**
      * Returns the encoded value of this {@link OptionValue} as byte array. The way how to interpret the returned value
      * depends on the {@link Type}. Usually it is more convenient to use {@link #getDecodedValue()} instead.
@@ -251,7 +306,36 @@ public abstract class OptionValue<T>{
      * @return the encoded value of this option as byte array
      */
     public byte[] getValue() {
-        return this.value;
+        byte[] value = this.value;
+        if (value == null) {
+            synchronized (this) {
+                if (this.value == null) {
+                    byte[] bytes = new byte[this.encodedValue.readableBytes()];
+                    this.encodedValue.getBytes(this.encodedValue.readerIndex(), bytes);
+                    this.value = bytes;
+                    // release the reference to the (received) buffer
+                    this.encodedValue = null;
+                }
+                value = this.value;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Returns the length of the encoded value of this {@link OptionValue} in bytes (without materializing a byte
+     * array for values backed by a {@link ChannelBuffer}).
+     *
+     * @return the length of the encoded value of this {@link OptionValue} in bytes
+     */
+    public int getLength() {
+        byte[] value = this.value;
+        if (value != null) {
+            return value.length;
+        }
+        synchronized (this) {
+            return this.value != null ? this.value.length : this.encodedValue.readableBytes();
+        }
     }
 
     /**
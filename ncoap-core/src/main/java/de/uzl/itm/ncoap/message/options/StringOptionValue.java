@@ -25,6 +25,7 @@
 package de.uzl.itm.ncoap.message.options;
 
 import de.uzl.itm.ncoap.message.CoapMessage;
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -66,6 +67,21 @@ public class StringOptionValue extends OptionValue<String> {
         log.debug("String Option (#{}) created with value: '{}'.", optionNumber, this.getDecodedValue());
     }
 
+    /**
+     * @param optionNumber the option number of the {@link StringOptionValue} to be created
+     * @param value a {@link ChannelBuffer} whose readable bytes are the value of the {@link StringOptionValue} to be
+     *              created (the buffer is not copied)
+     * @param allowDefault if set to <code>true</code> no {@link IllegalArgumentException} is thrown if the given
+     *                     value is the default value
+     *
+     * @throws java.lang.IllegalArgumentException if the given option number is unknown, or if the given value is
+     * either the default value or exceeds the defined length limits for options with the given option number
+     */
+    public StringOptionValue(int optionNumber, ChannelBuffer value, boolean allowDefault)
+            throws IllegalArgumentException {
+        super(optionNumber, value, allowDefault);
+    }
+
     /**
      * Creates an instance of {@link StringOptionValue} according to the rules defined for CoAP. The pre-processing of
      * the given value before encoding using {@link de.uzl.itm.ncoap.message.CoapMessage#CHARSET} depends on the given option number:
@@ -107,7 +123,7 @@ public class StringOptionValue extends OptionValue<String> {
      */
     @Override
     public String getDecodedValue() {
-        return new String(value, CoapMessage.CHARSET);
+        return new String(getValue(), CoapMessage.CHARSET);
     }
 
 
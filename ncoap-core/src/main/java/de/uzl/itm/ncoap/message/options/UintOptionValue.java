@@ -24,6 +24,7 @@
  */
 package de.uzl.itm.ncoap.message.options;
 
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -74,6 +75,21 @@ public class UintOptionValue extends OptionValue<Long> {
         log.debug("Uint Option (#{}) created with value: {}", optionNumber, this.getDecodedValue());
     }
 
+    /**
+     * @param optionNumber the option number of the {@link UintOptionValue} to be created
+     * @param value a {@link ChannelBuffer} whose readable bytes are the value of the {@link UintOptionValue} to be
+     *              created (the buffer is not copied, leading zeros are skipped)
+     * @param allowDefault if set to <code>true</code> no {@link IllegalArgumentException} is thrown if the given
+     *                     value is the default value.
+     *
+     * @throws java.lang.IllegalArgumentException if the given option number is unknown, or if the given value is
+     * either the default value or exceeds the defined length limits for options with the given option number
+     */
+    public UintOptionValue(int optionNumber, ChannelBuffer value, boolean allowDefault)
+            throws IllegalArgumentException {
+        super(optionNumber, shortenValue(value), allowDefault);
+    }
+
 
 //    public UintOptionValue(int optionNumber, long value) throws IllegalArgumentException {
 //        this(optionNumber, value == 0 ? new byte[0] : new BigInteger(1, Longs.toByteArray(value)).toByteArray());
@@ -81,7 +97,7 @@ public class UintOptionValue extends OptionValue<Long> {
 
     @Override
     public Long getDecodedValue() {
-        return new BigInteger(1, value).longValue();
+        return new BigInteger(1, getValue()).longValue();
     }
 
 
@@ -109,4 +125,19 @@ public class UintOptionValue extends OptionValue<Long> {
         return Arrays.copyOfRange(value, index, value.length);
     }
 
+    /**
+     * Returns a slice of the given {@link ChannelBuffer} without leading zeros (the buffer is not copied).
+     *
+     * @param value the {@link ChannelBuffer} containing the encoded value
+     *
+     * @return a slice of the given {@link ChannelBuffer} without leading zeros
+     */
+    public static ChannelBuffer shortenValue(ChannelBuffer value) {
+        int index = value.readerIndex();
+        while(index < value.writerIndex() - 1 && value.getByte(index) == 0)
+            index++;
+
+        return value.slice(index, value.writerIndex() - index);
+    }
+
 }
@@ -0,0 +1,90 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.application.server.resource;
+
+import de.uzl.itm.ncoap.endpoints.server.NotObservableTestWebresource;
+import de.uzl.itm.ncoap.message.CoapMessage;
+import de.uzl.itm.ncoap.message.options.ContentFormat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests to verify that the representations of the actual status of a {@link NotObservableWebresource} are cached
+ * until the next status update.
+ */
+public class NotObservableWebresourceTest {
+
+    private ScheduledExecutorService executor;
+    private NotObservableTestWebresource webresource;
+
+    @Before
+    public void createWebresource() {
+        this.executor = Executors.newSingleThreadScheduledExecutor();
+        this.webresource = new NotObservableTestWebresource("/service", "initial", 60, 0, this.executor);
+    }
+
+    @After
+    public void shutdownExecutor() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void testRepresentationIsCachedUntilStatusUpdate() {
+        WrappedResourceStatus status1 = this.webresource.getWrappedResourceStatus(ContentFormat.TEXT_PLAIN_UTF8);
+        WrappedResourceStatus status2 = this.webresource.getWrappedResourceStatus(ContentFormat.TEXT_PLAIN_UTF8);
+        assertSame("Representation was not cached.", status1.getContent(), status2.getContent());
+
+        this.webresource.setResourceStatus("updated", 60);
+        WrappedResourceStatus status3 = this.webresource.getWrappedResourceStatus(ContentFormat.TEXT_PLAIN_UTF8);
+        assertNotSame("Representation was not invalidated.", status1.getContent(), status3.getContent());
+        assertEquals("Wrong content.", "updated", new String(status3.getContent(), CoapMessage.CHARSET));
+    }
+
+    @Test
+    public void testRepresentationIsNotCachedIfNotCacheable() {
+        NotObservableTestWebresource webresource =
+                new NotObservableTestWebresource("/uncached", "initial", 60, 0, this.executor) {
+            @Override
+            protected boolean isRepresentationCacheable() {
+                return false;
+            }
+        };
+
+        WrappedResourceStatus status1 = webresource.getWrappedResourceStatus(ContentFormat.TEXT_PLAIN_UTF8);
+        WrappedResourceStatus status2 = webresource.getWrappedResourceStatus(ContentFormat.TEXT_PLAIN_UTF8);
+        assertNotSame("Representation was cached.", status1.getContent(), status2.getContent());
+    }
+
+    @Test
+    public void testUnsupportedContentFormat() {
+        assertNull(this.webresource.getWrappedResourceStatus(ContentFormat.APP_JSON));
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.application.server.resource;
+
+import de.uzl.itm.ncoap.endpoints.server.ObservableTestWebresource;
+import de.uzl.itm.ncoap.message.CoapMessage;
+import de.uzl.itm.ncoap.message.options.ContentFormat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests to verify that status updates of an {@link ObservableWebresource} are coalesced, i.e. that only the most
+ * recent status is set and notified if the updates are published faster than they are processed, and that the
+ * representations of the actual status are cached.
+ */
+public class ObservableWebresourceTest {
+
+    private static final int UPDATES = 1000;
+
+    private ScheduledExecutorService executor;
+    private ObservableTestWebresource webresource;
+    private AtomicInteger notifications;
+
+    @Before
+    public void createWebresource() throws Exception {
+        this.executor = Executors.newSingleThreadScheduledExecutor();
+        this.webresource = new ObservableTestWebresource("/observable", 0, 0, this.executor);
+        this.notifications = new AtomicInteger();
+
+        // wait for the initial status to be set
+        waitForExecutor();
+        this.webresource.addObserver(new Observer() {
+            @Override
+            public void update(Observable observable, Object type) {
+                if (type.equals(ObservableWebresource.UPDATE)) {
+                    notifications.incrementAndGet();
+                }
+            }
+        });
+    }
+
+    @After
+    public void shutdownExecutor() {
+        this.executor.shutdownNow();
+    }
+
+    private void waitForExecutor() throws Exception {
+        this.executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                // nothing to do...
+            }
+        }).get(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testUpdatesAreCoalesced() throws Exception {
+        // block the executor while the updates are published
+        final CountDownLatch latch = new CountDownLatch(1);
+        this.executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    latch.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        for (int i = 1; i <= UPDATES; i++) {
+            this.webresource.setResourceStatus(i, 60);
+        }
+        latch.countDown();
+        waitForExecutor();
+
+        assertEquals("Wrong number of notifications.", 1, this.notifications.get());
+        assertEquals("Wrong status.", UPDATES, (int) this.webresource.getResourceStatus());
+
+        WrappedResourceStatus wrappedStatus =
+                this.webresource.getWrappedResourceStatus(ContentFormat.TEXT_PLAIN_UTF8);
+        assertEquals("Wrong content.", "Status #" + UPDATES,
+                new String(wrappedStatus.getContent(), CoapMessage.CHARSET));
+    }
+
+    @Test
+    public void testEveryUpdateIsNotifiedIfNotCoalesced() throws Exception {
+        for (int i = 1; i <= 10; i++) {
+            this.webresource.setResourceStatus(i, 60);
+            waitForExecutor();
+        }
+
+        assertEquals("Wrong number of notifications.", 10, this.notifications.get());
+    }
+
+    @Test
+    public void testRepresentationIsCachedUntilStatusUpdate() throws Exception {
+        WrappedResourceStatus status1 = this.webresource.getWrappedResourceStatus(ContentFormat.TEXT_PLAIN_UTF8);
+        WrappedResourceStatus status2 = this.webresource.getWrappedResourceStatus(ContentFormat.TEXT_PLAIN_UTF8);
+        assertSame("Representation was not cached.", status1.getContent(), status2.getContent());
+
+        WrappedResourceStatus status3 = this.webresource.getWrappedResourceStatus(ContentFormat.APP_XML);
+        assertEquals("Wrong content format.", ContentFormat.APP_XML, status3.getContentFormat());
+
+        this.webresource.setResourceStatus(1, 60);
+        waitForExecutor();
+
+        WrappedResourceStatus status4 = this.webresource.getWrappedResourceStatus(ContentFormat.TEXT_PLAIN_UTF8);
+        assertEquals("Wrong content.", "Status #1", new String(status4.getContent(), CoapMessage.CHARSET));
+        assertFalse("ETAG was not updated.", Arrays.equals(status1.getEtag(), status4.getEtag()));
+    }
+}
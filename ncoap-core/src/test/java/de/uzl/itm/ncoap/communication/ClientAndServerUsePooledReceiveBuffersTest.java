@@ -0,0 +1,120 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication;
+
+import de.uzl.itm.ncoap.application.client.CoapClient;
+import de.uzl.itm.ncoap.application.server.CoapServer;
+import de.uzl.itm.ncoap.endpoints.client.TestCallback;
+import de.uzl.itm.ncoap.endpoints.server.NotObservableTestWebresource;
+import de.uzl.itm.ncoap.message.*;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.jboss.netty.buffer.DirectChannelBufferFactory;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests to verify that inbound messages are properly decoded if the received datagrams are read into small, pooled
+ * direct buffers (instead of separate heap buffers).
+ */
+public class ClientAndServerUsePooledReceiveBuffersTest extends AbstractCoapCommunicationTest {
+
+    private static final int REQUESTS = 10;
+    private static final int MAX_DATAGRAM_SIZE = 1152;
+
+    private static String PATH_TO_SERVICE = "/service";
+    private static String PAYLOAD = "some arbitrary payload";
+
+    private static CoapServer server;
+    private static CoapClient client;
+    private static TestCallback[] callbacks;
+
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger(ClientAndServerUsePooledReceiveBuffersTest.class.getName()).setLevel(Level.DEBUG);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        server = new CoapServer(0);
+        server.setMaxDatagramSize(MAX_DATAGRAM_SIZE);
+        server.setReceiveBufferFactory(new DirectChannelBufferFactory(4096));
+        server.registerWebresource(new NotObservableTestWebresource(PATH_TO_SERVICE, PAYLOAD, 0, 0,
+                server.getExecutor()));
+
+        client = new CoapClient();
+        client.setMaxDatagramSize(MAX_DATAGRAM_SIZE);
+        client.setReceiveBufferFactory(new DirectChannelBufferFactory(4096));
+
+        callbacks = new TestCallback[REQUESTS];
+        for(int i = 0; i < REQUESTS; i++) {
+            callbacks[i] = new TestCallback();
+        }
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+        URI targetUri = new URI("coap://localhost:" + server.getPort() + PATH_TO_SERVICE);
+        InetSocketAddress serverSocket = new InetSocketAddress("localhost", server.getPort());
+
+        for(int i = 0; i < REQUESTS; i++) {
+            CoapRequest coapRequest = new CoapRequest(MessageType.CON, MessageCode.GET, targetUri);
+            client.sendCoapRequest(coapRequest, serverSocket, callbacks[i]);
+        }
+
+        //wait some time for the responses
+        Thread.sleep(1000);
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        server.shutdown().get();
+        client.shutdown();
+    }
+
+    @Test
+    public void testMaxDatagramSizeWasSet() {
+        assertEquals(MAX_DATAGRAM_SIZE, server.getMaxDatagramSize());
+        assertEquals(MAX_DATAGRAM_SIZE, client.getMaxDatagramSize());
+    }
+
+    @Test
+    public void testAllResponsesContainTheExpectedPayload() {
+        for(int i = 0; i < REQUESTS; i++) {
+            assertEquals("Unexpected number of responses for request #" + i,
+                    1, callbacks[i].getCoapResponses().size());
+
+            CoapResponse coapResponse = callbacks[i].getCoapResponse(0);
+            assertEquals("Unexpected message code.", MessageCode.CONTENT_205, coapResponse.getMessageCode());
+            assertEquals("Unexpected payload.", PAYLOAD,
+                    new String(coapResponse.getContentAsByteArray(), CoapMessage.CHARSET));
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import de.uzl.itm.ncoap.application.client.CoapClient;
+import de.uzl.itm.ncoap.application.server.CoapServer;
+import de.uzl.itm.ncoap.communication.dispatching.client.ResponseDispatcher;
+import de.uzl.itm.ncoap.endpoints.server.NotObservableTestWebresource;
+import de.uzl.itm.ncoap.message.*;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests to verify that identical concurrent GET requests of a {@link CoapClient} with request coalescing share a
+ * single exchange with the server.
+ */
+public class ClientCoalescesIdenticalRequestsTest extends AbstractCoapCommunicationTest {
+
+    private static final int IDENTICAL_REQUESTS = 10;
+    private static final String PATH_TO_SERVICE = "/service";
+    private static final String PAYLOAD = "some arbitrary payload";
+
+    private static CoapServer server;
+    private static CoapClient client;
+    private static AtomicInteger serverRequests;
+
+    private static List<ListenableFuture<CoapResponse>> identicalFutures;
+    private static ListenableFuture<CoapResponse> differentFuture;
+
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger(ResponseDispatcher.class.getName()).setLevel(Level.DEBUG);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        server = new CoapServer(0);
+        serverRequests = new AtomicInteger();
+        server.registerWebresource(new CountingWebresource(server.getExecutor()));
+
+        client = new CoapClient();
+        client.setRequestCoalescing(true);
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+        InetSocketAddress serverSocket = new InetSocketAddress("localhost", server.getPort());
+        URI targetUri = new URI("coap://localhost:" + server.getPort() + PATH_TO_SERVICE);
+
+        identicalFutures = new ArrayList<>();
+        for (int i = 0; i < IDENTICAL_REQUESTS; i++) {
+            CoapRequest coapRequest = new CoapRequest(MessageType.CON, MessageCode.GET, targetUri);
+            identicalFutures.add(client.sendCoapRequest(coapRequest, serverSocket, 5, TimeUnit.SECONDS));
+        }
+
+        URI otherUri = new URI("coap://localhost:" + server.getPort() + PATH_TO_SERVICE + "?param=1");
+        CoapRequest otherRequest = new CoapRequest(MessageType.CON, MessageCode.GET, otherUri);
+        differentFuture = client.sendCoapRequest(otherRequest, serverSocket, 5, TimeUnit.SECONDS);
+
+        for (ListenableFuture<CoapResponse> future : identicalFutures) {
+            future.get();
+        }
+        differentFuture.get();
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        client.shutdown();
+        server.shutdown();
+    }
+
+    @Test
+    public void testAllRequestsReceivedTheContent() throws Exception {
+        for (ListenableFuture<CoapResponse> future : identicalFutures) {
+            assertEquals(PAYLOAD, future.get().getContent().toString(CoapMessage.CHARSET));
+        }
+        assertEquals(PAYLOAD, differentFuture.get().getContent().toString(CoapMessage.CHARSET));
+    }
+
+    @Test
+    public void testIdenticalRequestsWereCoalesced() {
+        ResponseDispatcher responseDispatcher = client.getChannel().getPipeline().get(ResponseDispatcher.class);
+        assertEquals("Wrong number of coalesced requests.", IDENTICAL_REQUESTS - 1,
+                responseDispatcher.getCoalescedRequestCount());
+        assertEquals("Wrong number of requests at server.", 2, serverRequests.get());
+    }
+
+
+    private static class CountingWebresource extends NotObservableTestWebresource {
+
+        private CountingWebresource(ScheduledExecutorService executor) {
+            // delay the response, i.e. the identical requests are concurrent
+            super(PATH_TO_SERVICE, PAYLOAD, 0, 1000, executor);
+        }
+
+        @Override
+        public void processCoapRequest(SettableFuture<CoapResponse> responseFuture, CoapRequest coapRequest,
+                                       InetSocketAddress remoteAddress) throws Exception {
+            serverRequests.incrementAndGet();
+            super.processCoapRequest(responseFuture, coapRequest, remoteAddress);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication;
+
+import de.uzl.itm.ncoap.application.client.CoapClient;
+import de.uzl.itm.ncoap.communication.reliability.outbound.ClientOutboundReliabilityHandler;
+import de.uzl.itm.ncoap.endpoints.client.TestCallback;
+import de.uzl.itm.ncoap.message.*;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+/**
+ * Tests to verify that a {@link CoapClient} limits the number of outstanding confirmable requests per remote
+ * endpoint (NSTART), i.e. queues further requests until an ACK is received and drops them after the maximum
+ * queue time.
+ */
+public class ClientEnforcesNstartTest extends AbstractCoapCommunicationTest {
+
+    private static final int MAX_QUEUE_TIME = 2000;
+
+    private static CoapClient client;
+    private static DatagramSocket server;
+    private static TestCallback[] callbacks;
+
+    private static List<Integer> messageIDs;
+    private static List<Integer> queueDepths;
+
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger(ClientOutboundReliabilityHandler.class.getName()).setLevel(Level.DEBUG);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        client = new CoapClient();
+        client.getReliabilityHandler().setNstart(1);
+        client.getReliabilityHandler().setMaxQueueTime(MAX_QUEUE_TIME, TimeUnit.MILLISECONDS);
+
+        // a server that only answers when told so by the test
+        server = new DatagramSocket(0);
+        server.setSoTimeout(1000);
+
+        callbacks = new TestCallback[3];
+        for(int i = 0; i < callbacks.length; i++) {
+            callbacks[i] = new TestCallback();
+        }
+        messageIDs = new ArrayList<>();
+        queueDepths = new ArrayList<>();
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+        InetSocketAddress serverSocket = new InetSocketAddress("localhost", server.getLocalPort());
+        URI targetUri = new URI("coap://localhost:" + server.getLocalPort() + "/service");
+
+        for(TestCallback callback : callbacks) {
+            CoapRequest coapRequest = new CoapRequest(MessageType.CON, MessageCode.GET, targetUri);
+            client.sendCoapRequest(coapRequest, serverSocket, callback);
+        }
+
+        // receive the 1st request and acknowledge it (which releases the 2nd request)
+        DatagramPacket packet = receive();
+        messageIDs.add(getMessageID(packet));
+        Thread.sleep(200);
+        queueDepths.add(client.getReliabilityHandler().getQueueDepth(serverSocket));
+        sendEmptyAck(packet);
+
+        // receive the 2nd request but do not acknowledge it
+        packet = receive();
+        messageIDs.add(getMessageID(packet));
+        queueDepths.add(client.getReliabilityHandler().getQueueDepth(serverSocket));
+
+        // wait for the 3rd request to exceed the maximum queue time
+        Thread.sleep(MAX_QUEUE_TIME + 500);
+        queueDepths.add(client.getReliabilityHandler().getQueueDepth(serverSocket));
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        client.shutdown();
+        server.close();
+    }
+
+
+    private static DatagramPacket receive() throws Exception {
+        DatagramPacket packet = new DatagramPacket(new byte[1024], 1024);
+        server.receive(packet);
+        return packet;
+    }
+
+    private static int getMessageID(DatagramPacket packet) {
+        return ((packet.getData()[2] & 0xFF) << 8) | (packet.getData()[3] & 0xFF);
+    }
+
+    private static void sendEmptyAck(DatagramPacket packet) throws Exception {
+        byte[] ack = new byte[]{(byte) ((1 << 6) | (MessageType.ACK << 4)), 0, packet.getData()[2], packet.getData()[3]};
+        server.send(new DatagramPacket(ack, ack.length, packet.getSocketAddress()));
+    }
+
+
+    @Test
+    public void testQueuedRequestIsSentAfterAcknowledgement() {
+        assertEquals("Wrong number of received requests.", 2, messageIDs.size());
+        assertNotEquals("2nd request was not sent.", messageIDs.get(0), messageIDs.get(1));
+        assertEquals("1st request was not acknowledged.", 1, callbacks[0].getEmptyACKs().size());
+    }
+
+    @Test
+    public void testQueueDepths() {
+        assertEquals("Wrong queue depth after 1st request.", 2, (int) queueDepths.get(0));
+        assertEquals("Wrong queue depth after 2nd request.", 1, (int) queueDepths.get(1));
+        assertEquals("Wrong queue depth after maximum queue time.", 0, (int) queueDepths.get(2));
+    }
+
+    @Test
+    public void testQueuedRequestTimesOut() {
+        assertEquals("2nd request timed out.", 0, callbacks[1].getTransmissionTimeouts().size());
+        assertEquals("3rd request did not time out.", 1, callbacks[2].getTransmissionTimeouts().size());
+    }
+}
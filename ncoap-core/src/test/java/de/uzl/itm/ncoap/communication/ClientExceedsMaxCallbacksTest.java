@@ -0,0 +1,120 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication;
+
+import de.uzl.itm.ncoap.application.client.CoapClient;
+import de.uzl.itm.ncoap.communication.dispatching.client.ResponseDispatcher;
+import de.uzl.itm.ncoap.endpoints.client.TestCallback;
+import de.uzl.itm.ncoap.message.*;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests to verify that a {@link CoapClient} does not send requests if the maximum number of open requests is
+ * reached but informs the callback.
+ */
+public class ClientExceedsMaxCallbacksTest extends AbstractCoapCommunicationTest {
+
+    private static final int MAX_CALLBACKS = 2;
+
+    private static CoapClient client;
+    private static DatagramSocket silentServer;
+    private static ErrorCallback[] callbacks;
+    private static int openRequests;
+
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger(ResponseDispatcher.class.getName()).setLevel(Level.DEBUG);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        client = new CoapClient();
+        client.setMaxCallbacks(MAX_CALLBACKS);
+
+        // a server that never answers, i.e. the callbacks remain registered
+        silentServer = new DatagramSocket(0);
+
+        callbacks = new ErrorCallback[MAX_CALLBACKS + 1];
+        for(int i = 0; i < callbacks.length; i++) {
+            callbacks[i] = new ErrorCallback();
+        }
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+        InetSocketAddress serverSocket = new InetSocketAddress("localhost", silentServer.getLocalPort());
+        URI targetUri = new URI("coap://localhost:" + silentServer.getLocalPort() + "/service");
+
+        for(ErrorCallback callback : callbacks) {
+            CoapRequest coapRequest = new CoapRequest(MessageType.NON, MessageCode.GET, targetUri);
+            client.sendCoapRequest(coapRequest, serverSocket, callback);
+            Thread.sleep(100);
+        }
+
+        Thread.sleep(500);
+        openRequests = client.getChannel().getPipeline().get(ResponseDispatcher.class).getCallbackCount();
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        client.shutdown();
+        silentServer.close();
+    }
+
+    @Test
+    public void testNumberOfOpenRequestsIsLimited() {
+        assertEquals("Wrong number of open requests.", MAX_CALLBACKS, openRequests);
+    }
+
+    @Test
+    public void testOnlyTheExcessRequestWasRejected() {
+        for(int i = 0; i < MAX_CALLBACKS; i++) {
+            assertEquals("Request #" + i + " was rejected.", 0, callbacks[i].errors.size());
+        }
+        assertEquals("Excess request was not rejected.", 1, callbacks[MAX_CALLBACKS].errors.size());
+    }
+
+
+    private static class ErrorCallback extends TestCallback {
+
+        private final List<String> errors = new ArrayList<>();
+
+        @Override
+        public void processMiscellaneousError(String description) {
+            this.errors.add(description);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import de.uzl.itm.ncoap.application.client.CoapClient;
+import de.uzl.itm.ncoap.application.server.CoapServer;
+import de.uzl.itm.ncoap.communication.dispatching.client.ResponseDispatcher;
+import de.uzl.itm.ncoap.endpoints.server.NotObservableTestWebresource;
+import de.uzl.itm.ncoap.message.*;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests to verify the {@link ListenableFuture} based request methods of the {@link CoapClient}, i.e. batches,
+ * deadlines and cancellation.
+ */
+public class ClientUsesResponseFuturesTest extends AbstractCoapCommunicationTest {
+
+    private static final int BATCH_SIZE = 10;
+    private static String PATH_TO_SERVICE = "/service";
+    private static String PAYLOAD = "some arbitrary payload";
+
+    private static CoapServer server;
+    private static CoapClient client;
+    private static DatagramSocket silentServer;
+    private static AtomicInteger silentServerReceptions;
+
+    private static List<ListenableFuture<CoapResponse>> batchFutures;
+    private static ListenableFuture<CoapResponse> expiredFuture;
+    private static ListenableFuture<CoapResponse> cancelledFuture;
+    private static int openRequests;
+
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger(ResponseDispatcher.class.getName()).setLevel(Level.DEBUG);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        server = new CoapServer(0);
+        server.registerWebresource(new NotObservableTestWebresource(PATH_TO_SERVICE, PAYLOAD, 0, 0,
+                server.getExecutor()));
+        client = new CoapClient();
+
+        silentServer = new DatagramSocket(0);
+        silentServerReceptions = new AtomicInteger();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                DatagramPacket packet = new DatagramPacket(new byte[1024], 1024);
+                try {
+                    while (true) {
+                        silentServer.receive(packet);
+                        silentServerReceptions.incrementAndGet();
+                    }
+                } catch (Exception ex) {
+                    // socket was closed
+                }
+            }
+        }).start();
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+        InetSocketAddress serverSocket = new InetSocketAddress("localhost", server.getPort());
+        URI targetUri = new URI("coap://localhost:" + server.getPort() + PATH_TO_SERVICE);
+
+        List<CoapRequest> coapRequests = new ArrayList<>();
+        List<InetSocketAddress> remoteSockets = new ArrayList<>();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            coapRequests.add(new CoapRequest(MessageType.CON, MessageCode.GET, targetUri));
+            remoteSockets.add(serverSocket);
+        }
+        batchFutures = client.sendAll(coapRequests, remoteSockets, 5, TimeUnit.SECONDS);
+
+        InetSocketAddress silentSocket = new InetSocketAddress("localhost", silentServer.getLocalPort());
+        URI silentUri = new URI("coap://localhost:" + silentServer.getLocalPort() + PATH_TO_SERVICE);
+
+        // NON request with deadline
+        CoapRequest nonRequest = new CoapRequest(MessageType.NON, MessageCode.GET, silentUri);
+        expiredFuture = client.sendCoapRequest(nonRequest, silentSocket, 500, TimeUnit.MILLISECONDS);
+
+        // CON request that is cancelled before the first retransmission
+        CoapRequest conRequest = new CoapRequest(MessageType.CON, MessageCode.GET, silentUri);
+        cancelledFuture = client.sendCoapRequest(conRequest, silentSocket, 0, TimeUnit.SECONDS);
+        Thread.sleep(1000);
+        cancelledFuture.cancel(false);
+
+        // wait for (not expected) retransmissions
+        Thread.sleep(5000);
+        openRequests = client.getChannel().getPipeline().get(ResponseDispatcher.class).getCallbackCount();
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        client.shutdown();
+        server.shutdown();
+        silentServer.close();
+    }
+
+    @Test
+    public void testAllBatchRequestsWereAnswered() throws Exception {
+        for (ListenableFuture<CoapResponse> future : batchFutures) {
+            assertEquals(PAYLOAD, future.get(0, TimeUnit.SECONDS).getContent().toString(CoapMessage.CHARSET));
+        }
+    }
+
+    @Test
+    public void testRequestExpiredAfterDeadline() throws Exception {
+        try {
+            expiredFuture.get(0, TimeUnit.SECONDS);
+            fail("Future did not fail.");
+        } catch (ExecutionException ex) {
+            assertTrue("Wrong cause: " + ex.getCause(), ex.getCause() instanceof TimeoutException);
+        }
+    }
+
+    @Test
+    public void testCancelledRequestWasNotRetransmitted() {
+        assertTrue(cancelledFuture.isCancelled());
+        assertEquals("Wrong number of messages at silent server.", 2, silentServerReceptions.get());
+    }
+
+    @Test
+    public void testNoCallbacksRemain() {
+        assertEquals("Wrong number of open requests.", 0, openRequests);
+    }
+}
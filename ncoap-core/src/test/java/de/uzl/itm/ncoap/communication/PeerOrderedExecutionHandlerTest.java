@@ -0,0 +1,214 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication;
+
+import de.uzl.itm.ncoap.AbstractCoapTest;
+import de.uzl.itm.ncoap.message.MessageType;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.*;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Tests for the per-peer ordering and the memory limits of the {@link PeerOrderedExecutionHandler}
+ */
+public class PeerOrderedExecutionHandlerTest extends AbstractCoapTest {
+
+    private static final int MESSAGE_SIZE = 10;
+
+    private ExecutorService executor;
+
+    @Override
+    public void setupLogging() throws Exception {
+
+    }
+
+    @After
+    public void shutdownExecutor() {
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+        }
+    }
+
+
+    @Test
+    public void testMessagesFromTheSamePeerAreProcessedInOrder() throws Exception {
+        this.executor = Executors.newFixedThreadPool(8);
+        PeerOrderedExecutionHandler handler = new PeerOrderedExecutionHandler(executor,
+                Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+        int peers = 4;
+        int messagesPerPeer = 2000;
+        final CountDownLatch latch = new CountDownLatch(peers * messagesPerPeer);
+        final Map<SocketAddress, List<Integer>> received = new ConcurrentHashMap<>();
+
+        TestChannel channel = new TestChannel(handler, new SimpleChannelUpstreamHandler() {
+            @Override
+            public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) {
+                List<Integer> messageIDs = received.get(e.getRemoteAddress());
+                // not thread-safe on purpose, i.e. concurrent processing for the same peer would break the test
+                messageIDs.add(((ChannelBuffer) e.getMessage()).getUnsignedShort(2));
+                latch.countDown();
+            }
+        });
+
+        List<InetSocketAddress> remoteSockets = new ArrayList<>();
+        for(int i = 0; i < peers; i++) {
+            InetSocketAddress remoteSocket = new InetSocketAddress("127.0.0.1", 5683 + i);
+            remoteSockets.add(remoteSocket);
+            received.put(remoteSocket, new ArrayList<Integer>());
+        }
+
+        for(int messageID = 0; messageID < messagesPerPeer; messageID++) {
+            for(InetSocketAddress remoteSocket : remoteSockets) {
+                Channels.fireMessageReceived(channel, createMessage(MessageType.CON, messageID), remoteSocket);
+            }
+        }
+
+        Assert.assertTrue("Not all messages were processed.", latch.await(10, TimeUnit.SECONDS));
+        for(InetSocketAddress remoteSocket : remoteSockets) {
+            List<Integer> messageIDs = received.get(remoteSocket);
+            Assert.assertEquals(messagesPerPeer, messageIDs.size());
+            for(int i = 0; i < messagesPerPeer; i++) {
+                Assert.assertEquals("Wrong order for " + remoteSocket, i, (int) messageIDs.get(i));
+            }
+        }
+    }
+
+
+    @Test
+    public void testExcessMessagesAreShed() throws Exception {
+        final Queue<Runnable> tasks = new LinkedList<>();
+        Executor manualExecutor = new Executor() {
+            @Override
+            public void execute(Runnable task) {
+                tasks.add(task);
+            }
+        };
+
+        PeerOrderedExecutionHandler handler = new PeerOrderedExecutionHandler(manualExecutor,
+                3 * MESSAGE_SIZE, 5 * MESSAGE_SIZE);
+
+        final List<Integer> processed = new ArrayList<>();
+        TestChannel channel = new TestChannel(handler, new SimpleChannelUpstreamHandler() {
+            @Override
+            public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) {
+                processed.add(((ChannelBuffer) e.getMessage()).getUnsignedShort(2));
+            }
+        });
+
+        InetSocketAddress peer1 = new InetSocketAddress("127.0.0.1", 5683);
+        InetSocketAddress peer2 = new InetSocketAddress("127.0.0.1", 5684);
+
+        // the 4th message of peer 1 exceeds the per-peer limit
+        for(int messageID = 1; messageID <= 4; messageID++) {
+            Channels.fireMessageReceived(channel, createMessage(MessageType.CON, messageID), peer1);
+        }
+        // the 3rd message of peer 2 exceeds the total limit (NON, i.e. no RST)
+        for(int messageID = 11; messageID <= 13; messageID++) {
+            Channels.fireMessageReceived(channel, createMessage(MessageType.NON, messageID), peer2);
+        }
+
+        Assert.assertEquals(5 * MESSAGE_SIZE, handler.getQueuedBytes());
+        Assert.assertEquals(1, channel.written.size());
+
+        ChannelBuffer reset = channel.written.get(0);
+        Assert.assertEquals(4, reset.readableBytes());
+        Assert.assertEquals(MessageType.RST, (reset.getUnsignedByte(0) >>> 4) & 0x03);
+        Assert.assertEquals(4, reset.getUnsignedShort(2));
+
+        while(!tasks.isEmpty()) {
+            tasks.poll().run();
+        }
+
+        Assert.assertEquals(Arrays.asList(1, 2, 3, 11, 12), processed);
+        Assert.assertEquals(0, handler.getQueuedBytes());
+    }
+
+
+    private static ChannelBuffer createMessage(int messageType, int messageID) {
+        ChannelBuffer buffer = ChannelBuffers.buffer(MESSAGE_SIZE);
+        buffer.writeByte((1 << 6) | (messageType << 4));
+        buffer.writeByte(1);
+        buffer.writeShort(messageID);
+        buffer.writeZero(MESSAGE_SIZE - 4);
+        return buffer;
+    }
+
+
+    private static class TestChannel extends AbstractChannel {
+
+        private final List<ChannelBuffer> written;
+
+        private TestChannel(ChannelHandler... handlers) {
+            this(Channels.pipeline(handlers), new ArrayList<ChannelBuffer>());
+        }
+
+        private TestChannel(ChannelPipeline pipeline, final List<ChannelBuffer> written) {
+            super(null, null, pipeline, new AbstractChannelSink() {
+                @Override
+                public void eventSunk(ChannelPipeline pipeline, ChannelEvent e) {
+                    if (e instanceof MessageEvent) {
+                        written.add((ChannelBuffer) ((MessageEvent) e).getMessage());
+                        e.getFuture().setSuccess();
+                    }
+                }
+            });
+            this.written = written;
+        }
+
+        @Override
+        public ChannelConfig getConfig() {
+            return new DefaultChannelConfig();
+        }
+
+        @Override
+        public boolean isBound() {
+            return true;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return false;
+        }
+
+        @Override
+        public SocketAddress getLocalAddress() {
+            return new InetSocketAddress("127.0.0.1", 5683);
+        }
+
+        @Override
+        public SocketAddress getRemoteAddress() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import de.uzl.itm.ncoap.AbstractCoapTest;
+import de.uzl.itm.ncoap.message.CoapMessage;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timeout;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests to verify that tasks scheduled by {@link AbstractCoapChannelHandler}s are executed by the I/O executor and
+ * not by the worker thread of the {@link org.jboss.netty.util.Timer}.
+ */
+public class ScheduledTaskExecutionTest extends AbstractCoapTest {
+
+    private ScheduledExecutorService executor;
+    private HashedWheelTimer timer;
+    private TestHandler handler;
+
+    @Override
+    public void setupLogging() throws Exception {
+
+    }
+
+    @Before
+    public void createHandler() {
+        this.executor = Executors.newScheduledThreadPool(1,
+                new ThreadFactoryBuilder().setNameFormat("Test I/O-Thread #%d").build());
+        this.timer = new HashedWheelTimer(
+                new ThreadFactoryBuilder().setNameFormat("Test Timer #%d").build(), 10, TimeUnit.MILLISECONDS);
+        this.handler = new TestHandler(this.executor, this.timer);
+    }
+
+    @After
+    public void shutdown() {
+        this.timer.stop();
+        this.executor.shutdownNow();
+    }
+
+
+    @Test
+    public void testExpiredTasksAreExecutedByTheExecutor() throws Exception {
+        final AtomicReference<String> threadName = new AtomicReference<>();
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        this.handler.scheduleTimeout(new Runnable() {
+            @Override
+            public void run() {
+                threadName.set(Thread.currentThread().getName());
+                latch.countDown();
+            }
+        }, 50, TimeUnit.MILLISECONDS);
+
+        Assert.assertTrue("Task was not executed.", latch.await(2, TimeUnit.SECONDS));
+        Assert.assertTrue("Task was executed by the wrong thread (" + threadName.get() + ").",
+                threadName.get().startsWith("Test I/O-Thread"));
+    }
+
+
+    @Test
+    public void testCancelledTasksAreNotExecuted() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        Timeout timeout = this.handler.scheduleTimeout(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        }, 100, TimeUnit.MILLISECONDS);
+        timeout.cancel();
+
+        Assert.assertFalse("Cancelled task was executed.", latch.await(300, TimeUnit.MILLISECONDS));
+    }
+
+
+    private static class TestHandler extends AbstractCoapChannelHandler {
+
+        private TestHandler(ScheduledExecutorService executor, HashedWheelTimer timer) {
+            super(executor, timer);
+        }
+
+        @Override
+        public boolean handleInboundCoapMessage(CoapMessage coapMessage, InetSocketAddress remoteSocket) {
+            return true;
+        }
+
+        @Override
+        public boolean handleOutboundCoapMessage(CoapMessage coapMessage, InetSocketAddress remoteSocket) {
+            return true;
+        }
+    }
+}
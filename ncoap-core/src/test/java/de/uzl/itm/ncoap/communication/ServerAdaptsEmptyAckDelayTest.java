@@ -0,0 +1,171 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication;
+
+import com.google.common.util.concurrent.SettableFuture;
+import de.uzl.itm.ncoap.application.client.CoapClient;
+import de.uzl.itm.ncoap.application.server.CoapServer;
+import de.uzl.itm.ncoap.communication.reliability.inbound.ServerInboundReliabilityHandler;
+import de.uzl.itm.ncoap.endpoints.client.TestCallback;
+import de.uzl.itm.ncoap.endpoints.server.NotObservableTestWebresource;
+import de.uzl.itm.ncoap.message.*;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests to verify that a {@link CoapServer} adapts the delay of empty ACKs to the latencies of the addressed
+ * webresources, i.e. sends empty ACKs immediately for slow webresources.
+ */
+public class ServerAdaptsEmptyAckDelayTest extends AbstractCoapCommunicationTest {
+
+    private static final int REQUESTS = ServerInboundReliabilityHandler.MIN_LATENCY_SAMPLES;
+    private static final long SLOW_PROCESSING_TIME = 1700;
+
+    private static CoapServer server;
+    private static CoapClient client;
+    private static ServerInboundReliabilityHandler handler;
+
+    private static long fastDelay;
+    private static long slowDelay;
+    private static long fixedDelay;
+
+    private static TestCallback slowCallback;
+    private static long slowRequestTime;
+
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger(ServerInboundReliabilityHandler.class.getName()).setLevel(Level.DEBUG);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        server = new CoapServer(0);
+        server.registerWebresource(new NotObservableTestWebresource("/fast", "fast", 0, 0, server.getExecutor()));
+        server.registerWebresource(new SlowWebresource("/slow", server.getExecutor()));
+        server.registerWebresource(new NotObservableTestWebresource("/fixed/{id}", "fixed", 0, 0, server.getExecutor()));
+
+        handler = server.getInboundReliabilityHandler();
+        handler.setEmptyAckDelay("/fixed/{id}", 1, TimeUnit.SECONDS);
+
+        client = new CoapClient();
+        client.getReliabilityHandler().setNstart(2 * REQUESTS + 1);
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+        InetSocketAddress serverSocket = new InetSocketAddress("localhost", server.getPort());
+
+        for (int i = 0; i < REQUESTS; i++) {
+            for (String path : new String[]{"/fast", "/slow"}) {
+                URI targetUri = new URI("coap://localhost:" + server.getPort() + path);
+                CoapRequest coapRequest = new CoapRequest(MessageType.CON, MessageCode.GET, targetUri);
+                client.sendCoapRequest(coapRequest, serverSocket, new TestCallback());
+            }
+        }
+
+        // wait for all responses
+        Thread.sleep(SLOW_PROCESSING_TIME + 1500);
+        fastDelay = handler.getEmptyAckDelay("/fast");
+        slowDelay = handler.getEmptyAckDelay("/slow");
+        fixedDelay = handler.getEmptyAckDelay("/fixed/4711");
+
+        // another request for the slow webresource (now with an immediate empty ACK)
+        slowCallback = new TestCallback();
+        slowRequestTime = System.currentTimeMillis();
+        URI targetUri = new URI("coap://localhost:" + server.getPort() + "/slow");
+        CoapRequest coapRequest = new CoapRequest(MessageType.CON, MessageCode.GET, targetUri);
+        client.sendCoapRequest(coapRequest, serverSocket, slowCallback);
+
+        Thread.sleep(SLOW_PROCESSING_TIME + 1000);
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        client.shutdown();
+        server.shutdown().get();
+    }
+
+
+    @Test
+    public void testEmptyAckDelays() {
+        assertEquals("Wrong delay for fast webresource.", ServerInboundReliabilityHandler.MIN_EMPTY_ACK_DELAY,
+                fastDelay);
+        assertEquals("Wrong delay for slow webresource.", 0, slowDelay);
+        assertEquals("Wrong delay for webresource with fixed delay.", 1000, fixedDelay);
+    }
+
+    @Test
+    public void testEmptyAckForSlowWebresourceIsSentImmediately() {
+        assertEquals("Wrong number of empty ACKs.", 1, slowCallback.getEmptyACKs().size());
+        long delay = slowCallback.getEmptyACKs().iterator().next() - slowRequestTime;
+        assertTrue("Empty ACK was sent too late (" + delay + " ms).", delay < 1000);
+        assertEquals("Wrong number of responses.", 1, slowCallback.getCoapResponses().size());
+    }
+
+    @Test
+    public void testRatioOfPiggyBackedResponses() {
+        assertEquals("Wrong number of piggy-backed responses.", REQUESTS, handler.getPiggyBackedResponseCount());
+        assertEquals("Wrong number of separate responses.", REQUESTS + 1, handler.getSeparateResponseCount());
+        assertEquals("Wrong ratio.", (double) REQUESTS / (2 * REQUESTS + 1), handler.getPiggyBackedResponseRatio(),
+                0.001);
+    }
+
+
+    private static class SlowWebresource extends NotObservableTestWebresource {
+
+        private final ScheduledExecutorService executor;
+
+        private SlowWebresource(String path, ScheduledExecutorService executor) {
+            super(path, "slow", 0, 0, executor);
+            this.executor = executor;
+        }
+
+        @Override
+        public void processCoapRequest(final SettableFuture<CoapResponse> responseFuture,
+                final CoapRequest coapRequest, final InetSocketAddress remoteAddress) throws Exception {
+            // delay the response without blocking a thread
+            this.executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        SlowWebresource.super.processCoapRequest(responseFuture, coapRequest, remoteAddress);
+                    } catch (Exception ex) {
+                        responseFuture.setException(ex);
+                    }
+                }
+            }, SLOW_PROCESSING_TIME, TimeUnit.MILLISECONDS);
+        }
+    }
+}
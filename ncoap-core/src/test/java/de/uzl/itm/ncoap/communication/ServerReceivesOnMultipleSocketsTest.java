@@ -0,0 +1,133 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication;
+
+import de.uzl.itm.ncoap.application.client.CoapClient;
+import de.uzl.itm.ncoap.application.server.CoapServer;
+import de.uzl.itm.ncoap.communication.blockwise.BlockSize;
+import de.uzl.itm.ncoap.communication.dispatching.server.NotFoundHandler;
+import de.uzl.itm.ncoap.endpoints.client.TestCallback;
+import de.uzl.itm.ncoap.endpoints.server.NotObservableTestWebresource;
+import de.uzl.itm.ncoap.message.*;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.jboss.netty.channel.socket.DatagramChannel;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests to verify that a {@link CoapServer} with multiple sockets (<code>SO_REUSEPORT</code>) answers requests from
+ * several clients, i.e. from remote sockets that are (most probably) distributed among the server sockets.
+ */
+public class ServerReceivesOnMultipleSocketsTest extends AbstractCoapCommunicationTest {
+
+    private static final int SOCKETS = 4;
+    private static final int CLIENTS = 8;
+    private static final int REQUESTS_PER_CLIENT = 5;
+
+    private static String PATH_TO_SERVICE = "/service";
+    private static String PAYLOAD = "some arbitrary payload";
+
+    private static CoapServer server;
+    private static CoapClient[] clients;
+    private static TestCallback[][] callbacks;
+    private static List<Integer> localPorts;
+
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger(ServerReceivesOnMultipleSocketsTest.class.getName()).setLevel(Level.DEBUG);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        server = new CoapServer("Multi-Socket Server", NotFoundHandler.getDefault(), new InetSocketAddress(0),
+                BlockSize.UNBOUND, BlockSize.UNBOUND, SOCKETS);
+        server.registerWebresource(new NotObservableTestWebresource(PATH_TO_SERVICE, PAYLOAD, 0, 0,
+                server.getExecutor()));
+
+        clients = new CoapClient[CLIENTS];
+        callbacks = new TestCallback[CLIENTS][REQUESTS_PER_CLIENT];
+        for(int i = 0; i < CLIENTS; i++) {
+            clients[i] = new CoapClient();
+            for(int request = 0; request < REQUESTS_PER_CLIENT; request++) {
+                callbacks[i][request] = new TestCallback();
+            }
+        }
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+        localPorts = new ArrayList<>();
+        for(DatagramChannel channel : server.getChannels()) {
+            localPorts.add(channel.getLocalAddress().getPort());
+        }
+
+        URI targetUri = new URI("coap://localhost:" + server.getPort() + PATH_TO_SERVICE);
+        InetSocketAddress serverSocket = new InetSocketAddress("localhost", server.getPort());
+
+        for(int request = 0; request < REQUESTS_PER_CLIENT; request++) {
+            for(int i = 0; i < CLIENTS; i++) {
+                CoapRequest coapRequest = new CoapRequest(MessageType.CON, MessageCode.GET, targetUri);
+                clients[i].sendCoapRequest(coapRequest, serverSocket, callbacks[i][request]);
+            }
+        }
+
+        //wait some time for the responses
+        Thread.sleep(2000);
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        server.shutdown().get();
+        for(CoapClient client : clients) {
+            client.shutdown();
+        }
+    }
+
+    @Test
+    public void testAllSocketsAreBoundToTheSamePort() {
+        assertEquals("Unexpected number of sockets.", SOCKETS, localPorts.size());
+        for(int localPort : localPorts) {
+            assertEquals("Wrong port.", (int) localPorts.get(0), localPort);
+        }
+    }
+
+    @Test
+    public void testAllClientsReceivedAllResponses() {
+        for(int i = 0; i < CLIENTS; i++) {
+            for(int request = 0; request < REQUESTS_PER_CLIENT; request++) {
+                assertEquals("Client #" + i + " received unexpected number of responses for request #" + request,
+                        1, callbacks[i][request].getCoapResponses().size());
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication;
+
+import com.google.common.util.concurrent.SettableFuture;
+import de.uzl.itm.ncoap.application.server.CoapServer;
+import de.uzl.itm.ncoap.communication.reliability.inbound.ServerResponseReplayHandler;
+import de.uzl.itm.ncoap.endpoints.server.NotObservableTestWebresourceForPost;
+import de.uzl.itm.ncoap.message.*;
+import de.uzl.itm.ncoap.message.options.Option;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests to verify that a {@link CoapServer} answers a duplicate of an acknowledged confirmable request with the
+ * very same (encoded) response without invoking the webresource again.
+ */
+public class ServerReplaysResponsesToDuplicatesTest extends AbstractCoapCommunicationTest {
+
+    private static final String PATH_TO_SERVICE = "/service";
+
+    private static CoapServer server;
+    private static CountingWebresource webresource;
+    private static DatagramSocket client;
+
+    private static List<byte[]> responses;
+
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger(ServerResponseReplayHandler.class.getName()).setLevel(Level.DEBUG);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        server = new CoapServer(0);
+        webresource = new CountingWebresource(PATH_TO_SERVICE, server.getExecutor());
+        server.registerWebresource(webresource);
+
+        client = new DatagramSocket(0);
+        client.setSoTimeout(1000);
+        responses = new ArrayList<>();
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+        InetSocketAddress serverSocket = new InetSocketAddress("localhost", server.getPort());
+
+        // the original request, a duplicate (e.g. due to a lost ACK), and a new request
+        for (int messageID : new int[]{4711, 4711, 4712}) {
+            byte[] request = createPostRequest(messageID, "" + messageID);
+            client.send(new DatagramPacket(request, request.length, serverSocket));
+
+            DatagramPacket packet = new DatagramPacket(new byte[1024], 1024);
+            client.receive(packet);
+            responses.add(Arrays.copyOf(packet.getData(), packet.getLength()));
+        }
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        server.shutdown().get();
+        client.close();
+    }
+
+
+    private static byte[] createPostRequest(int messageID, String payload) throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.write((1 << 6) | (MessageType.CON << 4));
+        stream.write(MessageCode.POST);
+        stream.write(messageID >>> 8);
+        stream.write(messageID & 0xFF);
+        // URI path option
+        byte[] path = PATH_TO_SERVICE.substring(1).getBytes(CoapMessage.CHARSET);
+        stream.write((Option.URI_PATH << 4) | path.length);
+        stream.write(path);
+        // payload
+        stream.write(0xFF);
+        stream.write(payload.getBytes(CoapMessage.CHARSET));
+        return stream.toByteArray();
+    }
+
+
+    @Test
+    public void testDuplicateIsAnsweredWithTheSameResponse() {
+        assertEquals("Wrong number of responses.", 3, responses.size());
+        assertEquals("Response is no ACK.", MessageType.ACK, (responses.get(0)[0] >>> 4) & 0x03);
+        assertArrayEquals("Replayed response differs.", responses.get(0), responses.get(1));
+    }
+
+    @Test
+    public void testWebresourceIsNotInvokedForDuplicate() {
+        assertEquals("Wrong number of invocations.", 2, webresource.invocations.get());
+        assertEquals("Wrong number of replays.", 1, server.getChannel().getPipeline()
+                .get(ServerResponseReplayHandler.class).getReplayCount());
+    }
+
+
+    private static class CountingWebresource extends NotObservableTestWebresourceForPost {
+
+        private final AtomicInteger invocations = new AtomicInteger();
+
+        private CountingWebresource(String servicePath, ScheduledExecutorService executor) {
+            super(servicePath, "initial", 0, executor);
+        }
+
+        @Override
+        public void processCoapRequest(SettableFuture<CoapResponse> responseFuture, CoapRequest coapRequest,
+                                       InetSocketAddress remoteSocket) throws Exception {
+            this.invocations.incrementAndGet();
+            super.processCoapRequest(responseFuture, coapRequest, remoteSocket);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.caching;
+
+import com.google.common.util.concurrent.SettableFuture;
+import de.uzl.itm.ncoap.application.client.CoapClient;
+import de.uzl.itm.ncoap.application.server.CoapServer;
+import de.uzl.itm.ncoap.communication.AbstractCoapCommunicationTest;
+import de.uzl.itm.ncoap.endpoints.server.NotObservableTestWebresource;
+import de.uzl.itm.ncoap.message.*;
+import de.uzl.itm.ncoap.message.options.ContentFormat;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests to verify that the {@link ClientCachingHandler} serves fresh responses from the cache and revalidates
+ * stale responses using the ETag.
+ */
+public class ClientCachingHandlerTest extends AbstractCoapCommunicationTest {
+
+    private static final String PATH_TO_SERVICE = "/service";
+    private static final String PAYLOAD = "some arbitrary payload";
+    private static final byte[] ETAG = new byte[]{1, 2, 3, 4};
+
+    private static CoapServer server;
+    private static CoapClient client;
+    private static AtomicInteger serverRequests;
+    private static AtomicInteger serverValidations;
+    private static List<CoapResponse> responses;
+
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger(ClientCachingHandler.class.getName()).setLevel(Level.DEBUG);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        server = new CoapServer(0);
+        serverRequests = new AtomicInteger();
+        serverValidations = new AtomicInteger();
+        server.registerWebresource(new CacheableWebresource(server.getExecutor()));
+
+        client = new CoapClient("Caching Client", new InetSocketAddress(0), 1024 * 1024);
+        responses = new ArrayList<>();
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+        InetSocketAddress serverSocket = new InetSocketAddress("localhost", server.getPort());
+        URI targetUri = new URI("coap://localhost:" + server.getPort() + PATH_TO_SERVICE);
+
+        // (1) miss, (2) fresh hit, (3) stale (revalidated with 2.03), (4) fresh hit again
+        for (int i = 0; i < 4; i++) {
+            if (i == 2) {
+                Thread.sleep(1500);
+            }
+            CoapRequest coapRequest = new CoapRequest(MessageType.CON, MessageCode.GET, targetUri);
+            responses.add(client.sendCoapRequest(coapRequest, serverSocket, 5, TimeUnit.SECONDS).get());
+        }
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        client.shutdown();
+        server.shutdown();
+    }
+
+    @Test
+    public void testAllResponsesContainTheContent() {
+        for (CoapResponse coapResponse : responses) {
+            assertEquals(MessageCode.CONTENT_205, coapResponse.getMessageCode());
+            assertEquals(PAYLOAD, coapResponse.getContent().toString(CoapMessage.CHARSET));
+            assertEquals(Arrays.toString(ETAG), Arrays.toString(coapResponse.getEtag()));
+        }
+    }
+
+    @Test
+    public void testOnlyMissesWereSentToTheServer() {
+        assertEquals("Wrong number of requests at server.", 2, serverRequests.get());
+        assertEquals("Wrong number of validations at server.", 1, serverValidations.get());
+    }
+
+    @Test
+    public void testCacheStatistics() {
+        ClientCachingHandler cachingHandler = client.getCachingHandler();
+        assertEquals("Wrong number of hits.", 2, cachingHandler.getHitCount());
+        assertEquals("Wrong number of misses.", 2, cachingHandler.getMissCount());
+        assertEquals("Wrong number of revalidations.", 1, cachingHandler.getRevalidationCount());
+        assertEquals("Wrong cache size.", 1, cachingHandler.getSize());
+    }
+
+
+    private static class CacheableWebresource extends NotObservableTestWebresource {
+
+        private CacheableWebresource(ScheduledExecutorService executor) {
+            super(PATH_TO_SERVICE, PAYLOAD, 0, 0, executor);
+        }
+
+        @Override
+        public void processCoapRequest(SettableFuture<CoapResponse> responseFuture, CoapRequest coapRequest,
+                                       InetSocketAddress remoteAddress) throws Exception {
+            serverRequests.incrementAndGet();
+
+            CoapResponse coapResponse;
+            if (coapRequest.getEtags().size() == 1 && Arrays.equals(ETAG, coapRequest.getEtags().iterator().next())) {
+                serverValidations.incrementAndGet();
+                coapResponse = new CoapResponse(coapRequest.getMessageType(), MessageCode.VALID_203);
+            } else {
+                coapResponse = new CoapResponse(coapRequest.getMessageType(), MessageCode.CONTENT_205);
+                coapResponse.setContent(PAYLOAD.getBytes(CoapMessage.CHARSET), ContentFormat.TEXT_PLAIN_UTF8);
+            }
+            coapResponse.setEtag(ETAG);
+            coapResponse.setMaxAge(1);
+            responseFuture.set(coapResponse);
+        }
+    }
+}
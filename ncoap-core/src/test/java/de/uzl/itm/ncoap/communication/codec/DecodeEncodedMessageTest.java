@@ -84,7 +84,7 @@ public class DecodeEncodedMessageTest extends AbstractCoapTest {
         coapMessage.setMessageID(1234);
         coapMessage.setToken(new Token(new byte[]{1,2,3,4}));
 
-        if (coapMessage.getMessageCode() == MessageCode.POST) {
+        if (coapMessage.getMessageCode() == MessageCode.POST && coapMessage.getContentLength() == 0) {
             String payload = "Some arbitrary payload";
             coapMessage.setContent(payload.getBytes(CoapMessage.CHARSET), ContentFormat.TEXT_PLAIN_UTF8);
         }
@@ -109,5 +109,16 @@ public class DecodeEncodedMessageTest extends AbstractCoapTest {
         assertEquals(coapMessage, decodedMessage);
     }
 
+    @Test
+    public void testEncodedMessageIsExactlySized() throws Exception {
+        assertEquals(encodedMessage.capacity(), encodedMessage.readableBytes());
+    }
+
+    @Test
+    public void testZeroCopyDecoding() throws Exception {
+        CoapMessage decodedMessage = (CoapMessage) new CoapTestDecoder(true).decode(encodedMessage);
+        assertEquals(coapMessage, decodedMessage);
+    }
+
 
 }
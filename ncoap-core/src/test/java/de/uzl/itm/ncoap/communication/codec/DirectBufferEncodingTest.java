@@ -0,0 +1,89 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.codec;
+
+import de.uzl.itm.ncoap.AbstractCoapTest;
+import de.uzl.itm.ncoap.communication.codec.tools.CoapTestEncoder;
+import de.uzl.itm.ncoap.communication.dispatching.Token;
+import de.uzl.itm.ncoap.message.CoapResponse;
+import de.uzl.itm.ncoap.message.MessageCode;
+import de.uzl.itm.ncoap.message.MessageType;
+import de.uzl.itm.ncoap.message.options.ContentFormat;
+import de.uzl.itm.ncoap.message.options.Option;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.DirectChannelBufferFactory;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests to verify that {@link CoapMessageEncoder}s using a {@link DirectChannelBufferFactory} encode messages into
+ * direct buffers exactly like into heap buffers.
+ */
+public class DirectBufferEncodingTest extends AbstractCoapTest {
+
+    private static final byte[] PAYLOAD = "Some arbitrary payload".getBytes(CoapResponse.CHARSET);
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uzl.itm.ncoap.communication.codec").setLevel(Level.DEBUG);
+        Logger.getRootLogger().setLevel(Level.ERROR);
+    }
+
+    private static CoapResponse createResponse(long observe) {
+        CoapResponse coapResponse = new CoapResponse(MessageType.CON, MessageCode.CONTENT_205);
+        coapResponse.setMessageID(4711);
+        coapResponse.setToken(new Token(new byte[]{1, 2, 3}));
+        coapResponse.setEtag(new byte[]{1, 2, 3, 4});
+        coapResponse.setContent(PAYLOAD, ContentFormat.TEXT_PLAIN_UTF8);
+        coapResponse.setObserve(observe);
+        return coapResponse;
+    }
+
+    @Test
+    public void testMessagesAreEncodedIntoDirectBuffers() throws Exception {
+        CoapTestEncoder directEncoder = new CoapTestEncoder(new DirectChannelBufferFactory(1024));
+        CoapTestEncoder heapEncoder = new CoapTestEncoder();
+
+        ChannelBuffer encoded = directEncoder.encode(createResponse(17));
+        assertTrue("Message was not encoded into a direct buffer.", encoded.isDirect());
+        assertEquals(heapEncoder.encode(createResponse(17)), encoded);
+    }
+
+    @Test
+    public void testSharedEncodingIsCopiedIntoDirectBuffers() throws Exception {
+        CoapTestEncoder directEncoder = new CoapTestEncoder(new DirectChannelBufferFactory(1024));
+        CoapTestEncoder heapEncoder = new CoapTestEncoder();
+
+        CoapResponse notification = createResponse(18);
+        notification.setSharedEncoding(new SharedEncoding(createResponse(17), Option.OBSERVE));
+
+        ChannelBuffer encoded = directEncoder.encode(notification);
+        assertTrue("Message was not encoded into a direct buffer.", encoded.isDirect());
+        assertEquals(heapEncoder.encode(createResponse(18)), encoded);
+    }
+}
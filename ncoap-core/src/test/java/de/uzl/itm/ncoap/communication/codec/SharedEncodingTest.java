@@ -0,0 +1,125 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.codec;
+
+import de.uzl.itm.ncoap.AbstractCoapTest;
+import de.uzl.itm.ncoap.communication.codec.tools.CoapTestEncoder;
+import de.uzl.itm.ncoap.communication.dispatching.Token;
+import de.uzl.itm.ncoap.message.CoapResponse;
+import de.uzl.itm.ncoap.message.MessageCode;
+import de.uzl.itm.ncoap.message.MessageType;
+import de.uzl.itm.ncoap.message.OptionTable;
+import de.uzl.itm.ncoap.message.options.ContentFormat;
+import de.uzl.itm.ncoap.message.options.Option;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests to verify that {@link CoapResponse}s referring to a {@link SharedEncoding} are encoded exactly like
+ * {@link CoapResponse}s without.
+ */
+public class SharedEncodingTest extends AbstractCoapTest {
+
+    private static final byte[] PAYLOAD = "Some arbitrary payload of an observable webresource".getBytes(CoapResponse.CHARSET);
+
+    private CoapResponse template;
+    private SharedEncoding sharedEncoding;
+    private CoapTestEncoder encoder;
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uzl.itm.ncoap.communication.codec").setLevel(Level.DEBUG);
+        Logger.getRootLogger().setLevel(Level.ERROR);
+    }
+
+    @Before
+    public void createTemplate() {
+        this.template = new CoapResponse(MessageType.NON, MessageCode.CONTENT_205);
+        this.template.setEtag(new byte[]{1, 2, 3, 4});
+        this.template.setContent(PAYLOAD, ContentFormat.TEXT_PLAIN_UTF8);
+        this.template.setMaxAge(120);
+        this.sharedEncoding = new SharedEncoding(this.template, Option.OBSERVE);
+        this.encoder = new CoapTestEncoder();
+    }
+
+    private CoapResponse createNotification(int messageType, int messageID, Token token, long observe) {
+        CoapResponse notification = new CoapResponse(messageType, MessageCode.CONTENT_205);
+        notification.setMessageID(messageID);
+        notification.setToken(token);
+        OptionTable options = this.template.getOptionTable();
+        for(int i = 0; i < options.size(); i++) {
+            notification.addOption(options.getNumber(i), options.getValue(i));
+        }
+        notification.setContent(this.template.getContent());
+        notification.setObserve(observe);
+        notification.setSharedEncoding(this.sharedEncoding);
+        return notification;
+    }
+
+    private static CoapResponse createExpected(int messageType, int messageID, Token token, long observe) {
+        CoapResponse expected = new CoapResponse(messageType, MessageCode.CONTENT_205);
+        expected.setMessageID(messageID);
+        expected.setToken(token);
+        expected.setEtag(new byte[]{1, 2, 3, 4});
+        expected.setContent(PAYLOAD, ContentFormat.TEXT_PLAIN_UTF8);
+        expected.setMaxAge(120);
+        expected.setObserve(observe);
+        return expected;
+    }
+
+    @Test
+    public void testNotificationsAreEncodedLikeWithoutSharedEncoding() throws Exception {
+        Token token1 = new Token(new byte[]{1, 2, 3});
+        Token token2 = new Token(new byte[]{4, 5, 6, 7, 8, 9, 10, 11});
+
+        ChannelBuffer encoded1 = this.encoder.encode(createNotification(MessageType.CON, 4711, token1, 17));
+        ChannelBuffer encoded2 = this.encoder.encode(createNotification(MessageType.NON, 4712, token2, 100000));
+
+        assertNotNull("Shared part was not encoded.", this.sharedEncoding.getEncoded());
+        assertEquals(this.encoder.encode(createExpected(MessageType.CON, 4711, token1, 17)), encoded1);
+        assertEquals(this.encoder.encode(createExpected(MessageType.NON, 4712, token2, 100000)), encoded2);
+    }
+
+    @Test
+    public void testModifiedNotificationIsEncodedCompletely() throws Exception {
+        Token token = new Token(new byte[]{1, 2, 3});
+        CoapResponse notification = createNotification(MessageType.CON, 4711, token, 17);
+        notification.setContent(ChannelBuffers.wrappedBuffer(PAYLOAD, 0, 16));
+        notification.setBlock2(0, true, 0);
+
+        CoapResponse expected = createExpected(MessageType.CON, 4711, token, 17);
+        expected.setContent(ChannelBuffers.wrappedBuffer(PAYLOAD, 0, 16));
+        expected.setBlock2(0, true, 0);
+
+        assertEquals(this.encoder.encode(expected), this.encoder.encode(notification));
+        assertNull("Shared part was encoded for modified notification.", this.sharedEncoding.getEncoded());
+    }
+}
@@ -36,6 +36,14 @@ import org.jboss.netty.buffer.ChannelBuffer;
 */
 public class CoapTestDecoder extends CoapMessageDecoder{
 
+    public CoapTestDecoder() {
+        super();
+    }
+
+    public CoapTestDecoder(boolean zeroCopy) {
+        super(zeroCopy);
+    }
+
     public Object decode(ChannelBuffer buffer) throws Exception {
         return super.decode(null, buffer);
     }
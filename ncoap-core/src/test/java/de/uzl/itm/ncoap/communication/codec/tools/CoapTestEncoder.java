@@ -53,6 +53,7 @@ import de.uzl.itm.ncoap.communication.codec.OptionCodecException;
 import de.uzl.itm.ncoap.message.CoapMessage;
 import de.uzl.itm.ncoap.message.options.OptionValue;
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferFactory;
 
 /**
 * Created with IntelliJ IDEA.
@@ -63,6 +64,14 @@ import org.jboss.netty.buffer.ChannelBuffer;
 */
 public class CoapTestEncoder extends CoapMessageEncoder{
 
+    public CoapTestEncoder() {
+        super();
+    }
+
+    public CoapTestEncoder(ChannelBufferFactory bufferFactory) {
+        super(bufferFactory);
+    }
+
     public ChannelBuffer encode(CoapMessage coapMessage) throws OptionCodecException {
         return super.encode(coapMessage);
     }
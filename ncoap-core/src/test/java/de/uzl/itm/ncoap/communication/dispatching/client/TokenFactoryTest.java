@@ -0,0 +1,106 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.dispatching.client;
+
+import de.uzl.itm.ncoap.AbstractCoapTest;
+import de.uzl.itm.ncoap.communication.dispatching.Token;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Tests for the lock-free {@link Token} allocation of the {@link TokenFactory}
+ */
+public class TokenFactoryTest extends AbstractCoapTest {
+
+    @Override
+    public void setupLogging() throws Exception {
+
+    }
+
+
+    @Test
+    public void testTokensAreUniqueForConcurrentAllocations() throws Exception {
+        final TokenFactory tokenFactory = new TokenFactory();
+        final Set<Token> tokens = Collections.newSetFromMap(new ConcurrentHashMap<Token, Boolean>());
+
+        final int threads = 4;
+        final int tokensPerThread = 50000;
+        final CountDownLatch latch = new CountDownLatch(threads);
+
+        for(int i = 0; i < threads; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for(int j = 0; j < tokensPerThread; j++) {
+                        // few remote sockets, i.e. threads share counters
+                        InetSocketAddress remoteSocket = new InetSocketAddress("127.0.0.1", 5683 + (j % 3));
+                        tokens.add(tokenFactory.getNextToken(remoteSocket));
+                    }
+                    latch.countDown();
+                }
+            }).start();
+        }
+
+        latch.await();
+        Assert.assertEquals(threads * tokensPerThread, tokens.size());
+    }
+
+
+    @Test
+    public void testTokensOfDifferentFactoriesDiffer() {
+        Set<Token> tokens = new HashSet<>();
+        InetSocketAddress remoteSocket = new InetSocketAddress("127.0.0.1", 5683);
+        for(int i = 0; i < 1000; i++) {
+            tokens.add(new TokenFactory(1).getNextToken(remoteSocket));
+            tokens.add(new TokenFactory(2).getNextToken(remoteSocket));
+        }
+        Assert.assertEquals(2, tokens.size());
+    }
+
+
+    @Test
+    public void testTokensFromLongAndBytesAreEqual() {
+        Token fromLong = new Token(0x0102L, 2);
+        Token fromBytes = new Token(new byte[]{0x01, 0x02});
+
+        Assert.assertEquals(fromBytes, fromLong);
+        Assert.assertEquals(fromBytes.hashCode(), fromLong.hashCode());
+        Assert.assertArrayEquals(fromBytes.getBytes(), fromLong.getBytes());
+
+        // a leading zero byte makes a different token
+        Token longer = new Token(new byte[]{0x00, 0x01, 0x02});
+        Assert.assertNotEquals(fromBytes, longer);
+        Assert.assertTrue(fromBytes.compareTo(longer) < 0);
+
+        Assert.assertTrue(new Token(new byte[]{(byte) 0xFF}).compareTo(new Token(new byte[]{0x01})) > 0);
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.dispatching.server;
+
+import de.uzl.itm.ncoap.AbstractCoapTest;
+import de.uzl.itm.ncoap.application.server.resource.Webresource;
+import de.uzl.itm.ncoap.endpoints.server.NotObservableTestWebresource;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests for the matching of plain paths, template segments and wildcards by the {@link UriPathRouter}
+ */
+public class UriPathRouterTest extends AbstractCoapTest {
+
+    private UriPathRouter router;
+    private Webresource root;
+    private Webresource plain;
+    private Webresource template;
+    private Webresource wildcard;
+
+    @Override
+    public void setupLogging() throws Exception {
+
+    }
+
+    @Before
+    public void createRouter() {
+        this.router = new UriPathRouter();
+        this.root = createWebresource("/");
+        this.plain = createWebresource("/devices/gateway/temp");
+        this.template = createWebresource("/devices/{id}/temp");
+        this.wildcard = createWebresource("/devices/*");
+
+        for (Webresource webresource : Arrays.asList(this.root, this.plain, this.template, this.wildcard)) {
+            Assert.assertTrue(this.router.add(webresource.getUriPath(), webresource));
+        }
+    }
+
+
+    @Test
+    public void testPlainSegmentsTakePrecedence() {
+        UriPathRouter.Match match = this.router.match(segments("devices", "gateway", "temp"));
+        Assert.assertSame(this.plain, match.getWebresource());
+        Assert.assertTrue(match.getVariables().isEmpty());
+
+        match = this.router.match(Collections.<String>emptyList());
+        Assert.assertSame(this.root, match.getWebresource());
+    }
+
+    @Test
+    public void testTemplateSegmentsAreExtracted() {
+        UriPathRouter.Match match = this.router.match(segments("devices", "4711", "temp"));
+        Assert.assertSame(this.template, match.getWebresource());
+        Assert.assertEquals(Collections.singletonMap("id", "4711"), match.getVariables());
+    }
+
+    @Test
+    public void testWildcardMatchesRemainingSegments() {
+        UriPathRouter.Match match = this.router.match(segments("devices", "4711", "humidity", "now"));
+        Assert.assertSame(this.wildcard, match.getWebresource());
+        Assert.assertEquals("4711/humidity/now", match.getVariables().get(UriPathRouter.WILDCARD));
+
+        // backtracking from the template segment to the wildcard
+        match = this.router.match(segments("devices", "gateway", "humidity"));
+        Assert.assertSame(this.wildcard, match.getWebresource());
+        Assert.assertEquals("gateway/humidity", match.getVariables().get(UriPathRouter.WILDCARD));
+
+        // no remaining segments
+        match = this.router.match(segments("devices"));
+        Assert.assertSame(this.wildcard, match.getWebresource());
+        Assert.assertEquals("", match.getVariables().get(UriPathRouter.WILDCARD));
+    }
+
+    @Test
+    public void testUnknownPathDoesNotMatch() {
+        Assert.assertNull(this.router.match(segments("sensors", "4711")));
+        Assert.assertNull(this.router.match(segments("sensors")));
+    }
+
+    @Test
+    public void testConflictingRegistrationsAreRejected() {
+        Assert.assertFalse(this.router.add("/devices/{name}/temp", createWebresource("/devices/{name}/temp")));
+        Assert.assertFalse(this.router.add("/devices/gateway/temp", createWebresource("/devices/gateway/temp")));
+    }
+
+    @Test
+    public void testRemovedWebresourceDoesNotMatch() {
+        Assert.assertSame(this.template, this.router.remove("/devices/{id}/temp"));
+        UriPathRouter.Match match = this.router.match(segments("devices", "4711", "temp"));
+        Assert.assertSame(this.wildcard, match.getWebresource());
+
+        Assert.assertSame(this.wildcard, this.router.remove("/devices/*"));
+        Assert.assertNull(this.router.match(segments("devices", "4711", "temp")));
+        Assert.assertEquals(2, this.router.getPaths().size());
+    }
+
+
+    private static List<String> segments(String... segments) {
+        return Arrays.asList(segments);
+    }
+
+    private static Webresource createWebresource(String path) {
+        return new NotObservableTestWebresource(path, "status", 0, 0, null);
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.observe;
+
+import de.uzl.itm.ncoap.application.client.CoapClient;
+import de.uzl.itm.ncoap.application.server.CoapServer;
+import de.uzl.itm.ncoap.communication.AbstractCoapCommunicationTest;
+import de.uzl.itm.ncoap.communication.observing.NotificationConditions;
+import de.uzl.itm.ncoap.endpoints.client.TestCallback;
+import de.uzl.itm.ncoap.endpoints.server.ObservableTestWebresource;
+import de.uzl.itm.ncoap.message.CoapRequest;
+import de.uzl.itm.ncoap.message.CoapResponse;
+import de.uzl.itm.ncoap.message.MessageCode;
+import de.uzl.itm.ncoap.message.MessageType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests to verify that the server considers the {@link NotificationConditions} given by observers, i.e. the URI
+ * query parameters <code>pmin</code>, <code>pmax</code> and <code>gt</code>.
+ */
+public class ServerThrottlesConditionalNotificationsTest extends AbstractCoapCommunicationTest {
+
+    private static final String PATH_TO_UPDATING_SERVICE = "/updating";
+    private static final String PATH_TO_STATIC_SERVICE = "/static";
+
+    private static final long UPDATE_INTERVAL = 100;
+
+    private static CoapServer server;
+    private static CoapClient[] clients;
+
+    private static TestCallback unconditionalCallback;
+    private static TestCallback minPeriodCallback;
+    private static TestCallback thresholdCallback;
+    private static TestCallback maxPeriodCallback;
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uzl.itm.ncoap.communication.observing.ServerObservationHandler")
+                .setLevel(Level.DEBUG);
+        Logger.getRootLogger().setLevel(Level.ERROR);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        server = new CoapServer();
+        server.registerWebresource(new ObservableTestWebresource(PATH_TO_UPDATING_SERVICE, 1, 0, UPDATE_INTERVAL,
+                server.getExecutor()));
+        server.registerWebresource(new ObservableTestWebresource(PATH_TO_STATIC_SERVICE, 1, 0,
+                server.getExecutor()));
+
+        // there is at most one observation per webresource and remote socket
+        clients = new CoapClient[4];
+        for (int i = 0; i < clients.length; i++) {
+            clients[i] = new CoapClient();
+        }
+        unconditionalCallback = new ObservationCallback();
+        minPeriodCallback = new ObservationCallback();
+        thresholdCallback = new ObservationCallback();
+        maxPeriodCallback = new ObservationCallback();
+    }
+
+    private static void startObservation(CoapClient client, String pathAndQuery, TestCallback callback)
+            throws Exception {
+        URI targetUri = new URI("coap://localhost:" + server.getPort() + pathAndQuery);
+        CoapRequest coapRequest = new CoapRequest(MessageType.CON, MessageCode.GET, targetUri);
+        coapRequest.setObserve(0);
+        client.sendCoapRequest(coapRequest, new InetSocketAddress("localhost", server.getPort()), callback);
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+        startObservation(clients[0], PATH_TO_UPDATING_SERVICE, unconditionalCallback);
+        startObservation(clients[1], PATH_TO_UPDATING_SERVICE + "?pmin=1", minPeriodCallback);
+        // the status cycles through 1, 2, 3, 4, 5, i.e. it crosses 4.5 twice per cycle
+        startObservation(clients[2], PATH_TO_UPDATING_SERVICE + "?gt=4.5", thresholdCallback);
+        startObservation(clients[3], PATH_TO_STATIC_SERVICE + "?pmax=1", maxPeriodCallback);
+
+        Thread.sleep(3500);
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        for (CoapClient client : clients) {
+            client.shutdown();
+        }
+        server.shutdown().get();
+    }
+
+    @Test
+    public void testUnconditionalObserverReceivesAllUpdates() {
+        int notifications = unconditionalCallback.getCoapResponses().size();
+        assertTrue("Too few notifications: " + notifications, notifications >= 20);
+    }
+
+    @Test
+    public void testMinPeriodCoalescesUpdates() {
+        int notifications = minPeriodCallback.getCoapResponses().size();
+        assertTrue("Unexpected number of notifications: " + notifications, notifications >= 3 && notifications <= 5);
+    }
+
+    @Test
+    public void testThresholdSuppressesInsignificantUpdates() {
+        int notifications = thresholdCallback.getCoapResponses().size();
+        int unconditional = unconditionalCallback.getCoapResponses().size();
+        assertTrue("Too many notifications: " + notifications, notifications <= unconditional / 2 + 2);
+        assertTrue("Too few notifications: " + notifications, notifications >= 3);
+        for (CoapResponse coapResponse : thresholdCallback.getCoapResponses().values()) {
+            String content = coapResponse.getContent().toString(CoapResponse.CHARSET);
+            assertTrue("Unexpected status: " + content, content.equals("Status #1") || content.equals("Status #5")
+                    || coapResponse.getMessageType() == MessageType.ACK);
+        }
+    }
+
+    @Test
+    public void testMaxPeriodCausesNotificationsWithoutUpdates() {
+        int notifications = maxPeriodCallback.getCoapResponses().size();
+        assertTrue("Unexpected number of notifications: " + notifications, notifications >= 3 && notifications <= 4);
+    }
+
+
+    private static class ObservationCallback extends TestCallback {
+
+        @Override
+        public boolean continueObservation() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.observing;
+
+import de.uzl.itm.ncoap.communication.blockwise.BlockSize;
+import de.uzl.itm.ncoap.communication.dispatching.Token;
+import de.uzl.itm.ncoap.communication.observing.ObservationRegistry.Observation;
+import de.uzl.itm.ncoap.endpoints.server.ObservableTestWebresource;
+import de.uzl.itm.ncoap.message.options.ContentFormat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the {@link ObservationRegistry} of the {@link ServerObservationHandler}
+ */
+public class ObservationRegistryTest {
+
+    private static final int OBSERVATIONS = 100000;
+
+    private ScheduledExecutorService executor;
+    private ObservableTestWebresource webresource1;
+    private ObservableTestWebresource webresource2;
+    private ObservationRegistry registry;
+
+    @Before
+    public void createRegistry() {
+        this.executor = Executors.newSingleThreadScheduledExecutor();
+        this.webresource1 = new ObservableTestWebresource("/observable1", 1, 0, this.executor);
+        this.webresource2 = new ObservableTestWebresource("/observable2", 1, 0, this.executor);
+        this.registry = new ObservationRegistry();
+    }
+
+    @After
+    public void shutdownExecutor() {
+        this.executor.shutdownNow();
+    }
+
+    private static InetSocketAddress getRemoteSocket(int number) {
+        return new InetSocketAddress("127.0.0.1", 10000 + number);
+    }
+
+    private static Token getToken(int number) {
+        return new Token(new byte[]{(byte) (number >>> 16), (byte) (number >>> 8), (byte) number});
+    }
+
+    @Test
+    public void testAddAndRemove() {
+        InetSocketAddress remoteSocket = getRemoteSocket(1);
+        Token token = getToken(1);
+
+        assertNull(registry.add(webresource1, remoteSocket, token, ContentFormat.TEXT_PLAIN_UTF8, BlockSize.UNBOUND));
+        assertEquals(1, registry.size());
+        assertEquals(1, registry.get(webresource1).size());
+        assertEquals(0, registry.get(webresource2).size());
+        assertNotNull(registry.get(remoteSocket, token));
+
+        Observation observation = registry.remove(remoteSocket, token);
+        assertNotNull(observation);
+        assertEquals(webresource1, observation.getWebresource());
+        assertNull("Observation was removed twice.", registry.remove(remoteSocket, token));
+        assertEquals(0, registry.size());
+        assertEquals(0, registry.get(webresource1).size());
+    }
+
+    @Test
+    public void testObservationWithNewTokenReplacesPreviousOne() {
+        InetSocketAddress remoteSocket = getRemoteSocket(1);
+        registry.add(webresource1, remoteSocket, getToken(1), ContentFormat.TEXT_PLAIN_UTF8, BlockSize.UNBOUND);
+
+        Observation previous = registry.add(webresource1, remoteSocket, getToken(2), ContentFormat.TEXT_PLAIN_UTF8,
+                BlockSize.UNBOUND);
+
+        assertNotNull("Previous observation was not replaced.", previous);
+        assertEquals(getToken(1), previous.getToken());
+        assertEquals(1, registry.size());
+        assertNull(registry.get(remoteSocket, getToken(1)));
+        assertEquals(getToken(2), registry.get(webresource1).iterator().next().getToken());
+    }
+
+    @Test
+    public void testRemoveAllObservationsOfWebresource() {
+        for (int i = 0; i < 10; i++) {
+            ObservableTestWebresource webresource = i % 2 == 0 ? webresource1 : webresource2;
+            registry.add(webresource, getRemoteSocket(i), getToken(i), ContentFormat.TEXT_PLAIN_UTF8,
+                    BlockSize.UNBOUND);
+        }
+
+        assertEquals(5, registry.removeAll(webresource1).size());
+        assertEquals(5, registry.size());
+        assertEquals(0, registry.get(webresource1).size());
+        assertEquals(5, registry.get(webresource2).size());
+    }
+
+    @Test
+    public void testMailboxKeepsLatestNotificationOnly() {
+        registry.add(webresource1, getRemoteSocket(1), getToken(1), ContentFormat.TEXT_PLAIN_UTF8,
+                BlockSize.UNBOUND);
+        Observation observation = registry.get(getRemoteSocket(1), getToken(1));
+
+        Runnable[] notifications = new Runnable[4];
+        for (int i = 0; i < notifications.length; i++) {
+            notifications[i] = new Runnable() {
+                @Override
+                public void run() {}
+            };
+        }
+
+        assertEquals(Observation.SEND, observation.offerNotification(notifications[0]));
+        assertEquals(Observation.QUEUED, observation.offerNotification(notifications[1]));
+        assertEquals(Observation.SUPERSEDED, observation.offerNotification(notifications[2]));
+        assertSame("Latest notification was not kept.", notifications[2], observation.finishTransfer());
+
+        assertNull(observation.finishTransfer());
+        assertEquals(Observation.SEND, observation.offerNotification(notifications[3]));
+        assertEquals(Observation.QUEUED, observation.offerNotification(notifications[0]));
+
+        registry.remove(getRemoteSocket(1), getToken(1));
+        assertEquals(1, registry.getDroppedNotificationCount());
+    }
+
+    @Test
+    public void testManyObservations() {
+        for (int i = 0; i < OBSERVATIONS; i++) {
+            registry.add(webresource1, getRemoteSocket(i % 50000), getToken(i), ContentFormat.TEXT_PLAIN_UTF8,
+                    BlockSize.UNBOUND);
+        }
+        assertEquals(50000, registry.size());
+        assertEquals(50000, registry.get(webresource1).size());
+
+        for (int i = 50000; i < OBSERVATIONS; i++) {
+            assertNotNull(registry.remove(getRemoteSocket(i % 50000), getToken(i)));
+        }
+        assertEquals(0, registry.size());
+        assertEquals(0, registry.get(webresource1).size());
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.reliability.outbound;
+
+import com.google.common.base.Ticker;
+import de.uzl.itm.ncoap.AbstractCoapTest;
+import de.uzl.itm.ncoap.communication.dispatching.Token;
+import de.uzl.itm.ncoap.message.CoapMessage;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for the allocation and the (time bucketed) release of message IDs by the {@link MessageIDFactory}
+ */
+public class MessageIDFactoryTest extends AbstractCoapTest {
+
+    private static final InetSocketAddress REMOTE_SOCKET_1 = new InetSocketAddress("127.0.0.1", 5683);
+    private static final InetSocketAddress REMOTE_SOCKET_2 = new InetSocketAddress("127.0.0.2", 5683);
+
+    private ScheduledExecutorService executor;
+    private HashedWheelTimer timer;
+    private ManualTicker ticker;
+    private MessageIDFactory factory;
+    private List<MessageIDFactory.MessageIDRelease> releases;
+
+    @Override
+    public void setupLogging() throws Exception {
+
+    }
+
+    @Before
+    public void createFactory() {
+        this.executor = Executors.newSingleThreadScheduledExecutor();
+        this.timer = new HashedWheelTimer();
+        this.ticker = new ManualTicker();
+        this.factory = new MessageIDFactory(this.executor, this.timer, this.ticker);
+        this.releases = new CopyOnWriteArrayList<>();
+        this.factory.addObserver(new Observer() {
+            @Override
+            public void update(Observable o, Object arg) {
+                releases.add((MessageIDFactory.MessageIDRelease) arg);
+            }
+        });
+    }
+
+    @After
+    public void shutdownFactory() {
+        this.factory.shutdown();
+        this.timer.stop();
+        this.executor.shutdownNow();
+    }
+
+
+    @Test
+    public void testAllMessageIDsAreAllocatedOnlyOnce() {
+        Token token = new Token(new byte[]{1});
+        Set<Integer> messageIDs = new HashSet<>();
+        for (int i = 0; i < MessageIDFactory.MODULUS; i++) {
+            int messageID = this.factory.getNextMessageID(REMOTE_SOCKET_1, token);
+            Assert.assertTrue("Invalid message ID: " + messageID, messageID >= 0 && messageID < MessageIDFactory.MODULUS);
+            Assert.assertTrue("Duplicate message ID: " + messageID, messageIDs.add(messageID));
+        }
+
+        Assert.assertEquals(CoapMessage.UNDEFINED_MESSAGE_ID, this.factory.getNextMessageID(REMOTE_SOCKET_1, token));
+        Assert.assertNotEquals(CoapMessage.UNDEFINED_MESSAGE_ID, this.factory.getNextMessageID(REMOTE_SOCKET_2, token));
+    }
+
+
+    @Test
+    public void testMessageIDsAreReleasedAfterExchangeLifetime() {
+        Token token1 = new Token(new byte[]{1});
+        Token token2 = new Token(new byte[]{2});
+        int messageID1 = this.factory.getNextMessageID(REMOTE_SOCKET_1, token1);
+        this.ticker.advance(2, TimeUnit.SECONDS);
+        int messageID2 = this.factory.getNextMessageID(REMOTE_SOCKET_1, token2);
+
+        this.ticker.advance(MessageIDFactory.EXCHANGE_LIFETIME - 2, TimeUnit.SECONDS);
+        this.factory.releaseExpiredMessageIDs();
+        Assert.assertTrue("Message ID released too early!", this.releases.isEmpty());
+
+        this.ticker.advance(1, TimeUnit.SECONDS);
+        this.factory.releaseExpiredMessageIDs();
+        Assert.assertEquals(1, this.releases.size());
+        Assert.assertEquals(REMOTE_SOCKET_1, this.releases.get(0).getRemoteSocket());
+        Assert.assertEquals(messageID1, this.releases.get(0).getMessageID());
+        Assert.assertEquals(token1, this.releases.get(0).getToken());
+
+        this.ticker.advance(2, TimeUnit.SECONDS);
+        this.factory.releaseExpiredMessageIDs();
+        Assert.assertEquals(2, this.releases.size());
+        Assert.assertEquals(messageID2, this.releases.get(1).getMessageID());
+        Assert.assertEquals(token2, this.releases.get(1).getToken());
+    }
+
+
+    @Test
+    public void testReleasedMessageIDsAreAvailableAgain() {
+        Token token = new Token(new byte[]{1});
+        for (int i = 0; i < MessageIDFactory.MODULUS; i++) {
+            this.factory.getNextMessageID(REMOTE_SOCKET_1, token);
+        }
+
+        this.ticker.advance(MessageIDFactory.EXCHANGE_LIFETIME + 1, TimeUnit.SECONDS);
+        this.factory.releaseExpiredMessageIDs();
+        Assert.assertEquals(MessageIDFactory.MODULUS, this.releases.size());
+        Assert.assertNotEquals(CoapMessage.UNDEFINED_MESSAGE_ID, this.factory.getNextMessageID(REMOTE_SOCKET_1, token));
+    }
+
+
+    private static class ManualTicker extends Ticker {
+
+        private volatile long nanos = 0;
+
+        @Override
+        public long read() {
+            return this.nanos;
+        }
+
+        private void advance(long duration, TimeUnit unit) {
+            this.nanos += unit.toNanos(duration);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.communication.reliability.outbound;
+
+import de.uzl.itm.ncoap.AbstractCoapTest;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+
+import static de.uzl.itm.ncoap.communication.reliability.outbound.AbstractOutboundReliabilityHandler.*;
+
+/**
+ * Tests for the per-endpoint estimation of retransmission timeouts by the {@link RtoEstimator}
+ */
+public class RtoEstimatorTest extends AbstractCoapTest {
+
+    private static final InetSocketAddress REMOTE_SOCKET_1 = new InetSocketAddress("127.0.0.1", 5683);
+    private static final InetSocketAddress REMOTE_SOCKET_2 = new InetSocketAddress("127.0.0.2", 5683);
+
+    private RtoEstimator estimator;
+
+    @Override
+    public void setupLogging() throws Exception {
+
+    }
+
+    @Before
+    public void createEstimator() {
+        this.estimator = new RtoEstimator();
+    }
+
+
+    @Test
+    public void testDefaultTimeoutWithoutMeasurements() {
+        Assert.assertEquals(ACK_TIMEOUT_MILLIS, this.estimator.getRetransmissionTimeout(REMOTE_SOCKET_1));
+        Assert.assertNull(this.estimator.getEstimate(REMOTE_SOCKET_1));
+
+        long[] delays = this.estimator.provideTransmissionDelays(REMOTE_SOCKET_1);
+        Assert.assertEquals(MAX_RETRANSMISSIONS + 1, delays.length);
+        Assert.assertEquals(0, delays[0]);
+        Assert.assertTrue("Initial timeout too small: " + delays[1], delays[1] >= ACK_TIMEOUT_MILLIS);
+        Assert.assertTrue("Initial timeout too large: " + delays[1],
+                delays[1] <= ACK_TIMEOUT_MILLIS * ACK_RANDOM_FACTOR);
+        for (int i = 2; i < delays.length; i++) {
+            // binary exponential backoff for the default RTO
+            long previous = delays[i - 1] - delays[i - 2];
+            Assert.assertEquals(2 * previous, delays[i] - delays[i - 1], 2);
+        }
+    }
+
+
+    @Test
+    public void testStrongMeasurementsReduceTimeout() {
+        for (int i = 0; i < 20; i++) {
+            this.estimator.processAcknowledgement(REMOTE_SOCKET_1, 10, 1);
+        }
+
+        Assert.assertEquals(RtoEstimator.MIN_RTO_MILLIS, this.estimator.getRetransmissionTimeout(REMOTE_SOCKET_1));
+        Assert.assertEquals(10, this.estimator.getEstimate(REMOTE_SOCKET_1).getStrongRtt());
+        Assert.assertEquals(0, this.estimator.getEstimate(REMOTE_SOCKET_1).getWeakRtt());
+
+        // other endpoints are not affected
+        Assert.assertEquals(ACK_TIMEOUT_MILLIS, this.estimator.getRetransmissionTimeout(REMOTE_SOCKET_2));
+
+        // small RTOs back off faster (factor 3)
+        long[] delays = this.estimator.provideTransmissionDelays(REMOTE_SOCKET_1);
+        long previous = delays[1] - delays[0];
+        Assert.assertEquals(3 * previous, delays[2] - delays[1], 3);
+    }
+
+
+    @Test
+    public void testWeakMeasurementsIncreaseTimeout() {
+        for (int i = 0; i < 20; i++) {
+            this.estimator.processAcknowledgement(REMOTE_SOCKET_1, 30000, 3);
+        }
+
+        Assert.assertEquals(RtoEstimator.MAX_RTO_MILLIS, this.estimator.getRetransmissionTimeout(REMOTE_SOCKET_1));
+        Assert.assertEquals(0, this.estimator.getEstimate(REMOTE_SOCKET_1).getStrongRtt());
+    }
+
+
+    @Test
+    public void testAmbiguousMeasurementsAreIgnored() {
+        this.estimator.processAcknowledgement(REMOTE_SOCKET_1, 10, MAX_RETRANSMISSIONS + 1);
+
+        Assert.assertNull(this.estimator.getEstimate(REMOTE_SOCKET_1));
+        Assert.assertEquals(ACK_TIMEOUT_MILLIS, this.estimator.getRetransmissionTimeout(REMOTE_SOCKET_1));
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright (c) 2016, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uzl.itm.ncoap.message;
+
+import com.google.common.collect.SetMultimap;
+import de.uzl.itm.ncoap.AbstractCoapTest;
+import de.uzl.itm.ncoap.message.options.ContentFormat;
+import de.uzl.itm.ncoap.message.options.Option;
+import de.uzl.itm.ncoap.message.options.OptionValue;
+import de.uzl.itm.ncoap.message.options.StringOptionValue;
+import de.uzl.itm.ncoap.message.options.UintOptionValue;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.Iterator;
+
+/**
+ * Tests for the array-backed option storage of {@link CoapMessage}s
+ */
+public class OptionTableTest extends AbstractCoapTest {
+
+    @Override
+    public void setupLogging() throws Exception {
+
+    }
+
+
+    @Test
+    public void testOptionsAreSortedAndKeepInsertionOrder() throws Exception {
+        URI targetUri = new URI("coap", null, "localhost", 5683, "/path/to/service", "a=1&b=2", null);
+        CoapRequest coapRequest = new CoapRequest(MessageType.CON, MessageCode.GET, targetUri);
+        coapRequest.setAccept(ContentFormat.APP_JSON);
+
+        OptionTable options = coapRequest.getOptionTable();
+        for(int i = 1; i < options.size(); i++) {
+            Assert.assertTrue(options.getNumber(i - 1) <= options.getNumber(i));
+        }
+
+        Iterator<OptionValue> pathSegments = coapRequest.getOptions(Option.URI_PATH).iterator();
+        Assert.assertEquals("path", pathSegments.next().getDecodedValue());
+        Assert.assertEquals("to", pathSegments.next().getDecodedValue());
+        Assert.assertEquals("service", pathSegments.next().getDecodedValue());
+        Assert.assertFalse(pathSegments.hasNext());
+
+        Assert.assertEquals(options.size(), coapRequest.getAllOptions().size());
+    }
+
+
+    @Test
+    public void testCachedUintValuesAreUpdated() throws Exception {
+        CoapResponse coapResponse = new CoapResponse(MessageType.NON, MessageCode.CONTENT_205);
+        Assert.assertEquals(UintOptionValue.UNDEFINED, coapResponse.getObserve());
+        Assert.assertEquals(ContentFormat.UNDEFINED, coapResponse.getContentFormat());
+
+        coapResponse.setObserve(17);
+        coapResponse.setContent("Test".getBytes(CoapMessage.CHARSET), ContentFormat.TEXT_PLAIN_UTF8);
+        Assert.assertEquals(17, coapResponse.getObserve());
+        Assert.assertEquals(ContentFormat.TEXT_PLAIN_UTF8, coapResponse.getContentFormat());
+
+        coapResponse.setObserve(18);
+        Assert.assertEquals(18, coapResponse.getObserve());
+
+        Assert.assertEquals(1, coapResponse.removeOptions(Option.OBSERVE));
+        Assert.assertEquals(UintOptionValue.UNDEFINED, coapResponse.getObserve());
+        Assert.assertEquals(ContentFormat.TEXT_PLAIN_UTF8, coapResponse.getContentFormat());
+    }
+
+
+    @Test
+    public void testEqualValuesAreContainedOnlyOnce() throws Exception {
+        OptionTable options = new OptionTable();
+        Assert.assertTrue(options.put(Option.URI_QUERY, new StringOptionValue(Option.URI_QUERY, "a=1")));
+        Assert.assertFalse(options.put(Option.URI_QUERY, new StringOptionValue(Option.URI_QUERY, "a=1")));
+        Assert.assertTrue(options.put(Option.URI_QUERY, new StringOptionValue(Option.URI_QUERY, "b=2")));
+        Assert.assertEquals(2, options.size());
+    }
+
+
+    @Test
+    public void testAllOptionsIsReadOnlyLiveView() throws Exception {
+        CoapResponse coapResponse = new CoapResponse(MessageType.NON, MessageCode.CONTENT_205);
+        SetMultimap<Integer, OptionValue> options = coapResponse.getAllOptions();
+        Assert.assertTrue(options.isEmpty());
+
+        coapResponse.setObserve(17);
+        Assert.assertEquals(1, options.size());
+        Assert.assertEquals(17L, options.get(Option.OBSERVE).iterator().next().getDecodedValue());
+
+        try {
+            options.removeAll(Option.OBSERVE);
+            Assert.fail("UnsupportedOperationException expected");
+        } catch (UnsupportedOperationException ex) {
+            Assert.assertEquals(17, coapResponse.getObserve());
+        }
+    }
+}